@@ -0,0 +1,119 @@
+/*
+ * Copyright 2013 Andrea Cisternino <a.cisternino@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package tido.scraping;
+
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.jsoup.Jsoup;
+import org.jsoup.nodes.Document;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import tido.config.ServerInfo;
+import tido.model.Ticket;
+
+/**
+ * Measures the parsing of ticket pages, from small tickets to 5 MB pages full
+ * of comments, for each built-in parser type.
+ * <br/>
+ * Run with <code>gradle jmh</code>: the gc profiler adds the bytes allocated per
+ * page (<code>gc.alloc.rate.norm</code>) next to the time per page.
+ *
+ * @author Andrea Cisternino
+ */
+@State( Scope.Benchmark )
+@BenchmarkMode( Mode.AverageTime )
+@OutputTimeUnit( TimeUnit.MICROSECONDS )
+@Warmup( iterations = 5, time = 1 )
+@Measurement( iterations = 10, time = 1 )
+@Fork( 1 )
+public class PageParserBenchmark
+{
+    /** Referenced here so the level set below is not lost if the logger is collected. */
+    private static final Logger root = Logger.getLogger( "tido" );
+
+    @Param( { "EB", "ESO" } )
+    public String type;
+
+    /** Page size in KB. */
+    @Param( { "16", "512", "5120" } )
+    public int size;
+
+    private ServerInfo server;
+    private BasePageParser parser;
+
+    private String html;
+    private Document page;
+    private String title;
+
+    //---- Lifecycle ---------------------------------------------------------------
+
+    @Setup
+    public void setUp() {
+
+        // parsers log at INFO for each page, keep the output readable
+        root.setLevel( Level.WARNING );
+
+        server = new ServerInfo();
+        server.setId( type );
+        server.setUrl( "https://tf.example.com" );
+
+        parser = (BasePageParser) PageParserRegistry.getDefault().get( server );
+
+        html = TicketPages.build( type, size );
+        page = Jsoup.parse( html );
+        title = page.title();
+    }
+
+    //---- Benchmarks --------------------------------------------------------------
+
+    /**
+     * The HTML parsing done by jsoup before a page reaches the parser, for reference.
+     */
+    @Benchmark
+    public Document jsoupParse() {
+        return Jsoup.parse( html );
+    }
+
+    @Benchmark
+    public Ticket parse() {
+        return parser.parse( page );
+    }
+
+    @Benchmark
+    public long titleRegex() {
+        return parser.extractArtifactId( title ).length()
+                + parser.extractTitle( title ).length()
+                + parser.extractKpm( title );
+    }
+
+    @Benchmark
+    public Ticket addAttachments() {
+        Ticket t = new Ticket( server );
+        parser.addAttachments( t, page, server );
+        return t;
+    }
+}
@@ -0,0 +1,121 @@
+/*
+ * Copyright 2013 Andrea Cisternino <a.cisternino@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package tido.scraping;
+
+import java.util.Random;
+
+/**
+ * Builds ticket pages shaped like the ones saved from the TeamForge servers:
+ * the ticket fields at the top followed by a long list of comments, each one
+ * with a few lines of text and sometimes an attachment.
+ * <br/>
+ * Pages are generated, instead of being stored, because real tickets can not be
+ * shared. The same seed always gives the same page.
+ *
+ * @author Andrea Cisternino
+ */
+final class TicketPages
+{
+    private static final String[] WORDS = {
+        "radio", "tuner", "reset", "after", "ensemble", "reconfig", "DAB", "PTY", "wrong",
+        "display", "shown", "trace", "attached", "please", "check", "again", "with", "the",
+        "new", "software", "version", "issue", "still", "present", "not", "reproducible"
+    };
+
+    private TicketPages() {
+    }
+
+    /**
+     * Builds a page of a server type.
+     *
+     * @param type "EB" or "ESO".
+     * @param kilobytes the approximate size of the page.
+     * @return the HTML of the page.
+     */
+    static String build(String type, int kilobytes) {
+
+        boolean eb = "EB".equals( type );
+        Random rnd = new Random( 42 );
+        StringBuilder sb = new StringBuilder( kilobytes * 1024 + 4096 );
+
+        sb.append( "<!DOCTYPE html>\n<html><head>" )
+          .append( "<title>TeamForge : artf73126: [KPM] DAB:PTY falsch angezeigt über Ensemble reconfig [5898943]</title>" )
+          .append( "<link rel=\"stylesheet\" href=\"/sf-images/css/main.css\"></head>\n" )
+          .append( "<body><div id=\"header\"><a href=\"/sf/sfmain/do/home\"><img src=\"/sf-images/logo.png\"></a></div>\n" )
+          .append( "<div id=\"main\"><table class=\"ItemDetail\">\n" );
+
+        // ticket fields
+        String row = eb ? " class=\"" : " id=\"";
+        sb.append( "<tr" ).append( row ).append( "artifactTrackerRow\"><td class=\"ItemDetailName\">Tracker:</td>" )
+          .append( "<td class=\"ItemDetailValue\">" ).append( eb ? "Defects" : "Change Requests" ).append( "</td></tr>\n" );
+        sb.append( "<tr" ).append( row ).append( "artifactDescriptionRow\"><td class=\"ItemDetailName\">Description:</td>" )
+          .append( "<td class=\"ItemDetailValue\">" );
+        words( sb, rnd, 120 );
+        sb.append( "</td></tr>\n" );
+
+        if ( eb ) {
+            sb.append( "</table><table id=\"fieldsColumn1\">\n" );
+            for ( String name : new String[] { "Priority", "Severity", "Analysis", "Found in" } ) {
+                sb.append( "<tr><td>" ).append( name ).append( "</td><td>:</td><td>" );
+                words( sb, rnd, name.equals( "Analysis" ) ? 80 : 2 );
+                sb.append( "</td></tr>\n" );
+            }
+        } else {
+            for ( String name : new String[] { "Comment", "Analysis" } ) {
+                sb.append( "<tr><td class=\"ItemDetailName\">" ).append( name ).append( ":</td>" )
+                  .append( "<td class=\"ItemDetailValue\"><textarea class=\"inputfield\">" );
+                words( sb, rnd, 80 );
+                sb.append( "</textarea></td></tr>\n" );
+            }
+        }
+        sb.append( "</table>\n<div id=\"comments\">\n" );
+
+        // comments up to the requested size
+        int limit = kilobytes * 1024;
+        for ( int c = 1; sb.length() < limit; c++ ) {
+
+            sb.append( "<div class=\"comment\"><div class=\"commentHeader\">" )
+              .append( "<a href=\"/sf/go/user" ).append( c % 37 ).append( "\">user" ).append( c % 37 ).append( "</a> " )
+              .append( "<span class=\"date\">2015-03-" ).append( 1 + c % 28 ).append( " 10:" ).append( 10 + c % 50 )
+              .append( "</span></div>\n<div class=\"commentText\"><p>" );
+            words( sb, rnd, 30 + rnd.nextInt( 200 ) );
+            sb.append( "</p><pre>" );
+            words( sb, rnd, rnd.nextInt( 60 ) );
+            sb.append( "</pre></div>\n" );
+
+            if ( c % 4 == 0 ) {
+                String href = "/sf/go/downloadAttachment/doc" + c;
+                sb.append( "<div class=\"attachment\"><a href=\"" ).append( href ).append( "\"><img src=\"/sf-images/attach.gif\"></a> " )
+                  .append( "<a href=\"" ).append( href ).append( "\">trace_" ).append( c ).append( ".log</a> (" )
+                  .append( 1 + rnd.nextInt( 900 ) ).append( '.' ).append( rnd.nextInt( 10 ) ).append( " KB)</div>\n" );
+            }
+            sb.append( "</div>\n" );
+        }
+
+        sb.append( "</div></div></body></html>\n" );
+
+        return sb.toString();
+    }
+
+    private static void words(StringBuilder sb, Random rnd, int count) {
+        for ( int i = 0; i < count; i++ ) {
+            if ( i > 0 ) {
+                sb.append( i % 17 == 0 ? ".\n" : " " );
+            }
+            sb.append( WORDS[ rnd.nextInt( WORDS.length ) ] );
+        }
+    }
+}
@@ -147,6 +147,7 @@ public class App extends Application
         log.info( "quitting application");
 
         config.saveConfig();
+        teamForge.close();
     }
 
     //---- Support methods ---------------------------------------------------------
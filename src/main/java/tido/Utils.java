@@ -18,6 +18,12 @@ package tido;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.nio.channels.FileChannel;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.FileSystemException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
 
 /**
  * Utility methods.
@@ -77,4 +83,98 @@ public final class Utils
     public static boolean isBlank(final String string) {
         return string == null || string.isEmpty() || string.trim().isEmpty();
     }
+
+    /**
+     * Forces the metadata of a directory (e.g. newly created or renamed entries)
+     * to the storage device.
+     * <p>
+     * Not every platform allows opening a directory: in that case the call
+     * silently does nothing.
+     *
+     * @param dir the directory to synchronize.
+     */
+    public static void syncDirectory(Path dir) {
+        try ( FileChannel ch = FileChannel.open( dir, StandardOpenOption.READ ) ) {
+            ch.force( true );
+        } catch ( IOException ex ) {
+            // not supported on this platform (e.g. Windows)
+        }
+    }
+
+    /**
+     * Renames a file without ever replacing an existing one.
+     * <p>
+     * <code>Files.move()</code> checks the target and then renames, so a file
+     * created in between by another process would be overwritten. A hard link
+     * instead fails atomically if the name is taken. File systems without hard
+     * links fall back to the plain rename.
+     *
+     * @param source the file to rename.
+     * @param target the new name, in the same file system.
+     * @throws FileAlreadyExistsException if the target exists.
+     * @throws IOException in case of other errors.
+     */
+    public static void moveNoReplace(Path source, Path target) throws IOException {
+        try {
+            Files.createLink( target, source );
+        } catch ( FileAlreadyExistsException ex ) {
+            throw ex;
+        } catch ( UnsupportedOperationException | FileSystemException ex ) {
+            // no hard links here (FAT, some network shares)
+            Files.move( source, target );
+            return;
+        }
+        Files.delete( source );
+    }
+
+    /**
+     * Returns the space available to this program on the file store holding a path.
+     * The path does not have to exist yet, its closest existing parent is used.
+     *
+     * @param path a file or directory.
+     * @return the usable space in bytes, -1 if it can not be determined.
+     */
+    public static long usableSpace(Path path) {
+        Path p = path.toAbsolutePath();
+        while ( p != null && Files.notExists( p ) ) {
+            p = p.getParent();
+        }
+        if ( p == null ) {
+            return -1;
+        }
+        try {
+            return Files.getFileStore( p ).getUsableSpace();
+        } catch ( IOException ex ) {
+            return -1;
+        }
+    }
+
+    /**
+     * Formats a number of bytes in a human readable way (e.g. "1.5 MB").
+     *
+     * @param bytes the number of bytes.
+     * @return the formatted string.
+     */
+    public static String formatSize(double bytes) {
+        final String[] units = { "B", "KB", "MB", "GB", "TB" };
+        int u = 0;
+        while ( bytes >= 1024d && u < units.length - 1 ) {
+            bytes /= 1024d;
+            u++;
+        }
+        return u == 0 ? String.format( "%.0f %s", bytes, units[u] ) : String.format( "%.1f %s", bytes, units[u] );
+    }
+
+    /**
+     * Formats a duration as "h:mm:ss" or "m:ss".
+     *
+     * @param seconds the duration in seconds.
+     * @return the formatted string.
+     */
+    public static String formatDuration(long seconds) {
+        long h = seconds / 3600;
+        long m = ( seconds % 3600 ) / 60;
+        long s = seconds % 60;
+        return h > 0 ? String.format( "%d:%02d:%02d", h, m, s ) : String.format( "%d:%02d", m, s );
+    }
 }
@@ -0,0 +1,282 @@
+/*
+ * Copyright 2013 Andrea Cisternino <a.cisternino@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package tido.archive;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * A {@link TicketArchive} in ustar format, with GNU long names.
+ * <br/>
+ * The header of an entry is written with an invalid checksum and rewritten with
+ * the size of the entry when it is committed: tar readers, and the scan of a
+ * continued archive, stop at an entry that was never committed.
+ *
+ * @author Andrea Cisternino
+ */
+class TarTicketArchive extends TicketArchive
+{
+    private static final int BLOCK = 512;
+
+    /** Length of the name field. */
+    private static final int NAME_LEN = 100;
+
+    /** Name of the pseudo-entries holding a long name. */
+    private static final String LONG_LINK = "././@LongLink";
+
+    private static final byte TYPE_FILE = '0';
+    private static final byte TYPE_LONG_NAME = 'L';
+
+    /** Largest size written in octal, 11 digits. */
+    private static final long MAX_OCTAL = 077777777777L;
+
+    //---- Lifecycle ---------------------------------------------------------------
+
+    TarTicketArchive(Path file) throws IOException {
+        super( file );
+    }
+
+    //---- TicketArchive -----------------------------------------------------------
+
+    @Override
+    public Format getFormat() {
+        return Format.TAR;
+    }
+
+    @Override
+    protected long scan() throws IOException {
+
+        long end = 0;
+        long pos = 0;
+        long size = ch.size();
+        String longName = null;
+
+        while ( pos + BLOCK <= size ) {
+
+            byte[] hdr = readAt( pos, BLOCK ).array();
+            if ( isZero( hdr ) ) {
+                // the trailer of the previous session
+                break;
+            }
+            if ( ! checksumOk( hdr ) ) {
+                if ( pos == 0 ) {
+                    throw new IOException( "not a tar file" );
+                }
+                break;
+            }
+
+            long len = parseSize( hdr );
+            long next = pos + BLOCK + padded( len );
+            if ( len < 0 || next > size ) {
+                break;
+            }
+
+            byte type = hdr[156];
+            if ( type == TYPE_LONG_NAME ) {
+                byte[] name = readAt( pos + BLOCK, (int) Math.min( len, 4096 ) ).array();
+                longName = cString( name, 0, name.length );
+            } else {
+                if ( type == TYPE_FILE || type == 0 ) {
+                    Record r = new Record( longName != null ? longName : parseName( hdr ), end );
+                    r.header = pos;
+                    r.data = pos + BLOCK;
+                    r.size = len;
+                    r.stored = len;
+                    r.time = parseOctal( hdr, 136, 12 ) * 1000;
+                    found( r );
+                }
+                // other types are not written by us, kept as they are
+                longName = null;
+                end = next;
+            }
+            pos = next;
+        }
+
+        return end;
+    }
+
+    @Override
+    protected void writeHeader(Record r) throws IOException {
+
+        byte[] name = r.name.getBytes( StandardCharsets.UTF_8 );
+
+        if ( name.length > NAME_LEN ) {
+            out.write( header( LONG_LINK, TYPE_LONG_NAME, name.length + 1, 0, true ) );
+            out.write( name );
+            out.write( new byte[(int) padded( name.length + 1 ) - name.length] );
+        }
+
+        r.header = out.position();
+        out.write( header( r.name, TYPE_FILE, 0, r.time, false ) );
+        r.data = out.position();
+    }
+
+    @Override
+    protected void finishEntry(Record r) throws IOException {
+
+        out.write( new byte[(int) ( padded( r.size ) - r.size )] );
+        out.flush();
+
+        writeAt( r.header, ByteBuffer.wrap( header( r.name, TYPE_FILE, r.size, r.time, true ) ) );
+    }
+
+    @Override
+    protected void writeTrailer(List<Record> visible) throws IOException {
+        out.write( new byte[2 * BLOCK] );
+    }
+
+    //---- Support methods ---------------------------------------------------------
+
+    /**
+     * @param name the name of the entry, truncated if too long.
+     * @param type the type of the entry.
+     * @param size the size of the entry.
+     * @param millis the modification time.
+     * @param valid false to write an invalid checksum.
+     * @return the header block.
+     */
+    static byte[] header(String name, byte type, long size, long millis, boolean valid) {
+
+        byte[] hdr = new byte[BLOCK];
+
+        byte[] bytes = name.getBytes( StandardCharsets.UTF_8 );
+        System.arraycopy( bytes, 0, hdr, 0, Math.min( bytes.length, NAME_LEN ) );
+
+        putOctal( hdr, 100, 8, 0644 );                  // mode
+        putOctal( hdr, 108, 8, 0 );                     // uid
+        putOctal( hdr, 116, 8, 0 );                     // gid
+        putSize( hdr, size );
+        putOctal( hdr, 136, 12, millis / 1000 );
+        hdr[156] = type;
+        System.arraycopy( "ustar\0".getBytes( StandardCharsets.US_ASCII ), 0, hdr, 257, 6 );
+        hdr[263] = '0';
+        hdr[264] = '0';
+
+        if ( valid ) {
+            Arrays.fill( hdr, 148, 156, (byte) ' ' );
+            putOctal( hdr, 148, 7, checksum( hdr ) );   // six digits, NUL, space
+            hdr[155] = ' ';
+        }
+
+        return hdr;
+    }
+
+    private static long padded(long len) {
+        return ( len + BLOCK - 1 ) / BLOCK * BLOCK;
+    }
+
+    private static boolean isZero(byte[] hdr) {
+        for ( byte b : hdr ) {
+            if ( b != 0 ) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static long checksum(byte[] hdr) {
+        long sum = 0;
+        for ( int i = 0; i < BLOCK; i++ ) {
+            sum += ( i >= 148 && i < 156 ) ? ' ' : hdr[i] & 0xFF;
+        }
+        return sum;
+    }
+
+    private static boolean checksumOk(byte[] hdr) {
+        return parseOctal( hdr, 148, 8 ) == checksum( hdr );
+    }
+
+    /**
+     * Writes a number in octal, zero padded and NUL terminated.
+     */
+    private static void putOctal(byte[] hdr, int off, int len, long value) {
+        String s = Long.toOctalString( value );
+        int digits = len - 1;
+        for ( int i = 0; i < digits; i++ ) {
+            int j = s.length() - digits + i;
+            hdr[off + i] = (byte) ( j < 0 ? '0' : s.charAt( j ) );
+        }
+        hdr[off + digits] = 0;
+    }
+
+    /**
+     * Writes the size, in octal or in GNU base-256 if too large.
+     */
+    private static void putSize(byte[] hdr, long size) {
+        if ( size <= MAX_OCTAL ) {
+            putOctal( hdr, 124, 12, size );
+        } else {
+            hdr[124] = (byte) 0x80;
+            for ( int i = 0; i < 8; i++ ) {
+                hdr[135 - i] = (byte) ( size >>> ( 8 * i ) );
+            }
+        }
+    }
+
+    private static long parseSize(byte[] hdr) {
+        if ( ( hdr[124] & 0x80 ) != 0 ) {
+            long size = 0;
+            for ( int i = 125; i < 136; i++ ) {
+                size = ( size << 8 ) | ( hdr[i] & 0xFF );
+            }
+            return size;
+        }
+        return parseOctal( hdr, 124, 12 );
+    }
+
+    /**
+     * @return the value of an octal field, -1 if not valid.
+     */
+    private static long parseOctal(byte[] hdr, int off, int len) {
+        long value = 0;
+        boolean digits = false;
+        for ( int i = off; i < off + len; i++ ) {
+            byte b = hdr[i];
+            if ( b >= '0' && b <= '7' ) {
+                value = ( value << 3 ) + ( b - '0' );
+                digits = true;
+            } else if ( b == 0 || b == ' ' ) {
+                if ( digits ) {
+                    break;
+                }
+            } else {
+                return -1;
+            }
+        }
+        return digits ? value : -1;
+    }
+
+    /**
+     * @return the name of an entry, with the ustar prefix.
+     */
+    private static String parseName(byte[] hdr) {
+        String name = cString( hdr, 0, NAME_LEN );
+        String prefix = cString( hdr, 345, 155 );
+        return prefix.isEmpty() ? name : prefix + "/" + name;
+    }
+
+    private static String cString(byte[] b, int off, int len) {
+        int end = off;
+        while ( end < off + len && b[end] != 0 ) {
+            end++;
+        }
+        return new String( b, off, end - off, StandardCharsets.UTF_8 );
+    }
+}
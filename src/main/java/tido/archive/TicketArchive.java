@@ -0,0 +1,671 @@
+/*
+ * Copyright 2013 Andrea Cisternino <a.cisternino@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package tido.archive;
+
+import java.io.ByteArrayInputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
+
+import tido.naming.FileNameIndex;
+
+/**
+ * A single file receiving the attachments and the fields of a ticket, instead of
+ * a ticket directory.
+ * <br/>
+ * Entries are written one at a time, straight from the network: the size and the
+ * checksum of an entry are patched into its header when it is committed, so no
+ * byte is written twice. While open, the archive is a partial file next to its
+ * final name, renamed when closed.
+ * <br/>
+ * Opening an existing archive continues it: the complete entries are kept, an
+ * entry cut by a crash and the trailer are truncated away, new entries are
+ * appended. An entry written with the name of another one replaces it, as the
+ * last entry with a name is the one extracted.
+ * <br/>
+ * The archive is thread-safe: an entry holds a lock until it is committed or
+ * aborted, other threads beginning an entry wait.
+ *
+ * @author Andrea Cisternino
+ */
+public abstract class TicketArchive implements Closeable
+{
+    private static final Logger log = Logger.getLogger( TicketArchive.class.getName() );
+
+    /** Suffix of the archives being written. */
+    public static final String PART_SUFFIX = ".part";
+
+    /** Size of the write buffer. */
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    /** The name of the complete archive. */
+    private final Path file;
+
+    /** The file written while the archive is open. */
+    private final Path part;
+
+    /** The channel writing the partial file. */
+    protected final FileChannel ch;
+
+    /** Appends to the partial file. */
+    protected final ChannelOutput out;
+
+    /** The visible entries, by lower case name. Access must be synchronized. */
+    private final Map<String, Record> entries = new LinkedHashMap<>();
+
+    /** Held by the entry being written. */
+    private final ReentrantLock writing = new ReentrantLock();
+
+    private volatile boolean closed;
+
+    //---- Format ------------------------------------------------------------------
+
+    /**
+     * The available archive formats.
+     */
+    public enum Format
+    {
+        /** Deflate for text, store for the rest. The central directory is written when closing. */
+        ZIP,
+
+        /** Uncompressed, readable also when not closed. */
+        TAR;
+
+        /**
+         * @return the extension of the archive files, with the dot.
+         */
+        public String extension() {
+            return "." + name().toLowerCase( Locale.ROOT );
+        }
+
+        /**
+         * Converts a configuration value into a format.
+         *
+         * @param name the name of the format, can be null.
+         * @param defaultFormat the format returned if the name is not valid.
+         * @return the format.
+         */
+        public static Format parse(String name, Format defaultFormat) {
+            if ( name != null ) {
+                try {
+                    return valueOf( name.trim().toUpperCase( Locale.ROOT ) );
+                } catch ( IllegalArgumentException ex ) {
+                    // fall through
+                }
+            }
+            return defaultFormat;
+        }
+    }
+
+    //---- Lifecycle ---------------------------------------------------------------
+
+    /**
+     * @param file the name of the complete archive.
+     * @throws IOException in case of errors opening the partial file.
+     */
+    protected TicketArchive(Path file) throws IOException {
+
+        this.file = file;
+        this.part = file.resolveSibling( file.getFileName() + PART_SUFFIX );
+
+        if ( Files.exists( file ) ) {
+            if ( Files.exists( part ) ) {
+                // the partial file is newer, it is the one continued
+                log.log( Level.WARNING, "{0} and {1} both exist", new Object[] { file, part.getFileName() } );
+            } else {
+                Files.move( file, part, StandardCopyOption.ATOMIC_MOVE );
+            }
+        }
+
+        ch = FileChannel.open( part, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE );
+        try {
+            long end = scan();
+            if ( end < ch.size() ) {
+                log.log( Level.INFO, "{0}: truncated at {1}", new Object[] { part.getFileName(), end } );
+                ch.truncate( end );
+            }
+            out = new ChannelOutput( ch, end );
+        } catch ( IOException | RuntimeException ex ) {
+            ch.close();
+            throw ex;
+        }
+
+        log.log( Level.FINE, "{0}: {1} entries", new Object[] { file.getFileName(), entries.size() } );
+    }
+
+    /**
+     * Opens an archive, creating it or continuing it.
+     *
+     * @param file the name of the complete archive.
+     * @param format the format of the archive.
+     * @return the archive.
+     * @throws IOException in case of errors opening the file or if it is not an archive.
+     */
+    public static TicketArchive open(Path file, Format format) throws IOException {
+        return format == Format.TAR ? new TarTicketArchive( file ) : new ZipTicketArchive( file );
+    }
+
+    //---- API ---------------------------------------------------------------------
+
+    /**
+     * @return the name of the complete archive.
+     */
+    public Path getFile() {
+        return file;
+    }
+
+    /**
+     * @return the format of the archive.
+     */
+    public abstract Format getFormat();
+
+    /**
+     * @return the names of the visible entries, in archive order.
+     */
+    public synchronized List<String> getNames() {
+        List<String> names = new ArrayList<>( entries.size() );
+        for ( Record r : entries.values() ) {
+            names.add( r.name );
+        }
+        return names;
+    }
+
+    /**
+     * Starts a new entry. The calling thread owns the archive until the entry is
+     * committed or aborted.
+     *
+     * @param name the name of the entry.
+     * @param deflate true to compress the entry, ignored by formats without compression.
+     * @param replace true to replace an entry with the same name, false to add a
+     *        "(n)" suffix to the name if taken.
+     * @return the entry.
+     * @throws IOException in case of errors writing the header, or if the archive is closed.
+     */
+    public Entry begin(String name, boolean deflate, boolean replace) throws IOException {
+
+        writing.lock();
+        try {
+            if ( closed ) {
+                throw new IOException( "archive closed: " + file.getFileName() );
+            }
+
+            Record r = new Record( replace ? name : freeName( name ), out.position() );
+            r.deflated = deflate && getFormat() == Format.ZIP;
+            r.time = System.currentTimeMillis();
+
+            writeHeader( r );
+
+            return new Entry( r );
+
+        } catch ( IOException | RuntimeException ex ) {
+            writing.unlock();
+            throw ex;
+        }
+    }
+
+    /**
+     * Writes an entry, unless an entry with the same name and content exists.
+     *
+     * @param name the name of the entry.
+     * @param data the content.
+     * @return true if the entry was written.
+     * @throws IOException in case of errors writing the archive.
+     */
+    public boolean writeIfChanged(String name, byte[] data) throws IOException {
+
+        Record saved;
+        synchronized ( this ) {
+            saved = entries.get( key( name ) );
+        }
+        if ( saved != null && saved.size == data.length && Arrays.equals( read( saved ), data ) ) {
+            log.log( Level.FINE, "unchanged: {0}", name );
+            return false;
+        }
+
+        Entry entry = begin( name, false, true );
+        try {
+            entry.getOutputStream().write( data );
+            entry.commit();
+        } finally {
+            entry.abort();
+        }
+
+        return true;
+    }
+
+    /**
+     * Writes the trailer, makes the archive durable and gives it its final name.
+     *
+     * @throws IOException in case of errors writing the archive.
+     */
+    @Override
+    public void close() throws IOException {
+
+        writing.lock();
+        try {
+            if ( closed ) {
+                return;
+            }
+            closed = true;
+
+            try {
+                List<Record> visible;
+                synchronized ( this ) {
+                    visible = new ArrayList<>( entries.values() );
+                }
+                writeTrailer( visible );
+                out.flush();
+                ch.force( true );
+            } finally {
+                ch.close();
+            }
+
+            Files.move( part, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE );
+            log.log( Level.FINE, "closed: {0}", file );
+
+        } finally {
+            writing.unlock();
+        }
+    }
+
+    //---- Format methods ----------------------------------------------------------
+
+    /**
+     * Reads the entries of the partial file, calling {@link #found(Record)} for each
+     * complete one.
+     *
+     * @return the offset of the first byte after the last complete entry.
+     * @throws IOException in case of errors reading the file or if it is not an archive.
+     */
+    protected abstract long scan() throws IOException;
+
+    /**
+     * Writes the header of a new entry to {@link #out}.
+     *
+     * @param r the entry, its data offset must be set.
+     * @throws IOException in case of errors writing the header.
+     */
+    protected abstract void writeHeader(Record r) throws IOException;
+
+    /**
+     * Completes an entry whose data has been written, usually patching its header.
+     *
+     * @param r the entry, with size and checksum.
+     * @throws IOException in case of errors writing the archive.
+     */
+    protected abstract void finishEntry(Record r) throws IOException;
+
+    /**
+     * Writes the end of the archive to {@link #out}.
+     *
+     * @param visible the visible entries.
+     * @throws IOException in case of errors writing the archive.
+     */
+    protected abstract void writeTrailer(List<Record> visible) throws IOException;
+
+    /**
+     * Adds an existing entry. An older entry with the same name is hidden.
+     *
+     * @param r the entry.
+     */
+    protected synchronized void found(Record r) {
+        entries.remove( key( r.name ) );
+        entries.put( key( r.name ), r );
+    }
+
+    /**
+     * Reads bytes of the archive, fully.
+     *
+     * @param pos the position of the first byte.
+     * @param len the number of bytes.
+     * @return the bytes, null if the file ends before.
+     * @throws IOException in case of errors reading the file.
+     */
+    protected ByteBuffer readAt(long pos, int len) throws IOException {
+        ByteBuffer buf = ByteBuffer.allocate( len );
+        while ( buf.hasRemaining() ) {
+            if ( ch.read( buf, pos + buf.position() ) < 0 ) {
+                return null;
+            }
+        }
+        buf.flip();
+        return buf;
+    }
+
+    /**
+     * Writes bytes inside the archive, e.g. to patch a header.
+     *
+     * @param pos the position of the first byte.
+     * @param data the bytes.
+     * @throws IOException in case of errors writing the file.
+     */
+    protected void writeAt(long pos, ByteBuffer data) throws IOException {
+        while ( data.hasRemaining() ) {
+            ch.write( data, pos + data.position() );
+        }
+    }
+
+    //---- Support methods ---------------------------------------------------------
+
+    /**
+     * Must be called holding the entry lock.
+     */
+    private synchronized String freeName(String name) {
+        String free = name;
+        for ( int copyNum = 1; entries.containsKey( key( free ) ); copyNum++ ) {
+            free = FileNameIndex.deDupName( name, copyNum );
+        }
+        return free;
+    }
+
+    /**
+     * @param r an entry.
+     * @return the content of the entry.
+     * @throws IOException in case of errors reading the archive.
+     */
+    private byte[] read(Record r) throws IOException {
+
+        if ( r.size > Integer.MAX_VALUE - 8 ) {
+            throw new IOException( "entry too large: " + r.name );
+        }
+
+        ByteBuffer raw = readAt( r.data, (int) r.stored );
+        if ( raw == null ) {
+            throw new IOException( "entry truncated: " + r.name );
+        }
+        if ( ! r.deflated ) {
+            return raw.array();
+        }
+
+        byte[] data = new byte[(int) r.size];
+        Inflater inflater = new Inflater( true );
+        try ( InflaterInputStream in = new InflaterInputStream( new ByteArrayInputStream( raw.array() ), inflater ) ) {
+            int n = 0;
+            while ( n < data.length ) {
+                int read = in.read( data, n, data.length - n );
+                if ( read < 0 ) {
+                    throw new IOException( "entry truncated: " + r.name );
+                }
+                n += read;
+            }
+        } finally {
+            inflater.end();
+        }
+        return data;
+    }
+
+    private static String key(String name) {
+        return name.toLowerCase( Locale.ROOT );
+    }
+
+    //---- Entry -------------------------------------------------------------------
+
+    /**
+     * An entry being written. Its stream must not be used after commit or abort.
+     */
+    public final class Entry
+    {
+        private final Record r;
+
+        private final CRC32 crc = new CRC32();
+
+        private final Deflater deflater;
+
+        /** Compresses the data, null if stored. */
+        private final DeflaterOutputStream deflating;
+
+        private final OutputStream data;
+
+        private boolean done;
+
+        private Entry(Record r) {
+
+            this.r = r;
+
+            if ( r.deflated ) {
+                deflater = new Deflater( Deflater.BEST_SPEED, true );
+                deflating = new DeflaterOutputStream( out, deflater, BUFFER_SIZE );
+            } else {
+                deflater = null;
+                deflating = null;
+            }
+
+            final OutputStream target = deflating != null ? deflating : out;
+            data = new OutputStream() {
+                @Override
+                public void write(int b) throws IOException {
+                    target.write( b );
+                    crc.update( b );
+                    Entry.this.r.size++;
+                }
+                @Override
+                public void write(byte[] b, int off, int len) throws IOException {
+                    target.write( b, off, len );
+                    crc.update( b, off, len );
+                    Entry.this.r.size += len;
+                }
+                @Override
+                public void close() {
+                    // the entry is completed by commit() or abort()
+                }
+            };
+        }
+
+        /**
+         * @return the name of the entry, possibly de-duplicated.
+         */
+        public String getName() {
+            return r.name;
+        }
+
+        /**
+         * @return the stream receiving the content of the entry.
+         */
+        public OutputStream getOutputStream() {
+            return data;
+        }
+
+        /**
+         * Completes the entry and makes it durable. The archive is released.
+         *
+         * @throws IOException in case of errors writing the archive.
+         */
+        public void commit() throws IOException {
+
+            if ( done ) {
+                return;
+            }
+
+            if ( deflating != null ) {
+                deflating.finish();
+            }
+
+            r.stored = out.position() - r.data;
+            r.crc = crc.getValue();
+
+            finishEntry( r );
+            out.flush();
+            ch.force( false );
+
+            found( r );
+            release();
+
+            log.log( Level.FINE, "{0}: {1} bytes", new Object[] { r.name, r.size } );
+        }
+
+        /**
+         * Discards the entry, if not committed. The archive is released.
+         *
+         * @throws IOException in case of errors truncating the archive.
+         */
+        public void abort() throws IOException {
+
+            if ( done ) {
+                return;
+            }
+
+            log.log( Level.FINE, "aborted: {0}", r.name );
+            try {
+                out.discard( r.start );
+                ch.truncate( r.start );
+            } finally {
+                release();
+            }
+        }
+
+        private void release() {
+            done = true;
+            if ( deflater != null ) {
+                deflater.end();
+            }
+            writing.unlock();
+        }
+    }
+
+    //---- Record ------------------------------------------------------------------
+
+    /**
+     * The position and the metadata of an entry.
+     */
+    protected static class Record
+    {
+        /** The name of the entry. */
+        final String name;
+
+        /** The first byte of the entry, where the archive is truncated if aborted. */
+        final long start;
+
+        /** The header to patch. */
+        long header;
+
+        /** The first byte of the data. */
+        long data;
+
+        /** Uncompressed size. */
+        long size;
+
+        /** Stored size. */
+        long stored;
+
+        /** CRC-32 of the uncompressed data, zip only. */
+        long crc;
+
+        boolean deflated;
+
+        /** Modification time, in milliseconds. */
+        long time;
+
+        Record(String name, long start) {
+            this.name = name;
+            this.start = start;
+            this.header = start;
+        }
+    }
+
+    //---- ChannelOutput -----------------------------------------------------------
+
+    /**
+     * A buffered stream appending to the archive, that knows its position.
+     */
+    protected static class ChannelOutput extends OutputStream
+    {
+        private final FileChannel ch;
+
+        private final ByteBuffer buf = ByteBuffer.allocate( BUFFER_SIZE );
+
+        /** Position of the first byte in the buffer. */
+        private long pos;
+
+        ChannelOutput(FileChannel ch, long pos) {
+            this.ch = ch;
+            this.pos = pos;
+        }
+
+        /**
+         * @return the position of the next byte written.
+         */
+        public long position() {
+            return pos + buf.position();
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            if ( ! buf.hasRemaining() ) {
+                flush();
+            }
+            buf.put( (byte) b );
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            if ( len > buf.remaining() ) {
+                flush();
+            }
+            if ( len >= buf.capacity() ) {
+                ByteBuffer data = ByteBuffer.wrap( b, off, len );
+                while ( data.hasRemaining() ) {
+                    pos += ch.write( data, pos );
+                }
+            } else {
+                buf.put( b, off, len );
+            }
+        }
+
+        @Override
+        public void flush() throws IOException {
+            buf.flip();
+            while ( buf.hasRemaining() ) {
+                pos += ch.write( buf, pos );
+            }
+            buf.clear();
+        }
+
+        /**
+         * Drops the buffered bytes and moves back.
+         *
+         * @param position the position of the next byte written.
+         */
+        void discard(long position) {
+            buf.clear();
+            pos = position;
+        }
+
+        @Override
+        public void close() {
+            // the channel is closed by the archive
+        }
+    }
+}
@@ -0,0 +1,314 @@
+/*
+ * Copyright 2013 Andrea Cisternino <a.cisternino@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package tido.archive;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.Calendar;
+import java.util.GregorianCalendar;
+import java.util.List;
+
+/**
+ * A {@link TicketArchive} in zip format.
+ * <br/>
+ * Every header carries a zip64 extra field, so entries of any size are written the
+ * same way and their sizes can be patched in place. The sizes stay invalid until
+ * the entry is committed, which is how an entry cut by a crash is recognized.
+ * The central directory is written when the archive is closed and truncated
+ * away when it is continued.
+ *
+ * @author Andrea Cisternino
+ */
+class ZipTicketArchive extends TicketArchive
+{
+    private static final int LOCAL_SIG = 0x04034b50;
+    private static final int CENTRAL_SIG = 0x02014b50;
+    private static final int END_SIG = 0x06054b50;
+    private static final int ZIP64_END_SIG = 0x06064b50;
+    private static final int ZIP64_LOCATOR_SIG = 0x07064b50;
+
+    /** Version 4.5, needed by zip64. */
+    private static final short VERSION = 45;
+
+    /** Names are UTF-8. */
+    private static final short FLAG_UTF8 = 0x0800;
+
+    /** Sizes are in a data descriptor, not supported. */
+    private static final short FLAG_DESCRIPTOR = 0x0008;
+
+    private static final short STORED = 0;
+    private static final short DEFLATED = 8;
+
+    private static final short ZIP64_EXTRA = 0x0001;
+
+    private static final int LOCAL_LEN = 30;
+
+    /** The zip64 field of a local header: id, length, size and stored size. */
+    private static final int LOCAL_EXTRA_LEN = 20;
+
+    private static final long MAGIC32 = 0xFFFFFFFFL;
+
+    //---- Lifecycle ---------------------------------------------------------------
+
+    ZipTicketArchive(Path file) throws IOException {
+        super( file );
+    }
+
+    //---- TicketArchive -----------------------------------------------------------
+
+    @Override
+    public Format getFormat() {
+        return Format.ZIP;
+    }
+
+    @Override
+    protected long scan() throws IOException {
+
+        long end = 0;
+        long size = ch.size();
+
+        while ( end + LOCAL_LEN <= size ) {
+
+            ByteBuffer hdr = readAt( end, LOCAL_LEN ).order( ByteOrder.LITTLE_ENDIAN );
+            if ( hdr.getInt( 0 ) != LOCAL_SIG ) {
+                if ( end == 0 && hdr.getInt( 0 ) != END_SIG ) {
+                    throw new IOException( "not a zip file" );
+                }
+                // the central directory of the previous session
+                break;
+            }
+
+            int flags = hdr.getShort( 6 ) & 0xFFFF;
+            int method = hdr.getShort( 8 ) & 0xFFFF;
+            int dosTime = hdr.getInt( 10 );
+            long crc = hdr.getInt( 14 ) & MAGIC32;
+            long stored = hdr.getInt( 18 ) & MAGIC32;
+            long usize = hdr.getInt( 22 ) & MAGIC32;
+            int nameLen = hdr.getShort( 26 ) & 0xFFFF;
+            int extraLen = hdr.getShort( 28 ) & 0xFFFF;
+
+            if ( ( flags & FLAG_DESCRIPTOR ) != 0 || ( method != STORED && method != DEFLATED ) ) {
+                break;
+            }
+
+            ByteBuffer var = readAt( end + LOCAL_LEN, nameLen + extraLen );
+            if ( var == null ) {
+                break;
+            }
+            var.order( ByteOrder.LITTLE_ENDIAN );
+
+            byte[] name = new byte[nameLen];
+            var.get( name );
+
+            if ( stored == MAGIC32 || usize == MAGIC32 ) {
+                // the real sizes are in the zip64 field, still invalid if not committed
+                ByteBuffer zip64 = findExtra( var, ZIP64_EXTRA );
+                if ( zip64 == null || zip64.remaining() < 16 ) {
+                    break;
+                }
+                usize = zip64.getLong();
+                stored = zip64.getLong();
+                if ( usize < 0 || stored < 0 ) {
+                    break;
+                }
+            }
+
+            long data = end + LOCAL_LEN + nameLen + extraLen;
+            if ( data + stored > size ) {
+                break;
+            }
+
+            Record r = new Record( new String( name, StandardCharsets.UTF_8 ), end );
+            r.data = data;
+            r.size = usize;
+            r.stored = stored;
+            r.crc = crc;
+            r.deflated = method == DEFLATED;
+            r.time = fromDosTime( dosTime );
+            found( r );
+
+            end = data + stored;
+        }
+
+        return end;
+    }
+
+    @Override
+    protected void writeHeader(Record r) throws IOException {
+
+        byte[] name = r.name.getBytes( StandardCharsets.UTF_8 );
+
+        ByteBuffer hdr = ByteBuffer.allocate( LOCAL_LEN + name.length + LOCAL_EXTRA_LEN ).order( ByteOrder.LITTLE_ENDIAN );
+        hdr.putInt( LOCAL_SIG );
+        hdr.putShort( VERSION );
+        hdr.putShort( FLAG_UTF8 );
+        hdr.putShort( r.deflated ? DEFLATED : STORED );
+        hdr.putInt( toDosTime( r.time ) );
+        hdr.putInt( 0 );                        // crc, patched
+        hdr.putInt( (int) MAGIC32 );            // sizes in the zip64 field
+        hdr.putInt( (int) MAGIC32 );
+        hdr.putShort( (short) name.length );
+        hdr.putShort( (short) LOCAL_EXTRA_LEN );
+        hdr.put( name );
+        hdr.putShort( ZIP64_EXTRA );
+        hdr.putShort( (short) 16 );
+        hdr.putLong( -1 );                      // size, patched
+        hdr.putLong( -1 );                      // stored size, patched
+
+        r.header = out.position();
+        out.write( hdr.array() );
+        r.data = out.position();
+    }
+
+    @Override
+    protected void finishEntry(Record r) throws IOException {
+
+        out.flush();
+
+        ByteBuffer crc = ByteBuffer.allocate( 4 ).order( ByteOrder.LITTLE_ENDIAN );
+        crc.putInt( (int) r.crc ).flip();
+        writeAt( r.header + 14, crc );
+
+        ByteBuffer sizes = ByteBuffer.allocate( 16 ).order( ByteOrder.LITTLE_ENDIAN );
+        sizes.putLong( r.size ).putLong( r.stored ).flip();
+        writeAt( r.data - 16, sizes );
+    }
+
+    @Override
+    protected void writeTrailer(List<Record> visible) throws IOException {
+
+        long cdStart = out.position();
+
+        for ( Record r : visible ) {
+            byte[] name = r.name.getBytes( StandardCharsets.UTF_8 );
+
+            ByteBuffer hdr = ByteBuffer.allocate( 46 + name.length + 28 ).order( ByteOrder.LITTLE_ENDIAN );
+            hdr.putInt( CENTRAL_SIG );
+            hdr.putShort( VERSION );            // made by
+            hdr.putShort( VERSION );            // needed
+            hdr.putShort( FLAG_UTF8 );
+            hdr.putShort( r.deflated ? DEFLATED : STORED );
+            hdr.putInt( toDosTime( r.time ) );
+            hdr.putInt( (int) r.crc );
+            hdr.putInt( (int) MAGIC32 );        // sizes and offset in the zip64 field
+            hdr.putInt( (int) MAGIC32 );
+            hdr.putShort( (short) name.length );
+            hdr.putShort( (short) 28 );
+            hdr.putShort( (short) 0 );          // comment
+            hdr.putShort( (short) 0 );          // disk
+            hdr.putShort( (short) 0 );          // internal attributes
+            hdr.putInt( 0 );                    // external attributes
+            hdr.putInt( (int) MAGIC32 );
+            hdr.put( name );
+            hdr.putShort( ZIP64_EXTRA );
+            hdr.putShort( (short) 24 );
+            hdr.putLong( r.size );
+            hdr.putLong( r.stored );
+            hdr.putLong( r.header );
+
+            out.write( hdr.array() );
+        }
+
+        long cdEnd = out.position();
+        long cdSize = cdEnd - cdStart;
+        boolean zip64 = visible.size() >= 0xFFFF || cdStart >= MAGIC32 || cdSize >= MAGIC32;
+
+        if ( zip64 ) {
+            ByteBuffer end64 = ByteBuffer.allocate( 56 + 20 ).order( ByteOrder.LITTLE_ENDIAN );
+            end64.putInt( ZIP64_END_SIG );
+            end64.putLong( 44 );
+            end64.putShort( VERSION );
+            end64.putShort( VERSION );
+            end64.putInt( 0 );
+            end64.putInt( 0 );
+            end64.putLong( visible.size() );
+            end64.putLong( visible.size() );
+            end64.putLong( cdSize );
+            end64.putLong( cdStart );
+
+            end64.putInt( ZIP64_LOCATOR_SIG );
+            end64.putInt( 0 );
+            end64.putLong( cdEnd );
+            end64.putInt( 1 );
+
+            out.write( end64.array() );
+        }
+
+        ByteBuffer end = ByteBuffer.allocate( 22 ).order( ByteOrder.LITTLE_ENDIAN );
+        end.putInt( END_SIG );
+        end.putShort( (short) 0 );
+        end.putShort( (short) 0 );
+        end.putShort( (short) ( zip64 ? 0xFFFF : visible.size() ) );
+        end.putShort( (short) ( zip64 ? 0xFFFF : visible.size() ) );
+        end.putInt( (int) ( zip64 ? MAGIC32 : cdSize ) );
+        end.putInt( (int) ( zip64 ? MAGIC32 : cdStart ) );
+        end.putShort( (short) 0 );
+
+        out.write( end.array() );
+    }
+
+    //---- Support methods ---------------------------------------------------------
+
+    /**
+     * @param extra the extra fields, positioned at the first one.
+     * @param id the id of the wanted field.
+     * @return the data of the field, null if not found.
+     */
+    private static ByteBuffer findExtra(ByteBuffer extra, short id) {
+        while ( extra.remaining() >= 4 ) {
+            short fid = extra.getShort();
+            int len = extra.getShort() & 0xFFFF;
+            if ( len > extra.remaining() ) {
+                return null;
+            }
+            if ( fid == id ) {
+                ByteBuffer data = extra.slice().order( ByteOrder.LITTLE_ENDIAN );
+                data.limit( len );
+                return data;
+            }
+            extra.position( extra.position() + len );
+        }
+        return null;
+    }
+
+    /**
+     * @param millis a time.
+     * @return the time in MS-DOS format: date in the high half, time in the low half.
+     */
+    static int toDosTime(long millis) {
+        Calendar c = new GregorianCalendar();
+        c.setTimeInMillis( millis );
+        int year = c.get( Calendar.YEAR );
+        if ( year < 1980 ) {
+            return ( 1 << 21 ) | ( 1 << 16 );
+        }
+        return ( year - 1980 ) << 25 | ( c.get( Calendar.MONTH ) + 1 ) << 21 | c.get( Calendar.DAY_OF_MONTH ) << 16
+                | c.get( Calendar.HOUR_OF_DAY ) << 11 | c.get( Calendar.MINUTE ) << 5 | c.get( Calendar.SECOND ) >> 1;
+    }
+
+    /**
+     * @param dosTime a time in MS-DOS format.
+     * @return the time in milliseconds.
+     */
+    static long fromDosTime(int dosTime) {
+        Calendar c = new GregorianCalendar( ( ( dosTime >> 25 ) & 0x7F ) + 1980, ( ( dosTime >> 21 ) & 0x0F ) - 1,
+                ( dosTime >> 16 ) & 0x1F, ( dosTime >> 11 ) & 0x1F, ( dosTime >> 5 ) & 0x3F, ( dosTime << 1 ) & 0x3E );
+        return c.getTimeInMillis();
+    }
+}
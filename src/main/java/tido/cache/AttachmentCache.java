@@ -0,0 +1,347 @@
+/*
+ * Copyright 2013 Andrea Cisternino <a.cisternino@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package tido.cache;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.FileTime;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import javax.xml.bind.DatatypeConverter;
+
+/**
+ * A directory of attachments shared by several users, e.g. on a file server.
+ * <br/>
+ * Each attachment is stored in two files named after the hash of its URL: the data
+ * and a small properties file with the URL, the size, the validator (ETag or
+ * Last-Modified) and the original name. The data is written first, so a reader
+ * finding the properties always finds complete data.
+ * <br/>
+ * Writers never share files: everything is written to a temporary file and then
+ * renamed, so concurrent writers of the same attachment just replace each other's
+ * identical copy. Errors are logged and never fatal, the cache is only a shortcut.
+ * <br/>
+ * When the data exceeds the maximum size the least recently used attachments are
+ * deleted. Every hit refreshes the modification time of the data.
+ *
+ * @author Andrea Cisternino
+ */
+public class AttachmentCache
+{
+    private static final Logger log = Logger.getLogger( AttachmentCache.class.getName() );
+
+    private static final String DATA_SUFFIX = ".data";
+    private static final String META_SUFFIX = ".meta";
+    private static final String TMP_PREFIX  = "tmp-";
+
+    /** Temporary files older than this were left by a writer that died. */
+    private static final long STALE_TMP_MS = TimeUnit.DAYS.toMillis( 1 );
+
+    private final Path dir;
+
+    private final long maxSize;
+
+    //---- Lifecycle ---------------------------------------------------------------
+
+    /**
+     * @param dir the shared directory, created if missing.
+     * @param maxSize the maximum size of the stored data in bytes.
+     */
+    public AttachmentCache(Path dir, long maxSize) {
+        this.dir = dir;
+        this.maxSize = maxSize;
+    }
+
+    //---- API ---------------------------------------------------------------------
+
+    /**
+     * Looks for an attachment in the cache.
+     *
+     * @param url the URL of the attachment.
+     * @return the cached entry, null if missing or unreadable.
+     */
+    public Entry lookup(String url) {
+
+        String key = key( url );
+        Path meta = dir.resolve( key + META_SUFFIX );
+        Path data = dir.resolve( key + DATA_SUFFIX );
+
+        Properties props = new Properties();
+        try ( Reader in = Files.newBufferedReader( meta, StandardCharsets.UTF_8 ) ) {
+            props.load( in );
+        } catch ( NoSuchFileException ex ) {
+            return null;
+        } catch ( IOException | IllegalArgumentException ex ) {
+            log.log( Level.WARNING, "reading {0}: {1}", new Object[] { meta, ex.toString() } );
+            return null;
+        }
+
+        // a hash collision or an entry being replaced
+        if ( ! url.equals( props.getProperty( "url" ) ) ) {
+            return null;
+        }
+
+        try {
+            long size = Long.parseLong( props.getProperty( "size", "-1" ) );
+            if ( size < 0 || Files.size( data ) != size ) {
+                return null;
+            }
+            return new Entry( data, props.getProperty( "name" ), size, props.getProperty( "validator" ) );
+        } catch ( IOException | NumberFormatException ex ) {
+            return null;
+        }
+    }
+
+    /**
+     * Marks an entry as recently used.
+     *
+     * @param entry the entry found by {@link #lookup(String)}.
+     */
+    public void touch(Entry entry) {
+        try {
+            Files.setLastModifiedTime( entry.getData(), FileTime.fromMillis( System.currentTimeMillis() ) );
+        } catch ( IOException ex ) {
+            log.log( Level.FINE, "touching {0}: {1}", new Object[] { entry.getData(), ex.toString() } );
+        }
+    }
+
+    /**
+     * Copies a downloaded attachment in the cache, replacing an older copy.
+     * Entries are evicted if the cache grows too big.
+     *
+     * @param url the URL of the attachment.
+     * @param file the downloaded file.
+     * @param name the original name of the attachment.
+     * @param validator the ETag or Last-Modified of the attachment, can be null.
+     */
+    public void store(String url, Path file, String name, String validator) {
+
+        String key = key( url );
+        Path tmpData = null;
+        Path tmpMeta = null;
+
+        try {
+            Files.createDirectories( dir );
+
+            tmpData = Files.createTempFile( dir, TMP_PREFIX, DATA_SUFFIX );
+            Files.copy( file, tmpData, StandardCopyOption.REPLACE_EXISTING );
+            force( tmpData );
+
+            Properties props = new Properties();
+            props.setProperty( "url", url );
+            props.setProperty( "size", Long.toString( Files.size( tmpData ) ) );
+            props.setProperty( "name", name );
+            if ( validator != null ) {
+                props.setProperty( "validator", validator );
+            }
+
+            tmpMeta = Files.createTempFile( dir, TMP_PREFIX, META_SUFFIX );
+            try ( Writer out = Files.newBufferedWriter( tmpMeta, StandardCharsets.UTF_8 ) ) {
+                props.store( out, null );
+            }
+            force( tmpMeta );
+
+            // data first: the properties announce a complete entry
+            Files.deleteIfExists( dir.resolve( key + META_SUFFIX ) );
+            Files.move( tmpData, dir.resolve( key + DATA_SUFFIX ), StandardCopyOption.REPLACE_EXISTING );
+            Files.move( tmpMeta, dir.resolve( key + META_SUFFIX ), StandardCopyOption.REPLACE_EXISTING );
+
+            log.log( Level.FINE, "stored {0} as {1}", new Object[] { name, key } );
+
+        } catch ( IOException | RuntimeException ex ) {
+            // probably someone else is reading or writing the same entry
+            log.log( Level.WARNING, "caching {0}: {1}", new Object[] { name, ex.toString() } );
+            deleteQuietly( tmpData );
+            deleteQuietly( tmpMeta );
+            return;
+        }
+
+        evict();
+    }
+
+    /**
+     * Deletes the least recently used entries until the data fits in the maximum
+     * size, and the temporary files left by writers that died.
+     */
+    public void evict() {
+
+        List<Path> entries = new ArrayList<>();
+        final List<FileTime> times = new ArrayList<>();
+        List<Long> sizes = new ArrayList<>();
+        long total = 0;
+        long now = System.currentTimeMillis();
+
+        try ( DirectoryStream<Path> files = Files.newDirectoryStream( dir ) ) {
+            for ( Path file : files ) {
+                String fname = file.getFileName().toString();
+                try {
+                    if ( fname.startsWith( TMP_PREFIX ) ) {
+                        if ( now - Files.getLastModifiedTime( file ).toMillis() > STALE_TMP_MS ) {
+                            deleteQuietly( file );
+                        }
+                    } else if ( fname.endsWith( DATA_SUFFIX ) ) {
+                        long size = Files.size( file );
+                        entries.add( file );
+                        times.add( Files.getLastModifiedTime( file ) );
+                        sizes.add( size );
+                        total += size;
+                    }
+                } catch ( IOException ex ) {
+                    // deleted by someone else meanwhile
+                }
+            }
+        } catch ( IOException ex ) {
+            log.log( Level.WARNING, "listing cache: {0}", ex.toString() );
+            return;
+        }
+
+        if ( total <= maxSize ) {
+            return;
+        }
+
+        // oldest first
+        List<Integer> order = new ArrayList<>();
+        for ( int i = 0; i < entries.size(); i++ ) {
+            order.add( i );
+        }
+        Collections.sort( order, new Comparator<Integer>() {
+            @Override
+            public int compare(Integer a, Integer b) {
+                return times.get( a ).compareTo( times.get( b ) );
+            }
+        } );
+
+        for ( int i : order ) {
+            if ( total <= maxSize ) {
+                break;
+            }
+            Path data = entries.get( i );
+            String fname = data.getFileName().toString();
+            String key = fname.substring( 0, fname.length() - DATA_SUFFIX.length() );
+
+            // properties first, so nobody finds an entry without data
+            deleteQuietly( dir.resolve( key + META_SUFFIX ) );
+            deleteQuietly( data );
+            total -= sizes.get( i );
+
+            log.log( Level.FINE, "evicted: {0}", key );
+        }
+    }
+
+    /**
+     * @return the shared directory.
+     */
+    public Path getDir() {
+        return dir;
+    }
+
+    //---- Support methods ---------------------------------------------------------
+
+    static String key(String url) {
+        try {
+            byte[] hash = MessageDigest.getInstance( "SHA-1" ).digest( url.getBytes( StandardCharsets.UTF_8 ) );
+            return DatatypeConverter.printHexBinary( hash ).toLowerCase();
+        } catch ( NoSuchAlgorithmException ex ) {
+            // every JVM supports SHA-1
+            throw new IllegalStateException( ex );
+        }
+    }
+
+    private static void force(Path file) throws IOException {
+        try ( FileChannel ch = FileChannel.open( file, StandardOpenOption.WRITE ) ) {
+            ch.force( true );
+        }
+    }
+
+    private static void deleteQuietly(Path file) {
+        if ( file == null ) {
+            return;
+        }
+        try {
+            Files.deleteIfExists( file );
+        } catch ( IOException ex ) {
+            log.log( Level.FINE, "deleting {0}: {1}", new Object[] { file, ex.toString() } );
+        }
+    }
+
+    //---- Entry -------------------------------------------------------------------
+
+    /**
+     * An attachment found in the cache.
+     */
+    public static final class Entry
+    {
+        private final Path data;
+        private final String name;
+        private final long size;
+        private final String validator;
+
+        Entry(Path data, String name, long size, String validator) {
+            this.data = data;
+            this.name = name;
+            this.size = size;
+            this.validator = validator;
+        }
+
+        /**
+         * @return the file containing the attachment.
+         */
+        public Path getData() {
+            return data;
+        }
+
+        /**
+         * @return the original name of the attachment.
+         */
+        public String getName() {
+            return name;
+        }
+
+        public long getSize() {
+            return size;
+        }
+
+        /**
+         * @return the ETag or Last-Modified of the attachment, null if unknown.
+         */
+        public String getValidator() {
+            return validator;
+        }
+
+        @Override
+        public String toString() {
+            return "Entry{" + "data=" + data + ", name=" + name + ", size=" + size + ", validator=" + validator + '}';
+        }
+    }
+}
@@ -0,0 +1,83 @@
+/*
+ * Copyright 2013 Andrea Cisternino <a.cisternino@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package tido.config;
+
+import javax.xml.bind.annotation.XmlAccessType;
+import javax.xml.bind.annotation.XmlAccessorType;
+import javax.xml.bind.annotation.XmlAttribute;
+
+/**
+ * A named set of bandwidth limits for the attachment downloads.
+ * <br/>
+ * Rates are in KiB/s, 0 means unlimited.
+ *
+ * @author Andrea Cisternino
+ */
+@XmlAccessorType( XmlAccessType.FIELD )
+public class BandwidthProfile {
+
+    @XmlAttribute
+    private String name;
+
+    /** Limit shared by all the downloads. */
+    @XmlAttribute( name = "global-rate" )
+    private long globalRate;
+
+    /** Limit applied to the downloads from each single server. */
+    @XmlAttribute( name = "server-rate" )
+    private long serverRate;
+
+    //---- Lifecycle ---------------------------------------------------------------
+
+    public BandwidthProfile() {
+    }
+
+    public BandwidthProfile(String name, long globalRate, long serverRate) {
+        this.name = name;
+        this.globalRate = globalRate;
+        this.serverRate = serverRate;
+    }
+
+    //---- Acessors ----------------------------------------------------------------
+
+    public String getName() {
+        return name;
+    }
+    public void setName(String name) {
+        this.name = name;
+    }
+
+    public long getGlobalRate() {
+        return globalRate;
+    }
+    public void setGlobalRate(long globalRate) {
+        this.globalRate = globalRate;
+    }
+
+    public long getServerRate() {
+        return serverRate;
+    }
+    public void setServerRate(long serverRate) {
+        this.serverRate = serverRate;
+    }
+
+    //---- Support methods ---------------------------------------------------------
+
+    @Override
+    public String toString() {
+        return "BandwidthProfile{" + "name=" + name + ", globalRate=" + globalRate + ", serverRate=" + serverRate + '}';
+    }
+}
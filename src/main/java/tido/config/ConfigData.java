@@ -15,9 +15,13 @@
  */
 package tido.config;
 
+import java.util.ArrayList;
+import java.util.List;
+
 import javax.xml.bind.annotation.XmlAccessType;
 import javax.xml.bind.annotation.XmlAccessorType;
 import javax.xml.bind.annotation.XmlElement;
+import javax.xml.bind.annotation.XmlElementWrapper;
 import javax.xml.bind.annotation.XmlRootElement;
 
 /**
@@ -28,9 +32,68 @@ import javax.xml.bind.annotation.XmlRootElement;
 @XmlAccessorType( XmlAccessType.FIELD )
 public class ConfigData {
 
+    public static final String PROFILE_FULL_SPEED = "Full speed";
+    public static final String PROFILE_BACKGROUND = "Background";
+
     @XmlElement( name = "base-dir" )
     private String baseDirectory;
 
+    @XmlElement( name = "download-threads" )
+    private int downloadThreads;
+
+    @XmlElement( name = "free-space-reserve" )
+    private long freeSpaceReserve;
+
+    @XmlElement( name = "freshness-window" )
+    private long freshnessWindow;
+
+    @XmlElement( name = "shared-cache" )
+    private String sharedCache;
+
+    @XmlElement( name = "shared-cache-size" )
+    private long sharedCacheSize;
+
+    @XmlElement( name = "compress-text" )
+    private boolean compressText;
+
+    @XmlElement( name = "compress-extensions" )
+    private String compressExtensions;
+
+    @XmlElement( name = "line-index" )
+    private Boolean lineIndex;
+
+    @XmlElement( name = "line-index-min-size" )
+    private long lineIndexMinSize;
+
+    @XmlElement( name = "extract-archives" )
+    private Boolean extractArchives;
+
+    @XmlElement( name = "extract-max-size" )
+    private long extractMaxSize;
+
+    @XmlElement( name = "post-processing-threads" )
+    private int postProcessingThreads;
+
+    @XmlElement( name = "ticket-archive" )
+    private String ticketArchive;
+
+    @XmlElement( name = "directory-layout" )
+    private String directoryLayout;
+
+    @XmlElement( name = "scheduling-policy" )
+    private String schedulingPolicy;
+
+    @XmlElement( name = "bandwidth-profile" )
+    private String bandwidthProfile;
+
+    @XmlElementWrapper( name = "bandwidth-profiles" )
+    @XmlElement( name = "profile" )
+    private List<BandwidthProfile> bandwidthProfiles;
+
+    @XmlElementWrapper( name = "skip-rules" )
+    @XmlElement( name = "rule" )
+    private List<SkipRule> skipRules;
+
     //---- Acessors ----------------------------------------------------------------
 
     public String getBaseDirectory() {
@@ -40,11 +103,223 @@ public class ConfigData {
         this.baseDirectory = baseDirectory;
     }
 
+    /**
+     * @return the name of the layout of the ticket directories, can be null.
+     */
+    public String getDirectoryLayout() {
+        return directoryLayout;
+    }
+    public void setDirectoryLayout(String directoryLayout) {
+        this.directoryLayout = directoryLayout;
+    }
+
+    /**
+     * @return the number of attachments downloaded in parallel.
+     */
+    public int getDownloadThreads() {
+        return downloadThreads <= 0 ? 3 : downloadThreads;
+    }
+    public void setDownloadThreads(int downloadThreads) {
+        this.downloadThreads = downloadThreads;
+    }
+
+    /**
+     * @return the space, in MiB, that downloads leave free on the disk.
+     */
+    public long getFreeSpaceReserve() {
+        return freeSpaceReserve <= 0 ? 100 : freeSpaceReserve;
+    }
+    public void setFreeSpaceReserve(long freeSpaceReserve) {
+        this.freeSpaceReserve = freeSpaceReserve;
+    }
+
+    /**
+     * @return the minutes during which an attachment downloaded before is not checked
+     *         again with the server, 0 to always check.
+     */
+    public long getFreshnessWindow() {
+        return Math.max( 0, freshnessWindow );
+    }
+    public void setFreshnessWindow(long freshnessWindow) {
+        this.freshnessWindow = freshnessWindow;
+    }
+
+    /**
+     * @return the directory of the attachment cache shared with other users, null if not used.
+     */
+    public String getSharedCache() {
+        return sharedCache;
+    }
+    public void setSharedCache(String sharedCache) {
+        this.sharedCache = sharedCache;
+    }
+
+    /**
+     * @return the maximum size, in MiB, of the shared attachment cache.
+     */
+    public long getSharedCacheSize() {
+        return sharedCacheSize <= 0 ? 10240 : sharedCacheSize;
+    }
+    public void setSharedCacheSize(long sharedCacheSize) {
+        this.sharedCacheSize = sharedCacheSize;
+    }
+
+    /**
+     * @return true if text attachments are stored compressed.
+     */
+    public boolean isCompressText() {
+        return compressText;
+    }
+    public void setCompressText(boolean compressText) {
+        this.compressText = compressText;
+    }
+
+    /**
+     * @return the comma separated extensions of the attachments stored compressed, can be null.
+     */
+    public String getCompressExtensions() {
+        return compressExtensions;
+    }
+    public void setCompressExtensions(String compressExtensions) {
+        this.compressExtensions = compressExtensions;
+    }
+
+    /**
+     * @return true if large text logs get a line index.
+     */
+    public boolean isLineIndex() {
+        return lineIndex == null || lineIndex;
+    }
+    public void setLineIndex(boolean lineIndex) {
+        this.lineIndex = lineIndex;
+    }
+
+    /**
+     * @return the minimum size, in MiB, of the logs that get a line index.
+     */
+    public long getLineIndexMinSize() {
+        return lineIndexMinSize <= 0 ? 64 : lineIndexMinSize;
+    }
+    public void setLineIndexMinSize(long lineIndexMinSize) {
+        this.lineIndexMinSize = lineIndexMinSize;
+    }
+
+    /**
+     * @return true if downloaded archives are extracted in the ticket directory.
+     */
+    public boolean isExtractArchives() {
+        return extractArchives == null || extractArchives;
+    }
+    public void setExtractArchives(boolean extractArchives) {
+        this.extractArchives = extractArchives;
+    }
+
+    /**
+     * @return the maximum size, in MiB, extracted from a single archive.
+     */
+    public long getExtractMaxSize() {
+        return extractMaxSize <= 0 ? 4096 : extractMaxSize;
+    }
+    public void setExtractMaxSize(long extractMaxSize) {
+        this.extractMaxSize = extractMaxSize;
+    }
+
+    /**
+     * @return the number of threads processing the downloaded attachments.
+     */
+    public int getPostProcessingThreads() {
+        return postProcessingThreads <= 0 ? 2 : postProcessingThreads;
+    }
+    public void setPostProcessingThreads(int postProcessingThreads) {
+        this.postProcessingThreads = postProcessingThreads;
+    }
+
+    /**
+     * @return the format of the archive receiving each ticket, "zip" or "tar", null to
+     *         save the tickets in directories.
+     */
+    public String getTicketArchive() {
+        return ticketArchive;
+    }
+    public void setTicketArchive(String ticketArchive) {
+        this.ticketArchive = ticketArchive;
+    }
+
+    /**
+     * @return the name of the policy deciding the order of the downloads, can be null.
+     */
+    public String getSchedulingPolicy() {
+        return schedulingPolicy;
+    }
+    public void setSchedulingPolicy(String schedulingPolicy) {
+        this.schedulingPolicy = schedulingPolicy;
+    }
+
+    public String getBandwidthProfile() {
+        return bandwidthProfile == null ? PROFILE_FULL_SPEED : bandwidthProfile;
+    }
+    public void setBandwidthProfile(String bandwidthProfile) {
+        this.bandwidthProfile = bandwidthProfile;
+    }
+
+    /**
+     * @return the configured bandwidth profiles. Defaults are created if the
+     *         configuration file does not contain any.
+     */
+    public List<BandwidthProfile> getBandwidthProfiles() {
+        if ( bandwidthProfiles == null || bandwidthProfiles.isEmpty() ) {
+            bandwidthProfiles = new ArrayList<>();
+            bandwidthProfiles.add( new BandwidthProfile( PROFILE_FULL_SPEED, 0, 0 ) );
+            bandwidthProfiles.add( new BandwidthProfile( PROFILE_BACKGROUND, 256, 128 ) );
+        }
+        return bandwidthProfiles;
+    }
+
+    /**
+     * @param name the name of a profile.
+     * @return the profile with the given name or the first one if not found.
+     *         Profiles without a name are never matched.
+     */
+    public BandwidthProfile findBandwidthProfile(String name) {
+        for ( BandwidthProfile profile : getBandwidthProfiles() ) {
+            if ( name != null && name.equals( profile.getName() ) ) {
+                return profile;
+            }
+        }
+        return getBandwidthProfiles().get( 0 );
+    }
+
+    /**
+     * @return the rules of the attachments that are not downloaded automatically.
+     */
+    public List<SkipRule> getSkipRules() {
+        if ( skipRules == null ) {
+            skipRules = new ArrayList<>();
+        }
+        return skipRules;
+    }
+
+    /**
+     * @param name the file name of an attachment.
+     * @param size the size of the attachment, -1 if unknown.
+     * @param tracker the tracker of the ticket.
+     * @return the first rule matching the attachment, null if none.
+     */
+    public SkipRule findSkipRule(String name, long size, String tracker) {
+        for ( SkipRule rule : getSkipRules() ) {
+            if ( rule.matches( name, size, tracker ) ) {
+                return rule;
+            }
+        }
+        return null;
+    }
+
     //---- Support methods ---------------------------------------------------------
 
     @Override
     public String toString() {
-        return "ConfigData{" + "baseDirectory=" + baseDirectory + '}';
+        return "ConfigData{" + "baseDirectory=" + baseDirectory + ", downloadThreads=" + downloadThreads
+                + ", schedulingPolicy=" + schedulingPolicy + ", bandwidthProfile=" + bandwidthProfile + '}';
     }
 
 }
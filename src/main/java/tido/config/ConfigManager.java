@@ -53,6 +53,7 @@ public class ConfigManager
     private static final String CONFIG_FILE   = "config.xml";
     private static final String SERVERS_FILE  = "servers.xml";
     private static final String JS_NAMER_FILE = "dir-namer.js";
+    private static final String PARSERS_FILE  = "parsers.xml";
 
     /** The main Stage of the Application. Used to display error dialogs. */
     private final Stage stage;
@@ -74,6 +75,9 @@ public class ConfigManager
     /** General application configuration. */
     private ConfigData config;
 
+    /** The page parsers defined by the user. */
+    private ParserDefinitionList parsers;
+
     /** The JavaScript naming script as a String. */
     private String jsNamingScript;
 
@@ -124,6 +128,9 @@ public class ConfigManager
         // server list
         loadServers( stage );
 
+        // page parsers, optional
+        loadParsers();
+
         return this;
     }
 
@@ -143,6 +150,13 @@ public class ConfigManager
         return config;
     }
 
+    /**
+     * @return the page parsers defined in the configuration directory, empty if none.
+     */
+    public ParserDefinitionList parsers() {
+        return parsers;
+    }
+
     /**
      * @return the namer script as String.
      */
@@ -168,6 +182,13 @@ public class ConfigManager
         }
     }
 
+    /**
+     * @return the directory that contains all configuration files.
+     */
+    public Path getConfigDir() {
+        return configDir;
+    }
+
     /**
      * @return the {@link Stage} of the application.
      */
@@ -247,6 +268,32 @@ public class ConfigManager
         }
     }
 
+    /**
+     * Loads the page parsers defined by the user. The file is optional, the
+     * built-in parsers are used without it.
+     */
+    private void loadParsers() {
+
+        Path parsersPath = configDir.resolve( PARSERS_FILE );
+        parsers = new ParserDefinitionList();
+
+        if ( Files.notExists( parsersPath ) ) {
+            log.log( Level.FINE, "not found: {0}", parsersPath );
+            return;
+        }
+
+        log.log( Level.INFO, "from {0}", parsersPath );
+
+        try {
+
+            parsers = JAXB.unmarshal( parsersPath.toUri(), ParserDefinitionList.class );
+
+        } catch ( DataBindingException ex ) {
+            log.log( Level.SEVERE, "loading parsers file:", ex.getCause() );
+            dialogs.configFileError( ex, Wait.NO );
+        }
+    }
+
     private void loadNamingScript() {
 
         Path scriptPath = configDir.resolve( JS_NAMER_FILE );
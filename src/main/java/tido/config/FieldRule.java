@@ -0,0 +1,124 @@
+/*
+ * Copyright 2013 Andrea Cisternino <a.cisternino@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package tido.config;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import javax.xml.bind.annotation.XmlAccessType;
+import javax.xml.bind.annotation.XmlAccessorType;
+import javax.xml.bind.annotation.XmlAttribute;
+import javax.xml.bind.annotation.XmlElement;
+
+/**
+ * Describes where a field of a ticket is found in its page.
+ * <br/>
+ * The selectors are CSS queries tried in order, the following ones are fallbacks
+ * used when the previous find nothing. The value is taken from one of the
+ * elements found, then optionally filtered by a regular expression: the first
+ * group if the expression has one, the whole match otherwise.
+ *
+ * @author Andrea Cisternino
+ */
+@XmlAccessorType( XmlAccessType.FIELD )
+public class FieldRule {
+
+    /** The name of the field: tracker, description, analysis or attachments. */
+    @XmlAttribute
+    private String name;
+
+    /** Which of the elements found is used, 0 is the first. */
+    @XmlAttribute
+    private int index;
+
+    /** "text", "own-text" or "attr:" followed by an attribute name. Text if not set. */
+    @XmlAttribute
+    private String value;
+
+    /** Regular expression extracting the value, can be null. */
+    @XmlAttribute
+    private String pattern;
+
+    @XmlElement( name = "selector" )
+    private List<String> selectors;
+
+    //---- Lifecycle ---------------------------------------------------------------
+
+    public FieldRule() {
+    }
+
+    public FieldRule(String name, String... selectors) {
+        this( name, 0, selectors );
+    }
+
+    public FieldRule(String name, int index, String... selectors) {
+        this.name = name;
+        this.index = index;
+        this.selectors = new ArrayList<>( Arrays.asList( selectors ) );
+    }
+
+    //---- Acessors ----------------------------------------------------------------
+
+    public String getName() {
+        return name;
+    }
+    public void setName(String name) {
+        this.name = name;
+    }
+
+    public int getIndex() {
+        return index;
+    }
+    public void setIndex(int index) {
+        this.index = index;
+    }
+
+    public String getValue() {
+        return value;
+    }
+    public void setValue(String value) {
+        this.value = value;
+    }
+
+    public String getPattern() {
+        return pattern;
+    }
+    public void setPattern(String pattern) {
+        this.pattern = pattern;
+    }
+
+    /**
+     * @return the selectors, the first one before the fallbacks. Never null.
+     */
+    public List<String> getSelectors() {
+        if ( selectors == null ) {
+            selectors = new ArrayList<>();
+        }
+        return selectors;
+    }
+    public void setSelectors(List<String> selectors) {
+        this.selectors = selectors;
+    }
+
+    //---- Support methods ---------------------------------------------------------
+
+    @Override
+    public String toString() {
+        return "FieldRule{" + "name=" + name + ", index=" + index + ", value=" + value
+                + ", pattern=" + pattern + ", selectors=" + selectors + '}';
+    }
+}
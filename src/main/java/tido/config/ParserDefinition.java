@@ -0,0 +1,81 @@
+/*
+ * Copyright 2013 Andrea Cisternino <a.cisternino@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package tido.config;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import javax.xml.bind.annotation.XmlAccessType;
+import javax.xml.bind.annotation.XmlAccessorType;
+import javax.xml.bind.annotation.XmlAttribute;
+import javax.xml.bind.annotation.XmlElement;
+
+/**
+ * The fields extracted from the ticket pages of a type of server.
+ * <br/>
+ * The type is the value of the <code>parser</code> element of the servers.
+ *
+ * @author Andrea Cisternino
+ */
+@XmlAccessorType( XmlAccessType.FIELD )
+public class ParserDefinition {
+
+    @XmlAttribute
+    private String type;
+
+    @XmlElement( name = "field" )
+    private List<FieldRule> fields;
+
+    //---- Lifecycle ---------------------------------------------------------------
+
+    public ParserDefinition() {
+    }
+
+    public ParserDefinition(String type, FieldRule... fields) {
+        this.type = type;
+        this.fields = new ArrayList<>( Arrays.asList( fields ) );
+    }
+
+    //---- Acessors ----------------------------------------------------------------
+
+    public String getType() {
+        return type;
+    }
+    public void setType(String type) {
+        this.type = type;
+    }
+
+    /**
+     * @return the fields. Never null.
+     */
+    public List<FieldRule> getFields() {
+        if ( fields == null ) {
+            fields = new ArrayList<>();
+        }
+        return fields;
+    }
+    public void setFields(List<FieldRule> fields) {
+        this.fields = fields;
+    }
+
+    //---- Support methods ---------------------------------------------------------
+
+    @Override
+    public String toString() {
+        return "ParserDefinition{" + "type=" + type + ", fields=" + fields + '}';
+    }
+}
@@ -0,0 +1,50 @@
+/*
+ * Copyright 2013 Andrea Cisternino <a.cisternino@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package tido.config;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import javax.xml.bind.annotation.XmlAccessType;
+import javax.xml.bind.annotation.XmlAccessorType;
+import javax.xml.bind.annotation.XmlElement;
+import javax.xml.bind.annotation.XmlRootElement;
+
+/**
+ * The page parsers defined by the user.
+ *
+ * @author Andrea Cisternino
+ */
+@XmlRootElement( name = "parsers" )
+@XmlAccessorType( XmlAccessType.FIELD )
+public class ParserDefinitionList
+{
+    @XmlElement( name = "parser" )
+    private List<ParserDefinition> parserList;
+
+    /**
+     * @return the parser definitions. Never null.
+     */
+    public List<ParserDefinition> getParsers() {
+        if ( parserList == null ) {
+            parserList = new ArrayList<>();
+        }
+        return parserList;
+    }
+    public void setParsers(List<ParserDefinition> parsers) {
+        this.parserList = parsers;
+    }
+}
@@ -20,6 +20,7 @@ import java.util.Map;
 
 import javax.xml.bind.annotation.XmlAccessType;
 import javax.xml.bind.annotation.XmlAccessorType;
+import javax.xml.bind.annotation.XmlElement;
 import javax.xml.bind.annotation.XmlRootElement;
 import javax.xml.bind.annotation.XmlTransient;
 
@@ -38,6 +39,13 @@ public class ServerInfo {
     private String username;
     private String password;
 
+    /** Type of the pages of this server, the id if not set. */
+    private String parser;
+
+    /** Optional download limit for this server in KiB/s, 0 means no limit. */
+    @XmlElement( name = "max-rate" )
+    private long maxRate;
+
     @XmlTransient
     private Map<String, String> session;
 
@@ -81,6 +89,28 @@ public class ServerInfo {
         this.password = password;
     }
 
+    public String getParser() {
+        return parser;
+    }
+    public void setParser(String parser) {
+        this.parser = parser;
+    }
+
+    /**
+     * @return the type of the {@link tido.scraping.PageParser} of this server. Servers
+     *         configured before the parser element existed use their id.
+     */
+    public String getParserType() {
+        return parser == null || parser.trim().isEmpty() ? id : parser;
+    }
+
+    public long getMaxRate() {
+        return maxRate;
+    }
+    public void setMaxRate(long maxRate) {
+        this.maxRate = maxRate;
+    }
+
     public Map<String, String> getSession() {
         return session;
     }
@@ -0,0 +1,208 @@
+/*
+ * Copyright 2013 Andrea Cisternino <a.cisternino@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package tido.config;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.regex.Pattern;
+
+import javax.xml.bind.annotation.XmlAccessType;
+import javax.xml.bind.annotation.XmlAccessorType;
+import javax.xml.bind.annotation.XmlAttribute;
+
+import tido.Utils;
+
+/**
+ * A rule selecting attachments that are not downloaded automatically.
+ * <br/>
+ * A rule can check the extension of the file (a comma separated list), its name
+ * (a glob pattern with <code>*</code> and <code>?</code>), its size (in MiB) and the
+ * tracker of the ticket. All the conditions set must be true for the rule to match.
+ * Names and trackers are compared ignoring case.
+ *
+ * @author Andrea Cisternino
+ */
+@XmlAccessorType( XmlAccessType.FIELD )
+public class SkipRule {
+
+    /** Comma separated extensions, without the dot. */
+    @XmlAttribute
+    private String extensions;
+
+    /** Glob pattern matched against the whole file name. */
+    @XmlAttribute
+    private String pattern;
+
+    /** Files of this size or larger match, in MiB. 0 means any size. */
+    @XmlAttribute( name = "min-size" )
+    private long minSize;
+
+    /** Name of the tracker of the ticket. */
+    @XmlAttribute
+    private String tracker;
+
+    private transient List<String> extList;
+
+    private transient Pattern regex;
+
+    //---- Lifecycle ---------------------------------------------------------------
+
+    public SkipRule() {
+    }
+
+    public SkipRule(String extensions, String pattern, long minSize, String tracker) {
+        this.extensions = extensions;
+        this.pattern = pattern;
+        this.minSize = minSize;
+        this.tracker = tracker;
+    }
+
+    //---- API ---------------------------------------------------------------------
+
+    /**
+     * Checks an attachment against the rule. An unknown size never satisfies
+     * a size condition.
+     *
+     * @param name the file name of the attachment.
+     * @param size the size of the attachment in bytes, -1 if unknown.
+     * @param ticketTracker the tracker of the ticket containing the attachment.
+     * @return true if the attachment must be skipped.
+     */
+    public boolean matches(String name, long size, String ticketTracker) {
+
+        if ( isEmpty() ) {
+            return false;
+        }
+
+        String lname = name == null ? "" : name.toLowerCase( Locale.ROOT );
+
+        if ( ! Utils.isBlank( extensions ) && ! matchesExtension( lname ) ) {
+            return false;
+        }
+
+        if ( ! Utils.isBlank( pattern ) && ! regex().matcher( lname ).matches() ) {
+            return false;
+        }
+
+        if ( minSize > 0 && ( size < 0 || size < minSize * 1024 * 1024 ) ) {
+            return false;
+        }
+
+        if ( ! Utils.isBlank( tracker ) && ! tracker.trim().equalsIgnoreCase( ticketTracker == null ? "" : ticketTracker.trim() ) ) {
+            return false;
+        }
+
+        return true;
+    }
+
+    /**
+     * @return true if no condition is set. An empty rule matches nothing.
+     */
+    public boolean isEmpty() {
+        return Utils.isBlank( extensions ) && Utils.isBlank( pattern ) && minSize <= 0 && Utils.isBlank( tracker );
+    }
+
+    //---- Acessors ----------------------------------------------------------------
+
+    public String getExtensions() {
+        return extensions;
+    }
+    public void setExtensions(String extensions) {
+        this.extensions = extensions;
+        extList = null;
+    }
+
+    public String getPattern() {
+        return pattern;
+    }
+    public void setPattern(String pattern) {
+        this.pattern = pattern;
+        regex = null;
+    }
+
+    public long getMinSize() {
+        return minSize;
+    }
+    public void setMinSize(long minSize) {
+        this.minSize = minSize;
+    }
+
+    public String getTracker() {
+        return tracker;
+    }
+    public void setTracker(String tracker) {
+        this.tracker = tracker;
+    }
+
+    //---- Support methods ---------------------------------------------------------
+
+    private boolean matchesExtension(String lname) {
+
+        if ( extList == null ) {
+            List<String> el = new ArrayList<>();
+            for ( String ext : extensions.split( "," ) ) {
+                ext = ext.trim().toLowerCase( Locale.ROOT );
+                if ( ext.startsWith( "." ) ) {
+                    ext = ext.substring( 1 );
+                }
+                if ( ! ext.isEmpty() ) {
+                    el.add( "." + ext );
+                }
+            }
+            extList = el;
+        }
+
+        // ends with, so "tar.gz" works too
+        for ( String ext : extList ) {
+            if ( lname.endsWith( ext ) ) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private Pattern regex() {
+        if ( regex == null ) {
+            regex = globToRegex( pattern.trim().toLowerCase( Locale.ROOT ) );
+        }
+        return regex;
+    }
+
+    static Pattern globToRegex(String glob) {
+        StringBuilder sb = new StringBuilder( glob.length() + 8 );
+        int start = 0;
+        for ( int i = 0; i < glob.length(); i++ ) {
+            char c = glob.charAt( i );
+            if ( c == '*' || c == '?' ) {
+                if ( i > start ) {
+                    sb.append( Pattern.quote( glob.substring( start, i ) ) );
+                }
+                sb.append( c == '*' ? ".*" : "." );
+                start = i + 1;
+            }
+        }
+        if ( start < glob.length() ) {
+            sb.append( Pattern.quote( glob.substring( start ) ) );
+        }
+        return Pattern.compile( sb.toString(), Pattern.DOTALL );
+    }
+
+    @Override
+    public String toString() {
+        return "SkipRule{" + "extensions=" + extensions + ", pattern=" + pattern + ", minSize=" + minSize + ", tracker=" + tracker + '}';
+    }
+}
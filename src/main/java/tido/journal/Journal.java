@@ -0,0 +1,433 @@
+/*
+ * Copyright 2013 Andrea Cisternino <a.cisternino@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package tido.journal;
+
+import java.io.BufferedReader;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import tido.config.ServerInfo;
+import tido.config.ServerList;
+import tido.model.AttachmentLink;
+import tido.model.AttachmentState;
+import tido.model.Ticket;
+import tido.model.TicketState;
+
+/**
+ * A write-ahead journal of the tickets in the list and of their download state.
+ * <br/>
+ * Every change is appended to a text file and forced to disk before going on, so
+ * the list and the progress of an interrupted batch can be restored when the
+ * application starts again. The file is compacted at startup and truncated when
+ * the list is cleared.
+ * <br/>
+ * Each line is a record made of tab separated fields. Tabs, newlines and
+ * backslashes in the values are escaped. A truncated last line, left by a crash
+ * while writing, is ignored.
+ *
+ * @author Andrea Cisternino
+ */
+public class Journal
+{
+    private static final Logger log = Logger.getLogger( Journal.class.getName() );
+
+    public static final String JOURNAL_FILE = "journal.log";
+
+    //---- Record types ------------------------------------------------------------
+
+    /** url, server id, id, title, kpm, tracker, description, analysis */
+    static final String TICKET = "TICKET";
+
+    /** ticket url, url, name */
+    static final String ATTACH = "ATTACH";
+
+    /** ticket url, state, path */
+    static final String STATE = "STATE";
+
+    /** ticket url, priority */
+    static final String PRIORITY = "PRIORITY";
+
+    /** ticket url, url, state, size, validator, error, attempts */
+    static final String ASTATE = "ASTATE";
+
+    /** ticket url */
+    static final String REMOVE = "REMOVE";
+
+    /** START or END */
+    static final String BATCH = "BATCH";
+
+    static final String START = "START";
+    static final String END = "END";
+
+    //---- Fields ------------------------------------------------------------------
+
+    private final Path file;
+
+    private FileOutputStream out;
+    private Writer writer;
+
+    //---- Lifecycle ---------------------------------------------------------------
+
+    /**
+     * @param file the journal file, created if missing.
+     */
+    public Journal(Path file) {
+        this.file = file;
+    }
+
+    /**
+     * Opens the journal for appending.
+     *
+     * @throws IOException if the file can not be opened.
+     */
+    public synchronized void open() throws IOException {
+        if ( writer == null ) {
+            out = new FileOutputStream( file.toFile(), true );
+            writer = new OutputStreamWriter( out, StandardCharsets.UTF_8 );
+        }
+    }
+
+    public synchronized void close() {
+        if ( writer != null ) {
+            try {
+                writer.close();
+            } catch ( IOException ex ) {
+                log.log( Level.WARNING, "closing journal:", ex );
+            }
+            writer = null;
+            out = null;
+        }
+    }
+
+    //---- API ---------------------------------------------------------------------
+
+    /**
+     * Replays the journal.
+     *
+     * @param servers the configured servers, tickets of unknown servers are dropped.
+     * @return the restored tickets and batch state.
+     * @throws IOException if the file can not be read.
+     */
+    public JournalState read(ServerList servers) throws IOException {
+
+        Map<String, Ticket> tickets = new LinkedHashMap<>();
+        boolean batchRunning = false;
+        int lines = 0;
+
+        try ( BufferedReader reader = Files.newBufferedReader( file, StandardCharsets.UTF_8 ) ) {
+
+            String line;
+            while ( ( line = reader.readLine() ) != null ) {
+                lines++;
+                String[] f = line.split( "\t", -1 );
+                for ( int i = 0; i < f.length; i++ ) {
+                    f[i] = unescape( f[i] );
+                }
+
+                try {
+                    if ( BATCH.equals( f[0] ) ) {
+                        batchRunning = START.equals( f[1] );
+                    } else if ( TICKET.equals( f[0] ) ) {
+                        Ticket ticket = newTicket( f, servers );
+                        if ( ticket != null ) {
+                            tickets.put( ticket.getUrl(), ticket );
+                        }
+                    } else if ( REMOVE.equals( f[0] ) ) {
+                        tickets.remove( f[1] );
+                    } else {
+                        Ticket ticket = tickets.get( f[1] );
+                        if ( ticket != null ) {
+                            apply( ticket, f );
+                        }
+                    }
+                } catch ( RuntimeException ex ) {
+                    // most likely the last line, cut by a crash
+                    log.log( Level.WARNING, "bad record at line {0}: {1}", new Object[] { lines, ex.toString() } );
+                }
+            }
+
+        } catch ( NoSuchFileException ex ) {
+            log.info( "no journal" );
+        }
+
+        log.log( Level.INFO, "{0} records, {1} tickets, batch running: {2}", new Object[] { lines, tickets.size(), batchRunning } );
+
+        return new JournalState( new ArrayList<>( tickets.values() ), batchRunning );
+    }
+
+    /**
+     * Replaces the journal with the minimal set of records describing the tickets.
+     * The new journal is written aside and renamed over the old one.
+     *
+     * @param tickets the tickets in the list.
+     * @throws IOException in case of errors while writing.
+     */
+    public synchronized void rewrite(Collection<Ticket> tickets) throws IOException {
+
+        boolean wasOpen = writer != null;
+        close();
+
+        Path tmp = file.resolveSibling( file.getFileName() + ".tmp" );
+
+        try ( FileOutputStream fos = new FileOutputStream( tmp.toFile() );
+              Writer w = new OutputStreamWriter( fos, StandardCharsets.UTF_8 ) ) {
+            for ( Ticket ticket : tickets ) {
+                for ( String[] record : records( ticket ) ) {
+                    writeRecord( w, record );
+                }
+            }
+            w.flush();
+            fos.getFD().sync();
+        }
+
+        Files.move( tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE );
+
+        if ( wasOpen ) {
+            open();
+        }
+    }
+
+    /**
+     * Empties the journal, called when the list is cleared.
+     */
+    public synchronized void clear() {
+        try {
+            rewrite( new ArrayList<Ticket>() );
+        } catch ( IOException ex ) {
+            log.log( Level.WARNING, "clearing journal:", ex );
+        }
+    }
+
+    //---- Recording ---------------------------------------------------------------
+
+    public synchronized void ticketAdded(Ticket ticket) {
+        for ( String[] record : records( ticket ) ) {
+            append( record );
+        }
+    }
+
+    public void ticketRemoved(Ticket ticket) {
+        append( REMOVE, ticket.getUrl() );
+    }
+
+    public void ticketState(Ticket ticket) {
+        append( stateRecord( ticket ) );
+    }
+
+    public void ticketPriority(Ticket ticket) {
+        append( PRIORITY, ticket.getUrl(), Integer.toString( ticket.getPriority() ) );
+    }
+
+    public void attachmentState(AttachmentLink link) {
+        append( attachmentStateRecord( link ) );
+    }
+
+    public void batchStarted() {
+        append( BATCH, START );
+    }
+
+    public void batchFinished() {
+        append( BATCH, END );
+    }
+
+    //---- Support methods ---------------------------------------------------------
+
+    /**
+     * Appends a record and forces it to disk.
+     */
+    private synchronized void append(String... fields) {
+        if ( writer == null ) {
+            return;
+        }
+        try {
+            writeRecord( writer, fields );
+            writer.flush();
+            out.getChannel().force( false );
+        } catch ( IOException ex ) {
+            log.log( Level.WARNING, "writing journal:", ex );
+        }
+    }
+
+    private static void writeRecord(Writer w, String[] fields) throws IOException {
+        StringBuilder sb = new StringBuilder();
+        for ( int i = 0; i < fields.length; i++ ) {
+            if ( i > 0 ) {
+                sb.append( '\t' );
+            }
+            sb.append( escape( fields[i] ) );
+        }
+        sb.append( '\n' );
+        w.write( sb.toString() );
+    }
+
+    /**
+     * All the records needed to restore a ticket.
+     */
+    private static List<String[]> records(Ticket ticket) {
+
+        List<String[]> records = new ArrayList<>();
+
+        records.add( new String[] { TICKET, ticket.getUrl(), ticket.getSource().getId(), ticket.getId(),
+                ticket.getTitle(), Long.toString( ticket.getKpm() ), ticket.getTracker(),
+                ticket.getDescription(), ticket.getAnalysis() } );
+
+        for ( AttachmentLink link : ticket.getAttachments() ) {
+            records.add( new String[] { ATTACH, ticket.getUrl(), link.getUrl(), link.getName() } );
+            if ( link.getState() != AttachmentState.PENDING || link.getSize() >= 0
+                    || link.getPartialValidator() != null || link.getError() != null
+                    || link.getAttempts() > 0 ) {
+                records.add( attachmentStateRecord( link ) );
+            }
+        }
+
+        if ( ticket.getPriority() != 0 ) {
+            records.add( new String[] { PRIORITY, ticket.getUrl(), Integer.toString( ticket.getPriority() ) } );
+        }
+        if ( ticket.isProcessed() != TicketState.NOT_PROCESSED ) {
+            records.add( stateRecord( ticket ) );
+        }
+
+        return records;
+    }
+
+    private static String[] stateRecord(Ticket ticket) {
+        return new String[] { STATE, ticket.getUrl(), ticket.isProcessed().name(),
+                ticket.getPath() == null ? null : ticket.getPath().toString() };
+    }
+
+    private static String[] attachmentStateRecord(AttachmentLink link) {
+        return new String[] { ASTATE, link.getTicket().getUrl(), link.getUrl(), link.getState().name(),
+                Long.toString( link.getSize() ), link.getPartialValidator(), link.getError(),
+                Integer.toString( link.getAttempts() ) };
+    }
+
+    private static Ticket newTicket(String[] f, ServerList servers) {
+
+        ServerInfo server = null;
+        if ( servers != null ) {
+            for ( ServerInfo si : servers.getServers() ) {
+                if ( si.getId().equals( f[2] ) ) {
+                    server = si;
+                }
+            }
+        }
+        if ( server == null ) {
+            log.log( Level.WARNING, "unknown server {0}, dropping {1}", new Object[] { f[2], f[1] } );
+            return null;
+        }
+
+        Ticket ticket = new Ticket( server );
+        ticket.setUrl( f[1] );
+        ticket.setId( f[3] );
+        ticket.setTitle( f[4] );
+        ticket.setKpm( Long.parseLong( f[5] ) );
+        ticket.setTracker( f[6] );
+        ticket.setDescription( f[7] );
+        ticket.setAnalysis( f[8] );
+
+        return ticket;
+    }
+
+    private static void apply(Ticket ticket, String[] f) {
+
+        if ( ATTACH.equals( f[0] ) ) {
+            AttachmentLink link = new AttachmentLink( ticket );
+            link.setUrl( f[2] );
+            link.setName( f[3] );
+            ticket.getAttachments().add( link );
+
+        } else if ( ASTATE.equals( f[0] ) ) {
+            for ( AttachmentLink link : ticket.getAttachments() ) {
+                if ( link.getUrl().equals( f[2] ) ) {
+                    link.setState( AttachmentState.valueOf( f[3] ) );
+                    link.setSize( Long.parseLong( f[4] ) );
+                    link.setPartialValidator( f[5] );
+                    link.setError( f.length > 6 ? f[6] : null );
+                    link.setAttempts( f.length > 7 ? Integer.parseInt( f[7] ) : 0 );
+                }
+            }
+
+        } else if ( STATE.equals( f[0] ) ) {
+            ticket.setProcessed( TicketState.valueOf( f[2] ) );
+            ticket.setPath( f[3] == null ? null : Paths.get( f[3] ) );
+            ticket.setProgress( ticket.isProcessed() == TicketState.NOT_PROCESSED ? 0d : 1d );
+
+        } else if ( PRIORITY.equals( f[0] ) ) {
+            ticket.setPriority( Integer.parseInt( f[2] ) );
+
+        } else {
+            throw new IllegalArgumentException( "unknown record: " + f[0] );
+        }
+    }
+
+    /**
+     * Escapes a value, null is written as a lone backslash.
+     */
+    static String escape(String value) {
+        if ( value == null ) {
+            return "\\";
+        }
+        StringBuilder sb = new StringBuilder( value.length() );
+        for ( int i = 0; i < value.length(); i++ ) {
+            char c = value.charAt( i );
+            switch ( c ) {
+                case '\\': sb.append( "\\\\" ); break;
+                case '\t': sb.append( "\\t" ); break;
+                case '\n': sb.append( "\\n" ); break;
+                case '\r': sb.append( "\\r" ); break;
+                default:   sb.append( c );
+            }
+        }
+        return sb.toString();
+    }
+
+    static String unescape(String value) {
+        if ( "\\".equals( value ) ) {
+            return null;
+        }
+        StringBuilder sb = new StringBuilder( value.length() );
+        for ( int i = 0; i < value.length(); i++ ) {
+            char c = value.charAt( i );
+            if ( c == '\\' && i + 1 < value.length() ) {
+                char n = value.charAt( ++i );
+                switch ( n ) {
+                    case 't': sb.append( '\t' ); break;
+                    case 'n': sb.append( '\n' ); break;
+                    case 'r': sb.append( '\r' ); break;
+                    default:  sb.append( n );
+                }
+            } else {
+                sb.append( c );
+            }
+        }
+        return sb.toString();
+    }
+}
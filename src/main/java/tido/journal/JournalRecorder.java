@@ -0,0 +1,132 @@
+/*
+ * Copyright 2013 Andrea Cisternino <a.cisternino@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package tido.journal;
+
+import javafx.beans.property.ReadOnlyProperty;
+import javafx.beans.value.ChangeListener;
+import javafx.beans.value.ObservableValue;
+import javafx.collections.ListChangeListener;
+import javafx.collections.ObservableList;
+
+import tido.model.AttachmentLink;
+import tido.model.Ticket;
+
+/**
+ * Records in a {@link Journal} the changes of a list of tickets: tickets added and
+ * removed, their state and priority, the state of their attachments.
+ * <br/>
+ * Attachment states change in the download threads, the journal is thread safe.
+ *
+ * @author Andrea Cisternino
+ */
+public class JournalRecorder
+{
+    private final Journal journal;
+
+    /** Records the ticket owning the changed property. */
+    private final ChangeListener<Object> ticketStateListener = new ChangeListener<Object>() {
+        @Override
+        public void changed(ObservableValue<? extends Object> observable, Object oldValue, Object newValue) {
+            journal.ticketState( (Ticket) ( (ReadOnlyProperty<?>) observable ).getBean() );
+        }
+    };
+
+    private final ChangeListener<Number> priorityListener = new ChangeListener<Number>() {
+        @Override
+        public void changed(ObservableValue<? extends Number> observable, Number oldValue, Number newValue) {
+            journal.ticketPriority( (Ticket) ( (ReadOnlyProperty<?>) observable ).getBean() );
+        }
+    };
+
+    /** Records the attachment owning the changed property. */
+    private final ChangeListener<Object> attachmentListener = new ChangeListener<Object>() {
+        @Override
+        public void changed(ObservableValue<? extends Object> observable, Object oldValue, Object newValue) {
+            journal.attachmentState( (AttachmentLink) ( (ReadOnlyProperty<?>) observable ).getBean() );
+        }
+    };
+
+    //---- Lifecycle ---------------------------------------------------------------
+
+    public JournalRecorder(Journal journal) {
+        this.journal = journal;
+    }
+
+    //---- API ---------------------------------------------------------------------
+
+    /**
+     * Starts recording the changes of a list. The tickets already in the list are
+     * expected to be in the journal.
+     *
+     * @param list the list of tickets.
+     */
+    public void attach(final ObservableList<Ticket> list) {
+
+        for ( Ticket ticket : list ) {
+            watch( ticket );
+        }
+
+        list.addListener( new ListChangeListener<Ticket>() {
+            @Override
+            public void onChanged(ListChangeListener.Change<? extends Ticket> change) {
+
+                if ( list.isEmpty() ) {
+                    // nothing left to restore
+                    journal.clear();
+                }
+
+                while ( change.next() ) {
+                    for ( Ticket ticket : change.getRemoved() ) {
+                        unwatch( ticket );
+                        if ( ! list.isEmpty() ) {
+                            journal.ticketRemoved( ticket );
+                        }
+                    }
+                    for ( Ticket ticket : change.getAddedSubList() ) {
+                        journal.ticketAdded( ticket );
+                        watch( ticket );
+                    }
+                }
+            }
+        } );
+    }
+
+    //---- Support methods ---------------------------------------------------------
+
+    private void watch(Ticket ticket) {
+        ticket.processedProperty().addListener( ticketStateListener );
+        ticket.pathProperty().addListener( ticketStateListener );
+        ticket.priorityProperty().addListener( priorityListener );
+        for ( AttachmentLink link : ticket.getAttachments() ) {
+            link.stateProperty().addListener( attachmentListener );
+            link.sizeProperty().addListener( attachmentListener );
+            link.partialValidatorProperty().addListener( attachmentListener );
+            link.errorProperty().addListener( attachmentListener );
+        }
+    }
+
+    private void unwatch(Ticket ticket) {
+        ticket.processedProperty().removeListener( ticketStateListener );
+        ticket.pathProperty().removeListener( ticketStateListener );
+        ticket.priorityProperty().removeListener( priorityListener );
+        for ( AttachmentLink link : ticket.getAttachments() ) {
+            link.stateProperty().removeListener( attachmentListener );
+            link.sizeProperty().removeListener( attachmentListener );
+            link.partialValidatorProperty().removeListener( attachmentListener );
+            link.errorProperty().removeListener( attachmentListener );
+        }
+    }
+}
@@ -0,0 +1,55 @@
+/*
+ * Copyright 2013 Andrea Cisternino <a.cisternino@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package tido.journal;
+
+import java.util.List;
+
+import tido.model.Ticket;
+
+/**
+ * The state restored from a {@link Journal}.
+ *
+ * @author Andrea Cisternino
+ */
+public class JournalState
+{
+    private final List<Ticket> tickets;
+
+    private final boolean batchRunning;
+
+    //---- Lifecycle ---------------------------------------------------------------
+
+    JournalState(List<Ticket> tickets, boolean batchRunning) {
+        this.tickets = tickets;
+        this.batchRunning = batchRunning;
+    }
+
+    //---- Getters -----------------------------------------------------------------
+
+    /**
+     * @return the tickets that were in the list, in list order.
+     */
+    public List<Ticket> getTickets() {
+        return tickets;
+    }
+
+    /**
+     * @return true if a batch was interrupted before its end.
+     */
+    public boolean isBatchRunning() {
+        return batchRunning;
+    }
+}
@@ -0,0 +1,142 @@
+/*
+ * Copyright 2013 Andrea Cisternino <a.cisternino@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package tido.lineindex;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.channels.Channels;
+import java.nio.channels.SeekableByteChannel;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Opens a text log at a given line or time, using its {@link LineIndex} to avoid
+ * reading the file from the beginning.
+ * <br/>
+ * An index missing, unreadable or stale (of a different length) is ignored and the
+ * file is read from the beginning instead.
+ *
+ * @author Andrea Cisternino
+ */
+public class IndexedLogReader
+{
+    private static final Logger log = Logger.getLogger( IndexedLogReader.class.getName() );
+
+    private final Path file;
+
+    private final Charset charset;
+
+    /** Null if the file has no usable index. */
+    private final LineIndex index;
+
+    //---- Lifecycle ---------------------------------------------------------------
+
+    /**
+     * @param file the log file.
+     * @param charset the encoding of the log.
+     * @throws IOException if the log can not be read.
+     */
+    public IndexedLogReader(Path file, Charset charset) throws IOException {
+        this.file = file;
+        this.charset = charset;
+        this.index = loadIndex( file );
+    }
+
+    //---- API ---------------------------------------------------------------------
+
+    /**
+     * @return the index of the file, null if it has none.
+     */
+    public LineIndex getIndex() {
+        return index;
+    }
+
+    /**
+     * Opens the log at a line.
+     *
+     * @param line the number of the line, starting from 0.
+     * @return a reader whose next line is the requested one, or empty if the log is shorter.
+     * @throws IOException in case of errors reading the file.
+     */
+    public BufferedReader openAtLine(long line) throws IOException {
+
+        int cp = index != null ? index.checkpointForLine( line ) : -1;
+
+        BufferedReader reader = open( cp < 0 ? 0 : index.getOffset( cp ) );
+        try {
+            for ( long n = cp < 0 ? 0 : index.getLine( cp ); n < line; n++ ) {
+                if ( reader.readLine() == null ) {
+                    break;
+                }
+            }
+        } catch ( IOException | RuntimeException ex ) {
+            reader.close();
+            throw ex;
+        }
+        return reader;
+    }
+
+    /**
+     * Opens the log shortly before a time. The time stamps of the log are assumed
+     * to be in order: the first line at or after the time is at most one checkpoint
+     * interval away.
+     *
+     * @param time the time in milliseconds.
+     * @return a reader positioned at the beginning of a line before the time.
+     * @throws IOException in case of errors reading the file.
+     */
+    public BufferedReader openAtTime(long time) throws IOException {
+        int cp = index != null ? index.checkpointForTime( time ) : -1;
+        return open( cp < 0 ? 0 : index.getOffset( cp ) );
+    }
+
+    //---- Support methods ---------------------------------------------------------
+
+    private BufferedReader open(long offset) throws IOException {
+        SeekableByteChannel ch = Files.newByteChannel( file );
+        try {
+            ch.position( offset );
+        } catch ( IOException ex ) {
+            ch.close();
+            throw ex;
+        }
+        return new BufferedReader( new InputStreamReader( Channels.newInputStream( ch ), charset ), 64 * 1024 );
+    }
+
+    private static LineIndex loadIndex(Path file) throws IOException {
+
+        long length = Files.size( file );
+
+        try {
+            LineIndex index = LineIndex.read( LineIndex.sidecar( file ) );
+            if ( index.getLength() != length ) {
+                log.log( Level.INFO, "stale index: {0}", file );
+                return null;
+            }
+            return index;
+        } catch ( NoSuchFileException ex ) {
+            return null;
+        } catch ( IOException ex ) {
+            log.log( Level.WARNING, "reading index: {0}", ex.toString() );
+            return null;
+        }
+    }
+}
@@ -0,0 +1,310 @@
+/*
+ * Copyright 2013 Andrea Cisternino <a.cisternino@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package tido.lineindex;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.Arrays;
+import java.util.Calendar;
+import java.util.Locale;
+
+/**
+ * A sparse index of the lines of a text file: the offset of one line every
+ * <code>interval</code> lines, the checkpoints, and the time stamp found at the
+ * beginning of each of them.
+ * <br/>
+ * The index is saved next to the file, with a <code>.lidx</code> suffix, as a
+ * small binary file:
+ * <pre>
+ * "LIDX" version:int interval:int lines:long length:long count:int
+ * offsets:long[count] times:long[count]
+ * </pre>
+ * To reach line N a reader seeks to the checkpoint before it and skips less than
+ * <code>interval</code> lines; the same for a time T, assuming the log is sorted.
+ *
+ * @author Andrea Cisternino
+ */
+public class LineIndex
+{
+    /** Suffix of the index files. */
+    public static final String SUFFIX = ".lidx";
+
+    /** Time of a checkpoint whose line does not start with a time stamp. */
+    public static final long NO_TIME = Long.MIN_VALUE;
+
+    private static final int MAGIC = 0x4C494458;    // "LIDX"
+    private static final int VERSION = 1;
+
+    private final int interval;
+    private final long lines;
+    private final long length;
+    private final long[] offsets;
+    private final long[] times;
+
+    /** The times with the gaps filled by the previous time stamp, for searching. */
+    private final long[] searchTimes;
+
+    //---- Lifecycle ---------------------------------------------------------------
+
+    LineIndex(int interval, long lines, long length, long[] offsets, long[] times) {
+        this.interval = interval;
+        this.lines = lines;
+        this.length = length;
+        this.offsets = offsets;
+        this.times = times;
+
+        searchTimes = new long[times.length];
+        long last = NO_TIME;
+        for ( int i = 0; i < times.length; i++ ) {
+            if ( times[i] != NO_TIME ) {
+                last = times[i];
+            }
+            searchTimes[i] = last;
+        }
+    }
+
+    //---- API ---------------------------------------------------------------------
+
+    /**
+     * @param file a text file.
+     * @return the path of its index.
+     */
+    public static Path sidecar(Path file) {
+        return file.resolveSibling( file.getFileName().toString() + SUFFIX );
+    }
+
+    /**
+     * Reads an index.
+     *
+     * @param file the index file.
+     * @return the index.
+     * @throws IOException if the file can not be read or is not an index.
+     */
+    public static LineIndex read(Path file) throws IOException {
+
+        try ( DataInputStream in = new DataInputStream( new BufferedInputStream( Files.newInputStream( file ) ) ) ) {
+
+            if ( in.readInt() != MAGIC || in.readInt() != VERSION ) {
+                throw new IOException( "not a line index: " + file );
+            }
+
+            int interval = in.readInt();
+            long lines = in.readLong();
+            long length = in.readLong();
+            int count = in.readInt();
+            if ( interval <= 0 || count < 0 || count > lines / interval + 1 ) {
+                throw new IOException( "corrupted line index: " + file );
+            }
+
+            long[] offsets = new long[count];
+            for ( int i = 0; i < count; i++ ) {
+                offsets[i] = in.readLong();
+            }
+            long[] times = new long[count];
+            for ( int i = 0; i < count; i++ ) {
+                times[i] = in.readLong();
+            }
+
+            return new LineIndex( interval, lines, length, offsets, times );
+        }
+    }
+
+    /**
+     * Saves the index, replacing the file atomically.
+     *
+     * @param file the index file.
+     * @throws IOException in case of errors writing the file.
+     */
+    public void write(Path file) throws IOException {
+
+        Path tmp = file.resolveSibling( file.getFileName().toString() + ".tmp" );
+
+        try ( DataOutputStream out = new DataOutputStream( new BufferedOutputStream( Files.newOutputStream( tmp ) ) ) ) {
+            out.writeInt( MAGIC );
+            out.writeInt( VERSION );
+            out.writeInt( interval );
+            out.writeLong( lines );
+            out.writeLong( length );
+            out.writeInt( offsets.length );
+            for ( long offset : offsets ) {
+                out.writeLong( offset );
+            }
+            for ( long time : times ) {
+                out.writeLong( time );
+            }
+        }
+
+        Files.move( tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE );
+    }
+
+    /**
+     * @param line a line number, starting from 0.
+     * @return the checkpoint at or before the line.
+     */
+    public int checkpointForLine(long line) {
+        if ( offsets.length == 0 ) {
+            return -1;
+        }
+        return (int) Math.min( Math.max( 0, line ) / interval, offsets.length - 1 );
+    }
+
+    /**
+     * @param time a time in milliseconds.
+     * @return the last checkpoint whose time stamp comes before the time, 0 if none.
+     */
+    public int checkpointForTime(long time) {
+        if ( offsets.length == 0 ) {
+            return -1;
+        }
+
+        // last checkpoint with a time <= time, the missing ones sort first
+        int idx = Arrays.binarySearch( searchTimes, time );
+        if ( idx >= 0 ) {
+            // several checkpoints can have the same time, start from the first
+            while ( idx > 0 && searchTimes[idx - 1] == time ) {
+                idx--;
+            }
+            return idx == 0 ? 0 : idx - 1;
+        }
+        return Math.max( 0, -idx - 2 );
+    }
+
+    /**
+     * @param checkpoint a checkpoint.
+     * @return the offset of the first byte of its line.
+     */
+    public long getOffset(int checkpoint) {
+        return offsets[checkpoint];
+    }
+
+    /**
+     * @param checkpoint a checkpoint.
+     * @return the number of its line.
+     */
+    public long getLine(int checkpoint) {
+        return (long) checkpoint * interval;
+    }
+
+    /**
+     * @param checkpoint a checkpoint.
+     * @return the time stamp at the beginning of its line, {@link #NO_TIME} if none.
+     */
+    public long getTime(int checkpoint) {
+        return times[checkpoint];
+    }
+
+    /**
+     * @return the number of checkpoints.
+     */
+    public int getCheckpoints() {
+        return offsets.length;
+    }
+
+    /**
+     * @return the number of lines between two checkpoints.
+     */
+    public int getInterval() {
+        return interval;
+    }
+
+    /**
+     * @return the number of lines of the file.
+     */
+    public long getLines() {
+        return lines;
+    }
+
+    /**
+     * @return the length of the file, an index of a different length is stale.
+     */
+    public long getLength() {
+        return length;
+    }
+
+    //---- Time stamps -------------------------------------------------------------
+
+    /**
+     * Parses the time stamp at the beginning of a line, in the local time zone.
+     * Recognized: <code>yyyy-MM-dd HH:mm:ss</code>, with 'T' or '/' separators,
+     * optionally followed by milliseconds and enclosed in square brackets.
+     *
+     * @param b the first bytes of the line.
+     * @param len the number of bytes.
+     * @param cal a calendar to compute the time with.
+     * @return the time in milliseconds, {@link #NO_TIME} if the line does not start
+     *         with a time stamp.
+     */
+    static long parseTime(byte[] b, int len, Calendar cal) {
+
+        int p = ( len > 0 && b[0] == '[' ) ? 1 : 0;
+        if ( len - p < 19 ) {
+            return NO_TIME;
+        }
+
+        int year = digits( b, p, 4 );
+        int month = digits( b, p + 5, 2 );
+        int day = digits( b, p + 8, 2 );
+        int hour = digits( b, p + 11, 2 );
+        int min = digits( b, p + 14, 2 );
+        int sec = digits( b, p + 17, 2 );
+
+        byte ds = b[p + 4];
+        byte ts = b[p + 10];
+        if ( year < 0 || month < 1 || month > 12 || day < 1 || day > 31 || hour < 0 || hour > 23
+                || min < 0 || min > 59 || sec < 0 || sec > 60
+                || ( ds != '-' && ds != '/' ) || b[p + 7] != ds
+                || ( ts != ' ' && ts != 'T' ) || b[p + 13] != ':' || b[p + 16] != ':' ) {
+            return NO_TIME;
+        }
+
+        int millis = 0;
+        if ( len - p >= 23 && ( b[p + 19] == '.' || b[p + 19] == ',' ) ) {
+            millis = Math.max( 0, digits( b, p + 20, 3 ) );
+        }
+
+        cal.clear();
+        cal.set( year, month - 1, day, hour, min, sec );
+        cal.set( Calendar.MILLISECOND, millis );
+        return cal.getTimeInMillis();
+    }
+
+    /**
+     * @return the value of <code>n</code> decimal digits, -1 if not all digits.
+     */
+    private static int digits(byte[] b, int from, int n) {
+        int value = 0;
+        for ( int i = from; i < from + n; i++ ) {
+            int d = b[i] - '0';
+            if ( d < 0 || d > 9 ) {
+                return -1;
+            }
+            value = value * 10 + d;
+        }
+        return value;
+    }
+
+    @Override
+    public String toString() {
+        return String.format( Locale.ROOT, "LineIndex{lines=%d, length=%d, checkpoints=%d, interval=%d}",
+                lines, length, offsets.length, interval );
+    }
+}
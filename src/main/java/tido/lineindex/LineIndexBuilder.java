@@ -0,0 +1,197 @@
+/*
+ * Copyright 2013 Andrea Cisternino <a.cisternino@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package tido.lineindex;
+
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Arrays;
+import java.util.Calendar;
+import java.util.GregorianCalendar;
+import java.util.HashSet;
+import java.util.Locale;
+import java.util.Set;
+
+/**
+ * Builds a {@link LineIndex} from the bytes of a file while they are written, so
+ * indexing costs no additional read of the file.
+ * <br/>
+ * Only the line breaks are looked for; the first bytes of the line of each
+ * checkpoint are kept to parse its time stamp. Memory grows by two longs every
+ * <code>interval</code> lines: a 5 GB log of 100 byte lines needs less than 1 MB.
+ *
+ * @author Andrea Cisternino
+ */
+public class LineIndexBuilder
+{
+    /** Lines between two checkpoints when not specified. */
+    public static final int DEFAULT_INTERVAL = 1024;
+
+    /** Extensions of the attachments worth indexing. */
+    private static final Set<String> LOG_EXTS = new HashSet<>( Arrays.asList( "log", "txt", "out", "err", "trc", "trace" ) );
+
+    /** Bytes of a line needed to parse a time stamp. */
+    private static final int HEAD_SIZE = 32;
+
+    private final int interval;
+
+    private long[] offsets = new long[256];
+    private long[] times = new long[256];
+    private int count;
+
+    /** Offset of the next byte. */
+    private long position;
+
+    /** Lines started so far. */
+    private long lines;
+
+    private boolean atLineStart = true;
+
+    /** Beginning of the line of the last checkpoint. */
+    private final byte[] head = new byte[HEAD_SIZE];
+
+    /** Bytes in head, -1 when not collecting. */
+    private int headLen = -1;
+
+    private final Calendar cal = new GregorianCalendar();
+
+    //---- Lifecycle ---------------------------------------------------------------
+
+    public LineIndexBuilder() {
+        this( DEFAULT_INTERVAL );
+    }
+
+    /**
+     * @param interval the number of lines between two checkpoints.
+     */
+    public LineIndexBuilder(int interval) {
+        if ( interval <= 0 ) {
+            throw new IllegalArgumentException( "interval: " + interval );
+        }
+        this.interval = interval;
+    }
+
+    //---- API ---------------------------------------------------------------------
+
+    /**
+     * @param fname the name of a file.
+     * @return true if the file is a text log worth indexing.
+     */
+    public static boolean accepts(String fname) {
+        int extIdx = fname.lastIndexOf( '.' );
+        return extIdx >= 0 && LOG_EXTS.contains( fname.substring( extIdx + 1 ).toLowerCase( Locale.ROOT ) );
+    }
+
+    /**
+     * Feeds the next bytes of the file.
+     *
+     * @param b the bytes.
+     * @param off the first byte.
+     * @param len the number of bytes.
+     */
+    public void update(byte[] b, int off, int len) {
+
+        int end = off + len;
+        int i = off;
+
+        while ( i < end ) {
+
+            if ( atLineStart ) {
+                startLine( position + ( i - off ) );
+                atLineStart = false;
+            }
+
+            if ( headLen >= 0 ) {
+                byte c = b[i++];
+                if ( c == '\n' || c == '\r' ) {
+                    endHead();
+                    atLineStart = c == '\n';
+                } else {
+                    head[headLen++] = c;
+                    if ( headLen == HEAD_SIZE ) {
+                        endHead();
+                    }
+                }
+                continue;
+            }
+
+            // the common case: look for the end of the line
+            while ( i < end && b[i] != '\n' ) {
+                i++;
+            }
+            if ( i < end ) {
+                i++;
+                atLineStart = true;
+            }
+        }
+
+        position += len;
+    }
+
+    /**
+     * Wraps the stream receiving the file so all the bytes written are indexed.
+     *
+     * @param out the stream receiving the file.
+     * @return the stream to write the file to.
+     */
+    public OutputStream wrap(OutputStream out) {
+        return new FilterOutputStream( out ) {
+            @Override
+            public void write(int b) throws IOException {
+                update( new byte[] { (byte) b }, 0, 1 );
+                out.write( b );
+            }
+            @Override
+            public void write(byte[] b, int off, int len) throws IOException {
+                update( b, off, len );
+                out.write( b, off, len );
+            }
+        };
+    }
+
+    /**
+     * @return the index of the bytes fed so far.
+     */
+    public LineIndex build() {
+        if ( headLen >= 0 ) {
+            endHead();
+        }
+        return new LineIndex( interval, lines, position, Arrays.copyOf( offsets, count ), Arrays.copyOf( times, count ) );
+    }
+
+    //---- Support methods ---------------------------------------------------------
+
+    private void startLine(long offset) {
+
+        if ( lines % interval == 0 ) {
+            if ( count == offsets.length ) {
+                offsets = Arrays.copyOf( offsets, count * 2 );
+                times = Arrays.copyOf( times, count * 2 );
+            }
+            offsets[count] = offset;
+            times[count] = LineIndex.NO_TIME;
+            count++;
+            headLen = 0;
+        }
+
+        lines++;
+    }
+
+    private void endHead() {
+        times[count - 1] = LineIndex.parseTime( head, headLen, cal );
+        headLen = -1;
+    }
+}
@@ -15,6 +15,14 @@
  */
 package tido.model;
 
+import java.nio.file.Path;
+
+import javafx.beans.property.IntegerProperty;
+import javafx.beans.property.LongProperty;
+import javafx.beans.property.ObjectProperty;
+import javafx.beans.property.SimpleIntegerProperty;
+import javafx.beans.property.SimpleLongProperty;
+import javafx.beans.property.SimpleObjectProperty;
 import javafx.beans.property.SimpleStringProperty;
 import javafx.beans.property.StringProperty;
 
@@ -57,6 +65,55 @@ public class AttachmentLink
     public String getName() { return name.get(); }
     public void setName(String name) { this.name.set( name ); }
 
+    /**
+     * The size of the attachment in bytes, negative if unknown.
+     */
+    private final LongProperty size = new SimpleLongProperty( this, "size", -1L );
+    public LongProperty sizeProperty() { return size; }
+    public long getSize() { return size.get(); }
+    public void setSize(long size) { this.size.set( size ); }
+
+    /**
+     * The download state of the attachment.
+     */
+    private final ObjectProperty<AttachmentState> state = new SimpleObjectProperty<>( this, "state", AttachmentState.PENDING );
+    public ObjectProperty<AttachmentState> stateProperty() { return state; }
+    public AttachmentState getState() { return state.get(); }
+    public void setState(AttachmentState state) { this.state.set( state ); }
+
+    /**
+     * Why the last download attempt failed, null if it did not.
+     */
+    private final StringProperty error = new SimpleStringProperty( this, "error", null );
+    public StringProperty errorProperty() { return error; }
+    public String getError() { return error.get(); }
+    public void setError(String error) { this.error.set( error ); }
+
+    /**
+     * Number of completed download attempts, successful or not.
+     */
+    private final IntegerProperty attempts = new SimpleIntegerProperty( this, "attempts", 0 );
+    public IntegerProperty attemptsProperty() { return attempts; }
+    public int getAttempts() { return attempts.get(); }
+    public void setAttempts(int attempts) { this.attempts.set( attempts ); }
+
+    /**
+     * The file where the attachment was saved, null until downloaded.
+     */
+    private final ObjectProperty<Path> path = new SimpleObjectProperty<>( this, "path", null );
+    public ObjectProperty<Path> pathProperty() { return path; }
+    public Path getPath() { return path.get(); }
+    public void setPath(Path path) { this.path.set( path ); }
+
+    /**
+     * The validator (ETag or Last-Modified) of a partially downloaded attachment.
+     * Used to resume the download only if the attachment did not change.
+     */
+    private final StringProperty partialValidator = new SimpleStringProperty( this, "partialValidator", null );
+    public StringProperty partialValidatorProperty() { return partialValidator; }
+    public String getPartialValidator() { return partialValidator.get(); }
+    public void setPartialValidator(String partialValidator) { this.partialValidator.set( partialValidator ); }
+
     //---- Getters -----------------------------------------------------------------
 
     public Ticket getTicket() {
@@ -68,6 +125,6 @@ public class AttachmentLink
     @Override
     public String toString() {
         return "AttachmentLink{" + "url=" + url.get() + ", name=" + name.get()
-                + ", ticket=" + ticket.getId() + '}';
+                + ", size=" + size.get() + ", state=" + state.get() + ", error=" + error.get() + ", ticket=" + ticket.getId() + '}';
     }
 }
@@ -0,0 +1,31 @@
+/*
+ * Copyright 2013 Andrea Cisternino <a.cisternino@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package tido.model;
+
+/**
+ * The download state of an {@link AttachmentLink}.
+ *
+ * @author Andrea Cisternino
+ */
+public enum AttachmentState {
+    PENDING,
+    DOWNLOADED,
+    FAILED,
+    /** Left out by a skip rule. */
+    SKIPPED,
+    /** Skipped before, then asked for by the user: the rules do not apply. */
+    REQUESTED
+}
@@ -16,9 +16,14 @@
 package tido.model;
 
 import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+import javafx.beans.property.DoubleProperty;
 import javafx.beans.property.IntegerProperty;
 import javafx.beans.property.LongProperty;
 import javafx.beans.property.ObjectProperty;
+import javafx.beans.property.SimpleDoubleProperty;
 import javafx.beans.property.SimpleIntegerProperty;
 import javafx.beans.property.SimpleLongProperty;
 import javafx.beans.property.SimpleObjectProperty;
@@ -133,6 +138,22 @@ public class Ticket
     public TicketState isProcessed() { return processed.get(); }
     public void setProcessed(TicketState processed) { this.processed.set( processed ); }
 
+    /**
+     * Fraction of the attachment bytes downloaded so far, between 0 and 1.
+     */
+    private final DoubleProperty progress = new SimpleDoubleProperty( this, "progress", 0d );
+    public DoubleProperty progressProperty() { return progress; }
+    public double getProgress() { return progress.get(); }
+    public void setProgress(double progress) { this.progress.set( progress ); }
+
+    /**
+     * Download priority set by the user. Higher values are downloaded first.
+     */
+    private final IntegerProperty priority = new SimpleIntegerProperty( this, "priority", 0 );
+    public IntegerProperty priorityProperty() { return priority; }
+    public int getPriority() { return priority.get(); }
+    public void setPriority(int priority) { this.priority.set( priority ); }
+
     /**
      * The number of attachments of this ticket. Automatically calculated from the list of attachments.
      */
@@ -158,6 +179,20 @@ public class Ticket
         return attachments;
     }
 
+    /**
+     * @param state a download state.
+     * @return the attachments of this ticket in the given state.
+     */
+    public List<AttachmentLink> getAttachments(AttachmentState state) {
+        List<AttachmentLink> result = new ArrayList<>();
+        for ( AttachmentLink link : attachments ) {
+            if ( link.getState() == state ) {
+                result.add( link );
+            }
+        }
+        return result;
+    }
+
     @Override
     public String toString() {
         return "Ticket{" + "url=" + url.get() + ", id=" + id.get() + ", title=" + title.get()
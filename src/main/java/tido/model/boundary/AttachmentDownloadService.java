@@ -17,27 +17,73 @@ package tido.model.boundary;
 
 import java.io.IOException;
 import java.net.HttpURLConnection;
+import java.nio.file.InvalidPathException;
 import java.nio.file.Path;
+import java.nio.file.Paths;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
+import javax.security.auth.login.FailedLoginException;
+
 import javafx.application.Platform;
+import javafx.beans.property.BooleanProperty;
 import javafx.beans.property.ListProperty;
+import javafx.beans.property.SimpleBooleanProperty;
 import javafx.beans.property.SimpleListProperty;
 import javafx.collections.ObservableList;
 import javafx.concurrent.Service;
 import javafx.concurrent.Task;
 
+import tido.Utils;
+import tido.archive.TicketArchive;
+import tido.cache.AttachmentCache;
+import tido.config.BandwidthProfile;
+import tido.config.ConfigData;
 import tido.config.ConfigManager;
+import tido.config.ServerInfo;
 import tido.model.AttachmentLink;
+import tido.model.AttachmentState;
 import tido.model.Ticket;
 import tido.model.TicketState;
 import tido.naming.TicketDirectoryNamer;
+import tido.postprocess.ArchiveExtractor;
+import tido.postprocess.PostProcessingStage;
+import tido.scheduling.DownloadJob;
+import tido.scheduling.DownloadPlan;
+import tido.scheduling.DownloadPlanner;
+import tido.scheduling.DownloadScheduler;
+import tido.scheduling.SchedulingPolicy;
+import tido.scheduling.TicketSerialScheduler;
+import tido.transfer.BandwidthLimiter;
+import tido.transfer.ByteProgress;
+import tido.transfer.DirectoryCache;
+import tido.transfer.IntegrityException;
+import tido.transfer.RateMeter;
+import tido.transfer.StoredCompression;
+import tido.transfer.TransferControl;
+import tido.transfer.TransferStoppedException;
 
 /**
  * A JavaFX {@link Service} that downloads all the attachments of a list of Tickets.
+ * <br/>
+ * A running download can be paused, resumed and cancelled. Stopped transfers leave
+ * a partial file behind and the next run continues from there.
+ * <br/>
+ * If a ticket archive format is configured, each ticket is written to a single
+ * {@link TicketArchive} next to where its directory would be.
  *
  * @author Andrea Cisternino
  */
@@ -45,13 +91,49 @@ public class AttachmentDownloadService extends Service<Object>
 {
     private static final Logger log = Logger.getLogger( AttachmentDownloadService.class.getName() );
 
+    /** Period of the progress updates. */
+    private static final long REPORT_PERIOD_MS = 500;
+
+    /** Time spent asking the unknown sizes before the downloads start. */
+    private static final long PROBE_TIMEOUT_MS = 15000;
+
+    /** Times a corrupted transfer is tried again before failing. */
+    private static final int INTEGRITY_RETRIES = 2;
+
+    /** The application configuration. */
+    private final ConfigManager config;
+
     /** The Namer used to generate the folder name. */
     private final TicketDirectoryNamer namer;
 
+    /** The bandwidth limits shared by all downloads. */
+    private final BandwidthLimiter limiter = new BandwidthLimiter();
+
+    /** Decides the order of the downloads. */
+    private volatile SchedulingPolicy policy;
+
+    /** Number of attachments downloaded in parallel. */
+    private final int downloadThreads;
+
+    /** Bytes the downloads leave free on the disk. */
+    private final long freeSpaceReserve;
+
+    /** Attachments shared with other users, null if not configured. */
+    private final AttachmentCache cache;
+
+    /** Pauses and cancels the running task. A new one is created for each task. */
+    private volatile TransferControl control = new TransferControl();
+
     //---- Lifecycle ---------------------------------------------------------------
 
     public AttachmentDownloadService(ConfigManager config) {
+        this.config = config;
         namer = new TicketDirectoryNamer( config );
+        policy = SchedulingPolicy.parse( config.config().getSchedulingPolicy(), SchedulingPolicy.ROUND_ROBIN );
+        downloadThreads = config.config().getDownloadThreads();
+        freeSpaceReserve = config.config().getFreeSpaceReserve() * 1024 * 1024;
+        limiter.setProfile( config.config().findBandwidthProfile( config.config().getBandwidthProfile() ) );
+        cache = createCache( config.config() );
     }
 
     //---- Properties --------------------------------------------------------------
@@ -63,6 +145,19 @@ public class AttachmentDownloadService extends Service<Object>
     public ListProperty<Ticket> ticketsProperty() { return tickets; }
     public void setTickets(ObservableList<Ticket> tickets) { this.tickets.set( tickets ); }
 
+    /**
+     * The tickets processed by the next task instead of the whole list, used once.
+     */
+    private List<Ticket> selection;
+    public void setSelection(List<Ticket> selection) { this.selection = selection; }
+
+    /**
+     * Is the running download paused?
+     */
+    private final BooleanProperty paused = new SimpleBooleanProperty( this, "paused", false );
+    public BooleanProperty pausedProperty() { return paused; }
+    public boolean isPaused() { return paused.get(); }
+
     /**
      * Sets the name of the base directory for tickets.
      *
@@ -73,15 +168,119 @@ public class AttachmentDownloadService extends Service<Object>
         namer.setBaseDir( path );
     }
 
+    /**
+     * Changes the bandwidth limits. Running downloads are affected immediately.
+     *
+     * @param profile the new limits.
+     */
+    public void setBandwidthProfile(BandwidthProfile profile) {
+        limiter.setProfile( profile );
+    }
+
+    /**
+     * Changes the scheduling policy. Used starting from the next batch.
+     *
+     * @param policy the new policy.
+     */
+    public void setSchedulingPolicy(SchedulingPolicy policy) {
+        this.policy = policy;
+    }
+
+    /**
+     * @return the current scheduling policy.
+     */
+    public SchedulingPolicy getSchedulingPolicy() {
+        return policy;
+    }
+
+    /**
+     * Pauses the running download. Transfers stop at the next chunk, freeing their
+     * connections and bandwidth, and keep their partial files.
+     */
+    public void pause() {
+        if ( isRunning() ) {
+            log.info( "pausing" );
+            control.pause();
+            paused.set( true );
+        }
+    }
+
+    /**
+     * Resumes a paused download.
+     */
+    public void resume() {
+        log.info( "resuming" );
+        control.resume();
+        paused.set( false );
+    }
+
+    //---- Support methods ---------------------------------------------------------
+
+    /**
+     * @param data the configuration.
+     * @return the shared cache, null if not configured or not usable.
+     */
+    private static AttachmentCache createCache(ConfigData data) {
+
+        if ( Utils.isBlank( data.getSharedCache() ) ) {
+            return null;
+        }
+
+        try {
+            Path dir = Paths.get( data.getSharedCache() );
+            log.log( Level.INFO, "shared cache: {0}", dir );
+            return new AttachmentCache( dir, data.getSharedCacheSize() * 1024 * 1024 );
+        } catch ( InvalidPathException ex ) {
+            log.log( Level.WARNING, "invalid shared cache: {0}", ex.toString() );
+            return null;
+        }
+    }
+
+    /**
+     * @return a new post-processing stage with the configured processors.
+     */
+    private PostProcessingStage createPostProcessing() {
+
+        ConfigData data = config.config();
+        PostProcessingStage stage = new PostProcessingStage( data.getPostProcessingThreads() );
+
+        if ( data.isExtractArchives() ) {
+            stage.add( new ArchiveExtractor( data.getExtractMaxSize() * 1024 * 1024 ) );
+        }
+
+        return stage;
+    }
+
     //---- Task --------------------------------------------------------------------
 
     @Override
     protected Task<Object> createTask() {
-        return new AdsTask( tickets );
+        control = new TransferControl();
+        paused.set( false );
+
+        List<Ticket> batch = selection != null ? selection : tickets;
+        selection = null;
+        return new AdsTask( batch, control );
     }
 
     /**
      * The concrete Task implementation.
+     * <br/>
+     * The attachments of all the tickets are handed to a {@link DownloadScheduler}
+     * and downloaded in parallel by a small pool of workers. Each ticket is completed,
+     * i.e. its fields saved and its state updated, as soon as its last attachment is done.
+     * <br/>
+     * Progress is measured in bytes and reported periodically, for the batch and for
+     * each ticket, together with the throughput and the estimated time to completion.
+     * <br/>
+     * Before starting, a {@link DownloadPlanner} decides what the batch downloads:
+     * each URL once, without the attachments matching a skip rule and without the
+     * tickets that do not fit in the free disk space, so a full disk never leaves
+     * truncated attachments behind.
+     * <br/>
+     * When writing archives, the attachments of a ticket are downloaded one at a time
+     * into its archive, and each ticket downloads its own copy of an URL shared with
+     * other tickets.
      */
     private class AdsTask extends Task<Object>
     {
@@ -89,94 +288,591 @@ public class AttachmentDownloadService extends Service<Object>
 
         private final List<Ticket> origList;
 
-        public AdsTask(List<Ticket> tickets) {
-            origList = tickets;
+        /** The tickets being processed. */
+        private final Map<Ticket, TicketWork> works = new IdentityHashMap<>();
+
+        /** Decides the order of the downloads, access must be synchronized. */
+        private final DownloadScheduler scheduler;
+
+        /** The format of the ticket archives, null to save the tickets in directories. */
+        private final TicketArchive.Format archiveFormat = TicketArchive.Format.parse( config.config().getTicketArchive(), null );
+
+        /** Lets a single job per ticket run, null unless writing archives. */
+        private final TicketSerialScheduler serial;
+
+        /** The open ticket archives, access must be synchronized. */
+        private final Map<Ticket, TicketArchive> archives = new IdentityHashMap<>();
+
+        /** Number of attachments done so far. */
+        private final AtomicInteger done = new AtomicInteger();
+
+        /** Bytes of the whole batch. */
+        private final ByteProgress batch = new ByteProgress();
+
+        /** Bytes received from the network, less than the batch when compressed. */
+        private final AtomicLong wire = new AtomicLong();
+
+        /** Bytes of the batch done without a transfer, by up to date or failed attachments. */
+        private final AtomicLong credited = new AtomicLong();
+
+        /** Throughput of the whole batch. */
+        private final RateMeter meter = new RateMeter();
+
+        /** Total number of attachments to download. */
+        private int attNum;
+
+        /** What the batch downloads, decided before starting. */
+        private DownloadPlan plan;
+
+        private AttachmentFetcher fetcher;
+
+        /** Ticket directories already created, shared by the fetcher and the savers. */
+        private final DirectoryCache dirs = new DirectoryCache();
+
+        /** Stops the workers. */
+        private final TransferControl control;
+
+        /** Works on the saved attachments without holding back the workers. */
+        private final PostProcessingStage post = createPostProcessing();
+
+        public AdsTask(List<Ticket> tickets, TransferControl control) {
+            origList = new ArrayList<>( tickets );
+            this.control = control;
+            serial = archiveFormat != null ? new TicketSerialScheduler( policy.create() ) : null;
+            scheduler = serial != null ? serial : policy.create();
+        }
+
+        @Override
+        public boolean cancel(boolean mayInterruptIfRunning) {
+            // the workers are not interrupted, they stop at the next chunk
+            control.cancel();
+            post.cancel();
+            return super.cancel( mayInterruptIfRunning );
         }
 
         @Override
         protected Object call() throws Exception {
 
-            // extract downloadable tickets
-            List<Ticket> tl = filterTickets();
+            // the disk writes run on their own threads, one per worker at most
+            ExecutorService writers = Executors.newFixedThreadPool( downloadThreads, new WorkerThreadFactory( "disk-writer" ) );
 
-            // total number of attachments to download
-            int attNum = countAttachments( tl );
+            fetcher = new AttachmentFetcher( namer, limiter, control, writers, dirs, cache );
+            fetcher.setFreshness( TimeUnit.MINUTES.toMillis( config.config().getFreshnessWindow() ) );
+            if ( config.config().isCompressText() ) {
+                fetcher.setCompression( new StoredCompression( config.config().getCompressExtensions() ) );
+            }
+            if ( config.config().isLineIndex() ) {
+                fetcher.setLineIndex( config.config().getLineIndexMinSize() * 1024 * 1024 );
+            }
 
-            log.log( Level.INFO, "downloading {0} attachments", attNum);
+            List<Ticket> todo = filterTickets();
 
-            final AttachmentFetcher fetcher = new AttachmentFetcher( namer );
+            // tickets restored from the journal have no session with their server yet
+            authenticate( todo );
 
-            int an = 1;
+            // decide what to download before any byte is transferred
+            long usable = Utils.usableSpace( namer.getBaseDir() );
+            DownloadPlanner planner = new DownloadPlanner( new DownloadPlanner.SizeProbe() {
+                @Override
+                public long probeSize(AttachmentLink link) throws IOException {
+                    return fetcher.probeSize( link );
+                }
+            }, config.config(), usable < 0 ? -1 : Math.max( 0, usable - freeSpaceReserve ) );
+
+            // an archive can not get a copy from a file in another archive
+            planner.setCopyAcrossTickets( archiveFormat == null );
+
+            // the sizes are asked in parallel, for a limited time
+            ExecutorService probes = Executors.newFixedThreadPool( downloadThreads, new WorkerThreadFactory( "size-probe" ) );
+            planner.setProbing( probes, PROBE_TIMEOUT_MS, TimeUnit.MILLISECONDS );
+            try {
+                plan = planner.plan( todo );
+            } finally {
+                // the probes still running are abandoned
+                probes.shutdownNow();
+            }
 
-            for ( final Ticket ticket : tl ) {
+            if ( plan.isEmpty() && plan.getPostponed() > 0 ) {
+                log.warning( "not enough disk space for any ticket" );
+                updateMessage( "Not enough disk space, nothing downloaded" );
+                return null;
+            }
 
-                log.log( Level.FINE, "{0}: {1} attachments", new Object[] { ticket.getId(), ticket.getAttachmentNum() } );
+            // schedule the attachments
+            for ( Ticket ticket : plan.getTickets() ) {
 
-                TicketState tempState = TicketState.PROCESSED_OK;          // default value
+                TicketWork work = new TicketWork( ticket, plan.getAttachmentNum( ticket ) );
+                works.put( ticket, work );
 
-                // save attachments
-                for ( AttachmentLink attachmentLink : ticket.getAttachments() ) {
+                for ( AttachmentLink link : plan.getDownloads( ticket ) ) {
+                    work.getProgress().expect( link.getSize() );
+                    batch.expect( link.getSize() );
+                    scheduler.add( new DownloadJob( link, attNum++ ) );
+                }
+            }
+
+            log.log( Level.INFO, "downloading {0} attachments with policy {1}", new Object[] { attNum, policy } );
+
+            // tickets without attachments are already complete
+            for ( TicketWork work : works.values() ) {
+                if ( work.isComplete() ) {
+                    completeTicket( work );
+                }
+            }
 
-                    log.log( Level.INFO, "downloading {0} {1}", new Object[] { new Integer( an ), attachmentLink } );
+            // report progress twice a second
+            final long startTime = System.nanoTime();
+            ScheduledExecutorService reporter = Executors.newSingleThreadScheduledExecutor( new WorkerThreadFactory( "download-reporter" ) );
+            reporter.scheduleAtFixedRate( new Runnable() {
+                @Override
+                public void run() {
+                    report();
+                }
+            }, 0, REPORT_PERIOD_MS, TimeUnit.MILLISECONDS );
 
-                    try {
-                        int result = fetcher.fetch( attachmentLink );
+            // start the workers and wait for them to empty the scheduler
+            int threads = Math.max( 1, Math.min( downloadThreads, attNum ) );
+            ExecutorService workers = Executors.newFixedThreadPool( threads, new WorkerThreadFactory( "download-worker" ) );
 
-                        // if result is NOK, record that something went wrong
-                        if ( result != HttpURLConnection.HTTP_OK ) {
-                            tempState = TicketState.PROCESSED_NOK;
-                        }
+            for ( int i = 0; i < threads; i++ ) {
+                workers.execute( new Runnable() {
+                    @Override
+                    public void run() {
+                        runJobs();
+                    }
+                } );
+            }
+            workers.shutdown();
+            try {
+                workers.awaitTermination( Long.MAX_VALUE, TimeUnit.DAYS );
+            } catch ( InterruptedException ex ) {
+                // the task was cancelled, give the workers the time to stop cleanly
+                control.cancel();
+                awaitStop( workers, 10 );
+            }
+
+            if ( workers.isTerminated() ) {
+                releaseOutputs( writers );
+            } else {
+                // a worker is still blocked on the network: its writer and its archive
+                // are in use until it stops at the next chunk
+                log.warning( "workers still running, closing the outputs when they stop" );
+                releaseWhenStopped( workers, writers );
+            }
 
-                    } catch ( IOException | RuntimeException ex ) {
-                        log.log( Level.SEVERE, "downloading ticket data:", ex );
-                        tempState = TicketState.PROCESSED_NOK;
+            reporter.shutdown();
+            reporter.awaitTermination( REPORT_PERIOD_MS, TimeUnit.MILLISECONDS );
+            report();
+
+            if ( ! control.isCancelled() && post.getPending() > 0 ) {
+                updateMessage( String.format( "Extracting archives... (%d left)", post.getPending() ) );
+            }
+            try {
+                post.finish();
+            } catch ( InterruptedException ex ) {
+                post.cancel();
+                control.cancel();
+            }
+
+            if ( control.isCancelled() ) {
+                log.info( "cancelled" );
+                updateMessage( "Cancelled" );
+                return null;
+            }
+
+            long elapsed = TimeUnit.NANOSECONDS.toSeconds( System.nanoTime() - startTime );
+            String summary = String.format( "%s in %d files downloaded in %s (%s transferred)",
+                    Utils.formatSize( batch.getDone() ), attNum, Utils.formatDuration( elapsed ), Utils.formatSize( wire.get() ) );
+            if ( plan.getDuplicateNum() > 0 ) {
+                summary += String.format( " - %d duplicates copied", plan.getDuplicateNum() );
+            }
+            if ( plan.getSkipped() > 0 ) {
+                summary += String.format( " - %d skipped", plan.getSkipped() );
+            }
+            if ( plan.getPostponed() > 0 ) {
+                summary += String.format( " - %d tickets left out, not enough disk space", plan.getPostponed() );
+            }
+            updateMessage( summary );
+
+            // emulate a complete download if there are no attachments
+            if ( attNum == 0 ) {
+                updateProgress( 1, 1 );
+            }
+
+            return null;
+        }
+
+        /**
+         * The loop executed by each worker.
+         */
+        private void runJobs() {
+
+            DownloadJob job = null;
+
+            while ( awaitRunning() && ( job = nextJob( job ) ) != null ) {
+
+                AttachmentLink attachmentLink = job.getLink();
+
+                log.log( Level.INFO, "downloading {0} {1}", new Object[] { job.getSeq() + 1, attachmentLink } );
+
+                TicketWork work = works.get( job.getTicket() );
+                JobProgress progress = new JobProgress( attachmentLink, wire, work.getProgress(), batch );
+
+                boolean ok;
+                String error = null;
+                try {
+                    // if result is NOK, record that something went wrong
+                    int responseCode = archiveFormat != null
+                            ? fetcher.fetch( attachmentLink, archive( job.getTicket() ), progress )
+                            : fetcher.fetch( attachmentLink, progress );
+                    ok = responseCode == HttpURLConnection.HTTP_OK;
+                    if ( ! ok ) {
+                        error = "HTTP " + responseCode;
+                    }
+
+                } catch ( TransferStoppedException ex ) {
+                    // paused or cancelled: the job goes back to the scheduler, to be resumed later
+                    log.log( Level.INFO, "stopped: {0}", ex.getMessage() );
+                    progress.abort();
+                    synchronized ( scheduler ) {
+                        scheduler.add( job );
+                    }
+                    continue;
+
+                } catch ( IntegrityException ex ) {
+                    // the corrupted data was discarded, a new transfer usually gets it right
+                    progress.abort();
+                    if ( job.getRetries() < INTEGRITY_RETRIES ) {
+                        log.log( Level.WARNING, "retrying {0}: {1}", new Object[] { attachmentLink, ex.getMessage() } );
+                        synchronized ( scheduler ) {
+                            scheduler.add( job.retry() );
+                        }
+                        continue;
                     }
+                    log.log( Level.SEVERE, "corrupted: {0}", ex.getMessage() );
+                    ok = false;
+                    error = ex.getMessage();
 
-                    // this must be executed in any case otherwise we get a "running" progress bar forever
-                    updateProgress( an++, attNum );
+                } catch ( IOException | RuntimeException ex ) {
+                    log.log( Level.SEVERE, "downloading ticket data:", ex );
+                    ok = false;
+                    error = ex.getMessage() != null ? ex.getMessage() : ex.getClass().getSimpleName();
+                }
+
+                attachmentLink.setAttempts( attachmentLink.getAttempts() + 1 );
+                attachmentLink.setError( error );
+
+                attachmentLink.setState( ok ? AttachmentState.DOWNLOADED : AttachmentState.FAILED );
+
+                if ( ok ) {
+                    submit( attachmentLink );
                 }
 
-                // save remaining fields
+                // this must be executed in any case otherwise we get a "running" progress bar forever
+                credited.addAndGet( progress.finish() );
+                done.incrementAndGet();
+
+                if ( work.attachmentDone( ok ) ) {
+                    completeTicket( work );
+                }
+
+                for ( AttachmentLink duplicate : plan.getDuplicates( attachmentLink ) ) {
+                    completeDuplicate( attachmentLink, duplicate, ok, error );
+                }
+            }
+
+            if ( job != null ) {
+                release( job );
+            }
+        }
+
+        /**
+         * Completes a link to an URL downloaded for another link. A link in another
+         * ticket gets a copy of the file.
+         *
+         * @param source the downloaded attachment.
+         * @param duplicate the other link to the same URL.
+         * @param ok true if the source was downloaded successfully.
+         * @param error why the source failed, null if it did not.
+         */
+        private void completeDuplicate(AttachmentLink source, AttachmentLink duplicate, boolean ok, String error) {
+
+            if ( ok && duplicate.getTicket() != source.getTicket() ) {
                 try {
-                    new TicketSaver( namer ).saveTicketFields( ticket );
+                    fetcher.copy( source, duplicate );
                 } catch ( IOException | RuntimeException ex ) {
-                    log.log( Level.SEVERE, "saving ticket fields:", ex );
+                    log.log( Level.SEVERE, "copying attachment:", ex );
+                    ok = false;
+                    error = ex.getMessage() != null ? ex.getMessage() : ex.getClass().getSimpleName();
+                }
+            } else {
+                duplicate.setPath( source.getPath() );
+            }
+
+            duplicate.setError( error );
+            duplicate.setState( ok ? AttachmentState.DOWNLOADED : AttachmentState.FAILED );
+
+            if ( ok && duplicate.getTicket() != source.getTicket() ) {
+                submit( duplicate );
+            }
+
+            TicketWork work = works.get( duplicate.getTicket() );
+            if ( work.attachmentDone( ok ) ) {
+                completeTicket( work );
+            }
+        }
+
+        /**
+         * Hands a saved attachment to the post-processing stage. Attachments compressed
+         * while saving are not archives, attachments in a ticket archive are not files.
+         */
+        private void submit(AttachmentLink link) {
+            Path path = link.getPath();
+            if ( archiveFormat == null && path != null && ! fetcher.isStoredCompressed( path ) ) {
+                post.submit( path );
+            }
+        }
+
+        /**
+         * Waits while the download is paused.
+         *
+         * @return false if the download was cancelled.
+         */
+        private boolean awaitRunning() {
+            try {
+                return control.awaitRunning();
+            } catch ( InterruptedException ex ) {
+                return false;
+            }
+        }
+
+        /**
+         * @param previous the job just executed by the worker, null if none.
+         * @return the next job to execute, null if there are no more.
+         */
+        private DownloadJob nextJob(DownloadJob previous) {
+            synchronized ( scheduler ) {
+                if ( previous != null && serial != null ) {
+                    serial.release( previous.getTicket() );
+                }
+                return scheduler.next();
+            }
+        }
+
+        /**
+         * Lets the other jobs of the ticket of a job run.
+         *
+         * @param job a job executed by a worker.
+         */
+        private void release(DownloadJob job) {
+            synchronized ( scheduler ) {
+                if ( serial != null ) {
+                    serial.release( job.getTicket() );
+                }
+            }
+        }
+
+        /**
+         * @param ticket a ticket.
+         * @return the archive of the ticket, opened the first time.
+         * @throws IOException in case of errors opening the archive.
+         */
+        private TicketArchive archive(Ticket ticket) throws IOException {
+            synchronized ( archives ) {
+                TicketArchive archive = archives.get( ticket );
+                if ( archive == null ) {
+                    Path dir = namer.getTicketPath( ticket );
+                    Path file = dirs.ensure( dir.getParent() ).resolve( dir.getFileName() + archiveFormat.extension() );
+                    archive = TicketArchive.open( file, archiveFormat );
+                    archives.put( ticket, archive );
+                }
+                return archive;
+            }
+        }
+
+        /**
+         * Closes the archive of a ticket, if open.
+         *
+         * @param ticket a ticket.
+         */
+        private void closeArchive(Ticket ticket) {
+
+            TicketArchive archive;
+            synchronized ( archives ) {
+                archive = archives.remove( ticket );
+            }
+
+            if ( archive != null ) {
+                try {
+                    archive.close();
+                    Utils.syncDirectory( archive.getFile().getParent() );
+                } catch ( IOException ex ) {
+                    log.log( Level.SEVERE, "closing ticket archive:", ex );
+                }
+            }
+        }
+
+        /**
+         * Closes all the archives still open.
+         */
+        private void closeArchives() {
+            List<Ticket> open;
+            synchronized ( archives ) {
+                open = new ArrayList<>( archives.keySet() );
+            }
+            for ( Ticket ticket : open ) {
+                closeArchive( ticket );
+            }
+        }
+
+        /**
+         * Releases what the workers write into. Must be called after all of them stopped.
+         */
+        private void releaseOutputs(ExecutorService writers) {
+            // every writer was closed by its worker, nothing is left to write
+            writers.shutdown();
+
+            // the archives of the tickets not completed are continued by the next run
+            closeArchives();
+        }
+
+        /**
+         * Releases the outputs in the background, once the workers stopped.
+         */
+        private void releaseWhenStopped(final ExecutorService workers, final ExecutorService writers) {
+            new WorkerThreadFactory( "download-teardown" ).newThread( new Runnable() {
+                @Override
+                public void run() {
+                    while ( ! awaitStop( workers, 60 ) ) {
+                        log.warning( "workers still running" );
+                    }
+                    releaseOutputs( writers );
+                }
+            } ).start();
+        }
+
+        /**
+         * Waits for the workers to stop, ignoring interruptions.
+         *
+         * @return true if all the workers stopped in time.
+         */
+        private boolean awaitStop(ExecutorService workers, long seconds) {
+            try {
+                return workers.awaitTermination( seconds, TimeUnit.SECONDS );
+            } catch ( InterruptedException ex ) {
+                Thread.currentThread().interrupt();
+                return workers.isTerminated();
+            }
+        }
+
+        /**
+         * Saves the remaining fields of a ticket and updates its state.
+         *
+         * @param work the ticket whose attachments have all been processed.
+         */
+        private void completeTicket(TicketWork work) {
+
+            final Ticket ticket = work.getTicket();
+
+            // save remaining fields
+            boolean saved = false;
+            Path path = null;
+            try {
+                if ( archiveFormat != null ) {
+                    TicketArchive archive = archive( ticket );
+                    new TicketSaver( namer, dirs ).saveTicketFields( ticket, archive );
+                    path = archive.getFile();
+                } else {
+                    saved = new TicketSaver( namer, dirs ).saveTicketFields( ticket );
+                }
+            } catch ( IOException | RuntimeException ex ) {
+                log.log( Level.SEVERE, "saving ticket fields:", ex );
+            }
+
+            if ( archiveFormat != null ) {
+                // nothing else is written to the archive
+                closeArchive( ticket );
+            } else {
+                // make all the new names of this ticket durable at once
+                fetcher.syncDirectory( ticket, saved );
+            }
+
+            // update icon in table
+            final TicketState ts = work.getState();
+            final Path tp = path != null ? path : namer.getTicketPath( ticket );    // at this point this comes from cache
+
+            Platform.runLater( new Runnable() {
+                @Override
+                public void run() {
+                    ticket.setProcessed( ts );
+                    ticket.setPath( tp );
+                    ticket.setProgress( 1d );
                 }
+            } );
+        }
+
+        /**
+         * Publishes the progress of the batch and of the single tickets.
+         * Called periodically by the reporter thread.
+         */
+        private void report() {
 
-                // update icon in table
-                final TicketState ts = tempState;
-                final Path tp = namer.getTicketPath( ticket );      // at this point this comes from cache
+            long doneBytes = batch.getDone();
+            long total = batch.getTotal();
 
+            // the rate counts only the bytes actually transferred
+            meter.sample( System.nanoTime(), doneBytes - credited.get() );
+
+            if ( total > 0 ) {
+                updateProgress( doneBytes, total );
+            }
+
+            long eta = meter.getEta( total - doneBytes );
+            updateMessage( String.format( "%s/s (avg %s/s) - %s of %s%s - %d/%d files - ETA %s",
+                    Utils.formatSize( meter.getCurrentRate() ), Utils.formatSize( meter.getAverageRate() ),
+                    Utils.formatSize( doneBytes ), batch.isTotalExact() ? "" : "~", Utils.formatSize( total ),
+                    done.get(), attNum, eta < 0 ? "--:--" : Utils.formatDuration( eta ) ) );
+
+            // progress of the single tickets, only the changed ones
+            final Map<Ticket, Double> changed = new IdentityHashMap<>();
+            for ( TicketWork work : works.values() ) {
+                double f = work.takeChangedFraction();
+                if ( f >= 0d ) {
+                    changed.put( work.getTicket(), f );
+                }
+            }
+
+            if ( ! changed.isEmpty() ) {
                 Platform.runLater( new Runnable() {
                     @Override
                     public void run() {
-                        ticket.setProcessed( ts );
-                        ticket.setPath( tp );
+                        for ( Map.Entry<Ticket, Double> e : changed.entrySet() ) {
+                            e.getKey().setProgress( e.getValue() );
+                        }
                     }
                 } );
             }
-
-            // emulate a complete download if there are no attachments
-            if ( attNum == 0 ) {
-                updateProgress( 1, 1 );
-            }
-            
-            return null;
         }
 
         /**
-         * Counts the attachments of all the downloadable tickets.
-         * Should be run on a filtered list.
+         * Logs in to the servers of the tickets without a session. Failures are only
+         * logged, the attachments of those servers will fail to download.
          *
-         * @param tickets the list of processable tickets.
-         * @return the total number of attachments.
+         * @param tickets the tickets to download.
          */
-        private int countAttachments( List<Ticket> tickets ) {
-            int num = 0;
+        private void authenticate(List<Ticket> tickets) {
+            TicketFetcher tf = new TicketFetcher( config );
+            Set<ServerInfo> tried = Collections.newSetFromMap( new IdentityHashMap<ServerInfo, Boolean>() );
             for ( Ticket ticket : tickets ) {
-                num += ticket.getAttachments().size();
+                if ( ! tried.add( ticket.getSource() ) ) {
+                    continue;
+                }
+                try {
+                    tf.authenticate( ticket.getSource() );
+                } catch ( IOException | FailedLoginException ex ) {
+                    log.log( Level.WARNING, "logging in to {0}: {1}", new Object[] { ticket.getSource().getName(), ex.toString() } );
+                }
             }
-            return num;
         }
 
         /**
@@ -195,4 +891,25 @@ public class AttachmentDownloadService extends Service<Object>
             return tl;
         }
     }
+
+    /**
+     * Creates named daemon threads for the pools of the download task.
+     */
+    private static class WorkerThreadFactory implements ThreadFactory
+    {
+        private final String prefix;
+
+        private final AtomicInteger count = new AtomicInteger();
+
+        WorkerThreadFactory(String prefix) {
+            this.prefix = prefix;
+        }
+
+        @Override
+        public Thread newThread(Runnable r) {
+            Thread t = new Thread( r, prefix + "-" + count.incrementAndGet() );
+            t.setDaemon( true );
+            return t;
+        }
+    }
 }
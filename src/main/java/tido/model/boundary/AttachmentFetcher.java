@@ -15,26 +15,73 @@
  */
 package tido.model.boundary;
 
-import java.io.BufferedInputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
 import java.net.HttpURLConnection;
 import java.net.URL;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.FileAlreadyExistsException;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.nio.file.Paths;
 import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.DigestInputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.HashSet;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
+import javax.xml.bind.DatatypeConverter;
+
 import tido.Utils;
+import tido.archive.TicketArchive;
+import tido.cache.AttachmentCache;
+import tido.lineindex.LineIndex;
+import tido.lineindex.LineIndexBuilder;
 import tido.model.AttachmentLink;
+import tido.model.Ticket;
+import tido.naming.FileNameIndex;
 import tido.naming.TicketDirectoryNamer;
+import tido.transfer.AsyncFileWriter;
+import tido.transfer.BandwidthLimiter;
+import tido.transfer.ContentDecoding;
+import tido.transfer.ControlledInputStream;
+import tido.transfer.DigestHeader;
+import tido.transfer.DirectoryCache;
+import tido.transfer.IntegrityException;
+import tido.transfer.MeteredInputStream;
+import tido.transfer.StorageCatalog;
+import tido.transfer.StoredCompression;
+import tido.transfer.TransferControl;
+import tido.transfer.TransferListener;
+import tido.transfer.TransferStoppedException;
+import tido.transfer.ValidatorStore;
 
 /**
  * Fetches an URL and save the content into a file.
+ * <br/>
+ * A single instance is shared by all the download workers. If a shared
+ * {@link AttachmentCache} is configured, attachments are copied from there when
+ * still current and added to it after downloading.
+ * <br/>
+ * If a {@link StoredCompression} is set, text attachments are compressed while
+ * they are written and their original names recorded in the {@link StorageCatalog}
+ * of the ticket directory.
+ * <br/>
+ * Large text logs get a {@link LineIndex}, built from the bytes while they are
+ * written and saved next to the attachment.
+ * <br/>
+ * Attachments can also be written into a {@link TicketArchive} instead of the
+ * ticket directory.
  *
  * @author Andrea Cisternino
  */
@@ -42,86 +89,465 @@ public class AttachmentFetcher
 {
     private static final Logger log = Logger.getLogger( AttachmentFetcher.class.getName() );
 
-    private static final Set<String> DOUBLE_EXTS = new HashSet<>( Arrays.asList( "gz", "bz2", "xz" ) );
-
     // we fake Firefox
     private static final String HTTP_USER_AGENT = "Mozilla/5.0 (Windows NT 6.1; WOW64; rv:23.0) Gecko/20100101 Firefox/23.0";
 
+    /** Prefix and suffix of the partial files that receive the attachments while downloading. */
+    private static final String PART_PREFIX = ".tido-";
+    private static final String PART_SUFFIX = ".part";
+
+    /** Suffix of the file next to a partial file, holding the length of the complete attachment. */
+    private static final String LENGTH_SUFFIX = ".length";
+
+    /** Attachments served with a Content-Encoding matching their own format. */
+    private static final Set<String> COMPRESSED_EXTS = new HashSet<>( Arrays.asList( "gz", "tgz", "svgz" ) );
+
+    /** Discards the data written to it. */
+    private static final OutputStream NULL_OUTPUT = new OutputStream() {
+        @Override
+        public void write(int b) {
+        }
+        @Override
+        public void write(byte[] b, int off, int len) {
+        }
+    };
+
+    /** Decides which attachments are compressed in archives, if not configured. */
+    private static final StoredCompression TEXT = new StoredCompression( null );
+
+    /** Not defined in HttpURLConnection. */
+    private static final int HTTP_RANGE_NOT_SATISFIABLE = 416;
+
+    /** Connect and read timeout of the size probes, a server not answering is not waited for. */
+    private static final int PROBE_TIMEOUT_MS = 10000;
+
     private final TicketDirectoryNamer namer;
 
+    /** Shapes the bandwidth used by all downloads. */
+    private final BandwidthLimiter limiter;
+
+    /** Lets the user pause or cancel the downloads. */
+    private final TransferControl control;
+
+    /** Runs the disk writes, so they never stall a network connection. */
+    private final Executor writers;
+
+    /** Ticket directories already created. */
+    private final DirectoryCache dirs;
+
+    /** Attachments already downloaded by other users, null if not configured. */
+    private final AttachmentCache cache;
+
+    /** The validators of the saved attachments, by ticket directory. */
+    private final ConcurrentHashMap<Path, ValidatorStore> validators = new ConcurrentHashMap<>();
+
+    /** How long the server confirmation that an attachment did not change lasts. */
+    private volatile long freshness = 0;
+
+    /** The original names of the compressed attachments, by ticket directory. */
+    private final ConcurrentHashMap<Path, StorageCatalog> catalogs = new ConcurrentHashMap<>();
+
+    /** Decides which attachments are stored compressed, null to store them as they are. */
+    private volatile StoredCompression compression;
+
+    /** Minimum size of the logs to index, negative to index none. */
+    private volatile long lineIndexMin = -1;
+
+    /** Hands out the names of the attachments without probing the filesystem. */
+    private final FileNameIndex names = new FileNameIndex();
+
+    /** Ticket directories whose content changed since they were last synced. */
+    private final Set<Path> dirtyDirs = Collections.newSetFromMap( new ConcurrentHashMap<Path, Boolean>() );
+
     //---- Lifecycle ---------------------------------------------------------------
 
-    public AttachmentFetcher(TicketDirectoryNamer namer) {
+    public AttachmentFetcher(TicketDirectoryNamer namer, BandwidthLimiter limiter, TransferControl control,
+                             Executor writers, DirectoryCache dirs, AttachmentCache cache) {
         this.namer = namer;
+        this.limiter = limiter;
+        this.control = control;
+        this.writers = writers;
+        this.dirs = dirs;
+        this.cache = cache;
     }
 
     //---- API ---------------------------------------------------------------------
 
+    /**
+     * Sets how long attachments downloaded before are trusted without asking the
+     * server if they changed.
+     *
+     * @param millis the freshness window in milliseconds, 0 to always ask.
+     */
+    public void setFreshness(long millis) {
+        this.freshness = millis;
+    }
+
+    /**
+     * Sets which attachments are compressed while saving them.
+     *
+     * @param compression the attachments to compress, null to save all of them as they are.
+     */
+    public void setCompression(StoredCompression compression) {
+        this.compression = compression;
+    }
+
+    /**
+     * Sets which logs get a line index.
+     *
+     * @param minSize the minimum size of the logs to index, negative to index none.
+     */
+    public void setLineIndex(long minSize) {
+        this.lineIndexMin = minSize;
+    }
+
+    /**
+     * @param file a saved attachment.
+     * @return true if the attachment was compressed while saving it.
+     */
+    public boolean isStoredCompressed(Path file) {
+        return catalog( file.getParent() ).get( file.getFileName().toString() ) != null;
+    }
+
     /**
      * Fetches and saves the ticket attachment identified by the link.
+     * <br/>
+     * The data is received in a partial file named after the URL. If the transfer is
+     * stopped, by the user or by a network error, the partial file is kept and the next
+     * call resumes the download from where it stopped.
+     * <br/>
+     * An attachment downloaded before in the same ticket directory is requested with
+     * its validators: if the server answers that it did not change, the saved file is
+     * kept and nothing is transferred.
+     * <br/>
+     * The received bytes are hashed while they stream to disk and checked against
+     * Content-Length, Content-MD5 and Digest. The SHA-256 of the content is recorded
+     * with the validators: a new version identical to the saved file is discarded.
+     * <br/>
+     * A compressed attachment can not be resumed: it is received in a partial file
+     * of its own, discarded if the transfer stops.
      *
      * @param link the attachment to be downloaded.
-     * @return the HTTP return code of the transaction.
+     * @param listener notified of the progress of the download.
+     * @return the HTTP return code of the transaction, HTTP_OK also for a resumed download.
+     * @throws TransferStoppedException if the transfer was paused or cancelled.
+     * @throws IntegrityException if the attachment was corrupted while transferring.
      * @throws IOException in case of errors while downloading or saving the attachment.
      */
-    public int fetch(AttachmentLink link) throws IOException {
+    public int fetch(AttachmentLink link, TransferListener listener) throws IOException {
+        return fetch( link, listener, namer.getTicketPath( link.getTicket() ) );    // throws InvalidPathException
+    }
 
-        Path ticketDir = namer.getTicketPath( link.getTicket() );   // throws InvalidPathException
+    /**
+     * Fetches and saves an attachment in a given directory.
+     *
+     * @see #fetch(AttachmentLink, TransferListener)
+     */
+    int fetch(AttachmentLink link, TransferListener listener, Path ticketDir) throws IOException {
 
-        HttpURLConnection conn = prepareConnection( link );         // throws IOException
+        // the attachment is written to a partial file in the ticket directory and
+        // renamed only after it has been completely received and verified
+        Path part = ticketDir.resolve( partName( link, false ) );
+        long offset = Files.exists( part ) ? Files.size( part ) : 0;
 
-        log.log( Level.INFO, "fetching url: {0}", conn.getURL().toExternalForm() );
+        Path zpart = ticketDir.resolve( partName( link, true ) );
+        Files.deleteIfExists( zpart );
 
-        // execute the HTTP transaction
-        conn.connect();                     // throws SocketTimeoutException, IOException
+        // the length sent by the server, the size in the page is only an estimate
+        long recorded = offset > 0 ? readLength( part ) : -1;
+        if ( recorded >= 0 && offset >= recorded ) {
+            // a stopped transfer leaves a shorter file: this one was complete but never
+            // verified, and the rest of it can not be requested
+            log.log( Level.INFO, "discarding partial file: {0}", part );
+            offset = 0;
+        }
+        if ( offset == 0 ) {
+            deletePart( part );
+        }
 
-        // process result
-        int responseCode = conn.getResponseCode();
-        log.log( Level.INFO, "response code: {0}", responseCode );
+        // a copy saved by a previous download, unless deleted by the user meanwhile
+        ValidatorStore store = validators( ticketDir );
+        ValidatorStore.Entry saved = offset == 0 ? store.get( link.getUrl() ) : null;
+        if ( saved != null && ( ! saved.hasValidators() || ! Files.isRegularFile( ticketDir.resolve( saved.getName() ) ) ) ) {
+            saved = null;
+        }
 
-        if ( responseCode != HttpURLConnection.HTTP_OK ) {
-            // the transaction failed, no reason to continue
-            return responseCode;
+        if ( saved != null && saved.isFresh( freshness, System.currentTimeMillis() ) ) {
+            log.log( Level.INFO, "recently checked: {0}", saved.getName() );
+            return upToDate( link, listener, ticketDir.resolve( saved.getName() ) );
         }
 
-        String fname = extractFilename( conn.getHeaderField( "Content-Disposition" ) );
-        if ( Utils.isBlank( fname ) ) {
-            log.log( Level.INFO, "received filename empty, retrieving from page", fname );
-            fname = link.getName();
+        if ( saved == null && offset == 0 && cache != null ) {
+            Path an = fromCache( link, listener, ticketDir, part );
+            if ( an != null ) {
+                return HttpURLConnection.HTTP_OK;
+            }
         }
-        log.log( Level.FINE, "filename: {0}", fname );
 
-        long expectedLength = conn.getHeaderFieldLong( "Content-Length", 0 );
-        log.log( Level.FINE, "expected length: {0}", expectedLength );
+        MessageDigest md5 = newDigest( "MD5" );
+        MessageDigest sha256 = newDigest( "SHA-256" );
+        LineIndexBuilder lines = offset > 0 && indexable( link.getName(), false, link.getSize() ) ? new LineIndexBuilder() : null;
+        if ( offset > 0 ) {
+            // the digests and the index must include the bytes received before. This is
+            // done before connecting so the disk can not keep the connection waiting
+            hashPrefix( part, offset, lines, md5, sha256 );
+        }
 
-        // create complete path without exceptions
-        Files.createDirectories( ticketDir );
+        HttpURLConnection conn = prepareConnection( link, "GET" );  // throws IOException
+        setConditions( conn, link, saved, offset );
 
-        long length;
+        log.log( Level.INFO, "fetching url: {0}", conn.getURL().toExternalForm() );
 
-        // save attachment
-        try ( BufferedInputStream in = new BufferedInputStream( conn.getInputStream(), (int) expectedLength ) ) {
+        try {
+            // execute the HTTP transaction
+            conn.connect();                     // throws SocketTimeoutException, IOException
 
-            Path an = ticketDir.resolve( fname );
+            // process result
+            int responseCode = conn.getResponseCode();
+            log.log( Level.INFO, "response code: {0}", responseCode );
 
-            int copyNum = 0;
-            do {
-                try {
-                    length = Files.copy( in, an );  // throws IOException, InvalidPathException, SecurityException
-                    break;
-                } catch ( FileAlreadyExistsException ex ) {
-                    copyNum++;
-                    an = ticketDir.resolve( deDupName( fname, copyNum ) );
+            if ( responseCode == HttpURLConnection.HTTP_NOT_MODIFIED && saved != null ) {
+                store.checked( link.getUrl(), System.currentTimeMillis() );
+                return upToDate( link, listener, ticketDir.resolve( saved.getName() ) );
+            }
+
+            if ( responseCode == HTTP_RANGE_NOT_SATISFIABLE ) {
+                // the partial file is not usable, next time start from scratch
+                deletePart( part );
+                return responseCode;
+            }
+
+            if ( responseCode == HttpURLConnection.HTTP_PARTIAL ) {
+                if ( rangeStart( conn.getHeaderField( "Content-Range" ) ) != offset ) {
+                    throw new IOException( "unexpected Content-Range: " + conn.getHeaderField( "Content-Range" ) );
                 }
-            } while ( true );
+            } else if ( responseCode == HttpURLConnection.HTTP_OK ) {
+                // full content, whatever was received before is discarded
+                offset = 0;
+                md5.reset();
+                sha256.reset();
+            } else {
+                // the transaction failed, no reason to continue
+                return responseCode;
+            }
+
+            String fname = attachmentName( conn, link );
+            String encoding = contentEncoding( conn, fname );
+            boolean encoded = ContentDecoding.isEncoded( encoding );
+            if ( encoded && offset > 0 ) {
+                throw new IOException( "encoded partial content: " + encoding );
+            }
+
+            // only a transfer starting from the first byte can be compressed
+            StoredCompression sc = compression;
+            boolean compress = sc != null && offset == 0 && sc.accepts( fname, conn.getContentType() );
+            Path target = part;
+            if ( compress ) {
+                deletePart( part );
+                target = zpart;
+            }
+
+            // Content-Length and Content-MD5 refer to the bytes on the wire, the
+            // length on disk is not known in advance when the content is encoded
+            long remaining = conn.getHeaderFieldLong( "Content-Length", -1 );
+            long wireLength = remaining < 0 ? -1 : offset + remaining;
+            long expectedLength = encoded ? -1 : wireLength;
+            log.log( Level.FINE, "expected length: {0}, encoding: {1}", new Object[] { wireLength, encoding } );
+
+            // a log is indexed only if all of it goes through here
+            if ( ! indexable( fname, compress, expectedLength ) ) {
+                lines = null;
+            } else if ( offset == 0 ) {
+                lines = new LineIndexBuilder();
+            }
+
+            String validator = validator( conn );
+            link.setPartialValidator( validator );
+
+            if ( target == part && offset == 0 ) {
+                // checked before resuming the partial file
+                writeLength( part, expectedLength );
+            }
+
+            listener.started( expectedLength );
+
+            if ( offset > 0 ) {
+                listener.transferred( offset );
+            }
 
-            log.log( Level.FINE, "saved file: {0}", an.toString() );
+            Received received = receive( conn, link, listener, target, compress, offset, wireLength, encoding, lines, md5, sha256 );
+            Files.deleteIfExists( lengthFile( part ) );
+
+            record( link, conn, ticketDir, store, saved, fname, compress ? sc : null, received );
+
+            return HttpURLConnection.HTTP_OK;
+
+        } finally {
+            // frees the connection also when the transfer is stopped halfway
+            conn.disconnect();
         }
+    }
+
+    /**
+     * Fetches the ticket attachment identified by the link into the archive of its
+     * ticket. The data streams into a new entry of the archive as it is received.
+     * <br/>
+     * The transfer always starts from the first byte: a stopped or corrupted transfer
+     * discards its entry. The received bytes are checked as in {@link #fetch(AttachmentLink, TransferListener)},
+     * text attachments are compressed if the format of the archive allows.
+     *
+     * @param link the attachment to be downloaded.
+     * @param archive the archive of the ticket of the attachment.
+     * @param listener notified of the progress of the download.
+     * @return the HTTP return code of the transaction.
+     * @throws TransferStoppedException if the transfer was paused or cancelled.
+     * @throws IntegrityException if the attachment was corrupted while transferring.
+     * @throws IOException in case of errors while downloading or writing the archive.
+     */
+    public int fetch(AttachmentLink link, TicketArchive archive, TransferListener listener) throws IOException {
 
-        log.log( Level.FINE, "expected length: {0}", expectedLength );
-        log.log( Level.FINE, "saved length: {0}", length );
+        MessageDigest md5 = newDigest( "MD5" );
+        MessageDigest sha256 = newDigest( "SHA-256" );
 
-        return responseCode;
+        HttpURLConnection conn = prepareConnection( link, "GET" );  // throws IOException
+        conn.setRequestProperty( "Accept-Encoding", ContentDecoding.acceptEncoding() );
+
+        log.log( Level.INFO, "fetching url: {0}", conn.getURL().toExternalForm() );
+
+        try {
+            conn.connect();                     // throws SocketTimeoutException, IOException
+
+            int responseCode = conn.getResponseCode();
+            log.log( Level.INFO, "response code: {0}", responseCode );
+
+            if ( responseCode != HttpURLConnection.HTTP_OK ) {
+                return responseCode;
+            }
+
+            String fname = attachmentName( conn, link );
+            String encoding = contentEncoding( conn, fname );
+
+            long wireLength = conn.getHeaderFieldLong( "Content-Length", -1 );
+            listener.started( ContentDecoding.isEncoded( encoding ) ? -1 : wireLength );
+
+            MeteredInputStream wire = new MeteredInputStream.Wire( new ControlledInputStream(
+                    limiter.throttle( conn.getInputStream(), link.getTicket().getSource() ), control ), listener );
+            InputStream body = new DigestInputStream( new DigestInputStream( wire, md5 ), sha256 );
+
+            StoredCompression sc = compression != null ? compression : TEXT;
+            boolean deflate = sc.accepts( fname, conn.getContentType() );
+
+            // the entry holds the archive until committed or aborted
+            TicketArchive.Entry entry = archive.begin( fname, deflate, false );
+            try {
+                try ( InputStream in = new MeteredInputStream( ContentDecoding.decode( body, encoding ), listener ) ) {
+                    Utils.copyStream( in, entry.getOutputStream() );
+                    Utils.copyStream( body, NULL_OUTPUT );
+                }
+
+                byte[] wireMd5 = md5.digest();
+                verify( wireLength, wire.getCount(), conn.getHeaderField( "Content-MD5" ), wireMd5 );
+                DigestHeader.check( conn.getHeaderField( "Digest" ), wireMd5, sha256.digest() );
+
+                entry.commit();
+            } finally {
+                entry.abort();
+            }
+            log.log( Level.FINE, "archived: {0}", entry.getName() );
+
+            link.setPartialValidator( null );
+            link.setPath( Paths.get( entry.getName() ) );
+
+            return HttpURLConnection.HTTP_OK;
+
+        } finally {
+            // frees the connection also when the transfer is stopped halfway
+            conn.disconnect();
+        }
+    }
+
+    /**
+     * Completes an attachment with a copy of the same file downloaded for another
+     * ticket, instead of downloading it again.
+     *
+     * @param source the downloaded attachment.
+     * @param link the attachment to complete, in another ticket.
+     * @return the path of the copy.
+     * @throws IOException in case of errors while copying.
+     */
+    public Path copy(AttachmentLink source, AttachmentLink link) throws IOException {
+
+        Path ticketDir = dirs.ensure( namer.getTicketPath( link.getTicket() ) );
+
+        // same steps as a download: a partial file, made durable, then renamed
+        Path part = ticketDir.resolve( partName( link, false ) );
+        Files.copy( source.getPath(), part, StandardCopyOption.REPLACE_EXISTING );
+        try ( FileChannel ch = FileChannel.open( part, StandardOpenOption.WRITE ) ) {
+            ch.force( true );
+        }
+
+        Path an = commit( part, ticketDir, source.getPath().getFileName().toString() );
+        log.log( Level.FINE, "copied file: {0}", an.toString() );
+
+        Path index = LineIndex.sidecar( source.getPath() );
+        if ( Files.exists( index ) ) {
+            try {
+                Files.copy( index, LineIndex.sidecar( an ), StandardCopyOption.REPLACE_EXISTING );
+            } catch ( IOException ex ) {
+                log.log( Level.WARNING, "copying line index: {0}", ex.toString() );
+            }
+        }
+
+        StorageCatalog.Entry original = catalog( source.getPath().getParent() ).get( source.getPath().getFileName().toString() );
+        if ( original != null ) {
+            catalog( ticketDir ).put( an.getFileName().toString(), original.getName(), original.getSize() );
+        }
+
+        link.setPath( an );
+
+        return an;
+    }
+
+    /**
+     * Retrieves the size of an attachment without downloading it.
+     *
+     * @param link the attachment.
+     * @return the size in bytes, -1 if the server does not tell.
+     * @throws IOException in case of connection errors.
+     */
+    public long probeSize(AttachmentLink link) throws IOException {
+
+        HttpURLConnection conn = prepareConnection( link, "HEAD" );
+        conn.setConnectTimeout( PROBE_TIMEOUT_MS );
+        conn.setReadTimeout( PROBE_TIMEOUT_MS );
+
+        try {
+            if ( conn.getResponseCode() != HttpURLConnection.HTTP_OK ) {
+                return -1;
+            }
+            long size = conn.getHeaderFieldLong( "Content-Length", -1 );
+            log.log( Level.FINE, "{0}: {1}", new Object[] { link.getName(), size } );
+            return size;
+        } finally {
+            conn.disconnect();
+        }
+    }
+
+    /**
+     * Flushes to disk the metadata of the directory of a ticket, if attachments were
+     * committed in it since the last call. The data of every attachment is already on
+     * disk when it is renamed, so calling this once per ticket is enough to make all
+     * the new names durable.
+     *
+     * @param ticket a ticket whose downloads are complete.
+     * @param changed true if other files were replaced in the directory.
+     */
+    public void syncDirectory(Ticket ticket, boolean changed) {
+        Path dir = namer.getTicketPath( ticket );
+        if ( dirtyDirs.remove( dir ) || changed ) {
+            log.log( Level.FINE, "syncing {0}", dir );
+            Utils.syncDirectory( dir );
+        }
     }
 
     //---- Support methods ---------------------------------------------------------
@@ -132,10 +558,11 @@ public class AttachmentFetcher
      * The connection is <b>not</b> established by this method.
      *
      * @param link the attachment to download.
+     * @param method the HTTP method.
      * @return the set up HttpURLConnection.
      * @throws IOException
      */
-    private HttpURLConnection prepareConnection(AttachmentLink link) throws IOException {
+    private HttpURLConnection prepareConnection(AttachmentLink link, String method) throws IOException {
 
         URL url;
         HttpURLConnection conn;
@@ -144,7 +571,7 @@ public class AttachmentFetcher
 
         conn = (HttpURLConnection) url.openConnection();        // throws IOException
 
-        conn.setRequestMethod( "GET" );                         // throws ProtocolException
+        conn.setRequestMethod( method );                        // throws ProtocolException
         conn.setAllowUserInteraction( false );
         conn.setUseCaches( false );
         conn.setRequestProperty( "User-Agent", HTTP_USER_AGENT );
@@ -156,6 +583,611 @@ public class AttachmentFetcher
         return conn;
     }
 
+    /**
+     * Checks that a downloaded attachment is complete.
+     *
+     * @param expectedLength the length announced by the server, negative if unknown.
+     * @param length the number of bytes received.
+     * @param contentMd5 the value of the Content-MD5 header, can be null.
+     * @param md5 the MD5 digest of the received bytes.
+     * @throws IntegrityException if the attachment is truncated or corrupted.
+     */
+    private void verify(long expectedLength, long length, String contentMd5, byte[] md5) throws IntegrityException {
+
+        if ( expectedLength >= 0 && expectedLength != length ) {
+            throw new IntegrityException( "length mismatch: expected " + expectedLength + ", received " + length );
+        }
+
+        if ( ! Utils.isBlank( contentMd5 ) && ! Arrays.equals( DatatypeConverter.parseBase64Binary( contentMd5.trim() ), md5 ) ) {
+            throw new IntegrityException( "MD5 mismatch: expected " + contentMd5 + ", received "
+                    + DatatypeConverter.printBase64Binary( md5 ) );
+        }
+    }
+
+    /**
+     * @param conn a connection with a response.
+     * @param link the attachment.
+     * @return the name sent by the server, or the one in the page if none.
+     */
+    private String attachmentName(HttpURLConnection conn, AttachmentLink link) {
+        String fname = extractFilename( conn.getHeaderField( "Content-Disposition" ) );
+        if ( Utils.isBlank( fname ) ) {
+            log.log( Level.INFO, "received filename empty, retrieving from page", fname );
+            fname = link.getName();
+        }
+        log.log( Level.FINE, "filename: {0}", fname );
+        return fname;
+    }
+
+    /**
+     * @param conn a connection with a response.
+     * @param fname the name of the attachment.
+     * @return the Content-Encoding to decode, null if the content must be stored as it is.
+     */
+    private static String contentEncoding(HttpURLConnection conn, String fname) {
+        String encoding = conn.getHeaderField( "Content-Encoding" );
+        if ( ContentDecoding.isEncoded( encoding ) && isCompressedFile( fname ) ) {
+            // the attachment itself is compressed, it must be stored as it is
+            log.log( Level.FINE, "keeping {0} encoding of {1}", new Object[] { encoding, fname } );
+            return null;
+        }
+        return encoding;
+    }
+
+    /**
+     * Checks whether an attachment is a gzip file. Some servers send such files with
+     * "Content-Encoding: gzip" and decoding them would store the uncompressed content.
+     *
+     * @param fname the name of the attachment.
+     * @return true if the attachment is compressed with gzip.
+     */
+    private static boolean isCompressedFile(String fname) {
+        int extIdx = fname.lastIndexOf( '.' );
+        return extIdx >= 0 && COMPRESSED_EXTS.contains( fname.substring( extIdx + 1 ).toLowerCase() );
+    }
+
+    /**
+     * The name of the partial file of an attachment. It depends only on the URL so
+     * that a stopped download can be found and resumed.
+     *
+     * @param link the attachment.
+     * @param compressed true for the partial file of a compressed attachment.
+     * @return the name of the partial file.
+     */
+    private static String partName(AttachmentLink link, boolean compressed) {
+        byte[] hash = newDigest( "SHA-1" ).digest( link.getUrl().getBytes( StandardCharsets.UTF_8 ) );
+        return PART_PREFIX + hex( hash )
+                + ( compressed ? StoredCompression.SUFFIX : "" ) + PART_SUFFIX;
+    }
+
+    /**
+     * @param part a partial file.
+     * @return the file holding the length of the complete attachment.
+     */
+    private static Path lengthFile(Path part) {
+        return part.resolveSibling( part.getFileName() + LENGTH_SUFFIX );
+    }
+
+    /**
+     * Records the length of the attachment received in a partial file.
+     *
+     * @param part the partial file.
+     * @param length the length of the complete attachment, negative if unknown.
+     * @throws IOException in case of errors writing the file.
+     */
+    private void writeLength(Path part, long length) throws IOException {
+        Path file = lengthFile( part );
+        if ( length < 0 ) {
+            Files.deleteIfExists( file );
+        } else {
+            dirs.ensure( part.getParent() );
+            Files.write( file, Long.toString( length ).getBytes( StandardCharsets.US_ASCII ) );
+        }
+    }
+
+    /**
+     * @param part a partial file.
+     * @return the length of the complete attachment, -1 if not recorded.
+     */
+    private static long readLength(Path part) {
+        try {
+            return Long.parseLong( new String( Files.readAllBytes( lengthFile( part ) ), StandardCharsets.US_ASCII ).trim() );
+        } catch ( IOException | NumberFormatException ex ) {
+            return -1;
+        }
+    }
+
+    /**
+     * Deletes a partial file and the length recorded with it.
+     */
+    private static void deletePart(Path part) throws IOException {
+        Files.deleteIfExists( part );
+        Files.deleteIfExists( lengthFile( part ) );
+    }
+
+    /**
+     * Opens the partial file receiving an attachment.
+     *
+     * @param part the partial file.
+     * @param offset the bytes already in the file.
+     * @param compress true to compress the attachment.
+     * @param lines receives the bytes to index, can be null.
+     * @return the stream receiving the attachment.
+     * @throws IOException in case of errors opening the file.
+     */
+    private OutputStream openPart(Path part, long offset, boolean compress, LineIndexBuilder lines) throws IOException {
+
+        if ( ! compress ) {
+            OutputStream out = new AsyncFileWriter( writers, part, offset, dirs );
+            return lines != null ? lines.wrap( out ) : out;
+        }
+
+        OutputStream out = new AsyncFileWriter( writers, part, 0, dirs );
+        try {
+            return StoredCompression.compress( out );
+        } catch ( IOException | RuntimeException ex ) {
+            out.close();
+            throw ex;
+        }
+    }
+
+    /**
+     * Feeds the first bytes of a file to some digests.
+     *
+     * @param file the file.
+     * @param length the number of bytes.
+     * @param lines the index of the file, can be null.
+     * @param mds the digests.
+     * @throws IOException in case of errors reading the file.
+     */
+    private static void hashPrefix(Path file, long length, LineIndexBuilder lines, MessageDigest... mds) throws IOException {
+        byte[] buf = new byte[8192];
+        try ( InputStream in = Files.newInputStream( file ) ) {
+            long left = length;
+            while ( left > 0 ) {
+                int n = in.read( buf, 0, (int) Math.min( buf.length, left ) );
+                if ( n < 0 ) {
+                    throw new IOException( "partial file shorter than expected" );
+                }
+                for ( MessageDigest md : mds ) {
+                    md.update( buf, 0, n );
+                }
+                if ( lines != null ) {
+                    lines.update( buf, 0, n );
+                }
+                left -= n;
+            }
+        }
+    }
+
+    private static String hex(byte[] hash) {
+        return DatatypeConverter.printHexBinary( hash ).toLowerCase();
+    }
+
+    /**
+     * @param contentRange the value of the Content-Range header, e.g. "bytes 100-999/1000".
+     * @return the first byte of the range, -1 if the header is not valid.
+     */
+    private static long rangeStart(String contentRange) {
+        if ( contentRange == null || ! contentRange.startsWith( "bytes " ) ) {
+            return -1;
+        }
+        int dash = contentRange.indexOf( '-' );
+        try {
+            return Long.parseLong( contentRange.substring( 6, dash ).trim() );
+        } catch ( NumberFormatException | IndexOutOfBoundsException ex ) {
+            return -1;
+        }
+    }
+
+    /**
+     * @param conn a connection with a response.
+     * @return the strong validator of the response, null if none.
+     */
+    private static String validator(HttpURLConnection conn) {
+        String etag = conn.getHeaderField( "ETag" );
+        if ( etag != null && ! etag.startsWith( "W/" ) ) {
+            return etag;
+        }
+        return conn.getHeaderField( "Last-Modified" );
+    }
+
+    /**
+     * Atomically renames a completely downloaded attachment to its final name.
+     * If a file with the same name already exists a de-duplicated name is used,
+     * an existing file is never replaced even if created by another process.
+     * Names are reserved in the {@link FileNameIndex} so concurrent workers never
+     * pick the same one.
+     * <br/>
+     * The rename happens in the same directory so it never leaves a partial file behind.
+     *
+     * @param tmp the partial file.
+     * @param ticketDir the ticket directory.
+     * @param fname the name of the attachment.
+     * @return the final path of the attachment.
+     * @throws IOException in case of errors while renaming.
+     */
+    private Path commit(Path tmp, Path ticketDir, String fname) throws IOException {
+
+        Path an;
+
+        do {
+            String name = names.reserve( ticketDir, fname );
+            an = ticketDir.resolve( name );
+            try {
+                Utils.moveNoReplace( tmp, an );     // throws IOException, InvalidPathException, SecurityException
+                break;
+            } catch ( FileAlreadyExistsException ex ) {
+                // created by someone else after the directory was indexed, the name stays taken
+                log.log( Level.FINE, "appeared: {0}", an );
+            } catch ( IOException | RuntimeException ex ) {
+                names.release( ticketDir, name );
+                throw ex;
+            }
+        } while ( true );
+
+        dirtyDirs.add( ticketDir );
+
+        return an;
+    }
+
+    /**
+     * Sets the request headers that make a download conditional: on the validators
+     * of the saved copy, and on the validator of the partial file when resuming.
+     *
+     * @param conn the connection, not yet connected.
+     * @param link the attachment.
+     * @param saved the copy saved by a previous download, can be null.
+     * @param offset the length of the partial file.
+     */
+    private static void setConditions(HttpURLConnection conn, AttachmentLink link, ValidatorStore.Entry saved, long offset) {
+
+        // a resumed transfer continues the stored bytes, it can not be compressed
+        conn.setRequestProperty( "Accept-Encoding", offset > 0 ? "identity" : ContentDecoding.acceptEncoding() );
+
+        if ( saved != null ) {
+            // only the attachments that changed are sent again
+            if ( saved.getEtag() != null ) {
+                conn.setRequestProperty( "If-None-Match", saved.getEtag() );
+            }
+            if ( saved.getLastModified() != null ) {
+                conn.setRequestProperty( "If-Modified-Since", saved.getLastModified() );
+            }
+        }
+
+        if ( offset > 0 ) {
+            log.log( Level.INFO, "resuming from byte {0}", offset );
+            conn.setRequestProperty( "Range", "bytes=" + offset + "-" );
+            if ( link.getPartialValidator() != null ) {
+                conn.setRequestProperty( "If-Range", link.getPartialValidator() );
+            }
+        }
+    }
+
+    /**
+     * Receives the body of a response into a partial file and checks it against
+     * the length and the digests announced by the server. A corrupted file is deleted.
+     *
+     * @param conn the connection.
+     * @param link the attachment.
+     * @param listener notified of the progress of the download.
+     * @param target the partial file.
+     * @param compress true if the file is stored compressed.
+     * @param offset the bytes of the partial file already received.
+     * @param wireLength the length of the whole attachment on the wire, negative if unknown.
+     * @param encoding the content encoding of the body, can be null.
+     * @param lines the line index to build, can be null.
+     * @param md5 the MD5 digest of the wire, including the bytes already received.
+     * @param sha256 the SHA-256 digest of the wire, including the bytes already received.
+     * @return the received file.
+     * @throws TransferStoppedException if the transfer was paused or cancelled.
+     * @throws IntegrityException if the attachment was corrupted while transferring.
+     * @throws IOException in case of errors while receiving or writing.
+     */
+    private Received receive(HttpURLConnection conn, AttachmentLink link, TransferListener listener, Path target, boolean compress,
+            long offset, long wireLength, String encoding, LineIndexBuilder lines, MessageDigest md5, MessageDigest sha256) throws IOException {
+
+        boolean encoded = ContentDecoding.isEncoded( encoding );
+        long length;
+
+        MeteredInputStream wire = new MeteredInputStream.Wire( new ControlledInputStream(
+                limiter.throttle( conn.getInputStream(), link.getTicket().getSource() ), control ), listener );
+        InputStream body = new DigestInputStream( new DigestInputStream( wire, md5 ), sha256 );
+
+        // the digests of the wire are the digests of the content unless it is encoded
+        MessageDigest contentSha256 = encoded ? newDigest( "SHA-256" ) : sha256;
+        InputStream content = ContentDecoding.decode( body, encoding );
+        if ( encoded ) {
+            content = new DigestInputStream( content, contentSha256 );
+        }
+
+        // the file is written by the I/O executor, closing the writer waits until the
+        // data is on disk: before the rename makes the file visible, and before resuming
+        // a stopped transfer from it
+        try ( OutputStream out = openPart( target, offset, compress, lines );
+              InputStream in = new MeteredInputStream( content, listener ) ) {
+            length = offset + Utils.copyStream( in, out );
+
+            // decoders can stop before the end of the body, it must be digested anyway
+            Utils.copyStream( body, NULL_OUTPUT );
+        }
+
+        log.log( Level.FINE, "saved length: {0}, received: {1}", new Object[] { length, wire.getCount() } );
+
+        byte[] wireMd5 = md5.digest();
+        byte[] wireSha256 = sha256.digest();
+        String hash = hex( encoded ? contentSha256.digest() : wireSha256 );
+
+        try {
+            // Content-MD5 refers to the body, Digest to the whole attachment
+            verify( wireLength, offset + wire.getCount(), offset == 0 ? conn.getHeaderField( "Content-MD5" ) : null, wireMd5 );
+            DigestHeader.check( conn.getHeaderField( "Digest" ), wireMd5, wireSha256 );
+        } catch ( IntegrityException ex ) {
+            deletePart( target );
+            throw ex;
+        }
+
+        return new Received( target, length, hash, lines );
+    }
+
+    /**
+     * Moves a received attachment to its final name and records it: in the link,
+     * in the validators of the ticket directory and in the shared cache.
+     * <br/>
+     * A new version of an attachment downloaded before replaces the saved copy,
+     * unless the content is the same.
+     *
+     * @param link the attachment.
+     * @param conn the connection.
+     * @param ticketDir the ticket directory.
+     * @param store the validators of the ticket directory.
+     * @param saved the copy saved by a previous download, can be null.
+     * @param fname the name of the attachment.
+     * @param sc the compression of the received file, null if not compressed.
+     * @param received the received file.
+     * @throws IOException in case of errors while renaming.
+     */
+    private void record(AttachmentLink link, HttpURLConnection conn, Path ticketDir, ValidatorStore store,
+            ValidatorStore.Entry saved, String fname, StoredCompression sc, Received received) throws IOException {
+
+        String storedName = sc != null ? sc.storedName( fname ) : fname;
+
+        Path an;
+        if ( saved != null && saved.getName().equalsIgnoreCase( storedName ) && received.sha256.equals( saved.getSha256() ) ) {
+            // new validators, same content: the saved file is kept as it is
+            log.log( Level.INFO, "content unchanged: {0}", saved.getName() );
+            Files.delete( received.file );
+            an = ticketDir.resolve( saved.getName() );
+        } else if ( saved != null && saved.getName().equalsIgnoreCase( storedName ) ) {
+            // a new version of an attachment downloaded before
+            an = ticketDir.resolve( saved.getName() );
+            Files.move( received.file, an, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE );
+            dirtyDirs.add( ticketDir );
+        } else {
+            an = commit( received.file, ticketDir, storedName );
+        }
+        log.log( Level.FINE, "saved file: {0}", an.toString() );
+
+        if ( sc != null ) {
+            catalog( ticketDir ).put( an.getFileName().toString(), fname, received.length );
+        }
+        if ( received.lines != null ) {
+            writeIndex( received.lines.build(), an );
+        }
+
+        String validator = link.getPartialValidator();
+        link.setPartialValidator( null );
+        link.setPath( an );
+
+        store.put( link.getUrl(), an.getFileName().toString(),
+                conn.getHeaderField( "ETag" ), conn.getHeaderField( "Last-Modified" ), received.sha256, System.currentTimeMillis() );
+
+        if ( cache != null && sc == null ) {
+            // the next user of the cache gets it from here
+            cache.store( link.getUrl(), an, fname, validator );
+        }
+    }
+
+    /**
+     * Completes an attachment with the file saved by a previous download, that
+     * did not change on the server. Only its size is reported to the listener,
+     * nothing was transferred.
+     *
+     * @param link the attachment.
+     * @param listener notified of the progress of the download.
+     * @param file the saved file.
+     * @return HTTP_OK.
+     * @throws IOException in case of errors reading the size of the file.
+     */
+    private int upToDate(AttachmentLink link, TransferListener listener, Path file) throws IOException {
+
+        StorageCatalog.Entry original = catalog( file.getParent() ).get( file.getFileName().toString() );
+        long size = original != null && original.getSize() >= 0 ? original.getSize() : Files.size( file );
+        listener.started( size );
+
+        link.setPath( file );
+
+        return HttpURLConnection.HTTP_OK;
+    }
+
+    /**
+     * @param ticketDir a ticket directory.
+     * @return the validators of the attachments saved in the directory.
+     */
+    private ValidatorStore validators(Path ticketDir) {
+        ValidatorStore store = validators.get( ticketDir );
+        if ( store == null ) {
+            ValidatorStore created = new ValidatorStore( ticketDir );
+            store = validators.putIfAbsent( ticketDir, created );
+            if ( store == null ) {
+                store = created;
+            }
+        }
+        return store;
+    }
+
+    /**
+     * @param fname the name of an attachment.
+     * @param compress true if the attachment is stored compressed.
+     * @param length the length of the attachment, negative if unknown.
+     * @return true if the attachment must be indexed.
+     */
+    private boolean indexable(String fname, boolean compress, long length) {
+        long min = lineIndexMin;
+        return min >= 0 && ! compress && LineIndexBuilder.accepts( fname ) && ( length < 0 || length >= min );
+    }
+
+    /**
+     * Saves the line index of a log. Small logs, whose length was not known before,
+     * are not worth an index. A failure does not affect the download.
+     *
+     * @param index the index.
+     * @param file the log.
+     */
+    private void writeIndex(LineIndex index, Path file) {
+        if ( index.getLength() < lineIndexMin ) {
+            return;
+        }
+        try {
+            index.write( LineIndex.sidecar( file ) );
+            log.log( Level.FINE, "{0}: {1}", new Object[] { file.getFileName(), index } );
+        } catch ( IOException ex ) {
+            log.log( Level.WARNING, "saving line index: {0}", ex.toString() );
+        }
+    }
+
+    /**
+     * @param ticketDir a ticket directory.
+     * @return the catalog of the attachments compressed in the directory.
+     */
+    private StorageCatalog catalog(Path ticketDir) {
+        StorageCatalog catalog = catalogs.get( ticketDir );
+        if ( catalog == null ) {
+            StorageCatalog created = new StorageCatalog( ticketDir );
+            catalog = catalogs.putIfAbsent( ticketDir, created );
+            if ( catalog == null ) {
+                catalog = created;
+            }
+        }
+        return catalog;
+    }
+
+    /**
+     * Completes an attachment with the copy in the shared cache. The copy is used
+     * only if the server confirms, with a HEAD request, that it is still current.
+     * <br/>
+     * The copy is reported to the listener only when complete, so a failure can fall
+     * back to a normal download.
+     *
+     * @param link the attachment.
+     * @param listener notified of the progress of the download.
+     * @param ticketDir the ticket directory.
+     * @param part the partial file.
+     * @return the final path of the attachment, null if it must be downloaded.
+     * @throws TransferStoppedException if the transfer was paused or cancelled.
+     * @throws IOException in case of errors while renaming.
+     */
+    private Path fromCache(AttachmentLink link, TransferListener listener, Path ticketDir, Path part) throws IOException {
+
+        AttachmentCache.Entry entry = cache.lookup( link.getUrl() );
+        if ( entry == null || ! isCurrent( link, entry ) ) {
+            return null;
+        }
+
+        log.log( Level.INFO, "from cache: {0}", entry );
+
+        MessageDigest sha256 = newDigest( "SHA-256" );
+        String name = Utils.isBlank( entry.getName() ) ? link.getName() : entry.getName();
+        LineIndexBuilder lines = indexable( name, false, entry.getSize() ) ? new LineIndexBuilder() : null;
+
+        try ( InputStream in = new DigestInputStream( new ControlledInputStream( Files.newInputStream( entry.getData() ), control ), sha256 );
+              OutputStream out = openPart( part, 0, false, lines ) ) {
+            Utils.copyStream( in, out );
+        } catch ( TransferStoppedException ex ) {
+            // copying again is cheaper than resuming from the server
+            Files.deleteIfExists( part );
+            throw ex;
+        } catch ( IOException ex ) {
+            // evicted or replaced meanwhile
+            log.log( Level.WARNING, "reading cache: {0}", ex.toString() );
+            Files.deleteIfExists( part );
+            return null;
+        }
+
+        if ( Files.size( part ) != entry.getSize() ) {
+            Files.deleteIfExists( part );
+            return null;
+        }
+
+        listener.started( entry.getSize() );
+        listener.transferred( entry.getSize() );
+
+        cache.touch( entry );
+
+        Path an = commit( part, ticketDir, name );
+        log.log( Level.FINE, "saved file: {0}", an.toString() );
+
+        if ( lines != null ) {
+            writeIndex( lines.build(), an );
+        }
+
+        link.setPath( an );
+
+        // the cache keeps a single validator, an ETag is always quoted
+        String v = entry.getValidator();
+        boolean etag = v.startsWith( "\"" ) || v.startsWith( "W/" );
+        validators( ticketDir ).put( link.getUrl(), an.getFileName().toString(),
+                etag ? v : null, etag ? null : v, hex( sha256.digest() ), System.currentTimeMillis() );
+
+        return an;
+    }
+
+    /**
+     * Asks the server if a cached attachment is still current: the validators
+     * must be the same and so the lengths. Without a validator the length is
+     * not enough.
+     *
+     * @param link the attachment.
+     * @param entry the cached copy.
+     * @return true if the cached copy can be used.
+     */
+    private boolean isCurrent(AttachmentLink link, AttachmentCache.Entry entry) {
+
+        if ( entry.getValidator() == null ) {
+            return false;
+        }
+
+        try {
+            HttpURLConnection conn = prepareConnection( link, "HEAD" );
+            try {
+                if ( conn.getResponseCode() != HttpURLConnection.HTTP_OK ) {
+                    return false;
+                }
+                long length = conn.getHeaderFieldLong( "Content-Length", -1 );
+                return entry.getValidator().equals( validator( conn ) ) && ( length < 0 || length == entry.getSize() );
+            } finally {
+                conn.disconnect();
+            }
+        } catch ( IOException ex ) {
+            log.log( Level.WARNING, "checking cached copy: {0}", ex.toString() );
+            return false;
+        }
+    }
+
+    /**
+     * Creates a {@link MessageDigest} for an algorithm every JVM must support.
+     *
+     * @param algorithm the name of the algorithm.
+     * @return the MessageDigest.
+     */
+    private static MessageDigest newDigest(String algorithm) {
+        try {
+            return MessageDigest.getInstance( algorithm );
+        } catch ( NoSuchAlgorithmException ex ) {
+            throw new IllegalStateException( ex );
+        }
+    }
+
     /**
      * Extracts the filename from the Content-Disposition response header.
      *
@@ -173,41 +1205,30 @@ public class AttachmentFetcher
         return "";
     }
 
+    //---- Received ----------------------------------------------------------------
+
     /**
-     * De-duplicates the name of a file that is already existing on the filesystem.
-     *
-     * @param fname the name of the duplicate fie.
-     * @param copyNum number of copy.
-     * @return the de-duplicated name.
+     * An attachment received in a partial file and verified.
      */
-    private String deDupName(String fname, int copyNum) {
-
-        String newName;
+    private static final class Received
+    {
+        /** The partial file. */
+        private final Path file;
 
-        // position of extension
-        int extIdx = fname.lastIndexOf( '.' );
-
-        if ( extIdx > 0 ) {
-            // extension found
+        /** The length of the content, before the stored compression. */
+        private final long length;
 
-            // check for special extensions
-            if ( DOUBLE_EXTS.contains( fname.substring( extIdx + 1 ) ) ) {
-                extIdx = fname.lastIndexOf( '.', extIdx - 1 );
-            }
+        /** The SHA-256 of the content, hex encoded. */
+        private final String sha256;
 
-            String ext = fname.substring( extIdx + 1 );
-            String basename = fname.substring( 0, extIdx );
+        /** The line index of the content, null if not indexed. */
+        private final LineIndexBuilder lines;
 
-            newName = basename + "(" + copyNum + ")." + ext;
-
-        } else {
-            // no extension
-
-            newName = fname + "(" + copyNum + ")";
+        Received(Path file, long length, String sha256, LineIndexBuilder lines) {
+            this.file = file;
+            this.length = length;
+            this.sha256 = sha256;
+            this.lines = lines;
         }
-
-        log.log( Level.FINE, "new name: {0}", newName );
-
-        return newName;
     }
 }
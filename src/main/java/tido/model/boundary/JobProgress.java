@@ -0,0 +1,115 @@
+/*
+ * Copyright 2013 Andrea Cisternino <a.cisternino@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package tido.model.boundary;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+import tido.model.AttachmentLink;
+import tido.transfer.ByteProgress;
+import tido.transfer.TransferListener;
+
+/**
+ * Forwards the bytes of a single attachment download to the progress of its
+ * ticket and of the whole batch.
+ *
+ * @author Andrea Cisternino
+ */
+class JobProgress implements TransferListener
+{
+    private final AttachmentLink link;
+
+    private final ByteProgress[] targets;
+
+    /** Bytes received from the network by the whole batch. */
+    private final AtomicLong wire;
+
+    /** Size of the attachment, negative while unknown. */
+    private long expected;
+
+    private long received = 0;
+
+    //---- Lifecycle ---------------------------------------------------------------
+
+    /**
+     * @param link the attachment. Its size must already be expected by the targets.
+     * @param wire the counter of the bytes received from the network.
+     * @param targets the progress objects to update.
+     */
+    JobProgress(AttachmentLink link, AtomicLong wire, ByteProgress... targets) {
+        this.link = link;
+        this.wire = wire;
+        this.targets = targets;
+        this.expected = link.getSize();
+    }
+
+    //---- TransferListener --------------------------------------------------------
+
+    @Override
+    public void started(long expectedLength) {
+        if ( expected < 0 && expectedLength >= 0 ) {
+            expected = expectedLength;
+            link.setSize( expectedLength );
+            for ( ByteProgress target : targets ) {
+                target.discovered( expectedLength );
+            }
+        }
+    }
+
+    @Override
+    public void transferred(long bytes) {
+        received += bytes;
+        for ( ByteProgress target : targets ) {
+            target.add( bytes );
+        }
+    }
+
+    @Override
+    public void received(long wireBytes) {
+        wire.addAndGet( wireBytes );
+    }
+
+    //---- API ---------------------------------------------------------------------
+
+    /**
+     * Takes back the bytes received by a transfer that was stopped and will be
+     * resumed later. The resumed transfer reports them again.
+     */
+    void abort() {
+        for ( ByteProgress target : targets ) {
+            target.add( -received );
+        }
+        received = 0;
+    }
+
+    /**
+     * Accounts the whole attachment as done, whatever the outcome of the download.
+     *
+     * @return the bytes accounted as done without being transferred.
+     */
+    long finish() {
+        if ( expected < 0 ) {
+            for ( ByteProgress target : targets ) {
+                target.discovered( received );
+            }
+        } else if ( received < expected ) {
+            for ( ByteProgress target : targets ) {
+                target.add( expected - received );
+            }
+            return expected - received;
+        }
+        return 0;
+    }
+}
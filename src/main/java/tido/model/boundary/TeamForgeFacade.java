@@ -15,8 +15,12 @@
  */
 package tido.model.boundary;
 
+import java.io.IOException;
 import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
+import java.util.logging.Level;
 import java.util.logging.Logger;
 
 import javafx.beans.binding.Bindings;
@@ -26,13 +30,25 @@ import javafx.beans.property.ListProperty;
 import javafx.beans.property.SimpleBooleanProperty;
 import javafx.beans.property.SimpleDoubleProperty;
 import javafx.beans.property.SimpleListProperty;
+import javafx.beans.property.SimpleStringProperty;
+import javafx.beans.property.StringProperty;
 import javafx.collections.FXCollections;
 import javafx.collections.ObservableList;
 import javafx.concurrent.WorkerStateEvent;
 import javafx.event.EventHandler;
 
 import tido.config.ConfigManager;
+import tido.config.ParserDefinition;
+import tido.config.ParserDefinitionList;
+import tido.journal.Journal;
+import tido.journal.JournalRecorder;
+import tido.journal.JournalState;
+import tido.model.AttachmentLink;
+import tido.model.AttachmentState;
 import tido.model.Ticket;
+import tido.model.TicketState;
+import tido.scraping.PageParserRegistry;
+import tido.scraping.SelectorPageParserProvider;
 
 /**
  * Façade class mediating all access to the TeamForge server.
@@ -43,12 +59,21 @@ public class TeamForgeFacade
 {
     private static final Logger log = Logger.getLogger( TeamForgeFacade.class.getName(), null );
 
+    /** The application configuration. */
+    private final ConfigManager config;
+
     /** The JavaFX service used to download the tickets. */
     private TicketDownloadService tds;
 
     /** The JavaFX service used to download the attachments of all the tickets in the list. */
     private final AttachmentDownloadService ads;
 
+    /** Keeps the list and the download state across restarts. */
+    private final Journal journal;
+
+    /** The ticket being fetched again, replaced and downloaded as soon as parsed. Null if none. */
+    private Ticket resyncing;
+
     //---- Properties --------------------------------------------------------------
 
     /**
@@ -64,6 +89,18 @@ public class TeamForgeFacade
     private final BooleanProperty busy = new SimpleBooleanProperty( this, "busy", false );
     public BooleanProperty busyProperty() { return busy; }
 
+    /**
+     * Are we downloading attachments?
+     */
+    private final BooleanProperty downloading = new SimpleBooleanProperty( this, "downloading", false );
+    public BooleanProperty downloadingProperty() { return downloading; }
+
+    /**
+     * Is the attachments download paused?
+     */
+    private final BooleanProperty paused = new SimpleBooleanProperty( this, "paused", false );
+    public BooleanProperty pausedProperty() { return paused; }
+
     /**
      * The progress of the attachment download process. This number includes
      * all the attachments from all the tickets.
@@ -71,17 +108,50 @@ public class TeamForgeFacade
     private final DoubleProperty progress = new SimpleDoubleProperty( this, "progress", 0.0d );
     public DoubleProperty progressProperty() { return progress; }
 
+    /**
+     * Throughput, amount of data and ETA of the attachment download process.
+     */
+    private final StringProperty status = new SimpleStringProperty( this, "status", "" );
+    public StringProperty statusProperty() { return status; }
+
     //---- Lifecycle ---------------------------------------------------------------
 
     public TeamForgeFacade(ConfigManager config) {
 
+        this.config = config;
+
+        journal = new Journal( config.getConfigDir().resolve( Journal.JOURNAL_FILE ) );
+
+        // page parsers defined by the user replace the built-in ones
+        registerParsers( config.parsers() );
+
         // create and configure TicketDownloadService
         tds = new TicketDownloadService( config );
         tds.setOnSucceeded( new EventHandler<WorkerStateEvent>() {
             @Override
             public void handle(WorkerStateEvent t) {
-                list.addAll( tds.getValue() );
                 log.info( "tickets downloaded" );
+
+                if ( resyncing == null ) {
+                    list.addAll( tds.getValue() );
+                    return;
+                }
+
+                Ticket updated = replaceTicket( list, resyncing, tds.getValue() );
+                resyncing = null;
+                if ( updated != null ) {
+                    ads.setSelection( Collections.singletonList( updated ) );
+                    downloadAttachments();
+                }
+            }
+        } );
+        tds.setOnFailed( new EventHandler<WorkerStateEvent>() {
+            @Override
+            public void handle(WorkerStateEvent t) {
+                log.log( Level.SEVERE, "tickets download failed:", tds.getException() );
+
+                // a ticket being re-synced stays as it was
+                resyncing = null;
             }
         } );
 
@@ -91,19 +161,75 @@ public class TeamForgeFacade
             @Override
             public void handle(WorkerStateEvent t) {
                 log.info( "attachments downloaded" );
+                journal.batchFinished();
+            }
+        } );
+        ads.setOnCancelled( new EventHandler<WorkerStateEvent>() {
+            @Override
+            public void handle(WorkerStateEvent t) {
+                log.info( "attachments download cancelled" );
+                journal.batchFinished();
+            }
+        } );
+        ads.setOnFailed( new EventHandler<WorkerStateEvent>() {
+            @Override
+            public void handle(WorkerStateEvent t) {
+                log.log( Level.SEVERE, "attachments download failed:", ads.getException() );
+                journal.batchFinished();
             }
         } );
         ads.setTickets( list );
 
         // we track only the progress of the attachments download
         progress.bind( ads.progressProperty() );
+        status.bind( ads.messageProperty() );
 
         // the global busy property
         busy.bind( Bindings.or( tds.runningProperty(), ads.runningProperty() ) );
+
+        downloading.bind( ads.runningProperty() );
+        paused.bind( ads.pausedProperty() );
     }
 
     //---- API ---------------------------------------------------------------------
 
+    /**
+     * Restores the tickets of the previous session from the journal and starts
+     * recording the changes of the list. Must be called once, at startup.
+     *
+     * @return true if the previous session was interrupted while downloading.
+     */
+    public boolean restoreJournal() {
+
+        boolean resume = false;
+
+        try {
+            JournalState state = journal.read( config.servers() );
+            list.addAll( state.getTickets() );
+            resume = state.isBatchRunning() && ! state.getTickets().isEmpty();
+
+            // start from a compact journal
+            journal.rewrite( list );
+            journal.open();
+
+        } catch ( IOException ex ) {
+            log.log( Level.SEVERE, "restoring journal:", ex );
+        }
+
+        new JournalRecorder( journal ).attach( list );
+
+        log.log( Level.INFO, "{0} tickets restored, resume: {1}", new Object[] { list.size(), resume } );
+
+        return resume;
+    }
+
+    /**
+     * Called when the application quits.
+     */
+    public void close() {
+        journal.close();
+    }
+
     /**
      * Download a list of Tickets.
      * <br/>
@@ -114,19 +240,138 @@ public class TeamForgeFacade
     public void fetchTickets(List<String> urls) {
         log.info( Integer.toString( urls.size() ) );
 
+        resyncing = null;
         tds.setTicketUrls( urls );
         tds.restart();
     }
 
+    /**
+     * Fetches a ticket again and downloads what changed. Attachments downloaded
+     * before are only checked with the server, and not checked at all if that
+     * was done recently.
+     * <br/>
+     * The ticket stays in the list until its page has been fetched and parsed, then
+     * it is replaced in the same position. If the page can not be fetched nothing changes.
+     *
+     * @param ticket the ticket to update.
+     */
+    public void resync(Ticket ticket) {
+        log.log( Level.INFO, "{0}", ticket.getId() );
+
+        resyncing = ticket;
+        tds.setTicketUrls( Collections.singletonList( ticket.getUrl() ) );
+        tds.restart();
+    }
+
     /**
      * Download all the attachments of the tickets contained in the list.
      */
     public void downloadAttachments() {
         log.info( "called" );
 
+        journal.batchStarted();
         ads.restart();
     }
 
+    /**
+     * Downloads again the attachments that failed. Only the failed tickets are
+     * processed and, in those, only the attachments that were not downloaded.
+     * The ticket pages are not fetched again. Nothing is done while the
+     * attachments are being downloaded.
+     *
+     * @return the number of tickets retried.
+     */
+    public int retryFailed() {
+
+        if ( downloading.get() ) {
+            log.warning( "attachments download running, retry ignored" );
+            return 0;
+        }
+
+        List<Ticket> failed = resetFailed( list );
+
+        log.log( Level.INFO, "retrying {0} tickets", failed.size() );
+
+        if ( ! failed.isEmpty() ) {
+            ads.setSelection( failed );
+            downloadAttachments();
+        }
+
+        return failed.size();
+    }
+
+    /**
+     * Downloads the attachments of a ticket that were left out by the skip rules.
+     * The rules are not applied to them again.
+     *
+     * @param ticket the ticket.
+     * @return the number of attachments requested.
+     */
+    public int fetchSkipped(Ticket ticket) {
+
+        List<AttachmentLink> skipped = ticket.getAttachments( AttachmentState.SKIPPED );
+        for ( AttachmentLink link : skipped ) {
+            link.setState( AttachmentState.REQUESTED );
+        }
+
+        log.log( Level.INFO, "{0}: {1} skipped attachments requested", new Object[] { ticket.getId(), skipped.size() } );
+
+        if ( ! skipped.isEmpty() ) {
+            ticket.setProcessed( TicketState.NOT_PROCESSED );
+            ticket.setProgress( 0d );
+            ads.setSelection( Collections.singletonList( ticket ) );
+            downloadAttachments();
+        }
+
+        return skipped.size();
+    }
+
+    /**
+     * Pauses the attachments download. Partial files are kept and the transfers
+     * continue from where they stopped when resumed.
+     */
+    public void pauseDownloads() {
+        log.info( "called" );
+
+        ads.pause();
+    }
+
+    /**
+     * Resumes a paused attachments download.
+     */
+    public void resumeDownloads() {
+        log.info( "called" );
+
+        ads.resume();
+    }
+
+    /**
+     * Stops the attachments download. The attachments already downloaded are not
+     * fetched again by the next download.
+     */
+    public void cancelDownloads() {
+        log.info( "called" );
+
+        ads.cancel();
+    }
+
+    /**
+     * Moves a ticket in front of all the others. Only the PRIORITY scheduling
+     * policy takes the pinned tickets into account.
+     *
+     * @param ticket the ticket to download first.
+     */
+    public void pinTicket(Ticket ticket) {
+
+        int max = 0;
+        for ( Ticket t : list ) {
+            max = Math.max( max, t.getPriority() );
+        }
+        ticket.setPriority( max + 1 );
+
+        log.log( Level.FINE, "{0} priority: {1}", new Object[] { ticket.getId(), ticket.getPriority() } );
+    }
+
     /**
      * Called by the GUI when the base directory for tickets changes.
      *
@@ -138,4 +383,77 @@ public class TeamForgeFacade
         ads.setBaseDir( Paths.get( path ) );
     }
 
+    /**
+     * Called by the GUI when the user selects a different bandwidth profile.
+     *
+     * @param name the name of the profile.
+     */
+    public void setBandwidthProfile(String name) {
+        log.fine( name );
+
+        config.config().setBandwidthProfile( name );
+        ads.setBandwidthProfile( config.config().findBandwidthProfile( name ) );
+    }
+
+    //---- Support methods ---------------------------------------------------------
+
+    /**
+     * Replaces a ticket with the copy fetched again, in the same position and
+     * with the same priority and directory.
+     *
+     * @param tickets the list of tickets.
+     * @param old the ticket in the list.
+     * @param fetched the result of the fetch, empty if it failed.
+     * @return the new ticket, null if the old one was kept.
+     */
+    static Ticket replaceTicket(List<Ticket> tickets, Ticket old, List<Ticket> fetched) {
+
+        int idx = tickets.indexOf( old );
+        if ( fetched.isEmpty() || idx < 0 ) {
+            log.log( Level.WARNING, "{0} not fetched, kept as it was", old.getId() );
+            return null;
+        }
+
+        Ticket updated = fetched.get( 0 );
+        updated.setPriority( old.getPriority() );
+        updated.setPath( old.getPath() );
+        tickets.set( idx, updated );
+
+        return updated;
+    }
+
+    /**
+     * Puts the failed tickets back to {@link TicketState#NOT_PROCESSED}.
+     *
+     * @param tickets the tickets.
+     * @return the tickets reset.
+     */
+    static List<Ticket> resetFailed(List<Ticket> tickets) {
+
+        List<Ticket> failed = new ArrayList<>();
+        for ( Ticket ticket : tickets ) {
+            if ( ticket.isProcessed() == TicketState.PROCESSED_NOK ) {
+                ticket.setProcessed( TicketState.NOT_PROCESSED );
+                ticket.setProgress( 0d );
+                failed.add( ticket );
+            }
+        }
+        return failed;
+    }
+
+    /**
+     * Registers the page parsers defined in the configuration. An invalid definition
+     * is logged and ignored, the built-in parser of its type stays in use.
+     *
+     * @param parsers the definitions.
+     */
+    private static void registerParsers(ParserDefinitionList parsers) {
+        for ( ParserDefinition definition : parsers.getParsers() ) {
+            try {
+                PageParserRegistry.getDefault().register( new SelectorPageParserProvider( definition ) );
+            } catch ( IllegalArgumentException ex ) {
+                log.log( Level.WARNING, "invalid parser {0}: {1}", new Object[] { definition.getType(), ex.getMessage() } );
+            }
+        }
+    }
 }
@@ -33,8 +33,8 @@ import tido.config.ConfigManager;
 import tido.config.ServerInfo;
 import tido.config.ServerList;
 import tido.model.Ticket;
-import tido.scraping.BasePageParser;
 import tido.scraping.PageParser;
+import tido.scraping.PageParserRegistry;
 
 /**
  * This class fetches a Ticket page from TeamForge and parses the content.
@@ -82,15 +82,14 @@ public class TicketFetcher {
             throw new IllegalArgumentException( ticketUrl );
         }
 
-        if ( ! server.isAuthenticated() ) {
-            login( server );            // throws IOException, FailedLoginException
-        }
+        authenticate( server );         // throws IOException, FailedLoginException
 
         Document ticketPage;
         try {
             // this can throw many exceptions, all derived from IOException
             ticketPage = Jsoup.connect( ticketUrl )
                     .cookies( server.getSession() )
+                    .header( "Accept-Encoding", "gzip" )    // the only encoding Jsoup decodes
                     .maxBodySize( 0 )           // unlimited
                     .validateTLSCertificates( false )
                     .timeout( 4000 )
@@ -124,6 +123,19 @@ public class TicketFetcher {
 
     //---- Server interaction ------------------------------------------------------
 
+    /**
+     * Makes sure there is a session with the given server, logging in if needed.
+     *
+     * @param server the TeamForge server.
+     * @throws IOException if an I/O error occurs while connecting to the TeamForge server.
+     * @throws FailedLoginException if the server refuses the authentication attempt.
+     */
+    public void authenticate(ServerInfo server) throws IOException, FailedLoginException {
+        if ( ! server.isAuthenticated() ) {
+            login( server );            // throws IOException, FailedLoginException
+        }
+    }
+
     /**
      * Login to the given TeamForge server.
      *
@@ -179,7 +191,7 @@ public class TicketFetcher {
 
         Ticket t = null;
         try {
-            PageParser parser = BasePageParser.create( server );
+            PageParser parser = PageParserRegistry.getDefault().get( server );
             t = parser.parse( doc );
         } catch ( IllegalArgumentException ex ) {
             log.log( Level.WARNING, "creating PageParser:", ex );
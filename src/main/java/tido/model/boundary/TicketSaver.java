@@ -15,19 +15,36 @@
  */
 package tido.model.boundary;
 
-import java.io.ByteArrayInputStream;
 import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
 import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
 import java.nio.file.Path;
 import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.logging.Level;
 import java.util.logging.Logger;
 
+import tido.archive.TicketArchive;
+import tido.model.AttachmentLink;
 import tido.model.Ticket;
 import tido.naming.TicketDirectoryNamer;
+import tido.transfer.DirectoryCache;
+import tido.transfer.ValidatorStore;
 
 /**
- * Save other fields of the {@link Ticket} in the ticket directory.
+ * Save other fields of the {@link Ticket} in the ticket directory, or in the
+ * archive of the ticket.
+ * <br/>
+ * <code>ticket.json</code> holds every field of the ticket and the metadata of its
+ * attachments, so tools processing the tickets read a single file. Description and
+ * analysis are also saved as plain text, to be read by people.
+ * <br/>
+ * Each file is replaced atomically and only if its content changed: saving a ticket
+ * that did not change writes nothing.
  *
  * @author Andrea Cisternino
  */
@@ -35,41 +52,197 @@ public class TicketSaver
 {
     private static final Logger log = Logger.getLogger( TicketSaver.class.getName() );
 
+    /** The structured record of the ticket. */
+    public static final String RECORD_FILE = "ticket.json";
+
     private final TicketDirectoryNamer namer;
 
+    private final DirectoryCache dirs;
+
     //---- Lifecycle ---------------------------------------------------------------
 
-    TicketSaver(TicketDirectoryNamer namer) {
+    TicketSaver(TicketDirectoryNamer namer, DirectoryCache dirs) {
         this.namer = namer;
+        this.dirs = dirs;
     }
 
     //---- API ---------------------------------------------------------------------
 
     /*
-     * Saves the additional ticket fields to text files in the ticket directory.
+     * Saves the additional ticket fields to files in the ticket directory.
      *
      * @param ticket the ticket whose fields must be saved.
+     * @return true if some file was written.
      * @throws IOException in case of errors while operating on the directory or files.
      */
-    public void saveTicketFields(Ticket ticket) throws IOException {
+    public boolean saveTicketFields(Ticket ticket) throws IOException {
 
         Path ticketDir = namer.getTicketPath( ticket );
 
         // create ticket dir if not already done, needed for tickets without attachments
-        Files.createDirectories( ticketDir );
+        dirs.ensure( ticketDir );
+
+        boolean written = false;
 
         // description
         if ( ticket.getDescription().length() > 0 ) {
-            log.fine( "description" );
-            Files.copy( new ByteArrayInputStream( ticket.getDescription().getBytes( StandardCharsets.UTF_8 ) ),
-                    ticketDir.resolve( "description.txt" ), StandardCopyOption.REPLACE_EXISTING );
+            written |= writeIfChanged( ticketDir.resolve( "description.txt" ), ticket.getDescription() );
         }
 
         // analysis
         if ( ticket.getAnalysis().length() > 0 ) {
-            log.fine( "analysis" );
-            Files.copy( new ByteArrayInputStream( ticket.getAnalysis().getBytes( StandardCharsets.UTF_8 ) ),
-                    ticketDir.resolve( "analysis.txt" ), StandardCopyOption.REPLACE_EXISTING );
+            written |= writeIfChanged( ticketDir.resolve( "analysis.txt" ), ticket.getAnalysis() );
+        }
+
+        // everything
+        written |= writeIfChanged( ticketDir.resolve( RECORD_FILE ), toJson( ticket, new ValidatorStore( ticketDir ) ) );
+
+        return written;
+    }
+
+    /**
+     * Saves the additional ticket fields as entries of the archive of the ticket.
+     * Entries that did not change are not written again.
+     *
+     * @param ticket the ticket whose fields must be saved.
+     * @param archive the archive of the ticket.
+     * @return true if some entry was written.
+     * @throws IOException in case of errors while writing the archive.
+     */
+    public boolean saveTicketFields(Ticket ticket, TicketArchive archive) throws IOException {
+
+        boolean written = false;
+
+        if ( ticket.getDescription().length() > 0 ) {
+            written |= archive.writeIfChanged( "description.txt", ticket.getDescription().getBytes( StandardCharsets.UTF_8 ) );
+        }
+
+        if ( ticket.getAnalysis().length() > 0 ) {
+            written |= archive.writeIfChanged( "analysis.txt", ticket.getAnalysis().getBytes( StandardCharsets.UTF_8 ) );
+        }
+
+        written |= archive.writeIfChanged( RECORD_FILE, toJson( ticket, null ).getBytes( StandardCharsets.UTF_8 ) );
+
+        return written;
+    }
+
+    //---- Support methods ---------------------------------------------------------
+
+    /**
+     * Replaces a file, if its content is different.
+     *
+     * @param file the file.
+     * @param content the new content.
+     * @return true if the file was written.
+     * @throws IOException in case of errors writing the file.
+     */
+    static boolean writeIfChanged(Path file, String content) throws IOException {
+
+        byte[] data = content.getBytes( StandardCharsets.UTF_8 );
+
+        // a different size is enough to know, without reading the file
+        try {
+            if ( Files.size( file ) == data.length && Arrays.equals( Files.readAllBytes( file ), data ) ) {
+                log.log( Level.FINE, "unchanged: {0}", file.getFileName() );
+                return false;
+            }
+        } catch ( NoSuchFileException ex ) {
+            // first save
+        }
+
+        log.log( Level.FINE, "saving: {0}", file.getFileName() );
+
+        Path tmp = file.resolveSibling( ".tido-" + file.getFileName() + ".tmp" );
+        try ( FileChannel ch = FileChannel.open( tmp, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING ) ) {
+            ch.write( ByteBuffer.wrap( data ) );
+            ch.force( true );
+        }
+        Files.move( tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE );
+
+        return true;
+    }
+
+    /**
+     * @param ticket a ticket.
+     * @param validators what is known about the saved attachments, null if nothing.
+     * @return the JSON record of the ticket.
+     */
+    static String toJson(Ticket ticket, ValidatorStore validators) {
+
+        StringBuilder sb = new StringBuilder( 1024 + ticket.getDescription().length() + ticket.getAnalysis().length() );
+
+        sb.append( "{\n" );
+        field( sb, "  ", "id", ticket.getId() ).append( ",\n" );
+        field( sb, "  ", "url", ticket.getUrl() ).append( ",\n" );
+        field( sb, "  ", "server", ticket.getSource() != null ? ticket.getSource().getId() : null ).append( ",\n" );
+        field( sb, "  ", "title", ticket.getTitle() ).append( ",\n" );
+        field( sb, "  ", "tracker", ticket.getTracker() ).append( ",\n" );
+        sb.append( "  \"kpm\": " ).append( ticket.getKpm() ).append( ",\n" );
+        field( sb, "  ", "description", ticket.getDescription() ).append( ",\n" );
+        field( sb, "  ", "analysis", ticket.getAnalysis() ).append( ",\n" );
+
+        sb.append( "  \"attachments\": [" );
+        String sep = "\n";
+        for ( AttachmentLink link : ticket.getAttachments() ) {
+            sb.append( sep ).append( "    {\n" );
+            field( sb, "      ", "name", link.getName() ).append( ",\n" );
+            field( sb, "      ", "url", link.getUrl() ).append( ",\n" );
+            sb.append( "      \"size\": " ).append( link.getSize() ).append( ",\n" );
+            field( sb, "      ", "state", link.getState().name() );
+
+            Path path = link.getPath();
+            if ( path != null ) {
+                String fname = path.getFileName().toString();
+                sb.append( ",\n" );
+                field( sb, "      ", "file", fname );
+
+                ValidatorStore.Entry saved = validators != null ? validators.get( link.getUrl() ) : null;
+                if ( saved != null && fname.equals( saved.getName() ) && saved.getSha256() != null ) {
+                    sb.append( ",\n" );
+                    field( sb, "      ", "sha256", saved.getSha256() );
+                }
+            }
+
+            if ( link.getError() != null ) {
+                sb.append( ",\n" );
+                field( sb, "      ", "error", link.getError() );
+            }
+
+            sb.append( "\n    }" );
+            sep = ",\n";
+        }
+        sb.append( ticket.getAttachments().isEmpty() ? "]\n" : "\n  ]\n" );
+        sb.append( "}\n" );
+
+        return sb.toString();
+    }
+
+    private static StringBuilder field(StringBuilder sb, String indent, String name, String value) {
+        sb.append( indent ).append( '"' ).append( name ).append( "\": " );
+        return value == null ? sb.append( "null" ) : quote( sb, value );
+    }
+
+    private static StringBuilder quote(StringBuilder sb, String value) {
+        sb.append( '"' );
+        for ( int i = 0; i < value.length(); i++ ) {
+            char c = value.charAt( i );
+            switch ( c ) {
+                case '"':  sb.append( "\\\"" ); break;
+                case '\\': sb.append( "\\\\" ); break;
+                case '\n': sb.append( "\\n" ); break;
+                case '\r': sb.append( "\\r" ); break;
+                case '\t': sb.append( "\\t" ); break;
+                case '\b': sb.append( "\\b" ); break;
+                case '\f': sb.append( "\\f" ); break;
+                default:
+                    if ( c < 0x20 ) {
+                        sb.append( String.format( "\\u%04x", (int) c ) );
+                    } else {
+                        sb.append( c );
+                    }
+            }
         }
+        return sb.append( '"' );
     }
 }
@@ -0,0 +1,105 @@
+/*
+ * Copyright 2013 Andrea Cisternino <a.cisternino@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package tido.model.boundary;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+import tido.model.Ticket;
+import tido.model.TicketState;
+import tido.transfer.ByteProgress;
+
+/**
+ * Tracks the attachments of a ticket still being downloaded by the workers.
+ *
+ * @author Andrea Cisternino
+ */
+class TicketWork
+{
+    private final Ticket ticket;
+
+    private final AtomicInteger remaining;
+
+    private volatile boolean failed = false;
+
+    /** Bytes of the ticket attachments. */
+    private final ByteProgress progress = new ByteProgress();
+
+    /** Last progress value shown in the GUI. */
+    private double shownFraction = -1d;
+
+    //---- Lifecycle ---------------------------------------------------------------
+
+    /**
+     * @param ticket the ticket.
+     * @param attachments the number of attachments to download.
+     */
+    TicketWork(Ticket ticket, int attachments) {
+        this.ticket = ticket;
+        this.remaining = new AtomicInteger( attachments );
+    }
+
+    //---- API ---------------------------------------------------------------------
+
+    /**
+     * Records the outcome of one attachment.
+     *
+     * @param ok true if the attachment was downloaded successfully.
+     * @return true if this was the last attachment of the ticket.
+     */
+    boolean attachmentDone(boolean ok) {
+        if ( ! ok ) {
+            failed = true;
+        }
+        return remaining.decrementAndGet() == 0;
+    }
+
+    /**
+     * @return true if there are no more attachments to download.
+     */
+    boolean isComplete() {
+        return remaining.get() <= 0;
+    }
+
+    /**
+     * @return the final state of the ticket.
+     */
+    TicketState getState() {
+        return failed ? TicketState.PROCESSED_NOK : TicketState.PROCESSED_OK;
+    }
+
+    Ticket getTicket() {
+        return ticket;
+    }
+
+    ByteProgress getProgress() {
+        return progress;
+    }
+
+    /**
+     * Returns the completed fraction if it changed since the last call.
+     * Must be called by a single thread.
+     *
+     * @return the completed fraction, negative if unchanged.
+     */
+    double takeChangedFraction() {
+        double f = progress.getFraction();
+        if ( Math.abs( f - shownFraction ) < 0.001d ) {
+            return -1d;
+        }
+        shownFraction = f;
+        return f;
+    }
+}
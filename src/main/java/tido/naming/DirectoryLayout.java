@@ -0,0 +1,208 @@
+/*
+ * Copyright 2013 Andrea Cisternino <a.cisternino@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package tido.naming;
+
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Calendar;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import tido.Utils;
+import tido.model.Ticket;
+
+/**
+ * The available layouts of the ticket directories inside the base directory.
+ * <br/>
+ * Sharded layouts add one or two directory levels above the ticket directories,
+ * so no directory contains too many entries.
+ *
+ * @author Andrea Cisternino
+ */
+public enum DirectoryLayout {
+
+    /** All tickets directly in the base directory. */
+    FLAT,
+
+    /** Groups of 1000 tickets by artifact id, e.g. <code>artf74xxx/artf74149_title</code>. */
+    ID_PREFIX,
+
+    /** One directory per tracker. */
+    TRACKER,
+
+    /** One directory per year and month of the download, e.g. <code>2014/03/artf74149_title</code>. */
+    YEAR_MONTH;
+
+    private static final Logger log = Logger.getLogger( DirectoryLayout.class.getName() );
+
+    /** Tickets in each ID_PREFIX shard. */
+    private static final int ID_SHARD_SIZE = 1000;
+
+    private static final Pattern ID_PATTERN = Pattern.compile( "^(\\D*)(\\d+)" );
+
+    /** Characters not allowed in directory names on Windows. */
+    private static final Pattern INVALID_CHARS = Pattern.compile( "[\\\\/:*?\"<>|\\p{Cntrl}]" );
+
+    /**
+     * Returns the directory of a ticket according to this layout.
+     *
+     * @param baseDir the base directory.
+     * @param ticket the ticket.
+     * @param name the name of the ticket directory.
+     * @return the path of the ticket directory.
+     */
+    public Path resolve(Path baseDir, Ticket ticket, String name) {
+        return resolve( baseDir, ticket, name, System.currentTimeMillis() );
+    }
+
+    /**
+     * Returns the directory of a ticket according to this layout. With {@link #YEAR_MONTH}
+     * a directory created in an earlier month is used again, the most recent if many.
+     *
+     * @param baseDir the base directory.
+     * @param ticket the ticket.
+     * @param name the name of the ticket directory.
+     * @param time the time of the download, in milliseconds.
+     * @return the path of the ticket directory.
+     */
+    Path resolve(Path baseDir, Ticket ticket, String name, long time) {
+        if ( this == YEAR_MONTH ) {
+            Path existing = findInMonths( baseDir, name );
+            if ( existing != null ) {
+                return existing;
+            }
+        }
+        return shardDir( baseDir, ticket.getId(), ticket.getTracker(), time ).resolve( name );
+    }
+
+    /**
+     * Returns the directory containing a ticket directory.
+     *
+     * @param baseDir the base directory.
+     * @param id the artifact id of the ticket.
+     * @param tracker the tracker of the ticket, can be null.
+     * @param time the time of the download, in milliseconds.
+     * @return the shard directory, the base directory for the {@link #FLAT} layout.
+     */
+    public Path shardDir(Path baseDir, String id, String tracker, long time) {
+        switch ( this ) {
+            case ID_PREFIX:
+                return baseDir.resolve( idShard( id ) );
+
+            case TRACKER:
+                return baseDir.resolve( trackerShard( tracker ) );
+
+            case YEAR_MONTH:
+                Calendar cal = Calendar.getInstance();
+                cal.setTimeInMillis( time );
+                return baseDir.resolve( String.format( "%04d", cal.get( Calendar.YEAR ) ) )
+                              .resolve( String.format( "%02d", cal.get( Calendar.MONTH ) + 1 ) );
+
+            default:
+                return baseDir;
+        }
+    }
+
+    /**
+     * Converts a configuration value into a layout.
+     *
+     * @param name the name of the layout, can be null.
+     * @param defaultLayout the layout returned if the name is not valid.
+     * @return the layout.
+     */
+    public static DirectoryLayout parse(String name, DirectoryLayout defaultLayout) {
+        if ( name != null ) {
+            try {
+                return valueOf( name.trim().toUpperCase( Locale.ROOT ) );
+            } catch ( IllegalArgumentException ex ) {
+                // fall through
+            }
+        }
+        return defaultLayout;
+    }
+
+    //---- Support methods ---------------------------------------------------------
+
+    /**
+     * @return the ticket directory with the given name in the year and month shards,
+     *         null if not found.
+     */
+    private static Path findInMonths(Path baseDir, String name) {
+        for ( Path year : shards( baseDir, "[0-9][0-9][0-9][0-9]" ) ) {
+            for ( Path month : shards( year, "[0-9][0-9]" ) ) {
+                Path dir = month.resolve( name );
+                if ( Files.isDirectory( dir ) ) {
+                    return dir;
+                }
+            }
+        }
+        return null;
+    }
+
+    /**
+     * @return the shard directories matching a glob, most recent name first.
+     */
+    private static List<Path> shards(Path dir, String glob) {
+        List<Path> shards = new ArrayList<>();
+        if ( ! Files.isDirectory( dir ) ) {
+            return shards;
+        }
+        try ( DirectoryStream<Path> entries = Files.newDirectoryStream( dir, glob ) ) {
+            for ( Path p : entries ) {
+                if ( Files.isDirectory( p ) ) {
+                    shards.add( p );
+                }
+            }
+        } catch ( IOException ex ) {
+            log.log( Level.WARNING, "listing {0}: {1}", new Object[] { dir, ex.toString() } );
+        }
+        Collections.sort( shards, Collections.reverseOrder() );
+        return shards;
+    }
+
+    static String idShard(String id) {
+        Matcher m = ID_PATTERN.matcher( id == null ? "" : id.trim() );
+        if ( ! m.find() ) {
+            return "other";
+        }
+        // very long numbers are not artifact ids, the last digits are enough
+        String digits = m.group( 2 );
+        if ( digits.length() > 15 ) {
+            digits = digits.substring( digits.length() - 15 );
+        }
+        return m.group( 1 ).toLowerCase( Locale.ROOT ) + ( Long.parseLong( digits ) / ID_SHARD_SIZE ) + "xxx";
+    }
+
+    static String trackerShard(String tracker) {
+        if ( Utils.isBlank( tracker ) ) {
+            return "no-tracker";
+        }
+        String name = INVALID_CHARS.matcher( tracker.trim() ).replaceAll( "_" );
+        // Windows does not like names ending with a dot
+        while ( name.endsWith( "." ) ) {
+            name = name.substring( 0, name.length() - 1 );
+        }
+        return name.isEmpty() ? "no-tracker" : name;
+    }
+}
@@ -0,0 +1,203 @@
+/*
+ * Copyright 2013 Andrea Cisternino <a.cisternino@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package tido.naming;
+
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Hands out unique file names inside directories.
+ * <br/>
+ * The names already used in a directory are read with a single listing the first
+ * time the directory is seen, all following reservations are resolved in memory.
+ * Taken names get a "(n)" suffix before the extension: <code>log.txt</code>,
+ * <code>log(1).txt</code>, <code>log(2).txt</code>...
+ * <br/>
+ * Names are compared ignoring case because tickets are often stored on Windows shares.
+ * Directories are guarded by a fixed set of locks so workers filling different
+ * directories rarely wait for each other.
+ *
+ * @author Andrea Cisternino
+ */
+public class FileNameIndex
+{
+    private static final Logger log = Logger.getLogger( FileNameIndex.class.getName() );
+
+    private static final Set<String> DOUBLE_EXTS = new HashSet<>( Arrays.asList( "gz", "bz2", "xz" ) );
+
+    /** Number of lock stripes, a power of two. */
+    private static final int STRIPES = 16;
+
+    private final Object[] locks = new Object[STRIPES];
+
+    private final Map<Path, DirNames> dirs = new ConcurrentHashMap<>();
+
+    //---- Lifecycle ---------------------------------------------------------------
+
+    public FileNameIndex() {
+        for ( int i = 0; i < STRIPES; i++ ) {
+            locks[i] = new Object();
+        }
+    }
+
+    //---- API ---------------------------------------------------------------------
+
+    /**
+     * Reserves a name in a directory. The name stays reserved until released even
+     * if no file is created.
+     *
+     * @param dir the directory that will contain the file.
+     * @param fname the preferred name of the file.
+     * @return <code>fname</code> if free, otherwise the first free de-duplicated name.
+     * @throws IOException if the directory can not be listed.
+     */
+    public String reserve(Path dir, String fname) throws IOException {
+        synchronized ( lockFor( dir ) ) {
+
+            DirNames names = namesOf( dir );
+
+            if ( names.taken.add( key( fname ) ) ) {
+                return fname;
+            }
+
+            // continue from the last copy number handed out for this name
+            String base = key( fname );
+            Integer next = names.nextCopy.get( base );
+            int copyNum = ( next == null ) ? 1 : next;
+
+            String newName = deDupName( fname, copyNum );
+            while ( ! names.taken.add( key( newName ) ) ) {
+                newName = deDupName( fname, ++copyNum );
+            }
+            names.nextCopy.put( base, copyNum + 1 );
+
+            log.log( Level.FINE, "new name: {0}", newName );
+
+            return newName;
+        }
+    }
+
+    /**
+     * Gives back a reserved name that was not used.
+     *
+     * @param dir the directory.
+     * @param fname the name returned by {@link #reserve(Path, String)}.
+     */
+    public void release(Path dir, String fname) {
+        synchronized ( lockFor( dir ) ) {
+            DirNames names = dirs.get( dir );
+            if ( names != null ) {
+                names.taken.remove( key( fname ) );
+            }
+        }
+    }
+
+    /**
+     * Adds a copy number to a file name, before the extension.
+     *
+     * @param fname the file name.
+     * @param copyNum the copy number.
+     * @return the de-duplicated name, e.g. <code>log(1).txt</code> or <code>logs(1).tar.gz</code>.
+     */
+    public static String deDupName(String fname, int copyNum) {
+
+        // position of extension
+        int extIdx = fname.lastIndexOf( '.' );
+
+        if ( extIdx > 0 ) {
+            // extension found
+
+            // check for special extensions
+            if ( DOUBLE_EXTS.contains( fname.substring( extIdx + 1 ) ) ) {
+                int prevIdx = fname.lastIndexOf( '.', extIdx - 1 );
+                if ( prevIdx > 0 ) {
+                    extIdx = prevIdx;
+                }
+            }
+
+            String ext = fname.substring( extIdx + 1 );
+            String basename = fname.substring( 0, extIdx );
+
+            return basename + "(" + copyNum + ")." + ext;
+
+        } else {
+            // no extension
+
+            return fname + "(" + copyNum + ")";
+        }
+    }
+
+    //---- Support methods ---------------------------------------------------------
+
+    private Object lockFor(Path dir) {
+        return locks[ dir.hashCode() & ( STRIPES - 1 ) ];
+    }
+
+    /**
+     * Must be called holding the directory lock.
+     */
+    private DirNames namesOf(Path dir) throws IOException {
+
+        DirNames names = dirs.get( dir );
+
+        if ( names == null ) {
+            names = new DirNames();
+
+            try ( DirectoryStream<Path> entries = Files.newDirectoryStream( dir ) ) {
+                for ( Path entry : entries ) {
+                    names.taken.add( key( entry.getFileName().toString() ) );
+                }
+            } catch ( NoSuchFileException ex ) {
+                // not created yet, so it is empty
+            }
+
+            log.log( Level.FINE, "{0}: {1} names", new Object[] { dir, names.taken.size() } );
+            dirs.put( dir, names );
+        }
+
+        return names;
+    }
+
+    private static String key(String fname) {
+        return fname.toLowerCase( Locale.ROOT );
+    }
+
+    //---- DirNames ----------------------------------------------------------------
+
+    /**
+     * The names used in a directory.
+     */
+    private static class DirNames
+    {
+        /** Lower case names of the files, existing or reserved. */
+        final Set<String> taken = new HashSet<>();
+
+        /** Next copy number to try for each requested name. */
+        final Map<String, Integer> nextCopy = new HashMap<>();
+    }
+}
@@ -0,0 +1,207 @@
+/*
+ * Copyright 2013 Andrea Cisternino <a.cisternino@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package tido.naming;
+
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Moves the ticket directories of a flat base directory into a sharded
+ * {@link DirectoryLayout}.
+ * <br/>
+ * Directories are moved in parallel, each with a single rename, and a symbolic
+ * link pointing to the new place is left behind so bookmarks, scripts and the
+ * application itself still find them. Running it again only moves what is left.
+ * <br/>
+ * Only directories whose name starts with an artifact id are moved. The
+ * {@link DirectoryLayout#TRACKER} layout is not supported because the tracker
+ * is not stored in the ticket directories.
+ *
+ * @author Andrea Cisternino
+ */
+public class LayoutMigrator
+{
+    private static final Logger log = Logger.getLogger( LayoutMigrator.class.getName() );
+
+    /** An artifact id, optionally followed by "_" and the rest of the name. */
+    private static final Pattern TICKET_DIR = Pattern.compile( "^([A-Za-z]+\\d+)(_.*)?$" );
+
+    private final Path baseDir;
+
+    private final DirectoryLayout layout;
+
+    private final int threads;
+
+    private final AtomicInteger moved = new AtomicInteger();
+    private final AtomicInteger linked = new AtomicInteger();
+    private final AtomicInteger failed = new AtomicInteger();
+
+    //---- Lifecycle ---------------------------------------------------------------
+
+    /**
+     * @param baseDir the base directory to migrate.
+     * @param layout the new layout.
+     * @param threads the number of directories moved in parallel.
+     */
+    public LayoutMigrator(Path baseDir, DirectoryLayout layout, int threads) {
+        if ( layout == DirectoryLayout.TRACKER ) {
+            throw new IllegalArgumentException( "the tracker of the existing tickets is not known" );
+        }
+        this.baseDir = baseDir;
+        this.layout = layout;
+        this.threads = Math.max( 1, threads );
+    }
+
+    //---- API ---------------------------------------------------------------------
+
+    /**
+     * Moves the ticket directories.
+     *
+     * @return the number of directories moved.
+     * @throws IOException if the base directory can not be listed.
+     * @throws InterruptedException if interrupted while waiting for the moves.
+     */
+    public int migrate() throws IOException, InterruptedException {
+
+        if ( layout == DirectoryLayout.FLAT ) {
+            return 0;
+        }
+
+        List<Path> dirs = new ArrayList<>();
+        try ( DirectoryStream<Path> entries = Files.newDirectoryStream( baseDir ) ) {
+            for ( Path entry : entries ) {
+                // links are left by a previous run
+                if ( Files.isDirectory( entry ) && ! Files.isSymbolicLink( entry )
+                        && TICKET_DIR.matcher( entry.getFileName().toString() ).matches() ) {
+                    dirs.add( entry );
+                }
+            }
+        }
+
+        log.log( Level.INFO, "{0}: {1} ticket directories", new Object[] { baseDir, dirs.size() } );
+
+        ExecutorService pool = Executors.newFixedThreadPool( threads );
+        for ( final Path dir : dirs ) {
+            pool.execute( new Runnable() {
+                @Override
+                public void run() {
+                    move( dir );
+                }
+            } );
+        }
+        pool.shutdown();
+        pool.awaitTermination( Long.MAX_VALUE, TimeUnit.DAYS );
+
+        log.log( Level.INFO, "moved: {0}, linked: {1}, failed: {2}", new Object[] { moved.get(), linked.get(), failed.get() } );
+
+        return moved.get();
+    }
+
+    public int getMoved() {
+        return moved.get();
+    }
+
+    public int getLinked() {
+        return linked.get();
+    }
+
+    public int getFailed() {
+        return failed.get();
+    }
+
+    //---- Support methods ---------------------------------------------------------
+
+    /**
+     * Moves one ticket directory and leaves a link behind.
+     *
+     * @param dir the ticket directory.
+     */
+    private void move(Path dir) {
+
+        String name = dir.getFileName().toString();
+        Matcher m = TICKET_DIR.matcher( name );
+        m.matches();
+
+        Path target;
+        try {
+            long time = Files.getLastModifiedTime( dir ).toMillis();
+            target = layout.shardDir( baseDir, m.group( 1 ), null, time ).resolve( name );
+
+            Files.createDirectories( target.getParent() );
+            Files.move( dir, target );              // fails if the target exists
+            moved.incrementAndGet();
+
+        } catch ( IOException | RuntimeException ex ) {
+            log.log( Level.WARNING, "moving {0}: {1}", new Object[] { dir, ex.toString() } );
+            failed.incrementAndGet();
+            return;
+        }
+
+        try {
+            // relative, so the tree can be moved or mounted elsewhere
+            Files.createSymbolicLink( dir, dir.getParent().relativize( target ) );
+            linked.incrementAndGet();
+        } catch ( IOException | UnsupportedOperationException | SecurityException ex ) {
+            // e.g. Windows without the privilege to create links
+            log.log( Level.WARNING, "linking {0}: {1}", new Object[] { dir, ex.toString() } );
+        }
+    }
+
+    //---- main() ------------------------------------------------------------------
+
+    /**
+     * Migrates a base directory from the command line.
+     *
+     * @param args the base directory, the layout and, optionally, the number of threads.
+     * @throws Exception in case of errors.
+     */
+    public static void main(String[] args) throws Exception {
+
+        if ( args.length < 2 ) {
+            System.err.println( "usage: LayoutMigrator <base-dir> <ID_PREFIX|YEAR_MONTH> [threads]" );
+            System.exit( 2 );
+        }
+
+        DirectoryLayout layout = DirectoryLayout.parse( args[1], null );
+        if ( layout == null || layout == DirectoryLayout.TRACKER ) {
+            System.err.println( "unsupported layout: " + args[1] );
+            System.exit( 2 );
+        }
+
+        int threads = args.length > 2 ? Integer.parseInt( args[2] ) : 4;
+
+        LayoutMigrator migrator = new LayoutMigrator( Paths.get( args[0] ), layout, threads );
+        migrator.migrate();
+
+        System.out.println( String.format( "moved: %d, linked: %d, failed: %d",
+                migrator.getMoved(), migrator.getLinked(), migrator.getFailed() ) );
+
+        System.exit( migrator.getFailed() > 0 ? 1 : 0 );
+    }
+}
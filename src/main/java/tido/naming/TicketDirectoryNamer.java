@@ -16,8 +16,10 @@
 package tido.naming;
 
 import java.io.File;
+import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
+import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.util.WeakHashMap;
@@ -47,6 +49,9 @@ public class TicketDirectoryNamer
     /** Base ticket directory. */
     private Path baseDir;
 
+    /** How the ticket directories are grouped in the base directory. */
+    private final DirectoryLayout layout;
+
     /** A simple cache for the generated directory names. */
     private final WeakHashMap<Ticket, Path> nameCache = new WeakHashMap<>();
 
@@ -66,6 +71,7 @@ public class TicketDirectoryNamer
 
         // set initial value of the base directory from configuration
         baseDir = Paths.get( config.config().getBaseDirectory() );
+        layout = DirectoryLayout.parse( config.config().getDirectoryLayout(), DirectoryLayout.FLAT );
 
         // JS engine
         engine = new ScriptEngineManager().getEngineByName( "javascript" );
@@ -92,7 +98,16 @@ public class TicketDirectoryNamer
 
     //---- API ---------------------------------------------------------------------
 
-    public Path getTicketPath(Ticket ticket) {
+    /**
+     * Returns the directory of a ticket. Can be called by many threads.
+     * <br/>
+     * A ticket downloaded before, in this session or restored from the journal,
+     * keeps the directory it was downloaded to if it is still in the base directory.
+     *
+     * @param ticket the ticket.
+     * @return the Path of the ticket directory.
+     */
+    public synchronized Path getTicketPath(Ticket ticket) {
 
         // test cache first
         Path tp;
@@ -104,6 +119,13 @@ public class TicketDirectoryNamer
             }
         }
 
+        tp = ticket.getPath();
+        if ( tp != null && tp.startsWith( baseDir ) && Files.isDirectory( tp ) ) {
+            log.log( Level.FINE, "downloaded before: {0}", tp.toString() );
+            nameCache.put( ticket, tp );
+            return tp;
+        }
+
         // use global JS generateName() function to generate the name
         String ticketDir = null;
         try {
@@ -118,7 +140,7 @@ public class TicketDirectoryNamer
             log.log( Level.FINE, "js problems; backup name: {0}", tp.toString());
         }
         else {
-            tp = baseDir.resolve( ticketDir );
+            tp = layoutPath( ticket, ticketDir );
             log.log( Level.FINE, "generated: {0}", ticketDir);
         }
 
@@ -127,12 +149,19 @@ public class TicketDirectoryNamer
         return tp;
     }
 
+    /**
+     * @return the base directory for the ticket folders.
+     */
+    public synchronized Path getBaseDir() {
+        return baseDir;
+    }
+
     /**
      * Sets the name of the base directory for the ticket folders.
      *
      * @param dirName the name of the directory.
      */
-    public void setBaseDir(Path dirName) {
+    public synchronized void setBaseDir(Path dirName) {
         log.fine( dirName.toString() );
         baseDir = dirName;
     }
@@ -160,7 +189,35 @@ public class TicketDirectoryNamer
      * @return a default Path for the Ticket directory.
      */
     private Path backupName(Ticket ticket) {
-        return baseDir.resolve( ticket.getId() );
+        return layoutPath( ticket, ticket.getId() );
+    }
+
+    /**
+     * Places a ticket directory according to the layout. A directory already in the
+     * base directory, or the forwarding link left there by {@link LayoutMigrator},
+     * is used as it is, and so is one already in the shards, so tickets are never split.
+     *
+     * @param ticket the ticket being processed.
+     * @param name the name of the ticket directory.
+     * @return the Path of the ticket directory.
+     */
+    private Path layoutPath(Ticket ticket, String name) {
+
+        Path flat = baseDir.resolve( name );
+        if ( layout == DirectoryLayout.FLAT ) {
+            return flat;
+        }
+
+        if ( Files.isDirectory( flat ) ) {
+            try {
+                return flat.toRealPath();
+            } catch ( IOException ex ) {
+                log.log( Level.WARNING, "resolving {0}: {1}", new Object[] { flat, ex.toString() } );
+                return flat;
+            }
+        }
+
+        return layout.resolve( baseDir, ticket, name );
     }
 
 }
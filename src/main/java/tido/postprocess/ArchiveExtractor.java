@@ -0,0 +1,504 @@
+/*
+ * Copyright 2013 Andrea Cisternino <a.cisternino@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package tido.postprocess;
+
+import java.io.BufferedInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.Reader;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.InvalidPathException;
+import java.nio.file.LinkOption;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.security.DigestInputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Locale;
+import java.util.Properties;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import javax.xml.bind.DatatypeConverter;
+
+import org.apache.commons.compress.archivers.ArchiveEntry;
+import org.apache.commons.compress.archivers.ArchiveInputStream;
+import org.apache.commons.compress.archivers.tar.TarArchiveEntry;
+import org.apache.commons.compress.archivers.tar.TarArchiveInputStream;
+import org.apache.commons.compress.archivers.zip.ZipArchiveEntry;
+import org.apache.commons.compress.archivers.zip.ZipArchiveInputStream;
+import org.apache.commons.compress.compressors.bzip2.BZip2CompressorInputStream;
+import org.apache.commons.compress.compressors.gzip.GzipCompressorInputStream;
+
+import tido.Utils;
+import tido.naming.FileNameIndex;
+
+/**
+ * Extracts the archives saved in a ticket directory.
+ * <br/>
+ * <code>logs.zip</code>, <code>logs.tar</code>, <code>logs.tar.gz</code> and
+ * <code>logs.tar.bz2</code> are extracted in a <code>logs</code> directory next to
+ * the archive, <code>trace.log.gz</code> and <code>trace.log.bz2</code> in a
+ * <code>trace.log</code> file. Archives are read as streams, one entry after the
+ * other, and extracted in a hidden temporary directory renamed at the end, so
+ * a failed extraction never leaves half the files behind. Existing files are
+ * never overwritten: a taken name gets a "(n)" suffix.
+ * <br/>
+ * The extracted archives are recorded, with their SHA-256, in a small properties
+ * file in the ticket directory. An archive downloaded again is extracted again
+ * only if its content changed or what was extracted has been deleted:
+ * <pre>
+ * sha256.logs.zip=9f86d081884c7d65...
+ * target.logs.zip=logs
+ * </pre>
+ * <br/>
+ * Entries escaping the extraction directory ("zip-slip"), links and special files
+ * are not extracted. An archive is abandoned if it expands beyond the maximum size,
+ * or much more than its own size, or contains too many entries.
+ *
+ * @author Andrea Cisternino
+ */
+public class ArchiveExtractor implements PostProcessor
+{
+    private static final Logger log = Logger.getLogger( ArchiveExtractor.class.getName() );
+
+    private static final String TMP_PREFIX = ".tido-extract-";
+
+    /** Name of the file recording the extracted archives of a ticket directory. */
+    public static final String MARKS_FILE = ".tido-extracted";
+
+    /** Bytes extracted for each byte of the archive above which it is a bomb. */
+    private static final long MAX_RATIO = 100;
+
+    /** Below this size the ratio is not checked, logs compress very well. */
+    private static final long RATIO_MIN_SIZE = 64L * 1024 * 1024;
+
+    private static final int MAX_ENTRIES = 100000;
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    /** Discards the data written to it. */
+    private static final OutputStream NULL_OUTPUT = new OutputStream() {
+        @Override
+        public void write(int b) {
+        }
+        @Override
+        public void write(byte[] b, int off, int len) {
+        }
+    };
+
+    /** Maximum bytes extracted from a single archive. */
+    private final long maxSize;
+
+    //---- Lifecycle ---------------------------------------------------------------
+
+    /**
+     * @param maxSize the maximum number of bytes extracted from a single archive.
+     */
+    public ArchiveExtractor(long maxSize) {
+        this.maxSize = maxSize;
+    }
+
+    //---- PostProcessor -----------------------------------------------------------
+
+    @Override
+    public String getName() {
+        return "extract";
+    }
+
+    @Override
+    public boolean accepts(Path file) {
+        return Format.of( file.getFileName().toString() ) != null;
+    }
+
+    @Override
+    public void process(Path file) throws IOException, InterruptedException {
+
+        String fname = file.getFileName().toString();
+        Format format = Format.of( fname );
+        String base = format.strip( fname );
+        Path dir = file.getParent();
+
+        if ( base.isEmpty() || isExtracted( file ) ) {
+            return;
+        }
+
+        Budget budget = new Budget( Files.size( file ) );
+        Path tmp;
+
+        // the whole archive is digested while extracting, the formats can stop reading before its end
+        MessageDigest sha256 = newSha256();
+
+        if ( format.isArchive() ) {
+            tmp = Files.createTempDirectory( dir, TMP_PREFIX );
+            try ( DigestInputStream din = new DigestInputStream( open( file ), sha256 );
+                  ArchiveInputStream in = format.openArchive( din ) ) {
+                extractEntries( in, tmp, budget );
+                Utils.copyStream( din, NULL_OUTPUT );
+            } catch ( IOException | InterruptedException | RuntimeException ex ) {
+                deleteTree( tmp );
+                throw ex;
+            }
+        } else {
+            tmp = Files.createTempFile( dir, TMP_PREFIX, ".part" );
+            try ( DigestInputStream din = new DigestInputStream( open( file ), sha256 );
+                  InputStream in = format.openCompressed( din ) ) {
+                copy( in, tmp, budget );
+                Utils.copyStream( din, NULL_OUTPUT );
+            } catch ( IOException | InterruptedException | RuntimeException ex ) {
+                Files.deleteIfExists( tmp );
+                throw ex;
+            }
+        }
+
+        Path target = moveToFreeName( tmp, dir, base );
+        log.log( Level.INFO, "{0}: {1} entries, {2} bytes in {3}",
+                new Object[] { fname, budget.entries, budget.bytes, target.getFileName() } );
+
+        mark( file, hex( sha256.digest() ), target.getFileName().toString() );
+    }
+
+    //---- Support methods ---------------------------------------------------------
+
+    private void extractEntries(ArchiveInputStream in, Path root, Budget budget) throws IOException, InterruptedException {
+
+        ArchiveEntry entry;
+        while ( ( entry = in.getNextEntry() ) != null ) {
+
+            if ( ++budget.entries > MAX_ENTRIES ) {
+                throw new IOException( "too many entries" );
+            }
+
+            if ( ! in.canReadEntryData( entry ) || isSpecial( entry ) ) {
+                log.log( Level.FINE, "not extracted: {0}", entry.getName() );
+                continue;
+            }
+
+            Path target;
+            try {
+                target = safeResolve( root, entry.getName() );
+            } catch ( InvalidPathException ex ) {
+                // e.g. names valid on Unix but not on Windows
+                log.log( Level.WARNING, "invalid entry name: {0}", entry.getName() );
+                continue;
+            }
+
+            if ( entry.isDirectory() ) {
+                Files.createDirectories( target );
+            } else {
+                Files.createDirectories( target.getParent() );
+                if ( Files.isDirectory( target ) ) {
+                    continue;
+                }
+                copy( in, target, budget );
+            }
+        }
+    }
+
+    /**
+     * Copies a stream in a file, counting the bytes against the budget. The sizes
+     * declared in the archive are not trusted.
+     */
+    private void copy(InputStream in, Path target, Budget budget) throws IOException, InterruptedException {
+
+        byte[] buf = new byte[BUFFER_SIZE];
+
+        try ( OutputStream out = Files.newOutputStream( target ) ) {
+            int n;
+            while ( ( n = in.read( buf ) ) != -1 ) {
+                if ( Thread.interrupted() ) {
+                    throw new InterruptedException();
+                }
+                budget.add( n );
+                out.write( buf, 0, n );
+            }
+        }
+    }
+
+    /**
+     * Resolves the name of an entry inside the extraction directory.
+     *
+     * @param root the extraction directory.
+     * @param name the name of the entry.
+     * @return the path of the entry.
+     * @throws IOException if the entry would be written outside the directory.
+     */
+    static Path safeResolve(Path root, String name) throws IOException {
+
+        String n = name.replace( '\\', '/' );
+        if ( n.startsWith( "/" ) || n.matches( "^[A-Za-z]:.*" ) ) {
+            throw new IOException( "absolute entry: " + name );
+        }
+
+        Path target = root.resolve( n ).normalize();
+        if ( ! target.startsWith( root ) || target.equals( root ) ) {
+            throw new IOException( "entry outside the archive: " + name );
+        }
+        return target;
+    }
+
+    private static boolean isSpecial(ArchiveEntry entry) {
+        if ( entry instanceof TarArchiveEntry ) {
+            TarArchiveEntry te = (TarArchiveEntry) entry;
+            return te.isSymbolicLink() || te.isLink() || te.isCharacterDevice()
+                    || te.isBlockDevice() || te.isFIFO();
+        }
+        if ( entry instanceof ZipArchiveEntry ) {
+            return ( (ZipArchiveEntry) entry ).isUnixSymlink();
+        }
+        return false;
+    }
+
+    /**
+     * @param archive an archive.
+     * @return true if the same content was already extracted, by a previous download
+     *         of the same ticket, and what was extracted is still there.
+     * @throws IOException in case of errors reading the archive.
+     */
+    private boolean isExtracted(Path archive) throws IOException {
+
+        String name = archive.getFileName().toString();
+        Properties marks = marks( archive.getParent() );
+        String sha256 = marks.getProperty( "sha256." + name );
+        String target = marks.getProperty( "target." + name );
+
+        if ( sha256 == null || target == null || ! Files.exists( archive.resolveSibling( target ), LinkOption.NOFOLLOW_LINKS ) ) {
+            return false;
+        }
+
+        MessageDigest md = newSha256();
+        try ( InputStream in = new DigestInputStream( open( archive ), md ) ) {
+            Utils.copyStream( in, NULL_OUTPUT );
+        }
+        if ( ! sha256.equals( hex( md.digest() ) ) ) {
+            return false;
+        }
+
+        log.log( Level.FINE, "already extracted in {0}: {1}", new Object[] { target, name } );
+        return true;
+    }
+
+    /**
+     * Records an extracted archive. A failure is logged, the archive will be
+     * extracted again by the next download.
+     *
+     * @param archive the archive.
+     * @param sha256 the SHA-256 of the archive, hex encoded.
+     * @param target the name of what was extracted.
+     */
+    private synchronized void mark(Path archive, String sha256, String target) {
+
+        Path file = archive.resolveSibling( MARKS_FILE );
+        String name = archive.getFileName().toString();
+
+        Properties marks = marks( archive.getParent() );
+        marks.setProperty( "sha256." + name, sha256 );
+        marks.setProperty( "target." + name, target );
+
+        Path tmp = file.resolveSibling( MARKS_FILE + ".tmp" );
+        try {
+            try ( Writer out = Files.newBufferedWriter( tmp, StandardCharsets.UTF_8 ) ) {
+                marks.store( out, null );
+            }
+            Files.move( tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE );
+        } catch ( IOException ex ) {
+            log.log( Level.WARNING, "writing {0}: {1}", new Object[] { file, ex.toString() } );
+        }
+    }
+
+    /**
+     * @param dir a ticket directory.
+     * @return the archives extracted in the directory, empty if none or unreadable.
+     */
+    private synchronized Properties marks(Path dir) {
+
+        Path file = dir.resolve( MARKS_FILE );
+
+        Properties marks = new Properties();
+        try ( Reader in = Files.newBufferedReader( file, StandardCharsets.UTF_8 ) ) {
+            marks.load( in );
+        } catch ( NoSuchFileException ex ) {
+            // nothing extracted yet
+        } catch ( IOException | IllegalArgumentException ex ) {
+            log.log( Level.WARNING, "reading {0}: {1}", new Object[] { file, ex.toString() } );
+            marks.clear();
+        }
+        return marks;
+    }
+
+    private static MessageDigest newSha256() {
+        try {
+            return MessageDigest.getInstance( "SHA-256" );
+        } catch ( NoSuchAlgorithmException ex ) {
+            throw new IllegalStateException( ex );
+        }
+    }
+
+    private static String hex(byte[] hash) {
+        return DatatypeConverter.printHexBinary( hash ).toLowerCase();
+    }
+
+    private static InputStream open(Path file) throws IOException {
+        return new BufferedInputStream( Files.newInputStream( file ), BUFFER_SIZE );
+    }
+
+    private static Path moveToFreeName(Path tmp, Path dir, String name) throws IOException {
+        int copyNum = 0;
+        while ( true ) {
+            Path target = dir.resolve( copyNum == 0 ? name : FileNameIndex.deDupName( name, copyNum ) );
+            try {
+                Utils.moveNoReplace( tmp, target );
+                return target;
+            } catch ( FileAlreadyExistsException ex ) {
+                copyNum++;
+            }
+        }
+    }
+
+    private static void deleteTree(Path dir) throws IOException {
+        Files.walkFileTree( dir, new SimpleFileVisitor<Path>() {
+            @Override
+            public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) throws IOException {
+                Files.delete( file );
+                return FileVisitResult.CONTINUE;
+            }
+            @Override
+            public FileVisitResult postVisitDirectory(Path d, IOException exc) throws IOException {
+                Files.delete( d );
+                return FileVisitResult.CONTINUE;
+            }
+        } );
+    }
+
+    //---- Budget ------------------------------------------------------------------
+
+    /**
+     * What an archive is allowed to extract.
+     */
+    private class Budget
+    {
+        final long archiveSize;
+        long bytes;
+        int entries;
+
+        Budget(long archiveSize) {
+            this.archiveSize = archiveSize;
+        }
+
+        void add(long n) throws IOException {
+            bytes += n;
+            if ( bytes > maxSize ) {
+                throw new IOException( "more than " + maxSize + " bytes" );
+            }
+            if ( bytes > RATIO_MIN_SIZE && bytes > archiveSize * MAX_RATIO ) {
+                throw new IOException( "compression ratio above " + MAX_RATIO );
+            }
+        }
+    }
+
+    //---- Format ------------------------------------------------------------------
+
+    /**
+     * The supported formats, longer suffixes first.
+     */
+    enum Format
+    {
+        TAR_GZ( true, ".tar.gz", ".tgz" ),
+        TAR_BZ2( true, ".tar.bz2", ".tbz2", ".tbz" ),
+        TAR( true, ".tar" ),
+        ZIP( true, ".zip" ),
+        GZ( false, ".gz" ),
+        BZ2( false, ".bz2" );
+
+        private final boolean archive;
+        private final String[] suffixes;
+
+        Format(boolean archive, String... suffixes) {
+            this.archive = archive;
+            this.suffixes = suffixes;
+        }
+
+        /**
+         * @param fname a file name.
+         * @return the format of the file, null if not supported.
+         */
+        static Format of(String fname) {
+            String lname = fname.toLowerCase( Locale.ROOT );
+            if ( lname.startsWith( TMP_PREFIX ) ) {
+                return null;
+            }
+            for ( Format format : values() ) {
+                for ( String suffix : format.suffixes ) {
+                    if ( lname.endsWith( suffix ) ) {
+                        return format;
+                    }
+                }
+            }
+            return null;
+        }
+
+        boolean isArchive() {
+            return archive;
+        }
+
+        /**
+         * @return the name without the suffix of the format.
+         */
+        String strip(String fname) {
+            String lname = fname.toLowerCase( Locale.ROOT );
+            for ( String suffix : suffixes ) {
+                if ( lname.endsWith( suffix ) ) {
+                    return fname.substring( 0, fname.length() - suffix.length() );
+                }
+            }
+            return fname;
+        }
+
+        ArchiveInputStream openArchive(InputStream in) throws IOException {
+            switch ( this ) {
+                case TAR_GZ:
+                    return new TarArchiveInputStream( new GzipCompressorInputStream( in, true ) );
+                case TAR_BZ2:
+                    return new TarArchiveInputStream( new BZip2CompressorInputStream( in, true ) );
+                case TAR:
+                    return new TarArchiveInputStream( in );
+                case ZIP:
+                    return new ZipArchiveInputStream( in );
+                default:
+                    throw new IllegalStateException( "not an archive: " + this );
+            }
+        }
+
+        InputStream openCompressed(InputStream in) throws IOException {
+            switch ( this ) {
+                case GZ:
+                    return new GzipCompressorInputStream( in, true );
+                case BZ2:
+                    return new BZip2CompressorInputStream( in, true );
+                default:
+                    throw new IllegalStateException( "not a compressed file: " + this );
+            }
+        }
+    }
+}
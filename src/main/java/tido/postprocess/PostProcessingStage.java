@@ -0,0 +1,164 @@
+/*
+ * Copyright 2013 Andrea Cisternino <a.cisternino@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package tido.postprocess;
+
+import java.nio.file.Path;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Runs the {@link PostProcessor}s on the attachments of a batch.
+ * <br/>
+ * Attachments are submitted as soon as they are saved and processed on a small
+ * pool of dedicated threads: submitting never blocks the download workers, the
+ * work waits in the queue of the pool instead. Failures of a processor are
+ * logged and do not affect the download.
+ *
+ * @author Andrea Cisternino
+ */
+public class PostProcessingStage
+{
+    private static final Logger log = Logger.getLogger( PostProcessingStage.class.getName() );
+
+    private final List<PostProcessor> processors = new CopyOnWriteArrayList<>();
+
+    private final ExecutorService pool;
+
+    /** Attachments submitted and not processed yet. */
+    private final AtomicInteger pending = new AtomicInteger();
+
+    //---- Lifecycle ---------------------------------------------------------------
+
+    /**
+     * @param threads the number of attachments processed in parallel.
+     */
+    public PostProcessingStage(int threads) {
+        pool = Executors.newFixedThreadPool( Math.max( 1, threads ), new ThreadFactory() {
+            private final AtomicInteger count = new AtomicInteger();
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread t = new Thread( r, "post-processor-" + count.incrementAndGet() );
+                t.setDaemon( true );
+                // downloads come first
+                t.setPriority( Thread.NORM_PRIORITY - 1 );
+                return t;
+            }
+        } );
+    }
+
+    //---- API ---------------------------------------------------------------------
+
+    /**
+     * Adds a processor. All the processors accepting an attachment run on it,
+     * in the order they were added.
+     *
+     * @param processor the processor.
+     * @return this stage.
+     */
+    public PostProcessingStage add(PostProcessor processor) {
+        processors.add( processor );
+        return this;
+    }
+
+    /**
+     * @return true if there are no processors, submitting is useless.
+     */
+    public boolean isEmpty() {
+        return processors.isEmpty();
+    }
+
+    /**
+     * Queues an attachment for processing. Returns immediately.
+     *
+     * @param file the saved attachment.
+     */
+    public void submit(final Path file) {
+
+        boolean wanted = false;
+        for ( PostProcessor processor : processors ) {
+            wanted |= processor.accepts( file );
+        }
+        if ( ! wanted ) {
+            return;
+        }
+
+        pending.incrementAndGet();
+        pool.execute( new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    process( file );
+                } finally {
+                    pending.decrementAndGet();
+                }
+            }
+        } );
+    }
+
+    /**
+     * @return the number of attachments waiting or being processed.
+     */
+    public int getPending() {
+        return pending.get();
+    }
+
+    /**
+     * Waits until all the submitted attachments have been processed. No more
+     * attachments can be submitted.
+     *
+     * @throws InterruptedException if interrupted while waiting.
+     */
+    public void finish() throws InterruptedException {
+        pool.shutdown();
+        pool.awaitTermination( Long.MAX_VALUE, TimeUnit.DAYS );
+    }
+
+    /**
+     * Stops the processing, the processors running are interrupted.
+     */
+    public void cancel() {
+        pool.shutdownNow();
+    }
+
+    //---- Support methods ---------------------------------------------------------
+
+    private void process(Path file) {
+        for ( PostProcessor processor : processors ) {
+            if ( Thread.currentThread().isInterrupted() ) {
+                return;
+            }
+            if ( ! processor.accepts( file ) ) {
+                continue;
+            }
+            try {
+                log.log( Level.FINE, "{0}: {1}", new Object[] { processor.getName(), file } );
+                processor.process( file );
+            } catch ( InterruptedException ex ) {
+                log.log( Level.INFO, "{0} interrupted: {1}", new Object[] { processor.getName(), file } );
+                return;
+            } catch ( Exception ex ) {
+                log.log( Level.WARNING, processor.getName() + " failed on " + file, ex );
+            }
+        }
+    }
+}
@@ -0,0 +1,51 @@
+/*
+ * Copyright 2013 Andrea Cisternino <a.cisternino@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package tido.postprocess;
+
+import java.io.IOException;
+import java.nio.file.Path;
+
+/**
+ * Works on an attachment after it has been saved in the ticket directory.
+ * <br/>
+ * Processors run on the {@link PostProcessingStage} pool, several at the same
+ * time, so they must be thread-safe. They should check the interrupted state of
+ * their thread and stop early when the batch is cancelled.
+ *
+ * @author Andrea Cisternino
+ */
+public interface PostProcessor {
+
+    /**
+     * @return a short name for the log.
+     */
+    public String getName();
+
+    /**
+     * @param file a saved attachment.
+     * @return true if this processor wants to work on the attachment.
+     */
+    public boolean accepts( Path file );
+
+    /**
+     * Works on an attachment.
+     *
+     * @param file the saved attachment.
+     * @throws IOException in case of errors. The attachment itself must be left untouched.
+     * @throws InterruptedException if the batch was cancelled.
+     */
+    public void process( Path file ) throws IOException, InterruptedException;
+}
@@ -0,0 +1,90 @@
+/*
+ * Copyright 2013 Andrea Cisternino <a.cisternino@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package tido.scheduling;
+
+import tido.model.AttachmentLink;
+import tido.model.Ticket;
+
+/**
+ * A single attachment waiting to be downloaded.
+ *
+ * @author Andrea Cisternino
+ */
+public final class DownloadJob
+{
+    private final AttachmentLink link;
+
+    /** Arrival order, used to break ties. */
+    private final long seq;
+
+    /** Number of times the download was tried again after a corrupted transfer. */
+    private final int retries;
+
+    //---- Lifecycle ---------------------------------------------------------------
+
+    /**
+     * @param link the attachment to download.
+     * @param seq the position of the job in the original list.
+     */
+    public DownloadJob(AttachmentLink link, long seq) {
+        this( link, seq, 0 );
+    }
+
+    private DownloadJob(AttachmentLink link, long seq, int retries) {
+        this.link = link;
+        this.seq = seq;
+        this.retries = retries;
+    }
+
+    /**
+     * @return the same job, to be tried once more.
+     */
+    public DownloadJob retry() {
+        return new DownloadJob( link, seq, retries + 1 );
+    }
+
+    //---- Getters -----------------------------------------------------------------
+
+    public AttachmentLink getLink() {
+        return link;
+    }
+
+    public Ticket getTicket() {
+        return link.getTicket();
+    }
+
+    /**
+     * @return the size of the attachment, a negative value if unknown.
+     */
+    public long getSize() {
+        return link.getSize();
+    }
+
+    public long getSeq() {
+        return seq;
+    }
+
+    public int getRetries() {
+        return retries;
+    }
+
+    //---- Support methods ---------------------------------------------------------
+
+    @Override
+    public String toString() {
+        return "DownloadJob{" + "seq=" + seq + ", retries=" + retries + ", link=" + link + '}';
+    }
+}
@@ -0,0 +1,200 @@
+/*
+ * Copyright 2013 Andrea Cisternino <a.cisternino@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package tido.scheduling;
+
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import tido.model.AttachmentLink;
+import tido.model.Ticket;
+import tido.transfer.ByteProgress;
+
+/**
+ * The attachments a batch is going to download, as decided by a {@link DownloadPlanner}.
+ * <br/>
+ * Each URL appears only once. Links to an URL already in the plan, in the same
+ * ticket or in another one, are recorded as duplicates of the downloaded link:
+ * they are completed when it is, copying the file if they belong to another ticket.
+ * <br/>
+ * The plan does not change after it is created.
+ *
+ * @author Andrea Cisternino
+ */
+public final class DownloadPlan
+{
+    /** The attachments to download, grouped by ticket in list order. */
+    private final Map<Ticket, List<AttachmentLink>> downloads;
+
+    /** The other links to each downloaded URL. */
+    private final Map<AttachmentLink, List<AttachmentLink>> duplicates;
+
+    private final int attachmentNum;
+
+    private final long totalSize;
+
+    private final boolean totalExact;
+
+    private final int skipped;
+
+    private final int postponed;
+
+    //---- Lifecycle ---------------------------------------------------------------
+
+    /**
+     * @param downloads the attachments to download, grouped by ticket.
+     * @param duplicates the duplicates of the downloaded links.
+     * @param skipped the number of attachments left out by the skip rules.
+     * @param postponed the number of tickets left out for lack of disk space.
+     */
+    DownloadPlan(Map<Ticket, List<AttachmentLink>> downloads, Map<AttachmentLink, List<AttachmentLink>> duplicates,
+                 int skipped, int postponed) {
+
+        Map<Ticket, List<AttachmentLink>> dl = new LinkedHashMap<>();
+        ByteProgress size = new ByteProgress();
+        int num = 0;
+
+        for ( Map.Entry<Ticket, List<AttachmentLink>> entry : downloads.entrySet() ) {
+            dl.put( entry.getKey(), Collections.unmodifiableList( entry.getValue() ) );
+            for ( AttachmentLink link : entry.getValue() ) {
+                size.expect( link.getSize() );
+                num++;
+            }
+        }
+
+        Map<AttachmentLink, List<AttachmentLink>> dup = new IdentityHashMap<>();
+        for ( Map.Entry<AttachmentLink, List<AttachmentLink>> entry : duplicates.entrySet() ) {
+            dup.put( entry.getKey(), Collections.unmodifiableList( entry.getValue() ) );
+        }
+
+        this.downloads = Collections.unmodifiableMap( dl );
+        this.duplicates = Collections.unmodifiableMap( dup );
+        this.attachmentNum = num;
+        this.totalSize = size.getTotal();
+        this.totalExact = size.isTotalExact();
+        this.skipped = skipped;
+        this.postponed = postponed;
+    }
+
+    //---- API ---------------------------------------------------------------------
+
+    /**
+     * @return the tickets of the batch, also those with nothing to download.
+     */
+    public Set<Ticket> getTickets() {
+        return downloads.keySet();
+    }
+
+    /**
+     * @param ticket a ticket of the batch.
+     * @return the attachments of the ticket to download, empty if none.
+     */
+    public List<AttachmentLink> getDownloads(Ticket ticket) {
+        List<AttachmentLink> links = downloads.get( ticket );
+        return links == null ? Collections.<AttachmentLink>emptyList() : links;
+    }
+
+    /**
+     * @param link an attachment to download.
+     * @return the other links to the same URL, empty if none.
+     */
+    public List<AttachmentLink> getDuplicates(AttachmentLink link) {
+        List<AttachmentLink> links = duplicates.get( link );
+        return links == null ? Collections.<AttachmentLink>emptyList() : links;
+    }
+
+    /**
+     * @param ticket a ticket of the batch.
+     * @return the number of attachments of the ticket completed by the batch,
+     *         downloaded or duplicates of a download.
+     */
+    public int getAttachmentNum(Ticket ticket) {
+        int num = getDownloads( ticket ).size();
+        for ( List<AttachmentLink> links : duplicates.values() ) {
+            for ( AttachmentLink link : links ) {
+                if ( link.getTicket() == ticket ) {
+                    num++;
+                }
+            }
+        }
+        return num;
+    }
+
+    /**
+     * @return the number of attachments to download.
+     */
+    public int getAttachmentNum() {
+        return attachmentNum;
+    }
+
+    /**
+     * @return the number of links completed without downloading them.
+     */
+    public int getDuplicateNum() {
+        int num = 0;
+        for ( List<AttachmentLink> links : duplicates.values() ) {
+            num += links.size();
+        }
+        return num;
+    }
+
+    /**
+     * @return the bytes to download, estimated if some sizes are unknown.
+     */
+    public long getTotalSize() {
+        return totalSize;
+    }
+
+    /**
+     * @return true if all the sizes are known.
+     */
+    public boolean isTotalExact() {
+        return totalExact;
+    }
+
+    /**
+     * @return the number of attachments left out by the skip rules.
+     */
+    public int getSkipped() {
+        return skipped;
+    }
+
+    /**
+     * @return the number of tickets left out for lack of disk space.
+     */
+    public int getPostponed() {
+        return postponed;
+    }
+
+    /**
+     * @return true if there are no tickets in the plan.
+     */
+    public boolean isEmpty() {
+        return downloads.isEmpty();
+    }
+
+    //---- Support methods ---------------------------------------------------------
+
+    @Override
+    public String toString() {
+        return "DownloadPlan{" + "tickets=" + downloads.size() + ", attachments=" + attachmentNum
+                + ", duplicates=" + getDuplicateNum() + ", totalSize=" + totalSize + ", skipped=" + skipped
+                + ", postponed=" + postponed + '}';
+    }
+}
@@ -0,0 +1,430 @@
+/*
+ * Copyright 2013 Andrea Cisternino <a.cisternino@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package tido.scheduling;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import tido.Utils;
+import tido.config.ConfigData;
+import tido.config.SkipRule;
+import tido.model.AttachmentLink;
+import tido.model.AttachmentState;
+import tido.model.Ticket;
+import tido.transfer.ByteProgress;
+
+/**
+ * Decides what a batch downloads, before any attachment is transferred.
+ * <br/>
+ * Planning goes through these steps:
+ * <ul>
+ *   <li>links already downloaded are dropped, links to the same URL in a ticket are
+ *       downloaded once;</li>
+ *   <li>attachments matching a skip rule are marked and left out, unless the user
+ *       asked for them;</li>
+ *   <li>unknown sizes are asked to the server, once per URL, all together and for
+ *       a limited time: the sizes still unknown are estimated;</li>
+ *   <li>tickets that do not fit on the disk are left for a later batch, whole;</li>
+ *   <li>an URL found in more than one ticket is downloaded only for the first one,
+ *       the others get a copy, unless copies are disabled.</li>
+ * </ul>
+ *
+ * @author Andrea Cisternino
+ */
+public class DownloadPlanner
+{
+    private static final Logger log = Logger.getLogger( DownloadPlanner.class.getName() );
+
+    /** Default time spent asking the sizes to the server. */
+    private static final long PROBE_TIMEOUT_MS = 15000;
+
+    /** Retrieves the size of the attachments the pages do not show. */
+    private final SizeProbe probe;
+
+    /** The configuration containing the skip rules. */
+    private final ConfigData config;
+
+    /** Bytes available for the batch, negative if unknown. */
+    private final long available;
+
+    /** Can a ticket get a copy of an attachment downloaded for another one? */
+    private boolean copyAcrossTickets = true;
+
+    /** Runs the size probes in parallel, null to run them in the calling thread. */
+    private ExecutorService probeExecutor;
+
+    /** Time after which the sizes still unknown are not asked anymore, in ms. */
+    private long probeTimeout = PROBE_TIMEOUT_MS;
+
+    //---- Lifecycle ---------------------------------------------------------------
+
+    /**
+     * @param probe retrieves the unknown sizes.
+     * @param config the configuration containing the skip rules.
+     * @param available the bytes the batch can write on the disk, negative if unknown.
+     */
+    public DownloadPlanner(SizeProbe probe, ConfigData config, long available) {
+        this.probe = probe;
+        this.config = config;
+        this.available = available;
+    }
+
+    //---- API ---------------------------------------------------------------------
+
+    /**
+     * Decides if an URL found in more than one ticket is downloaded once.
+     *
+     * @param copy false to download the URL for each ticket.
+     */
+    public void setCopyAcrossTickets(boolean copy) {
+        this.copyAcrossTickets = copy;
+    }
+
+    /**
+     * Sets how the unknown sizes are asked to the server.
+     *
+     * @param executor runs the probes in parallel, null to run them one after the other.
+     * @param timeout the maximum time spent probing.
+     * @param unit the unit of <code>timeout</code>.
+     */
+    public void setProbing(ExecutorService executor, long timeout, TimeUnit unit) {
+        this.probeExecutor = executor;
+        this.probeTimeout = unit.toMillis( timeout );
+    }
+
+    /**
+     * Plans the download of the attachments of some tickets. The states of skipped
+     * and already downloaded links, and the sizes discovered, are stored in the links.
+     *
+     * @param tickets the tickets to download.
+     * @return the plan.
+     */
+    public DownloadPlan plan(List<Ticket> tickets) {
+
+        Map<Ticket, List<AttachmentLink>> downloads = new LinkedHashMap<>();
+        Map<AttachmentLink, List<AttachmentLink>> duplicates = new IdentityHashMap<>();
+        // the first link to each URL whose size must be asked
+        Map<String, AttachmentLink> unknown = new LinkedHashMap<>();
+        int skipped = 0;
+
+        for ( Ticket ticket : tickets ) {
+
+            log.log( Level.FINE, "{0}: {1} attachments", new Object[] { ticket.getId(), ticket.getAttachmentNum() } );
+
+            // the first link to each URL, in this ticket
+            Map<String, AttachmentLink> seen = new HashMap<>();
+            List<AttachmentLink> pending = new ArrayList<>();
+
+            for ( AttachmentLink link : ticket.getAttachments() ) {
+
+                String key = urlKey( link );
+                AttachmentLink first = seen.get( key );
+
+                if ( first != null ) {
+                    if ( pending.contains( first ) ) {
+                        addDuplicate( duplicates, first, link );
+                    } else {
+                        // downloaded or skipped like the first one
+                        link.setState( first.getState() );
+                    }
+                    continue;
+                }
+                seen.put( key, link );
+
+                // attachments downloaded by a previous, stopped, run are skipped
+                if ( link.getState() == AttachmentState.DOWNLOADED ) {
+                    continue;
+                }
+
+                // rules not needing the size are checked before asking the server
+                if ( link.getState() != AttachmentState.REQUESTED && skip( ticket, link ) ) {
+                    skipped++;
+                    continue;
+                }
+
+                // the size is needed by the space check and by some policies
+                if ( link.getSize() < 0 && ! unknown.containsKey( key ) ) {
+                    unknown.put( key, link );
+                }
+
+                if ( link.getState() == AttachmentState.SKIPPED ) {
+                    // the rule that skipped it is gone
+                    link.setState( AttachmentState.PENDING );
+                }
+                pending.add( link );
+            }
+
+            downloads.put( ticket, pending );
+        }
+
+        // the rules needing the size are checked once the server answered
+        Map<String, Long> sizes = probeSizes( unknown );
+
+        for ( Map.Entry<Ticket, List<AttachmentLink>> entry : downloads.entrySet() ) {
+            for ( Iterator<AttachmentLink> it = entry.getValue().iterator(); it.hasNext(); ) {
+                AttachmentLink link = it.next();
+
+                Long size = link.getSize() < 0 ? sizes.get( urlKey( link ) ) : null;
+                if ( size == null ) {
+                    continue;
+                }
+                link.setSize( size );
+
+                if ( link.getState() != AttachmentState.REQUESTED && skip( entry.getKey(), link ) ) {
+                    it.remove();
+                    skipped++;
+                    // the duplicates in the ticket are skipped like the first one
+                    List<AttachmentLink> own = duplicates.remove( link );
+                    if ( own != null ) {
+                        for ( AttachmentLink dup : own ) {
+                            dup.setState( AttachmentState.SKIPPED );
+                        }
+                    }
+                }
+            }
+        }
+
+        // leave out what does not fit on the disk
+        int postponed = fitToDisk( downloads );
+        for ( Iterator<AttachmentLink> it = duplicates.keySet().iterator(); it.hasNext(); ) {
+            if ( ! downloads.containsKey( it.next().getTicket() ) ) {
+                it.remove();
+            }
+        }
+
+        // the same URL in different tickets is downloaded once
+        if ( copyAcrossTickets ) {
+            Map<String, AttachmentLink> primaries = new HashMap<>();
+            for ( List<AttachmentLink> links : downloads.values() ) {
+                for ( Iterator<AttachmentLink> it = links.iterator(); it.hasNext(); ) {
+                    AttachmentLink link = it.next();
+                    AttachmentLink primary = primaries.get( urlKey( link ) );
+                    if ( primary == null ) {
+                        primaries.put( urlKey( link ), link );
+                    } else {
+                        it.remove();
+                        addDuplicate( duplicates, primary, link );
+                        List<AttachmentLink> own = duplicates.remove( link );
+                        if ( own != null ) {
+                            duplicates.get( primary ).addAll( own );
+                        }
+                    }
+                }
+            }
+        }
+
+        DownloadPlan plan = new DownloadPlan( downloads, duplicates, skipped, postponed );
+        log.log( Level.INFO, "{0}", plan );
+
+        return plan;
+    }
+
+    //---- Support methods ---------------------------------------------------------
+
+    /**
+     * Checks an attachment against the skip rules and marks it if one matches.
+     *
+     * @param ticket the ticket of the attachment.
+     * @param link the attachment.
+     * @return true if the attachment must not be downloaded.
+     */
+    private boolean skip(Ticket ticket, AttachmentLink link) {
+
+        SkipRule rule = config.findSkipRule( link.getName(), link.getSize(), ticket.getTracker() );
+        if ( rule == null ) {
+            return false;
+        }
+
+        log.log( Level.INFO, "{0}: {1} skipped by {2}", new Object[] { ticket.getId(), link.getName(), rule } );
+        link.setState( AttachmentState.SKIPPED );
+        return true;
+    }
+
+    /**
+     * Asks the server the sizes of some attachments. The probes still running when
+     * the time is over are abandoned: those sizes stay unknown and are estimated
+     * by the space check.
+     *
+     * @param links the attachments, by URL.
+     * @return the sizes obtained, by URL. -1 if the server did not tell.
+     */
+    private Map<String, Long> probeSizes(Map<String, AttachmentLink> links) {
+
+        Map<String, Long> sizes = new HashMap<>();
+        if ( links.isEmpty() ) {
+            return sizes;
+        }
+
+        log.log( Level.INFO, "probing {0} sizes", links.size() );
+
+        if ( probeExecutor == null ) {
+            long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos( probeTimeout );
+            for ( Map.Entry<String, AttachmentLink> entry : links.entrySet() ) {
+                if ( System.nanoTime() - deadline > 0 ) {
+                    break;
+                }
+                sizes.put( entry.getKey(), probeSize( entry.getValue() ) );
+            }
+        } else {
+            List<String> keys = new ArrayList<>( links.keySet() );
+            List<Callable<Long>> probes = new ArrayList<>();
+            for ( final AttachmentLink link : links.values() ) {
+                probes.add( new Callable<Long>() {
+                    @Override
+                    public Long call() {
+                        return probeSize( link );
+                    }
+                } );
+            }
+
+            List<Future<Long>> results;
+            try {
+                results = probeExecutor.invokeAll( probes, probeTimeout, TimeUnit.MILLISECONDS );
+            } catch ( InterruptedException ex ) {
+                // the batch is being cancelled, plan without the sizes
+                Thread.currentThread().interrupt();
+                results = Collections.emptyList();
+            }
+
+            // all the futures are done, cancelled if out of time
+            for ( int i = 0; i < results.size(); i++ ) {
+                Future<Long> result = results.get( i );
+                if ( result.isCancelled() ) {
+                    continue;
+                }
+                try {
+                    sizes.put( keys.get( i ), result.get() );
+                } catch ( InterruptedException | ExecutionException ex ) {
+                    log.log( Level.WARNING, "probing size: {0}", ex.toString() );
+                }
+            }
+        }
+
+        if ( sizes.size() < links.size() ) {
+            log.log( Level.WARNING, "{0} sizes not probed in time, estimated", links.size() - sizes.size() );
+        }
+        return sizes;
+    }
+
+    /**
+     * Asks the server the size of an attachment. Errors are not fatal, the size
+     * stays unknown.
+     */
+    private long probeSize(AttachmentLink link) {
+        try {
+            return probe.probeSize( link );
+        } catch ( IOException | RuntimeException ex ) {
+            log.log( Level.WARNING, "probing size: {0}", ex.toString() );
+            return -1;
+        }
+    }
+
+    /**
+     * Removes from the batch the tickets that do not fit in the available space.
+     * Tickets are kept whole, in list order, skipping those too big for what is left.
+     * Unknown sizes are estimated with the average of the known ones.
+     *
+     * @param downloads the attachments to download, grouped by ticket.
+     * @return the number of tickets removed.
+     */
+    private int fitToDisk(Map<Ticket, List<AttachmentLink>> downloads) {
+
+        if ( available < 0 ) {
+            log.warning( "free disk space unknown, not checked" );
+            return 0;
+        }
+
+        ByteProgress estimate = new ByteProgress();
+        for ( List<AttachmentLink> links : downloads.values() ) {
+            for ( AttachmentLink link : links ) {
+                estimate.expect( link.getSize() );
+            }
+        }
+
+        log.log( Level.INFO, "batch: {0}, available: {1}",
+                new Object[] { Utils.formatSize( estimate.getTotal() ), Utils.formatSize( available ) } );
+
+        if ( estimate.getTotal() <= available ) {
+            return 0;
+        }
+
+        long average = estimate.getAverageSize();
+        long used = 0;
+        int postponed = 0;
+
+        for ( Iterator<Map.Entry<Ticket, List<AttachmentLink>>> it = downloads.entrySet().iterator(); it.hasNext(); ) {
+            Map.Entry<Ticket, List<AttachmentLink>> entry = it.next();
+
+            long size = 0;
+            for ( AttachmentLink link : entry.getValue() ) {
+                size += link.getSize() < 0 ? average : link.getSize();
+            }
+
+            if ( used + size <= available ) {
+                used += size;
+            } else {
+                log.log( Level.WARNING, "{0} left out: {1}", new Object[] { entry.getKey().getId(), Utils.formatSize( size ) } );
+                it.remove();
+                postponed++;
+            }
+        }
+
+        return postponed;
+    }
+
+    private static void addDuplicate(Map<AttachmentLink, List<AttachmentLink>> duplicates,
+                                     AttachmentLink primary, AttachmentLink link) {
+        List<AttachmentLink> links = duplicates.get( primary );
+        if ( links == null ) {
+            links = new ArrayList<>();
+            duplicates.put( primary, links );
+        }
+        links.add( link );
+    }
+
+    private static String urlKey(AttachmentLink link) {
+        return link.getUrl() == null ? "" : link.getUrl().trim();
+    }
+
+    //---- SizeProbe ---------------------------------------------------------------
+
+    /**
+     * Retrieves the size of an attachment without downloading it.
+     */
+    public interface SizeProbe
+    {
+        /**
+         * @param link the attachment.
+         * @return the size in bytes, -1 if unknown.
+         * @throws IOException in case of connection errors.
+         */
+        long probeSize(AttachmentLink link) throws IOException;
+    }
+}
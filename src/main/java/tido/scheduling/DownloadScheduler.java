@@ -0,0 +1,45 @@
+/*
+ * Copyright 2013 Andrea Cisternino <a.cisternino@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package tido.scheduling;
+
+/**
+ * Decides the order in which the attachments are downloaded.
+ * <br/>
+ * Implementations are not thread-safe: the download engine serializes all calls.
+ *
+ * @author Andrea Cisternino
+ */
+public interface DownloadScheduler {
+
+    /**
+     * Adds a job to the scheduler.
+     *
+     * @param job the job.
+     */
+    public void add( DownloadJob job );
+
+    /**
+     * Removes and returns the next job to execute.
+     *
+     * @return the next job, null if there are no more jobs.
+     */
+    public DownloadJob next();
+
+    /**
+     * @return the number of jobs still waiting.
+     */
+    public int size();
+}
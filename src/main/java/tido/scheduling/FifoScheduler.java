@@ -0,0 +1,44 @@
+/*
+ * Copyright 2013 Andrea Cisternino <a.cisternino@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package tido.scheduling;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+
+/**
+ * Downloads the attachments in list order.
+ *
+ * @author Andrea Cisternino
+ */
+class FifoScheduler implements DownloadScheduler {
+
+    private final Deque<DownloadJob> jobs = new ArrayDeque<>();
+
+    @Override
+    public void add(DownloadJob job) {
+        jobs.addLast( job );
+    }
+
+    @Override
+    public DownloadJob next() {
+        return jobs.pollFirst();
+    }
+
+    @Override
+    public int size() {
+        return jobs.size();
+    }
+}
@@ -0,0 +1,88 @@
+/*
+ * Copyright 2013 Andrea Cisternino <a.cisternino@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package tido.scheduling;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+import tido.model.Ticket;
+
+/**
+ * Downloads first the tickets pinned by the user. Tickets with the same
+ * priority are downloaded in list order.
+ * <br/>
+ * The priority is read every time a job is requested, so pinning a ticket
+ * has effect also on a running batch.
+ *
+ * @author Andrea Cisternino
+ */
+class PriorityScheduler implements DownloadScheduler {
+
+    /** Tickets with jobs, in list order. */
+    private final List<Ticket> tickets = new ArrayList<>();
+
+    private final Map<Ticket, Deque<DownloadJob>> queues = new IdentityHashMap<>();
+
+    private int size = 0;
+
+    @Override
+    public void add(DownloadJob job) {
+        Deque<DownloadJob> queue = queues.get( job.getTicket() );
+        if ( queue == null ) {
+            queue = new ArrayDeque<>();
+            queues.put( job.getTicket(), queue );
+            tickets.add( job.getTicket() );
+        }
+        queue.addLast( job );
+        size++;
+    }
+
+    @Override
+    public DownloadJob next() {
+
+        // the number of tickets is small, a linear scan is fine
+        int best = -1;
+        for ( int i = 0; i < tickets.size(); i++ ) {
+            if ( best < 0 || tickets.get( i ).getPriority() > tickets.get( best ).getPriority() ) {
+                best = i;
+            }
+        }
+        if ( best < 0 ) {
+            return null;
+        }
+
+        Ticket ticket = tickets.get( best );
+        Deque<DownloadJob> queue = queues.get( ticket );
+
+        DownloadJob job = queue.pollFirst();
+        if ( queue.isEmpty() ) {
+            queues.remove( ticket );
+            tickets.remove( best );
+        }
+        size--;
+
+        return job;
+    }
+
+    @Override
+    public int size() {
+        return size;
+    }
+}
@@ -0,0 +1,74 @@
+/*
+ * Copyright 2013 Andrea Cisternino <a.cisternino@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package tido.scheduling;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.IdentityHashMap;
+import java.util.Map;
+
+import tido.model.Ticket;
+
+/**
+ * Takes one attachment from each ticket in turn, so that a ticket with many
+ * attachments does not hold back the ones following it.
+ *
+ * @author Andrea Cisternino
+ */
+class RoundRobinScheduler implements DownloadScheduler {
+
+    /** The queues of the tickets that still have jobs, in turn order. */
+    private final Deque<Deque<DownloadJob>> turns = new ArrayDeque<>();
+
+    private final Map<Ticket, Deque<DownloadJob>> queues = new IdentityHashMap<>();
+
+    private int size = 0;
+
+    @Override
+    public void add(DownloadJob job) {
+        Deque<DownloadJob> queue = queues.get( job.getTicket() );
+        if ( queue == null ) {
+            queue = new ArrayDeque<>();
+            queues.put( job.getTicket(), queue );
+            turns.addLast( queue );
+        }
+        queue.addLast( job );
+        size++;
+    }
+
+    @Override
+    public DownloadJob next() {
+        Deque<DownloadJob> queue = turns.pollFirst();
+        if ( queue == null ) {
+            return null;
+        }
+
+        DownloadJob job = queue.pollFirst();
+        if ( queue.isEmpty() ) {
+            queues.remove( job.getTicket() );
+        } else {
+            turns.addLast( queue );
+        }
+        size--;
+
+        return job;
+    }
+
+    @Override
+    public int size() {
+        return size;
+    }
+}
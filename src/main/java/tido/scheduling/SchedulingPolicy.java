@@ -0,0 +1,73 @@
+/*
+ * Copyright 2013 Andrea Cisternino <a.cisternino@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package tido.scheduling;
+
+/**
+ * The available attachment scheduling policies.
+ *
+ * @author Andrea Cisternino
+ */
+public enum SchedulingPolicy {
+
+    /** List order. */
+    FIFO,
+
+    /** Smallest attachments first. Needs the size of the attachments. */
+    SMALLEST_FIRST,
+
+    /** One attachment from each ticket in turn. */
+    ROUND_ROBIN,
+
+    /** Tickets pinned by the user first. */
+    PRIORITY;
+
+    /**
+     * @return a new, empty scheduler implementing this policy.
+     */
+    public DownloadScheduler create() {
+        switch ( this ) {
+            case SMALLEST_FIRST:
+                return new SmallestFirstScheduler();
+
+            case ROUND_ROBIN:
+                return new RoundRobinScheduler();
+
+            case PRIORITY:
+                return new PriorityScheduler();
+
+            default:
+                return new FifoScheduler();
+        }
+    }
+
+    /**
+     * Converts a configuration value into a policy.
+     *
+     * @param name the name of the policy, can be null.
+     * @param defaultPolicy the policy returned if the name is not valid.
+     * @return the policy.
+     */
+    public static SchedulingPolicy parse(String name, SchedulingPolicy defaultPolicy) {
+        if ( name != null ) {
+            try {
+                return valueOf( name.trim().toUpperCase() );
+            } catch ( IllegalArgumentException ex ) {
+                // fall through
+            }
+        }
+        return defaultPolicy;
+    }
+}
@@ -0,0 +1,54 @@
+/*
+ * Copyright 2013 Andrea Cisternino <a.cisternino@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package tido.scheduling;
+
+import java.util.Comparator;
+import java.util.PriorityQueue;
+
+/**
+ * Downloads the smallest attachments first. Attachments of unknown size go last.
+ *
+ * @author Andrea Cisternino
+ */
+class SmallestFirstScheduler implements DownloadScheduler {
+
+    private final PriorityQueue<DownloadJob> jobs = new PriorityQueue<>( 64, new Comparator<DownloadJob>() {
+        @Override
+        public int compare(DownloadJob j1, DownloadJob j2) {
+            int c = Long.compare( effectiveSize( j1 ), effectiveSize( j2 ) );
+            return c != 0 ? c : Long.compare( j1.getSeq(), j2.getSeq() );
+        }
+    } );
+
+    @Override
+    public void add(DownloadJob job) {
+        jobs.add( job );
+    }
+
+    @Override
+    public DownloadJob next() {
+        return jobs.poll();
+    }
+
+    @Override
+    public int size() {
+        return jobs.size();
+    }
+
+    private static long effectiveSize(DownloadJob job) {
+        return job.getSize() < 0 ? Long.MAX_VALUE : job.getSize();
+    }
+}
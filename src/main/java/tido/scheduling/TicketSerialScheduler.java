@@ -0,0 +1,87 @@
+/*
+ * Copyright 2013 Andrea Cisternino <a.cisternino@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package tido.scheduling;
+
+import java.util.ArrayDeque;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.IdentityHashMap;
+import java.util.Set;
+
+import tido.model.Ticket;
+
+/**
+ * Wraps another scheduler so that the attachments of a ticket are downloaded one
+ * at a time, e.g. because they are written to a single archive. The order of the
+ * wrapped scheduler is kept for the tickets not busy.
+ * <br/>
+ * A job taken with {@link #next()} makes its ticket busy until {@link #release(Ticket)}.
+ * The jobs of busy tickets are held back and returned to the wrapped scheduler on
+ * release: a worker that gets no job leaves the others to the workers still busy.
+ *
+ * @author Andrea Cisternino
+ */
+public class TicketSerialScheduler implements DownloadScheduler {
+
+    private final DownloadScheduler scheduler;
+
+    /** Tickets with a job running. */
+    private final Set<Ticket> busy = Collections.newSetFromMap( new IdentityHashMap<Ticket, Boolean>() );
+
+    /** Jobs of busy tickets, taken from the wrapped scheduler. */
+    private final Deque<DownloadJob> held = new ArrayDeque<>();
+
+    /**
+     * @param scheduler the scheduler deciding the order.
+     */
+    public TicketSerialScheduler(DownloadScheduler scheduler) {
+        this.scheduler = scheduler;
+    }
+
+    @Override
+    public void add(DownloadJob job) {
+        scheduler.add( job );
+    }
+
+    @Override
+    public DownloadJob next() {
+        DownloadJob job;
+        while ( ( job = scheduler.next() ) != null ) {
+            if ( busy.add( job.getTicket() ) ) {
+                return job;
+            }
+            held.addLast( job );
+        }
+        return null;
+    }
+
+    @Override
+    public int size() {
+        return scheduler.size() + held.size();
+    }
+
+    /**
+     * Lets the next job of a ticket run.
+     *
+     * @param ticket the ticket of a job returned by {@link #next()} and now done.
+     */
+    public void release(Ticket ticket) {
+        busy.remove( ticket );
+        while ( ! held.isEmpty() ) {
+            scheduler.add( held.pollFirst() );
+        }
+    }
+}
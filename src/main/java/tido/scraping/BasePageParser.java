@@ -23,13 +23,19 @@ import java.util.regex.Pattern;
 
 import org.jsoup.nodes.Document;
 import org.jsoup.nodes.Element;
+import org.jsoup.select.Collector;
 import org.jsoup.select.Elements;
+import org.jsoup.select.Evaluator;
+import org.jsoup.select.QueryParser;
 import tido.config.ServerInfo;
 import tido.model.AttachmentLink;
 import tido.model.Ticket;
 
 /**
  * Base class containing most of the page parsing logic.
+ * <br/>
+ * Instances are created by a {@link PageParserProvider} and shared by all the
+ * threads parsing pages of their server: subclasses must not keep state.
  *
  * @author Andrea Cisternino
  */
@@ -37,7 +43,7 @@ public abstract class BasePageParser implements PageParser {
 
     private static final Logger log = Logger.getLogger( BasePageParser.class.getName() );
 
-    protected ServerInfo server;
+    protected final ServerInfo server;
 
     //---- Abstract methods --------------------------------------------------------
 
@@ -56,28 +62,6 @@ public abstract class BasePageParser implements PageParser {
         this.server = server;
     }
 
-    /**
-     * Static factory method that creates instances of BaseParser customized
-     * for a specific TeamForge server.
-     *
-     * @param server
-     * @return
-     */
-    public static PageParser create( ServerInfo server ) {
-
-        // TODO this is very BAD because forces to use a specific id in the file!!
-        switch ( server.getId() ) {
-            case "EB":
-                return new EbPageParser( server );
-
-            case "ESO":
-                return new EsoPageParser( server );
-
-            default:
-                throw new IllegalArgumentException( "wrong server id: \"" + server.getId() + '"' );
-        }
-    }
-
     //---- API ---------------------------------------------------------------------
 
     @Override
@@ -86,7 +70,7 @@ public abstract class BasePageParser implements PageParser {
         Ticket t = new Ticket( server );
 
         // get main Ticket attributes parsing the title string
-        String title = page.select( "head > title" ).first().ownText();
+        String title = Collector.collect( TITLE, page ).first().ownText();
         log.log( Level.FINE, "original title: {0}", title );
 
         t.setId( extractArtifactId( title ) );
@@ -118,6 +102,9 @@ public abstract class BasePageParser implements PageParser {
     private static final Pattern TITLE_PATTERN = Pattern.compile( "artf\\d+:(.+)" );
     private static final Pattern KPM_PATTERN = Pattern.compile( "\\[(\\d+?)\\]$" );
 
+    /** Selectors are compiled once, not at each page. */
+    private static final Evaluator TITLE = QueryParser.parse( "head > title" );
+
     //---- Common methods ----------------------------------------------------------
 
     /**
@@ -186,7 +173,9 @@ public abstract class BasePageParser implements PageParser {
 
     //---- Attachments -------------------------------------------------------------
 
-    private static final String ATTACHMENTS_PATH = "a[href*=/downloadAttachment/]:not(:has(img))";
+    private static final Evaluator ATTACHMENTS = QueryParser.parse( "a[href*=/downloadAttachment/]:not(:has(img))" );
+
+    private static final Pattern SIZE_PATTERN = Pattern.compile( "(\\d+(?:[.,]\\d+)?)\\s*(bytes|B|KB|MB|GB)\\b", Pattern.CASE_INSENSITIVE );
 
     /**
      * Finds all the URL's pointing to attachments in a Ticket page.
@@ -197,7 +186,7 @@ public abstract class BasePageParser implements PageParser {
     void addAttachments(Ticket ticket, Document page, ServerInfo server) {
 
         // extract all URL's of attachments
-        Elements urls = page.select( ATTACHMENTS_PATH );
+        Elements urls = selectAttachments( page );
         log.log( Level.FINE, "found {0} attachment URL's", urls.size() );
 
         String serverUrl = server.getUrl();
@@ -215,9 +204,53 @@ public abstract class BasePageParser implements PageParser {
             ar.setUrl( serverUrl + element.attr( "href" ) );
             ar.setName( element.ownText() );
 
+            // the size shown next to the link is approximated but good enough for estimates
+            if ( element.parent() != null ) {
+                ar.setSize( extractSize( element.parent().ownText() ) );
+            }
+
             ticket.getAttachments().add( ar );
         }
         log.log( Level.INFO, "added {0} attachments", c );
     }
 
+    /**
+     * @param page a ticket page.
+     * @return the links to the attachments.
+     */
+    Elements selectAttachments(Document page) {
+        return Collector.collect( ATTACHMENTS, page );
+    }
+
+    /**
+     * Extracts a size like "12.5 KB" from the text around an attachment link.
+     *
+     * @param text the text next to the link.
+     * @return the size in bytes, -1 if not found.
+     */
+    static long extractSize(String text) {
+
+        Matcher sm = SIZE_PATTERN.matcher( text );
+        if ( ! sm.find() ) {
+            return -1;
+        }
+
+        double value = Double.parseDouble( sm.group( 1 ).replace( ',', '.' ) );
+
+        switch ( sm.group( 2 ).toUpperCase() ) {
+            case "GB":
+                value *= 1024;
+                // fall through
+            case "MB":
+                value *= 1024;
+                // fall through
+            case "KB":
+                value *= 1024;
+                // fall through
+            default:
+                break;
+        }
+        return (long) value;
+    }
+
 }
@@ -15,56 +15,28 @@
  */
 package tido.scraping;
 
-import org.jsoup.nodes.Document;
-import org.jsoup.nodes.Element;
-import org.jsoup.select.Elements;
+import tido.config.FieldRule;
+import tido.config.ParserDefinition;
 import tido.config.ServerInfo;
 
 /**
  *
  * @author Andrea Cisternino
  */
-class EbPageParser extends BasePageParser {
+class EbPageParser extends SelectorPageParser {
 
-    //---- Lifecycle ---------------------------------------------------------------
-
-    EbPageParser(ServerInfo server) {
-        super( server );
-    }
-
-    //---- Abstract methods --------------------------------------------------------
-
-    private static final String TRACKER_PATH = "div#main tr.artifactTrackerRow > td.ItemDetailValue";
+    /** The built-in definition, replaced by an "EB" parser in the configuration. */
+    static final ParserDefinition DEFINITION = new ParserDefinition( "EB",
+            new FieldRule( TRACKER, "div#main tr.artifactTrackerRow > td.ItemDetailValue" ),
+            new FieldRule( DESCRIPTION, "div#main tr.artifactDescriptionRow > td.ItemDetailValue" ),
+            // the third cell of the row whose first cell is labelled "analysis"
+            new FieldRule( ANALYSIS, "table#fieldsColumn1 tr:has(td:eq(0):containsOwn(analysis)) > td:eq(2)" ) );
 
-    @Override
-    String extractTracker(Document page) {
-        return page.select( TRACKER_PATH ).first().text().trim();
-    }
-
-    private static final String DESCRIPTION_PATH = "div#main tr.artifactDescriptionRow > td.ItemDetailValue";
+    private static final Rules RULES = Rules.compile( DEFINITION );
 
-    @Override
-    String extractDescription(Document page) {
-        return page.select( DESCRIPTION_PATH ).first().text().trim();
-    }
+    //---- Lifecycle ---------------------------------------------------------------
 
-    @Override
-    String extractAnalysis(Document page) {
-        
-        Elements rows = page.select( "table#fieldsColumn1 tr" );
-        
-        for ( Element row : rows ) {
-        
-            Elements columns = row.select( "td" );
-            
-            if ( ! columns.first().ownText().toLowerCase().contains( "analysis" ) ) {
-                continue;
-            }
-            
-            return columns.get( 2 ).text();
-        }
-        
-        return "";
+    EbPageParser(ServerInfo server) {
+        super( server, RULES );
     }
-
 }
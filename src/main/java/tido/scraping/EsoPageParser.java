@@ -15,43 +15,29 @@
  */
 package tido.scraping;
 
-import org.jsoup.nodes.Document;
+import tido.config.FieldRule;
+import tido.config.ParserDefinition;
 import tido.config.ServerInfo;
 
 /**
  *
  * @author Andrea Cisternino
  */
-class EsoPageParser extends BasePageParser {
+class EsoPageParser extends SelectorPageParser {
 
-    //---- Lifecycle ---------------------------------------------------------------
-
-    EsoPageParser(ServerInfo server) {
-        super( server );
-    }
+    /** The built-in definition, replaced by an "ESO" parser in the configuration. */
+    static final ParserDefinition DEFINITION = new ParserDefinition( "ESO",
+            new FieldRule( TRACKER, "div#main tr#artifactTrackerRow > td.ItemDetailValue" ),
+            new FieldRule( DESCRIPTION, "div#main tr#artifactDescriptionRow > td.ItemDetailValue" ),
+            // the second text area
+            // /html/body/div[3]/div[3]/table[3]/tbody/tr[2]/td/form/table/tbody/tr/td/table/tbody/tr[17]/td[2]/textarea
+            new FieldRule( ANALYSIS, 1, "div#main td.ItemDetailValue > textarea.inputfield" ) );
 
-    //---- Abstract methods --------------------------------------------------------
-
-    private static final String TRACKER_PATH = "div#main tr#artifactTrackerRow > td.ItemDetailValue";
-
-    @Override
-    String extractTracker(Document page) {
-        return page.select( TRACKER_PATH ).first().text().trim();
-    }
+    private static final Rules RULES = Rules.compile( DEFINITION );
 
-    private static final String DESCRIPTION_PATH = "div#main tr#artifactDescriptionRow > td.ItemDetailValue";
-
-    @Override
-    String extractDescription(Document page) {
-        return page.select( DESCRIPTION_PATH ).first().text().trim();
-    }
-
-    private static final String ANALYSIS_PATH = "div#main td.ItemDetailValue > textarea.inputfield";
-    // /html/body/div[3]/div[3]/table[3]/tbody/tr[2]/td/form/table/tbody/tr/td/table/tbody/tr[17]/td[2]/textarea
+    //---- Lifecycle ---------------------------------------------------------------
 
-    @Override
-    String extractAnalysis(Document page) {
-        return page.select( ANALYSIS_PATH ).get( 1 ).text().trim();
+    EsoPageParser(ServerInfo server) {
+        super( server, RULES );
     }
-
 }
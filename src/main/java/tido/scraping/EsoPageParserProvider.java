@@ -0,0 +1,36 @@
+/*
+ * Copyright 2013 Andrea Cisternino <a.cisternino@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package tido.scraping;
+
+import tido.config.ServerInfo;
+
+/**
+ * Provides the parser of the "ESO" TeamForge servers.
+ *
+ * @author Andrea Cisternino
+ */
+public class EsoPageParserProvider implements PageParserProvider {
+
+    @Override
+    public String getType() {
+        return "ESO";
+    }
+
+    @Override
+    public PageParser create( ServerInfo server ) {
+        return new EsoPageParser( server );
+    }
+}
@@ -0,0 +1,179 @@
+/*
+ * Copyright 2013 Andrea Cisternino <a.cisternino@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package tido.scraping;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.regex.PatternSyntaxException;
+
+import org.jsoup.nodes.Element;
+import org.jsoup.select.Collector;
+import org.jsoup.select.Elements;
+import org.jsoup.select.Evaluator;
+import org.jsoup.select.QueryParser;
+import org.jsoup.select.Selector;
+import tido.Utils;
+import tido.config.FieldRule;
+
+/**
+ * A {@link FieldRule} compiled once, to be applied to any number of pages from
+ * any thread.
+ *
+ * @author Andrea Cisternino
+ */
+final class FieldExtractor {
+
+    private static final String ATTR_PREFIX = "attr:";
+
+    private final String name;
+
+    /** The selectors, for the messages. */
+    private final String[] queries;
+
+    /** The compiled selectors, in order. */
+    private final Evaluator[] evaluators;
+
+    private final int index;
+
+    /** Take the own text of the element, not the text of its children. */
+    private final boolean ownText;
+
+    /** Take this attribute instead of the text, null for the text. */
+    private final String attribute;
+
+    /** Extracts the value, can be null. */
+    private final Pattern pattern;
+
+    //---- Lifecycle ---------------------------------------------------------------
+
+    private FieldExtractor(FieldRule rule) {
+
+        name = rule.getName();
+        index = rule.getIndex();
+
+        List<String> selectors = rule.getSelectors();
+        if ( selectors.isEmpty() ) {
+            throw new IllegalArgumentException( "field " + name + ": no selector" );
+        }
+        if ( index < 0 ) {
+            throw new IllegalArgumentException( "field " + name + ": negative index" );
+        }
+
+        queries = selectors.toArray( new String[selectors.size()] );
+        evaluators = new Evaluator[queries.length];
+        for ( int i = 0; i < queries.length; i++ ) {
+            queries[i] = queries[i].trim();
+            try {
+                evaluators[i] = QueryParser.parse( queries[i] );
+            } catch ( Selector.SelectorParseException ex ) {
+                throw new IllegalArgumentException( "field " + name + ": invalid selector \"" + queries[i] + "\": " + ex.getMessage() );
+            }
+        }
+
+        String value = rule.getValue() == null ? "text" : rule.getValue().trim();
+        if ( value.startsWith( ATTR_PREFIX ) && value.length() > ATTR_PREFIX.length() ) {
+            ownText = false;
+            attribute = value.substring( ATTR_PREFIX.length() );
+        } else if ( value.equals( "text" ) || value.equals( "own-text" ) ) {
+            ownText = value.equals( "own-text" );
+            attribute = null;
+        } else {
+            throw new IllegalArgumentException( "field " + name + ": invalid value \"" + value + '"' );
+        }
+
+        try {
+            pattern = Utils.isBlank( rule.getPattern() ) ? null : Pattern.compile( rule.getPattern() );
+        } catch ( PatternSyntaxException ex ) {
+            throw new IllegalArgumentException( "field " + name + ": invalid pattern: " + ex.getDescription() );
+        }
+    }
+
+    /**
+     * @param rule the rule.
+     * @return the compiled rule.
+     * @throws IllegalArgumentException if a selector or the pattern are not valid.
+     */
+    static FieldExtractor compile(FieldRule rule) {
+        return new FieldExtractor( rule );
+    }
+
+    //---- API ---------------------------------------------------------------------
+
+    /**
+     * @return the name of the field.
+     */
+    String getName() {
+        return name;
+    }
+
+    /**
+     * @param root the page or the part of it to search.
+     * @return the elements found by the first selector finding any, empty if none.
+     */
+    Elements select(Element root) {
+        for ( Evaluator evaluator : evaluators ) {
+            Elements found = Collector.collect( evaluator, root );
+            if ( ! found.isEmpty() ) {
+                return found;
+            }
+        }
+        return new Elements();
+    }
+
+    /**
+     * @param root the page or the part of it to search.
+     * @return the trimmed value of the field, empty if no selector finds it.
+     */
+    String extract(Element root) {
+
+        for ( Evaluator evaluator : evaluators ) {
+            Elements found = Collector.collect( evaluator, root );
+            if ( found.size() <= index ) {
+                continue;
+            }
+
+            String value = value( found.get( index ) );
+            if ( ! value.isEmpty() ) {
+                return value;
+            }
+        }
+        return "";
+    }
+
+    //---- Support methods ---------------------------------------------------------
+
+    private String value(Element element) {
+
+        String value = attribute != null ? element.attr( attribute ) : ownText ? element.ownText() : element.text();
+
+        if ( pattern != null ) {
+            Matcher m = pattern.matcher( value );
+            if ( ! m.find() ) {
+                return "";
+            }
+            value = m.groupCount() > 0 ? m.group( 1 ) : m.group();
+        }
+
+        return value == null ? "" : value.trim();
+    }
+
+    @Override
+    public String toString() {
+        return "FieldExtractor{" + name + ": " + Arrays.toString( queries ) + '}';
+    }
+}
@@ -0,0 +1,46 @@
+/*
+ * Copyright 2013 Andrea Cisternino <a.cisternino@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package tido.scraping;
+
+import tido.config.ServerInfo;
+
+/**
+ * Creates the {@link PageParser}s for a type of TeamForge server.
+ * <br/>
+ * Providers are found with {@link java.util.ServiceLoader}: a jar adding a server
+ * type lists its provider classes in
+ * <code>META-INF/services/tido.scraping.PageParserProvider</code>.
+ * Implementations must have a public no-argument constructor.
+ *
+ * @author Andrea Cisternino
+ */
+public interface PageParserProvider {
+
+    /**
+     * @return the type of server handled, matched ignoring case with the
+     *         <code>parser</code> of the servers.
+     */
+    public String getType();
+
+    /**
+     * Creates a parser for a server. The parser is shared by all the threads
+     * parsing pages of the server, so it must be stateless.
+     *
+     * @param server the server.
+     * @return the parser.
+     */
+    public PageParser create( ServerInfo server );
+}
@@ -0,0 +1,152 @@
+/*
+ * Copyright 2013 Andrea Cisternino <a.cisternino@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package tido.scraping;
+
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.Locale;
+import java.util.Map;
+import java.util.ServiceConfigurationError;
+import java.util.ServiceLoader;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import tido.config.ServerInfo;
+
+/**
+ * Finds the {@link PageParser} of a server among the installed {@link PageParserProvider}s.
+ * <br/>
+ * Providers are loaded once, the ones defined in the configuration are added
+ * with {@link #register(PageParserProvider)}. A parser is created the first time a page of its
+ * server is parsed and reused for all the following pages, from any thread.
+ *
+ * @author Andrea Cisternino
+ */
+public class PageParserRegistry {
+
+    private static final Logger log = Logger.getLogger( PageParserRegistry.class.getName() );
+
+    /** The providers on the class path, loaded when first used. */
+    private static class Default {
+        static final PageParserRegistry INSTANCE = new PageParserRegistry( ServiceLoader.load( PageParserProvider.class ) );
+    }
+
+    /** The providers by upper case type. */
+    private final Map<String, PageParserProvider> providers = new ConcurrentHashMap<>();
+
+    /** The parsers already created, by server. */
+    private final Map<ServerInfo, PageParser> parsers = new ConcurrentHashMap<>();
+
+    //---- Lifecycle ---------------------------------------------------------------
+
+    /**
+     * @param loaded the available providers. A provider that can not be loaded is
+     *        skipped, the first provider of a type wins.
+     */
+    PageParserRegistry(Iterable<PageParserProvider> loaded) {
+
+        for ( Iterator<PageParserProvider> it = loaded.iterator(); ; ) {
+            PageParserProvider provider;
+            try {
+                if ( ! it.hasNext() ) {
+                    break;
+                }
+                provider = it.next();
+            } catch ( ServiceConfigurationError ex ) {
+                log.log( Level.WARNING, "loading page parser provider: {0}", ex.toString() );
+                continue;
+            }
+
+            String type = key( provider.getType() );
+            if ( providers.containsKey( type ) ) {
+                log.log( Level.WARNING, "duplicate parser type {0}: {1} ignored",
+                        new Object[] { type, provider.getClass().getName() } );
+                continue;
+            }
+            providers.put( type, provider );
+            log.log( Level.FINE, "{0}: {1}", new Object[] { type, provider.getClass().getName() } );
+        }
+    }
+
+    /**
+     * @return the registry of the providers on the class path.
+     */
+    public static PageParserRegistry getDefault() {
+        return Default.INSTANCE;
+    }
+
+    //---- API ---------------------------------------------------------------------
+
+    /**
+     * @return the upper case types of server with a provider.
+     */
+    public Set<String> getTypes() {
+        return Collections.unmodifiableSet( providers.keySet() );
+    }
+
+    /**
+     * Adds a provider, replacing the one of the same type if any. The parsers created
+     * by the replaced provider are discarded.
+     *
+     * @param provider the provider.
+     */
+    public void register( PageParserProvider provider ) {
+
+        String type = key( provider.getType() );
+        PageParserProvider old = providers.put( type, provider );
+        log.log( Level.INFO, "{0}: {1}{2}", new Object[] { type, provider.getClass().getSimpleName(), old != null ? " (replaced)" : "" } );
+
+        for ( Iterator<ServerInfo> it = parsers.keySet().iterator(); it.hasNext(); ) {
+            if ( key( it.next().getParserType() ).equals( type ) ) {
+                it.remove();
+            }
+        }
+    }
+
+    /**
+     * Returns the parser of a server, created the first time.
+     *
+     * @param server the server.
+     * @return the parser, shared with the other callers.
+     * @throws IllegalArgumentException if no provider handles the type of the server.
+     */
+    public PageParser get( ServerInfo server ) {
+
+        PageParser parser = parsers.get( server );
+
+        if ( parser == null ) {
+            PageParserProvider provider = providers.get( key( server.getParserType() ) );
+            if ( provider == null ) {
+                throw new IllegalArgumentException( "wrong parser type: \"" + server.getParserType() + "\", known: " + providers.keySet() );
+            }
+
+            // two threads can both create one, they are equivalent
+            parser = provider.create( server );
+            parsers.put( server, parser );
+            log.log( Level.INFO, "{0}: {1}", new Object[] { server.getName(), parser.getClass().getSimpleName() } );
+        }
+
+        return parser;
+    }
+
+    //---- Support methods ---------------------------------------------------------
+
+    private static String key( String type ) {
+        return type == null ? "" : type.trim().toUpperCase( Locale.ROOT );
+    }
+}
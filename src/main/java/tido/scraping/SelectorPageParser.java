@@ -0,0 +1,135 @@
+/*
+ * Copyright 2013 Andrea Cisternino <a.cisternino@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package tido.scraping;
+
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+
+import org.jsoup.nodes.Document;
+import org.jsoup.select.Elements;
+import tido.config.FieldRule;
+import tido.config.ParserDefinition;
+import tido.config.ServerInfo;
+
+/**
+ * A page parser driven by a {@link ParserDefinition}: the fields are found with
+ * the selectors of the definition, compiled once in {@link Rules}.
+ *
+ * @author Andrea Cisternino
+ */
+public class SelectorPageParser extends BasePageParser {
+
+    /** Names of the fields that can be defined. */
+    public static final String TRACKER = "tracker";
+    public static final String DESCRIPTION = "description";
+    public static final String ANALYSIS = "analysis";
+    public static final String ATTACHMENTS = "attachments";
+
+    private final Rules rules;
+
+    //---- Lifecycle ---------------------------------------------------------------
+
+    /**
+     * @param server the server of the pages.
+     * @param rules the compiled definition, shared by all the parsers of a type.
+     */
+    protected SelectorPageParser(ServerInfo server, Rules rules) {
+        super( server );
+        this.rules = rules;
+    }
+
+    //---- Abstract methods --------------------------------------------------------
+
+    @Override
+    String extractTracker(Document page) {
+        return rules.extract( TRACKER, page );
+    }
+
+    @Override
+    String extractDescription(Document page) {
+        return rules.extract( DESCRIPTION, page );
+    }
+
+    @Override
+    String extractAnalysis(Document page) {
+        return rules.extract( ANALYSIS, page );
+    }
+
+    @Override
+    Elements selectAttachments(Document page) {
+        FieldExtractor attachments = rules.fields.get( ATTACHMENTS );
+        return attachments != null ? attachments.select( page ) : super.selectAttachments( page );
+    }
+
+    //---- Rules -------------------------------------------------------------------
+
+    /**
+     * A {@link ParserDefinition} with its selectors compiled. Immutable.
+     */
+    public static final class Rules {
+
+        private final String type;
+
+        private final Map<String, FieldExtractor> fields = new HashMap<>();
+
+        private Rules(ParserDefinition definition) {
+
+            type = definition.getType();
+
+            for ( FieldRule rule : definition.getFields() ) {
+                String name = rule.getName() == null ? "" : rule.getName().trim().toLowerCase( Locale.ROOT );
+                switch ( name ) {
+                    case TRACKER:
+                    case DESCRIPTION:
+                    case ANALYSIS:
+                    case ATTACHMENTS:
+                        fields.put( name, FieldExtractor.compile( rule ) );
+                        break;
+
+                    default:
+                        throw new IllegalArgumentException( "parser " + type + ": unknown field \"" + rule.getName() + '"' );
+                }
+            }
+        }
+
+        /**
+         * Compiles the selectors of a definition.
+         *
+         * @param definition the definition.
+         * @return the compiled definition.
+         * @throws IllegalArgumentException if the definition is not valid.
+         */
+        public static Rules compile(ParserDefinition definition) {
+            return new Rules( definition );
+        }
+
+        /**
+         * @return the type of server.
+         */
+        public String getType() {
+            return type;
+        }
+
+        /**
+         * @return the value of a field, empty if not defined or not found.
+         */
+        String extract(String name, Document page) {
+            FieldExtractor field = fields.get( name );
+            return field != null ? field.extract( page ) : "";
+        }
+    }
+}
@@ -0,0 +1,51 @@
+/*
+ * Copyright 2013 Andrea Cisternino <a.cisternino@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package tido.scraping;
+
+import tido.config.ParserDefinition;
+import tido.config.ServerInfo;
+
+/**
+ * Provides the parsers of a type of server defined in the configuration.
+ * Not found by the ServiceLoader, it is registered when the configuration is loaded.
+ *
+ * @author Andrea Cisternino
+ */
+public class SelectorPageParserProvider implements PageParserProvider {
+
+    private final SelectorPageParser.Rules rules;
+
+    /**
+     * @param definition the definition of the parser.
+     * @throws IllegalArgumentException if the definition is not valid.
+     */
+    public SelectorPageParserProvider( ParserDefinition definition ) {
+        if ( definition.getType() == null || definition.getType().trim().isEmpty() ) {
+            throw new IllegalArgumentException( "parser without type" );
+        }
+        rules = SelectorPageParser.Rules.compile( definition );
+    }
+
+    @Override
+    public String getType() {
+        return rules.getType();
+    }
+
+    @Override
+    public PageParser create( ServerInfo server ) {
+        return new SelectorPageParser( server, rules );
+    }
+}
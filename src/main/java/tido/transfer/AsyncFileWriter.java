@@ -0,0 +1,246 @@
+/*
+ * Copyright 2013 Andrea Cisternino <a.cisternino@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package tido.transfer;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * An OutputStream that writes a file in the background.
+ * <br/>
+ * Data is collected in buffers that are written, in order, by a task running on a
+ * separate I/O executor. The thread writing the stream blocks only when all the
+ * buffers are waiting for the disk, so a slow disk does not stall a network
+ * transfer until the buffers run out.
+ * <br/>
+ * The file, and its directory, are opened by the I/O task too. Errors are reported
+ * by the first call following the failure. {@link #close()} waits until all data
+ * is on disk.
+ * <br/>
+ * The file is not preallocated: writing past the end only makes a sparse file on
+ * most Unix file systems, and fills the gap with zeros on NTFS and SMB shares. A
+ * full disk is detected by checking the free space before the batch starts.
+ *
+ * @author Andrea Cisternino
+ */
+public class AsyncFileWriter extends OutputStream
+{
+    /** Size of each buffer. */
+    public static final int BUFFER_SIZE = 64 * 1024;
+
+    /** Maximum number of buffers waiting for the disk, 1 MB per stream. */
+    public static final int MAX_BUFFERS = 16;
+
+    private final Executor executor;
+
+    private final Path file;
+
+    private final long offset;
+
+    private final DirectoryCache dirs;
+
+    /** One permit for each buffer that can be in flight. */
+    private final Semaphore free = new Semaphore( MAX_BUFFERS );
+
+    /** Buffers waiting for the disk, in order. */
+    private final Queue<ByteBuffer> pending = new ConcurrentLinkedQueue<>();
+
+    /** Is a drain task scheduled on the executor? */
+    private final AtomicBoolean draining = new AtomicBoolean();
+
+    /** Buffer being filled by the writing thread. */
+    private ByteBuffer current;
+
+    /** Only used by the drain task, and by close() once the task is done. */
+    private FileChannel channel;
+
+    private volatile IOException failure;
+
+    private boolean closed = false;
+
+    //---- Lifecycle ---------------------------------------------------------------
+
+    /**
+     * @param executor runs the disk operations.
+     * @param file the file to write, created if missing.
+     * @param offset the position where writing starts, the file is truncated there.
+     * @param dirs creates the directory of the file.
+     */
+    public AsyncFileWriter(Executor executor, Path file, long offset, DirectoryCache dirs) {
+        this.executor = executor;
+        this.file = file;
+        this.offset = offset;
+        this.dirs = dirs;
+    }
+
+    //---- OutputStream ------------------------------------------------------------
+
+    @Override
+    public void write(int b) throws IOException {
+        write( new byte[] { (byte) b }, 0, 1 );
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+        checkOpen();
+
+        while ( len > 0 ) {
+            if ( current == null ) {
+                acquire( 1 );
+                current = ByteBuffer.allocate( BUFFER_SIZE );
+            }
+
+            int n = Math.min( len, current.remaining() );
+            current.put( b, off, n );
+            off += n;
+            len -= n;
+
+            if ( ! current.hasRemaining() ) {
+                submit();
+            }
+        }
+    }
+
+    /**
+     * Hands the buffered data to the I/O task without waiting for the disk.
+     */
+    @Override
+    public void flush() throws IOException {
+        checkOpen();
+        if ( current != null && current.position() > 0 ) {
+            submit();
+        }
+    }
+
+    /**
+     * Waits for all data to be written, forces it to the disk and closes the file.
+     * Also called after a failed transfer, so what was received can be resumed later.
+     */
+    @Override
+    public void close() throws IOException {
+        if ( closed ) {
+            return;
+        }
+
+        try {
+            if ( current != null && current.position() > 0 && failure == null ) {
+                submit();
+            }
+
+            // all the permits are back when the drain task has written everything
+            acquire( MAX_BUFFERS );
+            free.release( MAX_BUFFERS );
+
+            if ( failure == null ) {
+                // nothing was written: the file is still created or truncated
+                if ( channel == null ) {
+                    open();
+                }
+                channel.force( true );
+            }
+
+        } finally {
+            closed = true;
+            if ( channel != null ) {
+                channel.close();
+            }
+        }
+
+        if ( failure != null ) {
+            throw failure;
+        }
+    }
+
+    //---- Support methods ---------------------------------------------------------
+
+    private void checkOpen() throws IOException {
+        if ( closed ) {
+            throw new IOException( "stream closed" );
+        }
+        if ( failure != null ) {
+            throw failure;
+        }
+    }
+
+    private void acquire(int permits) throws IOException {
+        try {
+            free.acquire( permits );
+        } catch ( InterruptedException ex ) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException( "waiting for the disk" );
+        }
+    }
+
+    private void submit() {
+        current.flip();
+        pending.add( current );
+        current = null;
+
+        if ( draining.compareAndSet( false, true ) ) {
+            executor.execute( new Runnable() {
+                @Override
+                public void run() {
+                    drain();
+                }
+            } );
+        }
+    }
+
+    /**
+     * Writes the pending buffers. Only one drain task runs at any time.
+     */
+    private void drain() {
+        do {
+            ByteBuffer buf;
+            while ( ( buf = pending.poll() ) != null ) {
+                try {
+                    if ( failure == null ) {
+                        if ( channel == null ) {
+                            open();
+                        }
+                        while ( buf.hasRemaining() ) {
+                            channel.write( buf );
+                        }
+                    }
+                } catch ( IOException ex ) {
+                    failure = ex;
+                } finally {
+                    free.release();
+                }
+            }
+            draining.set( false );
+
+            // a buffer may have been added after the last poll
+        } while ( ! pending.isEmpty() && draining.compareAndSet( false, true ) );
+    }
+
+    private void open() throws IOException {
+        dirs.ensure( file.getParent() );
+        channel = FileChannel.open( file, StandardOpenOption.CREATE, StandardOpenOption.WRITE );
+        channel.truncate( offset );
+        channel.position( offset );
+    }
+}
@@ -0,0 +1,109 @@
+/*
+ * Copyright 2013 Andrea Cisternino <a.cisternino@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package tido.transfer;
+
+import java.io.InputStream;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import tido.config.BandwidthProfile;
+import tido.config.ServerInfo;
+
+/**
+ * Limits the bandwidth used by the attachment downloads.
+ * <br/>
+ * All downloads share a global {@link TokenBucket} and one bucket for each server.
+ * The limits come from a {@link BandwidthProfile} that can be switched at any time,
+ * also while downloads are running.
+ *
+ * @author Andrea Cisternino
+ */
+public class BandwidthLimiter
+{
+    private static final Logger log = Logger.getLogger( BandwidthLimiter.class.getName() );
+
+    private static final long KIB = 1024L;
+
+    /** Bucket shared by all downloads. */
+    private final TokenBucket global = new TokenBucket( 0 );
+
+    /** One bucket per server, indexed by server id. */
+    private final Map<String, TokenBucket> buckets = new HashMap<>();
+
+    /** The servers, needed to recompute their limits when the profile changes. */
+    private final Map<String, ServerInfo> servers = new HashMap<>();
+
+    private BandwidthProfile profile = new BandwidthProfile( "", 0, 0 );
+
+    //---- API ---------------------------------------------------------------------
+
+    /**
+     * Applies a new set of limits to all running and future downloads.
+     *
+     * @param profile the new profile.
+     */
+    public synchronized void setProfile(BandwidthProfile profile) {
+        log.log( Level.INFO, "{0}", profile );
+
+        this.profile = profile;
+
+        global.setRate( profile.getGlobalRate() * KIB );
+        for ( Map.Entry<String, TokenBucket> e : buckets.entrySet() ) {
+            e.getValue().setRate( serverRate( servers.get( e.getKey() ) ) );
+        }
+    }
+
+    /**
+     * Wraps the stream of a download so that it respects the current limits.
+     *
+     * @param in the stream received from the server.
+     * @param server the server the data comes from.
+     * @return the throttled stream.
+     */
+    public InputStream throttle(InputStream in, ServerInfo server) {
+        return new ThrottledInputStream( in, global, bucketFor( server ) );
+    }
+
+    //---- Support methods ---------------------------------------------------------
+
+    private synchronized TokenBucket bucketFor(ServerInfo server) {
+        TokenBucket bucket = buckets.get( server.getId() );
+        if ( bucket == null ) {
+            bucket = new TokenBucket( serverRate( server ) );
+            buckets.put( server.getId(), bucket );
+            servers.put( server.getId(), server );
+        }
+        return bucket;
+    }
+
+    /**
+     * The rate of a server is the lowest non-zero value between the limit of the
+     * profile and the limit configured for the server itself.
+     *
+     * @param server the server.
+     * @return the rate in bytes per second, 0 if unlimited.
+     */
+    private long serverRate(ServerInfo server) {
+        long rate = profile.getServerRate();
+        long max = server.getMaxRate();
+        if ( max > 0 && ( rate <= 0 || max < rate ) ) {
+            rate = max;
+        }
+        return rate * KIB;
+    }
+}
@@ -0,0 +1,113 @@
+/*
+ * Copyright 2013 Andrea Cisternino <a.cisternino@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package tido.transfer;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Thread-safe byte count of a group of transfers, e.g. a ticket or a whole batch.
+ * <br/>
+ * The total is the sum of the sizes known so far. Transfers whose size is still
+ * unknown are estimated using the average of the known ones.
+ *
+ * @author Andrea Cisternino
+ */
+public class ByteProgress
+{
+    /** Size assumed for unknown transfers when no size is known at all. */
+    private static final long DEFAULT_SIZE = 1024L * 1024L;
+
+    private final AtomicLong done = new AtomicLong();
+    private final AtomicLong knownTotal = new AtomicLong();
+    private final AtomicInteger knownCount = new AtomicInteger();
+    private final AtomicInteger unknownCount = new AtomicInteger();
+
+    //---- API ---------------------------------------------------------------------
+
+    /**
+     * Adds a transfer to the group.
+     *
+     * @param size the size of the transfer, negative if unknown.
+     */
+    public void expect(long size) {
+        if ( size < 0 ) {
+            unknownCount.incrementAndGet();
+        } else {
+            knownTotal.addAndGet( size );
+            knownCount.incrementAndGet();
+        }
+    }
+
+    /**
+     * The size of a transfer added as unknown has been discovered.
+     *
+     * @param size the size.
+     */
+    public void discovered(long size) {
+        unknownCount.decrementAndGet();
+        expect( size );
+    }
+
+    /**
+     * @param bytes bytes transferred.
+     */
+    public void add(long bytes) {
+        done.addAndGet( bytes );
+    }
+
+    /**
+     * @return the bytes transferred so far.
+     */
+    public long getDone() {
+        return done.get();
+    }
+
+    /**
+     * @return the estimated total size of the group.
+     */
+    public long getTotal() {
+        long total = knownTotal.get();
+        int uc = unknownCount.get();
+        if ( uc > 0 ) {
+            total += uc * getAverageSize();
+        }
+        return Math.max( total, done.get() );
+    }
+
+    /**
+     * @return the average of the known sizes, used as the size of the unknown ones.
+     */
+    public long getAverageSize() {
+        int kc = knownCount.get();
+        return kc > 0 ? knownTotal.get() / kc : DEFAULT_SIZE;
+    }
+
+    /**
+     * @return true if the total is not an estimate.
+     */
+    public boolean isTotalExact() {
+        return unknownCount.get() == 0;
+    }
+
+    /**
+     * @return the completed fraction between 0 and 1, 0 if there is nothing to transfer.
+     */
+    public double getFraction() {
+        long total = getTotal();
+        return total > 0 ? (double) done.get() / total : 0d;
+    }
+}
@@ -0,0 +1,142 @@
+/*
+ * Copyright 2013 Andrea Cisternino <a.cisternino@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package tido.transfer;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.PushbackInputStream;
+import java.lang.reflect.Constructor;
+import java.util.Locale;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
+
+/**
+ * Negotiates and decodes the HTTP content encodings.
+ * <br/>
+ * gzip and deflate are always supported. Brotli is offered only when the
+ * <code>org.brotli:dec</code> decoder is found on the classpath.
+ *
+ * @author Andrea Cisternino
+ */
+public final class ContentDecoding
+{
+    private static final Logger log = Logger.getLogger( ContentDecoding.class.getName() );
+
+    private static final String BROTLI_DECODER = "org.brotli.dec.BrotliInputStream";
+
+    /** Constructor of the optional brotli decoder, null if not available. */
+    private static final Constructor<?> brotli = findBrotli();
+
+    private ContentDecoding() {
+    }
+
+    //---- API ---------------------------------------------------------------------
+
+    /**
+     * @return the value of the Accept-Encoding request header.
+     */
+    public static String acceptEncoding() {
+        return brotli != null ? "gzip, deflate, br" : "gzip, deflate";
+    }
+
+    /**
+     * @param contentEncoding the value of the Content-Encoding response header, can be null.
+     * @return true if the response body must be decoded.
+     */
+    public static boolean isEncoded(String contentEncoding) {
+        return contentEncoding != null && ! contentEncoding.trim().isEmpty()
+                && ! "identity".equalsIgnoreCase( contentEncoding.trim() );
+    }
+
+    /**
+     * Wraps a response body with the decoder of its encoding.
+     *
+     * @param in the body as received.
+     * @param contentEncoding the value of the Content-Encoding response header, can be null.
+     * @return the decoded body.
+     * @throws IOException if the encoding is not supported or the body is corrupted.
+     */
+    public static InputStream decode(InputStream in, String contentEncoding) throws IOException {
+
+        if ( ! isEncoded( contentEncoding ) ) {
+            return in;
+        }
+
+        switch ( contentEncoding.trim().toLowerCase( Locale.ROOT ) ) {
+            case "gzip":
+            case "x-gzip":
+                return new GZIPInputStream( in, 8192 );
+            case "deflate":
+                return inflate( in );
+            case "br":
+                if ( brotli != null ) {
+                    return newBrotli( in );
+                }
+                // fall through
+            default:
+                throw new IOException( "unsupported Content-Encoding: " + contentEncoding );
+        }
+    }
+
+    //---- Support methods ---------------------------------------------------------
+
+    /**
+     * "deflate" should be zlib wrapped but some servers send raw deflate data.
+     * An empty body is empty content.
+     */
+    private static InputStream inflate(InputStream in) throws IOException {
+
+        PushbackInputStream pin = new PushbackInputStream( in, 2 );
+        byte[] header = new byte[2];
+
+        // a read can return a single byte even if the body is longer
+        int n = 0;
+        for ( int r = 0; n < header.length && r >= 0; n += Math.max( r, 0 ) ) {
+            r = pin.read( header, n, header.length - n );
+        }
+        if ( n == 0 ) {
+            return pin;
+        }
+        pin.unread( header, 0, n );
+
+        int cmf = header[0] & 0xff;
+        int flg = header[1] & 0xff;
+        boolean zlib = n == 2 && ( cmf & 0x0f ) == 8 && ( ( cmf << 8 ) | flg ) % 31 == 0;
+
+        return new InflaterInputStream( pin, new Inflater( ! zlib ), 8192 );
+    }
+
+    private static InputStream newBrotli(InputStream in) throws IOException {
+        try {
+            return (InputStream) brotli.newInstance( in );
+        } catch ( ReflectiveOperationException ex ) {
+            throw new IOException( "creating brotli decoder", ex );
+        }
+    }
+
+    private static Constructor<?> findBrotli() {
+        try {
+            Constructor<?> c = Class.forName( BROTLI_DECODER ).getConstructor( InputStream.class );
+            log.log( Level.INFO, "brotli decoder available" );
+            return c;
+        } catch ( ClassNotFoundException | NoSuchMethodException ex ) {
+            return null;
+        }
+    }
+}
@@ -0,0 +1,57 @@
+/*
+ * Copyright 2013 Andrea Cisternino <a.cisternino@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package tido.transfer;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * An InputStream that stops reading when its {@link TransferControl} is paused or cancelled.
+ *
+ * @author Andrea Cisternino
+ */
+public class ControlledInputStream extends FilterInputStream
+{
+    private final TransferControl control;
+
+    //---- Lifecycle ---------------------------------------------------------------
+
+    public ControlledInputStream(InputStream in, TransferControl control) {
+        super( in );
+        this.control = control;
+    }
+
+    //---- InputStream -------------------------------------------------------------
+
+    @Override
+    public int read() throws IOException {
+        control.checkpoint();
+        return super.read();
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        control.checkpoint();
+        return super.read( b, off, len );
+    }
+
+    @Override
+    public long skip(long n) throws IOException {
+        control.checkpoint();
+        return super.skip( n );
+    }
+}
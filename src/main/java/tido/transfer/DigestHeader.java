@@ -0,0 +1,90 @@
+/*
+ * Copyright 2013 Andrea Cisternino <a.cisternino@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package tido.transfer;
+
+import java.util.Arrays;
+import java.util.Locale;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import javax.xml.bind.DatatypeConverter;
+
+/**
+ * Checks a received attachment against the <code>Digest</code> response header
+ * (RFC 3230), e.g. <code>Digest: SHA-256=X48E9qOokqqrvdts8nOJRJN3OWDUoyWxBf7kbu9DBPE=</code>.
+ * <br/>
+ * The digest covers the whole instance as sent by the server, encoded if a
+ * Content-Encoding was applied, also when only a range was transferred. Only MD5
+ * and SHA-256 are checked, the other algorithms are ignored.
+ *
+ * @author Andrea Cisternino
+ */
+public final class DigestHeader
+{
+    private static final Logger log = Logger.getLogger( DigestHeader.class.getName() );
+
+    private DigestHeader() {
+    }
+
+    //---- API ---------------------------------------------------------------------
+
+    /**
+     * @param header the value of the Digest header, can be null.
+     * @param md5 the MD5 of the received instance.
+     * @param sha256 the SHA-256 of the received instance.
+     * @throws IntegrityException if a digest of the header does not match.
+     */
+    public static void check(String header, byte[] md5, byte[] sha256) throws IntegrityException {
+
+        if ( header == null ) {
+            return;
+        }
+
+        for ( String item : header.split( "," ) ) {
+
+            int eq = item.indexOf( '=' );
+            if ( eq <= 0 ) {
+                continue;
+            }
+
+            String algorithm = item.substring( 0, eq ).trim().toUpperCase( Locale.ROOT );
+            String value = item.substring( eq + 1 ).trim();
+
+            byte[] actual;
+            if ( "MD5".equals( algorithm ) ) {
+                actual = md5;
+            } else if ( "SHA-256".equals( algorithm ) ) {
+                actual = sha256;
+            } else {
+                log.log( Level.FINE, "not checked: {0}", algorithm );
+                continue;
+            }
+
+            byte[] expected;
+            try {
+                expected = DatatypeConverter.parseBase64Binary( value );
+            } catch ( IllegalArgumentException ex ) {
+                log.log( Level.WARNING, "invalid digest: {0}", item );
+                continue;
+            }
+
+            if ( ! Arrays.equals( expected, actual ) ) {
+                throw new IntegrityException( algorithm + " mismatch: expected " + value
+                        + ", received " + DatatypeConverter.printBase64Binary( actual ) );
+            }
+        }
+    }
+}
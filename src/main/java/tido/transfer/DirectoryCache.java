@@ -0,0 +1,51 @@
+/*
+ * Copyright 2013 Andrea Cisternino <a.cisternino@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package tido.transfer;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Collections;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Remembers the directories that are known to exist, so they are created with
+ * a single round trip to a possibly slow network share.
+ *
+ * @author Andrea Cisternino
+ */
+public class DirectoryCache
+{
+    private final Set<Path> existing = Collections.newSetFromMap( new ConcurrentHashMap<Path, Boolean>() );
+
+    //---- API ---------------------------------------------------------------------
+
+    /**
+     * Creates a directory, and all its parents, unless already done before.
+     *
+     * @param dir the directory.
+     * @return the directory.
+     * @throws IOException if the directory can not be created.
+     */
+    public Path ensure(Path dir) throws IOException {
+        if ( ! existing.contains( dir ) ) {
+            Files.createDirectories( dir );
+            existing.add( dir );
+        }
+        return dir;
+    }
+}
@@ -0,0 +1,108 @@
+/*
+ * Copyright 2013 Andrea Cisternino <a.cisternino@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package tido.transfer;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * An InputStream reporting the bytes read to a {@link TransferListener}.
+ * <br/>
+ * The bytes are reported as transferred, i.e. as they are stored. The {@link Wire}
+ * subclass reports them as received from the network, before any decoding.
+ *
+ * @author Andrea Cisternino
+ */
+public class MeteredInputStream extends FilterInputStream
+{
+    protected final TransferListener listener;
+
+    private long count = 0;
+
+    //---- Lifecycle ---------------------------------------------------------------
+
+    public MeteredInputStream(InputStream in, TransferListener listener) {
+        super( in );
+        this.listener = listener;
+    }
+
+    //---- InputStream -------------------------------------------------------------
+
+    @Override
+    public int read() throws IOException {
+        int b = super.read();
+        if ( b != -1 ) {
+            report( 1 );
+        }
+        return b;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        int n = super.read( b, off, len );
+        if ( n > 0 ) {
+            report( n );
+        }
+        return n;
+    }
+
+    @Override
+    public long skip(long n) throws IOException {
+        long s = super.skip( n );
+        if ( s > 0 ) {
+            report( s );
+        }
+        return s;
+    }
+
+    //---- API ---------------------------------------------------------------------
+
+    /**
+     * @return the number of bytes read so far.
+     */
+    public long getCount() {
+        return count;
+    }
+
+    //---- Support methods ---------------------------------------------------------
+
+    private void report(long bytes) {
+        count += bytes;
+        notifyListener( bytes );
+    }
+
+    protected void notifyListener(long bytes) {
+        listener.transferred( bytes );
+    }
+
+    //---- Wire --------------------------------------------------------------------
+
+    /**
+     * Meters the bytes as they come from the network.
+     */
+    public static class Wire extends MeteredInputStream
+    {
+        public Wire(InputStream in, TransferListener listener) {
+            super( in, listener );
+        }
+
+        @Override
+        protected void notifyListener(long bytes) {
+            listener.received( bytes );
+        }
+    }
+}
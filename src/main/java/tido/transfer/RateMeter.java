@@ -0,0 +1,89 @@
+/*
+ * Copyright 2013 Andrea Cisternino <a.cisternino@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package tido.transfer;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the throughput of a transfer from periodic samples of its byte count.
+ * <br/>
+ * Two values are provided: the rate between the last two samples and an exponential
+ * moving average over about ten seconds, more stable and used for the ETA.
+ *
+ * @author Andrea Cisternino
+ */
+public class RateMeter
+{
+    private static final double WINDOW_SECS = 10d;
+    private static final double NANOS_PER_SEC = TimeUnit.SECONDS.toNanos( 1 );
+
+    private long lastTime = -1;
+    private long lastBytes;
+
+    private double current;
+    private double average = -1;
+
+    //---- API ---------------------------------------------------------------------
+
+    /**
+     * Adds a sample.
+     *
+     * @param nanoTime the time of the sample, from {@link System#nanoTime()}.
+     * @param bytes the total bytes transferred at that time.
+     */
+    public synchronized void sample(long nanoTime, long bytes) {
+
+        if ( lastTime >= 0 && nanoTime > lastTime ) {
+            double dt = ( nanoTime - lastTime ) / NANOS_PER_SEC;
+            current = ( bytes - lastBytes ) / dt;
+
+            if ( average < 0 ) {
+                average = current;
+            } else {
+                double alpha = 1d - Math.exp( -dt / WINDOW_SECS );
+                average += alpha * ( current - average );
+            }
+        }
+
+        lastTime = nanoTime;
+        lastBytes = bytes;
+    }
+
+    /**
+     * @return bytes per second between the last two samples.
+     */
+    public synchronized double getCurrentRate() {
+        return current;
+    }
+
+    /**
+     * @return the moving average in bytes per second.
+     */
+    public synchronized double getAverageRate() {
+        return Math.max( average, 0d );
+    }
+
+    /**
+     * @param remaining the bytes still to transfer.
+     * @return the estimated seconds to completion, negative if unknown.
+     */
+    public synchronized long getEta(long remaining) {
+        if ( average <= 0d ) {
+            return -1;
+        }
+        return (long) Math.ceil( remaining / average );
+    }
+}
@@ -0,0 +1,165 @@
+/*
+ * Copyright 2013 Andrea Cisternino <a.cisternino@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package tido.transfer;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.Properties;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Remembers the original name and size of the attachments stored compressed in
+ * a ticket directory.
+ * <br/>
+ * Like the {@link ValidatorStore}, the catalog is a small properties file in the
+ * ticket directory, rewritten atomically at every change:
+ * <pre>
+ * name.trace.log.gz=trace.log
+ * size.trace.log.gz=104857600
+ * </pre>
+ *
+ * @author Andrea Cisternino
+ */
+public class StorageCatalog
+{
+    private static final Logger log = Logger.getLogger( StorageCatalog.class.getName() );
+
+    /** Name of the file in the ticket directory. */
+    public static final String FILE_NAME = ".tido-catalog";
+
+    private final Path file;
+
+    /** Loaded on first use. */
+    private Properties props;
+
+    //---- Lifecycle ---------------------------------------------------------------
+
+    /**
+     * @param dir the ticket directory.
+     */
+    public StorageCatalog(Path dir) {
+        this.file = dir.resolve( FILE_NAME );
+    }
+
+    //---- API ---------------------------------------------------------------------
+
+    /**
+     * @param stored the name of a file in the directory.
+     * @return the original attachment, null if the file is not compressed.
+     */
+    public synchronized Entry get(String stored) {
+
+        Properties p = props();
+
+        String name = p.getProperty( "name." + stored );
+        if ( name == null ) {
+            return null;
+        }
+
+        long size;
+        try {
+            size = Long.parseLong( p.getProperty( "size." + stored, "-1" ) );
+        } catch ( NumberFormatException ex ) {
+            size = -1;
+        }
+
+        return new Entry( name, size );
+    }
+
+    /**
+     * Records a compressed attachment.
+     *
+     * @param stored the name of the compressed file.
+     * @param name the original name of the attachment.
+     * @param size the original size of the attachment.
+     * @throws IOException in case of errors writing the file.
+     */
+    public synchronized void put(String stored, String name, long size) throws IOException {
+
+        Properties p = props();
+        p.setProperty( "name." + stored, name );
+        p.setProperty( "size." + stored, Long.toString( size ) );
+
+        save();
+    }
+
+    //---- Support methods ---------------------------------------------------------
+
+    private Properties props() {
+        if ( props == null ) {
+            props = new Properties();
+            try ( Reader in = Files.newBufferedReader( file, StandardCharsets.UTF_8 ) ) {
+                props.load( in );
+            } catch ( NoSuchFileException ex ) {
+                // nothing compressed yet
+            } catch ( IOException | IllegalArgumentException ex ) {
+                log.log( Level.WARNING, "reading {0}: {1}", new Object[] { file, ex.toString() } );
+                props.clear();
+            }
+        }
+        return props;
+    }
+
+    private void save() throws IOException {
+        Path tmp = file.resolveSibling( FILE_NAME + ".tmp" );
+        try ( Writer out = Files.newBufferedWriter( tmp, StandardCharsets.UTF_8 ) ) {
+            props.store( out, null );
+        }
+        Files.move( tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE );
+    }
+
+    //---- Entry -------------------------------------------------------------------
+
+    /**
+     * The original attachment of a compressed file.
+     */
+    public static final class Entry
+    {
+        private final String name;
+        private final long size;
+
+        Entry(String name, long size) {
+            this.name = name;
+            this.size = size;
+        }
+
+        /**
+         * @return the original name of the attachment.
+         */
+        public String getName() {
+            return name;
+        }
+
+        /**
+         * @return the original size of the attachment, -1 if not known.
+         */
+        public long getSize() {
+            return size;
+        }
+
+        @Override
+        public String toString() {
+            return "Entry{" + "name=" + name + ", size=" + size + '}';
+        }
+    }
+}
@@ -0,0 +1,126 @@
+/*
+ * Copyright 2013 Andrea Cisternino <a.cisternino@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package tido.transfer;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Locale;
+import java.util.Set;
+import java.util.zip.Deflater;
+import java.util.zip.GZIPOutputStream;
+
+import tido.Utils;
+
+/**
+ * Decides which attachments are stored compressed and compresses them.
+ * <br/>
+ * Text attachments, mostly logs, are compressed with gzip at its fastest level
+ * while they are written, so they take a fraction of the space and of the write
+ * bandwidth without a second pass over the data. A stored file gets a
+ * <code>.gz</code> suffix and can be read with the usual tools; its original name
+ * is kept in the {@link StorageCatalog} of the directory.
+ *
+ * @author Andrea Cisternino
+ */
+public class StoredCompression
+{
+    /** Suffix of the compressed files. */
+    public static final String SUFFIX = ".gz";
+
+    /** Extensions compressed when none are configured. */
+    public static final String DEFAULT_EXTENSIONS = "log,txt,out,err,csv,xml,json,htm,html,trc,trace";
+
+    /** Already compressed, even when sent as text. */
+    private static final Set<String> COMPRESSED_EXTS = new HashSet<>( Arrays.asList( "gz", "tgz", "bz2", "xz", "zip", "7z" ) );
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    /** Lower case extensions of the attachments to compress. */
+    private final Set<String> extensions;
+
+    //---- Lifecycle ---------------------------------------------------------------
+
+    /**
+     * @param extensions a comma separated list of extensions, null or blank for the defaults.
+     */
+    public StoredCompression(String extensions) {
+
+        Set<String> exts = new HashSet<>();
+        for ( String ext : ( Utils.isBlank( extensions ) ? DEFAULT_EXTENSIONS : extensions ).split( "," ) ) {
+            ext = ext.trim().toLowerCase( Locale.ROOT );
+            if ( ext.startsWith( "." ) ) {
+                ext = ext.substring( 1 );
+            }
+            if ( ! ext.isEmpty() ) {
+                exts.add( ext );
+            }
+        }
+        this.extensions = Collections.unmodifiableSet( exts );
+    }
+
+    //---- API ---------------------------------------------------------------------
+
+    /**
+     * @param fname the name of an attachment.
+     * @param contentType the Content-Type sent by the server, can be null.
+     * @return true if the attachment must be stored compressed.
+     */
+    public boolean accepts(String fname, String contentType) {
+
+        String ext = extension( fname );
+        if ( COMPRESSED_EXTS.contains( ext ) ) {
+            return false;
+        }
+
+        return extensions.contains( ext )
+                || ( contentType != null && contentType.trim().toLowerCase( Locale.ROOT ).startsWith( "text/plain" ) );
+    }
+
+    /**
+     * @param fname the name of an attachment.
+     * @return the name of the compressed file.
+     */
+    public String storedName(String fname) {
+        return fname + SUFFIX;
+    }
+
+    /**
+     * Wraps the stream of a file with the compressor. Closing the returned stream
+     * closes the file.
+     *
+     * @param out the file.
+     * @return the stream receiving the original data.
+     * @throws IOException in case of errors writing the header.
+     */
+    public static OutputStream compress(OutputStream out) throws IOException {
+        return new GZIPOutputStream( out, BUFFER_SIZE ) {
+            {
+                // logs compress well also at the fastest level
+                def.setLevel( Deflater.BEST_SPEED );
+            }
+        };
+    }
+
+    //---- Support methods ---------------------------------------------------------
+
+    private static String extension(String fname) {
+        int extIdx = fname.lastIndexOf( '.' );
+        return extIdx < 0 ? "" : fname.substring( extIdx + 1 ).toLowerCase( Locale.ROOT );
+    }
+}
@@ -0,0 +1,87 @@
+/*
+ * Copyright 2013 Andrea Cisternino <a.cisternino@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package tido.transfer;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+
+/**
+ * An InputStream whose throughput is limited by one or more {@link TokenBucket}s.
+ *
+ * @author Andrea Cisternino
+ */
+public class ThrottledInputStream extends FilterInputStream
+{
+    /** Maximum number of bytes read at once, keeps the shaping smooth. */
+    private static final int MAX_CHUNK = 16 * 1024;
+
+    private final TokenBucket[] buckets;
+
+    //---- Lifecycle ---------------------------------------------------------------
+
+    /**
+     * @param in the stream to throttle.
+     * @param buckets the buckets that must all allow the transfer.
+     */
+    public ThrottledInputStream(InputStream in, TokenBucket... buckets) {
+        super( in );
+        this.buckets = buckets;
+    }
+
+    //---- InputStream -------------------------------------------------------------
+
+    @Override
+    public int read() throws IOException {
+        int b = super.read();
+        if ( b != -1 ) {
+            throttle( 1 );
+        }
+        return b;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        int n = super.read( b, off, Math.min( len, MAX_CHUNK ) );
+        if ( n > 0 ) {
+            throttle( n );
+        }
+        return n;
+    }
+
+    @Override
+    public long skip(long n) throws IOException {
+        long s = super.skip( Math.min( n, MAX_CHUNK ) );
+        if ( s > 0 ) {
+            throttle( s );
+        }
+        return s;
+    }
+
+    //---- Support methods ---------------------------------------------------------
+
+    private void throttle(long bytes) throws IOException {
+        try {
+            for ( TokenBucket bucket : buckets ) {
+                bucket.consume( bytes );
+            }
+        } catch ( InterruptedException ex ) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException( "throttled transfer interrupted" );
+        }
+    }
+}
@@ -0,0 +1,115 @@
+/*
+ * Copyright 2013 Andrea Cisternino <a.cisternino@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package tido.transfer;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A token bucket limiting the number of bytes per second that can flow through it.
+ * <br/>
+ * The bucket can be shared by many threads and its rate can be changed at any time.
+ * Bytes are consumed <i>after</i> they have been transferred: a consumer that drives
+ * the bucket into debt sleeps until the debt has been paid back, so the average rate
+ * never exceeds the configured one.
+ *
+ * @author Andrea Cisternino
+ */
+public class TokenBucket
+{
+    private static final long NANOS_PER_SEC = TimeUnit.SECONDS.toNanos( 1 );
+
+    /** Rate in bytes per second. A value <= 0 means unlimited. */
+    private long rate;
+
+    /** Available tokens, negative when in debt. */
+    private double tokens;
+
+    /** Time of the last refill in nanoseconds. */
+    private long lastRefill;
+
+    //---- Lifecycle ---------------------------------------------------------------
+
+    /**
+     * @param rate the rate in bytes per second, <= 0 for unlimited.
+     */
+    public TokenBucket(long rate) {
+        this.rate = rate;
+        this.lastRefill = System.nanoTime();
+        this.tokens = Math.max( rate, 0 );
+    }
+
+    //---- API ---------------------------------------------------------------------
+
+    /**
+     * Consumes a number of bytes, waiting if the bucket is in debt.
+     *
+     * @param bytes the number of bytes just transferred.
+     * @throws InterruptedException if the thread is interrupted while waiting.
+     */
+    public void consume(long bytes) throws InterruptedException {
+
+        long waitNanos;
+
+        synchronized ( this ) {
+            if ( rate <= 0 ) {
+                return;
+            }
+            refill();
+            tokens -= bytes;
+            waitNanos = tokens >= 0 ? 0 : (long) ( -tokens * NANOS_PER_SEC / rate );
+        }
+
+        if ( waitNanos > 0 ) {
+            TimeUnit.NANOSECONDS.sleep( waitNanos );
+        }
+    }
+
+    /**
+     * Changes the rate of the bucket. The new value is applied immediately.
+     *
+     * @param rate the rate in bytes per second, <= 0 for unlimited.
+     */
+    public synchronized void setRate(long rate) {
+        refill();
+        this.rate = rate;
+        if ( rate <= 0 ) {
+            tokens = 0;
+        } else {
+            tokens = Math.min( tokens, rate );
+        }
+    }
+
+    /**
+     * @return the rate in bytes per second, <= 0 if unlimited.
+     */
+    public synchronized long getRate() {
+        return rate;
+    }
+
+    //---- Support methods ---------------------------------------------------------
+
+    /**
+     * Adds the tokens accumulated since the last refill. The bucket can hold at most
+     * one second worth of tokens.
+     */
+    private void refill() {
+        long now = System.nanoTime();
+        if ( rate > 0 ) {
+            tokens = Math.min( rate, tokens + (double) ( now - lastRefill ) * rate / NANOS_PER_SEC );
+        }
+        lastRefill = now;
+    }
+}
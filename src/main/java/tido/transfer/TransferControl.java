@@ -0,0 +1,87 @@
+/*
+ * Copyright 2013 Andrea Cisternino <a.cisternino@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package tido.transfer;
+
+/**
+ * Lets the user pause, resume and cancel the running transfers.
+ * <br/>
+ * Transfers check the control between chunks using {@link #checkpoint()}, the
+ * workers wait on {@link #awaitRunning()} before starting a new transfer.
+ *
+ * @author Andrea Cisternino
+ */
+public class TransferControl
+{
+    private boolean paused = false;
+    private boolean cancelled = false;
+
+    //---- API ---------------------------------------------------------------------
+
+    /**
+     * Stops all transfers at the next chunk. Workers wait until {@link #resume()}.
+     */
+    public synchronized void pause() {
+        paused = true;
+    }
+
+    public synchronized void resume() {
+        paused = false;
+        notifyAll();
+    }
+
+    /**
+     * Stops all transfers at the next chunk for good.
+     */
+    public synchronized void cancel() {
+        cancelled = true;
+        notifyAll();
+    }
+
+    public synchronized boolean isPaused() {
+        return paused;
+    }
+
+    public synchronized boolean isCancelled() {
+        return cancelled;
+    }
+
+    /**
+     * Called by the transfers between chunks.
+     *
+     * @throws TransferStoppedException if the transfers must stop.
+     */
+    public synchronized void checkpoint() throws TransferStoppedException {
+        if ( cancelled ) {
+            throw new TransferStoppedException( "cancelled" );
+        }
+        if ( paused ) {
+            throw new TransferStoppedException( "paused" );
+        }
+    }
+
+    /**
+     * Waits while the transfers are paused.
+     *
+     * @return true if new transfers can be started, false if cancelled.
+     * @throws InterruptedException if the thread is interrupted while waiting.
+     */
+    public synchronized boolean awaitRunning() throws InterruptedException {
+        while ( paused && ! cancelled ) {
+            wait();
+        }
+        return ! cancelled;
+    }
+}
@@ -0,0 +1,46 @@
+/*
+ * Copyright 2013 Andrea Cisternino <a.cisternino@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package tido.transfer;
+
+/**
+ * Receives notifications about the bytes of a single transfer.
+ * Can be called by any thread.
+ *
+ * @author Andrea Cisternino
+ */
+public interface TransferListener {
+
+    /**
+     * The transfer has started.
+     *
+     * @param expectedLength the length announced by the server, negative if unknown.
+     */
+    public void started( long expectedLength );
+
+    /**
+     * Some bytes have been received and stored.
+     *
+     * @param bytes the number of bytes, after decoding.
+     */
+    public void transferred( long bytes );
+
+    /**
+     * Some bytes have been received from the network.
+     *
+     * @param wireBytes the number of bytes, before decoding.
+     */
+    public void received( long wireBytes );
+}
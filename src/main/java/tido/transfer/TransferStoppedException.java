@@ -0,0 +1,33 @@
+/*
+ * Copyright 2013 Andrea Cisternino <a.cisternino@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package tido.transfer;
+
+import java.io.IOException;
+
+/**
+ * Thrown by a transfer stopped because the user paused or cancelled the downloads.
+ * The data received so far is kept and the transfer can be resumed.
+ *
+ * @author Andrea Cisternino
+ */
+public class TransferStoppedException extends IOException
+{
+    private static final long serialVersionUID = 1L;
+
+    public TransferStoppedException(String message) {
+        super( message );
+    }
+}
@@ -0,0 +1,242 @@
+/*
+ * Copyright 2013 Andrea Cisternino <a.cisternino@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package tido.transfer;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Properties;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import javax.xml.bind.DatatypeConverter;
+
+/**
+ * Remembers the validators (ETag and Last-Modified) of the attachments saved in
+ * a ticket directory, so a later download can ask the server only for what changed.
+ * The SHA-256 of the content is kept too, to recognize a download identical to the
+ * saved file.
+ * <br/>
+ * The validators are kept in a small properties file in the ticket directory,
+ * rewritten atomically at every change. A missing or unreadable file just means
+ * that nothing is known.
+ *
+ * @author Andrea Cisternino
+ */
+public class ValidatorStore
+{
+    private static final Logger log = Logger.getLogger( ValidatorStore.class.getName() );
+
+    /** Name of the file in the ticket directory. */
+    public static final String FILE_NAME = ".tido-validators";
+
+    private final Path file;
+
+    /** Loaded on first use. */
+    private Properties props;
+
+    //---- Lifecycle ---------------------------------------------------------------
+
+    /**
+     * @param dir the ticket directory.
+     */
+    public ValidatorStore(Path dir) {
+        this.file = dir.resolve( FILE_NAME );
+    }
+
+    //---- API ---------------------------------------------------------------------
+
+    /**
+     * @param url the URL of an attachment.
+     * @return what is known about the saved attachment, null if nothing.
+     */
+    public synchronized Entry get(String url) {
+
+        String key = key( url );
+        Properties p = props();
+
+        if ( ! url.equals( p.getProperty( key + ".url" ) ) ) {
+            return null;
+        }
+
+        long checked;
+        try {
+            checked = Long.parseLong( p.getProperty( key + ".checked", "0" ) );
+        } catch ( NumberFormatException ex ) {
+            checked = 0;
+        }
+
+        return new Entry( p.getProperty( key + ".name" ), p.getProperty( key + ".etag" ),
+                p.getProperty( key + ".modified" ), p.getProperty( key + ".sha256" ), checked );
+    }
+
+    /**
+     * Records a downloaded attachment.
+     *
+     * @param url the URL of the attachment.
+     * @param name the name of the saved file.
+     * @param etag the ETag sent by the server, can be null.
+     * @param lastModified the Last-Modified sent by the server, can be null.
+     * @param sha256 the hex SHA-256 of the content, can be null.
+     * @param checked when the server sent them, in milliseconds.
+     * @throws IOException in case of errors writing the file.
+     */
+    public synchronized void put(String url, String name, String etag, String lastModified, String sha256, long checked) throws IOException {
+
+        String key = key( url );
+        Properties p = props();
+
+        p.setProperty( key + ".url", url );
+        p.setProperty( key + ".name", name );
+        set( p, key + ".etag", etag );
+        set( p, key + ".modified", lastModified );
+        set( p, key + ".sha256", sha256 );
+        p.setProperty( key + ".checked", Long.toString( checked ) );
+
+        save();
+    }
+
+    /**
+     * Records that the server confirmed that an attachment did not change.
+     *
+     * @param url the URL of the attachment.
+     * @param checked when the server confirmed it, in milliseconds.
+     * @throws IOException in case of errors writing the file.
+     */
+    public synchronized void checked(String url, long checked) throws IOException {
+
+        String key = key( url );
+        if ( props().getProperty( key + ".url" ) != null ) {
+            props().setProperty( key + ".checked", Long.toString( checked ) );
+            save();
+        }
+    }
+
+    //---- Support methods ---------------------------------------------------------
+
+    private Properties props() {
+        if ( props == null ) {
+            props = new Properties();
+            try ( Reader in = Files.newBufferedReader( file, StandardCharsets.UTF_8 ) ) {
+                props.load( in );
+            } catch ( NoSuchFileException ex ) {
+                // nothing downloaded yet
+            } catch ( IOException | IllegalArgumentException ex ) {
+                log.log( Level.WARNING, "reading {0}: {1}", new Object[] { file, ex.toString() } );
+                props.clear();
+            }
+        }
+        return props;
+    }
+
+    private void save() throws IOException {
+        Path tmp = file.resolveSibling( FILE_NAME + ".tmp" );
+        try ( Writer out = Files.newBufferedWriter( tmp, StandardCharsets.UTF_8 ) ) {
+            props.store( out, null );
+        }
+        Files.move( tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE );
+    }
+
+    private static void set(Properties p, String key, String value) {
+        if ( value == null ) {
+            p.remove( key );
+        } else {
+            p.setProperty( key, value );
+        }
+    }
+
+    private static String key(String url) {
+        try {
+            byte[] hash = MessageDigest.getInstance( "SHA-1" ).digest( url.getBytes( StandardCharsets.UTF_8 ) );
+            return DatatypeConverter.printHexBinary( hash ).toLowerCase();
+        } catch ( NoSuchAlgorithmException ex ) {
+            // every JVM supports SHA-1
+            throw new IllegalStateException( ex );
+        }
+    }
+
+    //---- Entry -------------------------------------------------------------------
+
+    /**
+     * A saved attachment.
+     */
+    public static final class Entry
+    {
+        private final String name;
+        private final String etag;
+        private final String lastModified;
+        private final String sha256;
+        private final long checked;
+
+        Entry(String name, String etag, String lastModified, String sha256, long checked) {
+            this.name = name;
+            this.etag = etag;
+            this.lastModified = lastModified;
+            this.sha256 = sha256;
+            this.checked = checked;
+        }
+
+        /**
+         * @return the name of the saved file.
+         */
+        public String getName() {
+            return name;
+        }
+
+        public String getEtag() {
+            return etag;
+        }
+
+        public String getLastModified() {
+            return lastModified;
+        }
+
+        /**
+         * @return the hex SHA-256 of the saved file, null if not known.
+         */
+        public String getSha256() {
+            return sha256;
+        }
+
+        /**
+         * @return true if the server can tell whether the attachment changed.
+         */
+        public boolean hasValidators() {
+            return etag != null || lastModified != null;
+        }
+
+        /**
+         * @param window how long a confirmation lasts, in milliseconds.
+         * @param now the current time in milliseconds.
+         * @return true if the server confirmed the attachment less than <code>window</code> ago.
+         */
+        public boolean isFresh(long window, long now) {
+            return window > 0 && now - checked < window;
+        }
+
+        @Override
+        public String toString() {
+            return "Entry{" + "name=" + name + ", etag=" + etag + ", lastModified=" + lastModified + ", sha256=" + sha256 + ", checked=" + checked + '}';
+        }
+    }
+}
@@ -16,15 +16,19 @@
 package tido.viewmodel;
 
 import javafx.scene.control.TableCell;
+import javafx.scene.control.Tooltip;
 import javafx.scene.image.Image;
 import javafx.scene.image.ImageView;
 
+import tido.model.AttachmentLink;
+import tido.model.AttachmentState;
 import tido.model.Ticket;
 import tido.model.TicketState;
 
 /**
  * A simple TableCell that displays a colored icon depending on
- * the state of the processed ticket.
+ * the state of the processed ticket. Processed tickets have a tooltip
+ * listing the attachments that could not be downloaded or were skipped.
  *
  * @author Andrea Cisternino
  */
@@ -60,5 +64,38 @@ public class SemaphoreTableCell extends TableCell<Ticket, TicketState>
                     break;
             }
         }
+
+        setTooltip( state != null && state != TicketState.NOT_PROCESSED ? attachmentsTooltip() : null );
+    }
+
+    /**
+     * @return a tooltip with the failed attachments and their errors and the
+     *         skipped ones, null if none.
+     */
+    private Tooltip attachmentsTooltip() {
+
+        if ( getTableRow() == null || getTableRow().getItem() == null ) {
+            return null;
+        }
+        Ticket ticket = (Ticket) getTableRow().getItem();
+
+        StringBuilder sb = new StringBuilder();
+        for ( AttachmentLink link : ticket.getAttachments() ) {
+            if ( link.getState() == AttachmentState.FAILED ) {
+                if ( sb.length() > 0 ) {
+                    sb.append( '\n' );
+                }
+                sb.append( link.getName() ).append( ": " ).append( link.getError() );
+                if ( link.getAttempts() > 1 ) {
+                    sb.append( " (" ).append( link.getAttempts() ).append( " attempts)" );
+                }
+            } else if ( link.getState() == AttachmentState.SKIPPED ) {
+                if ( sb.length() > 0 ) {
+                    sb.append( '\n' );
+                }
+                sb.append( link.getName() ).append( ": skipped" );
+            }
+        }
+        return sb.length() > 0 ? new Tooltip( sb.toString() ) : null;
     }
 }
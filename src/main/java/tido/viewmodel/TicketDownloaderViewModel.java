@@ -32,13 +32,16 @@ import java.util.logging.Logger;
 
 import javafx.beans.binding.Bindings;
 import javafx.beans.property.SimpleStringProperty;
+import javafx.beans.value.ChangeListener;
 import javafx.beans.value.ObservableValue;
 import javafx.event.ActionEvent;
 import javafx.event.EventHandler;
 import javafx.fxml.FXML;
 import javafx.fxml.Initializable;
 import javafx.scene.control.Button;
+import javafx.scene.control.ChoiceBox;
 import javafx.scene.control.ContextMenu;
+import javafx.scene.control.Label;
 import javafx.scene.control.MenuItem;
 import javafx.scene.control.ProgressBar;
 import javafx.scene.control.SelectionMode;
@@ -49,6 +52,7 @@ import javafx.scene.control.TableColumn.CellDataFeatures;
 import javafx.scene.control.TableRow;
 import javafx.scene.control.TableView;
 import javafx.scene.control.TextField;
+import javafx.scene.control.cell.ProgressBarTableCell;
 import javafx.scene.control.Tooltip;
 import javafx.scene.input.ContextMenuEvent;
 import javafx.scene.input.DataFormat;
@@ -63,7 +67,9 @@ import javafx.scene.text.Text;
 import javafx.stage.DirectoryChooser;
 import javafx.util.Callback;
 
+import tido.config.BandwidthProfile;
 import tido.config.ConfigManager;
+import tido.model.AttachmentState;
 import tido.model.Ticket;
 import tido.model.TicketState;
 import tido.model.boundary.TeamForgeFacade;
@@ -87,6 +93,8 @@ public class TicketDownloaderViewModel implements Initializable {
     private TableColumn<Ticket, String> serverNameCol;
     @FXML
     private TableColumn<Ticket, Integer> attchNumCol;
+    @FXML
+    private TableColumn<Ticket, Double> progressCol;
 
     @FXML
     private TextField baseDir;
@@ -97,9 +105,18 @@ public class TicketDownloaderViewModel implements Initializable {
     private Button clearButton;
     @FXML
     private Button fetchButton;
+    @FXML
+    private Button pauseButton;
+    @FXML
+    private Button cancelButton;
 
     @FXML
     private ProgressBar progressBar;
+    @FXML
+    private Label statusLabel;
+
+    @FXML
+    private ChoiceBox<String> profileChoice;
 
     //---- End of FXML objects -----------------------------------------------------
 
@@ -125,6 +142,9 @@ public class TicketDownloaderViewModel implements Initializable {
         fetchButton.setTooltip( new Tooltip( "Downloads the content of all\nthe tickets in the list." ) );
         clearButton.setTooltip( new Tooltip( "Clears the list and readies the program\nfor other tickets." ) );
         baseDirButton.setTooltip( new Tooltip( "Selects the base directory\nwhere tickets will be downloaded." ) );
+        profileChoice.setTooltip( new Tooltip( "Selects the bandwidth limits\nused by the downloads." ) );
+        pauseButton.setTooltip( new Tooltip( "Pauses or resumes the download.\nPartial files are kept." ) );
+        cancelButton.setTooltip( new Tooltip( "Stops the download. Downloaded\nattachments are not fetched again." ) );
     }
 
     /**
@@ -144,6 +164,13 @@ public class TicketDownloaderViewModel implements Initializable {
 
         // finish configuration of GUI
         baseDir.setText( config.config().getBaseDirectory() );
+        setupProfileChoice();
+
+        // bring back the tickets of the last session, resuming an interrupted download
+        if ( teamForge.restoreJournal() ) {
+            log.info( "resuming interrupted download" );
+            fetchAttachments( null );
+        }
     }
 
     //---- GUI stuff ---------------------------------------------------------------
@@ -153,7 +180,15 @@ public class TicketDownloaderViewModel implements Initializable {
      */
     private void installBindings() {
         ticketTable.setItems( teamForge.listProperty() );
-        ticketTable.disableProperty().bind( teamForge.busyProperty() );
+        // while paused the user can change the tickets priorities, not the list
+        ticketTable.disableProperty().bind( teamForge.busyProperty().and( teamForge.pausedProperty().not() ) );
+        clearButton.disableProperty().bind( teamForge.busyProperty() );
+        statusLabel.textProperty().bind( teamForge.statusProperty() );
+
+        pauseButton.disableProperty().bind( teamForge.downloadingProperty().not() );
+        pauseButton.textProperty().bind( Bindings.when( teamForge.pausedProperty() ).then( "Resume" ).otherwise( "Pause" ) );
+        cancelButton.disableProperty().bind( teamForge.downloadingProperty().not() );
+        fetchButton.disableProperty().bind( teamForge.downloadingProperty() );
     }
 
     /**
@@ -203,6 +238,30 @@ public class TicketDownloaderViewModel implements Initializable {
                 return cell;
             }
         } );
+
+        progressCol.setCellFactory( ProgressBarTableCell.<Ticket>forTableColumn() );
+    }
+
+    /**
+     * Fills the bandwidth profile selector. The profile can be changed also
+     * while a download is running.
+     */
+    private void setupProfileChoice() {
+
+        for ( BandwidthProfile profile : config.config().getBandwidthProfiles() ) {
+            profileChoice.getItems().add( profile.getName() );
+        }
+        profileChoice.getSelectionModel().select( config.config().findBandwidthProfile( config.config().getBandwidthProfile() ).getName() );
+
+        profileChoice.getSelectionModel().selectedItemProperty().addListener( new ChangeListener<String>() {
+            @Override
+            public void changed(ObservableValue<? extends String> ov, String oldValue, String newValue) {
+                log.log( Level.INFO, "bandwidth profile: {0}", newValue );
+                if ( newValue != null ) {
+                    teamForge.setBandwidthProfile( newValue );
+                }
+            }
+        } );
     }
 
     //---- Actions -----------------------------------------------------------------
@@ -264,12 +323,34 @@ public class TicketDownloaderViewModel implements Initializable {
         }
     }
 
+    // Handler for Button[fx:id="pauseButton"] onAction
+    @FXML
+    public void pauseAttachments(ActionEvent event) {
+        log.info( "button pressed" );
+
+        if ( teamForge.pausedProperty().get() ) {
+            teamForge.resumeDownloads();
+        }
+        else {
+            teamForge.pauseDownloads();
+        }
+    }
+
+    // Handler for Button[fx:id="cancelButton"] onAction
+    @FXML
+    public void cancelAttachments(ActionEvent event) {
+        log.info( "button pressed" );
+
+        teamForge.cancelDownloads();
+    }
+
     // Handler for TableView[fx:id="ticketList"] onKeyReleased
     private final KeyCombination delKey = new KeyCodeCombination( KeyCode.DELETE );
 
     @FXML
     void tableKeyReleased(KeyEvent event) {
-        if ( delKey.match( event ) ) {
+        // the tickets of a paused batch are still held by the download task
+        if ( delKey.match( event ) && ! teamForge.busyProperty().get() ) {
             // this copy is needed because of a bug in JavaFX 2.2
             List<Ticket> selectedItems = new ArrayList<>( ticketTable.getSelectionModel().getSelectedItems() );
 
@@ -471,6 +552,52 @@ public class TicketDownloaderViewModel implements Initializable {
                 }
             } );
 
+            // "Download first" entry - used by the PRIORITY scheduling policy
+            final MenuItem pinMenuItem = new MenuItem( "Download first" );
+            pinMenuItem.setOnAction( new EventHandler<ActionEvent>() {
+                @Override
+                public void handle(ActionEvent event) {
+                    Ticket item = row.getItem();
+                    log.log( Level.FINE, "pinned item: {0}", item );
+                    teamForge.pinTicket( item );
+                }
+            } );
+
+            // "Retry failed" entry - only active on failed tickets
+            final MenuItem retryMenuItem = new MenuItem( "Retry failed" );
+            retryMenuItem.setOnAction( new EventHandler<ActionEvent>() {
+                @Override
+                public void handle(ActionEvent event) {
+                    log.info( "retrying failed tickets" );
+                    progressBar.progressProperty().bind( teamForge.progressProperty() );
+                    teamForge.retryFailed();
+                }
+            } );
+
+            // "Download skipped" entry - only active on tickets with skipped attachments
+            final MenuItem skippedMenuItem = new MenuItem( "Download skipped" );
+            skippedMenuItem.setOnAction( new EventHandler<ActionEvent>() {
+                @Override
+                public void handle(ActionEvent event) {
+                    Ticket item = row.getItem();
+                    log.log( Level.FINE, "skipped attachments of: {0}", item );
+                    progressBar.progressProperty().bind( teamForge.progressProperty() );
+                    teamForge.fetchSkipped( item );
+                }
+            } );
+
+            // "Re-sync" entry - only active on processed tickets
+            final MenuItem resyncMenuItem = new MenuItem( "Re-sync" );
+            resyncMenuItem.setOnAction( new EventHandler<ActionEvent>() {
+                @Override
+                public void handle(ActionEvent event) {
+                    Ticket item = row.getItem();
+                    log.log( Level.FINE, "re-sync item: {0}", item );
+                    progressBar.progressProperty().bind( teamForge.progressProperty() );
+                    teamForge.resync( item );
+                }
+            } );
+
             // separator
             final SeparatorMenuItem separatorMenuItem = new SeparatorMenuItem();
 
@@ -498,10 +625,14 @@ public class TicketDownloaderViewModel implements Initializable {
                     if ( t.getPath() != null ) {
                         openMenuItem.setDisable( false );
                     }
+                    removeMenuItem.setDisable( teamForge.busyProperty().get() );
+                    retryMenuItem.setDisable( t.isProcessed() != TicketState.PROCESSED_NOK || teamForge.downloadingProperty().get() );
+                    resyncMenuItem.setDisable( t.isProcessed() == TicketState.NOT_PROCESSED || teamForge.busyProperty().get() );
+                    skippedMenuItem.setDisable( t.getAttachments( AttachmentState.SKIPPED ).isEmpty() || teamForge.downloadingProperty().get() );
                 }
             } );
 
-            contextMenu.getItems().addAll( removeMenuItem, separatorMenuItem, openMenuItem );
+            contextMenu.getItems().addAll( removeMenuItem, pinMenuItem, retryMenuItem, skippedMenuItem, resyncMenuItem, separatorMenuItem, openMenuItem );
 
             return contextMenu;
         }
@@ -0,0 +1,82 @@
+/*
+ * Copyright 2013 Andrea Cisternino <a.cisternino@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package tido;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ *
+ * @author Andrea Cisternino
+ */
+public class UtilsTest {
+
+    private Path dir;
+
+    @Before
+    public void setUp() throws IOException {
+        dir = Files.createTempDirectory( "utils" );
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        try ( DirectoryStream<Path> entries = Files.newDirectoryStream( dir ) ) {
+            for ( Path p : entries ) {
+                Files.delete( p );
+            }
+        }
+        Files.delete( dir );
+    }
+
+    //---- moveNoReplace() ------------
+
+    @Test
+    public void testMoveNoReplace() throws IOException {
+        Path part = Files.write( dir.resolve( ".log.txt.part" ), "new".getBytes( StandardCharsets.UTF_8 ) );
+        Path target = dir.resolve( "log.txt" );
+
+        Utils.moveNoReplace( part, target );
+
+        assertTrue( Files.notExists( part ) );
+        assertEquals( "new", new String( Files.readAllBytes( target ), StandardCharsets.UTF_8 ) );
+    }
+
+    @Test
+    public void testMoveNoReplaceKeepsExisting() throws IOException {
+        Path part = Files.write( dir.resolve( ".log.txt.part" ), "new".getBytes( StandardCharsets.UTF_8 ) );
+        Path target = Files.write( dir.resolve( "log.txt" ), "old".getBytes( StandardCharsets.UTF_8 ) );
+
+        try {
+            Utils.moveNoReplace( part, target );
+            fail( "target replaced" );
+        } catch ( FileAlreadyExistsException ex ) {
+            // expected
+        }
+
+        assertTrue( Files.exists( part ) );
+        assertEquals( "old", new String( Files.readAllBytes( target ), StandardCharsets.UTF_8 ) );
+    }
+}
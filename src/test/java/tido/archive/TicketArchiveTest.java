@@ -0,0 +1,232 @@
+/*
+ * Copyright 2013 Andrea Cisternino <a.cisternino@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package tido.archive;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+import org.apache.commons.compress.archivers.tar.TarArchiveEntry;
+import org.apache.commons.compress.archivers.tar.TarArchiveInputStream;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ *
+ * @author Andrea Cisternino
+ */
+public class TicketArchiveTest {
+
+    private static final String LONG_NAME = "a-log-file-with-a-name-longer-than-the-one-hundred-bytes"
+            + "-of-the-tar-name-field-and-then-some-more.log";
+
+    private Path dir;
+
+    private byte[] binary;
+
+    //---- Lifecycle ---------------------------------------------------------------
+
+    @Before
+    public void setUp() throws IOException {
+        dir = Files.createTempDirectory( "tido-archive" );
+        binary = new byte[200 * 1024];
+        new Random( 42 ).nextBytes( binary );
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        Files.walkFileTree( dir, new SimpleFileVisitor<Path>() {
+            @Override
+            public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) throws IOException {
+                Files.delete( file );
+                return FileVisitResult.CONTINUE;
+            }
+            @Override
+            public FileVisitResult postVisitDirectory(Path d, IOException ex) throws IOException {
+                Files.delete( d );
+                return FileVisitResult.CONTINUE;
+            }
+        } );
+    }
+
+    //---- Tests -------------------------------------------------------------------
+
+    @Test
+    public void testZip() throws IOException {
+        Path file = dir.resolve( "t.zip" );
+
+        try ( TicketArchive archive = TicketArchive.open( file, TicketArchive.Format.ZIP ) ) {
+            add( archive, "server.log", text( 5000 ), true );
+            add( archive, "core.bin", binary, false );
+            assertEquals( "server(1).log", add( archive, "server.log", text( 10 ), true ) );
+        }
+
+        assertFalse( Files.exists( dir.resolve( "t.zip" + TicketArchive.PART_SUFFIX ) ) );
+        assertEquals( Arrays.asList( "server.log", "core.bin", "server(1).log" ), zipNames( file ) );
+        assertArrayEquals( text( 5000 ), zipEntry( file, "server.log" ) );
+        assertArrayEquals( binary, zipEntry( file, "core.bin" ) );
+    }
+
+    @Test
+    public void testTar() throws IOException {
+        Path file = dir.resolve( "t.tar" );
+
+        try ( TicketArchive archive = TicketArchive.open( file, TicketArchive.Format.TAR ) ) {
+            add( archive, LONG_NAME, text( 3000 ), true );
+            add( archive, "core.bin", binary, false );
+        }
+
+        List<String> names = new ArrayList<>();
+        try ( TarArchiveInputStream in = new TarArchiveInputStream( Files.newInputStream( file ) ) ) {
+            TarArchiveEntry e;
+            while ( ( e = in.getNextTarEntry() ) != null ) {
+                names.add( e.getName() );
+                assertArrayEquals( e.getName(), e.getName().equals( LONG_NAME ) ? text( 3000 ) : binary, readAll( in ) );
+            }
+        }
+        assertEquals( Arrays.asList( LONG_NAME, "core.bin" ), names );
+
+        // a continued archive reads its own entries
+        try ( TicketArchive archive = TicketArchive.open( file, TicketArchive.Format.TAR ) ) {
+            assertEquals( Arrays.asList( LONG_NAME, "core.bin" ), archive.getNames() );
+        }
+    }
+
+    @Test
+    public void testContinueAfterCrash() throws IOException {
+        for ( TicketArchive.Format format : TicketArchive.Format.values() ) {
+            Path file = dir.resolve( "a" + format.extension() );
+            Path crashed = dir.resolve( "b" + format.extension() );
+
+            try ( TicketArchive archive = TicketArchive.open( file, format ) ) {
+                add( archive, "first.log", text( 2000 ), true );
+
+                // an entry being written when the process dies
+                TicketArchive.Entry entry = archive.begin( "second.bin", false, false );
+                entry.getOutputStream().write( binary );
+                Files.copy( dir.resolve( file.getFileName() + TicketArchive.PART_SUFFIX ),
+                        dir.resolve( crashed.getFileName() + TicketArchive.PART_SUFFIX ) );
+                entry.abort();
+            }
+
+            try ( TicketArchive archive = TicketArchive.open( crashed, format ) ) {
+                assertEquals( format.name(), Arrays.asList( "first.log" ), archive.getNames() );
+                add( archive, "second.bin", binary, false );
+            }
+
+            try ( TicketArchive archive = TicketArchive.open( crashed, format ) ) {
+                assertEquals( format.name(), Arrays.asList( "first.log", "second.bin" ), archive.getNames() );
+            }
+        }
+
+        assertArrayEquals( binary, zipEntry( dir.resolve( "b.zip" ), "second.bin" ) );
+    }
+
+    @Test
+    public void testWriteIfChanged() throws IOException {
+        Path file = dir.resolve( "t.zip" );
+
+        try ( TicketArchive archive = TicketArchive.open( file, TicketArchive.Format.ZIP ) ) {
+            assertTrue( archive.writeIfChanged( "ticket.json", "{}".getBytes( StandardCharsets.UTF_8 ) ) );
+            assertFalse( archive.writeIfChanged( "ticket.json", "{}".getBytes( StandardCharsets.UTF_8 ) ) );
+        }
+
+        try ( TicketArchive archive = TicketArchive.open( file, TicketArchive.Format.ZIP ) ) {
+            assertFalse( archive.writeIfChanged( "ticket.json", "{}".getBytes( StandardCharsets.UTF_8 ) ) );
+            assertTrue( archive.writeIfChanged( "ticket.json", "{ }".getBytes( StandardCharsets.UTF_8 ) ) );
+        }
+
+        // the new content replaces the old one
+        assertEquals( Arrays.asList( "ticket.json" ), zipNames( file ) );
+        assertEquals( "{ }", new String( zipEntry( file, "ticket.json" ), StandardCharsets.UTF_8 ) );
+    }
+
+    @Test
+    public void testParse() {
+        assertEquals( TicketArchive.Format.TAR, TicketArchive.Format.parse( " tar", null ) );
+        assertNull( TicketArchive.Format.parse( "rar", null ) );
+        assertNull( TicketArchive.Format.parse( null, null ) );
+    }
+
+    //---- Support methods ---------------------------------------------------------
+
+    private static String add(TicketArchive archive, String name, byte[] data, boolean deflate) throws IOException {
+        TicketArchive.Entry entry = archive.begin( name, deflate, false );
+        try {
+            // in pieces, like a download
+            OutputStream out = entry.getOutputStream();
+            for ( int off = 0; off < data.length; off += 7000 ) {
+                out.write( data, off, Math.min( 7000, data.length - off ) );
+            }
+            entry.commit();
+        } finally {
+            entry.abort();
+        }
+        return entry.getName();
+    }
+
+    private static byte[] text(int lines) {
+        StringBuilder sb = new StringBuilder();
+        for ( int i = 0; i < lines; i++ ) {
+            sb.append( "2016-03-01 10:00:00 INFO line " ).append( i ).append( '\n' );
+        }
+        return sb.toString().getBytes( StandardCharsets.UTF_8 );
+    }
+
+    private static List<String> zipNames(Path file) throws IOException {
+        List<String> names = new ArrayList<>();
+        try ( ZipFile zip = new ZipFile( file.toFile() ) ) {
+            for ( ZipEntry e : Collections.list( zip.entries() ) ) {
+                names.add( e.getName() );
+            }
+        }
+        return names;
+    }
+
+    private static byte[] zipEntry(Path file, String name) throws IOException {
+        try ( ZipFile zip = new ZipFile( file.toFile() );
+              InputStream in = zip.getInputStream( zip.getEntry( name ) ) ) {
+            return readAll( in );
+        }
+    }
+
+    private static byte[] readAll(InputStream in) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] buf = new byte[8192];
+        int n;
+        while ( ( n = in.read( buf ) ) > 0 ) {
+            out.write( buf, 0, n );
+        }
+        return out.toByteArray();
+    }
+}
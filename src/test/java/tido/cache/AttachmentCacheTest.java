@@ -0,0 +1,145 @@
+/*
+ * Copyright 2013 Andrea Cisternino <a.cisternino@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package tido.cache;
+
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ *
+ * @author Andrea Cisternino
+ */
+public class AttachmentCacheTest {
+
+    private Path dir;
+
+    private Path cacheDir;
+
+    @Before
+    public void setUp() throws IOException {
+        dir = Files.createTempDirectory( "tido-cache" );
+        cacheDir = dir.resolve( "shared" );
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        for ( Path d : new Path[] { cacheDir, dir } ) {
+            if ( Files.isDirectory( d ) ) {
+                try ( DirectoryStream<Path> entries = Files.newDirectoryStream( d ) ) {
+                    for ( Path p : entries ) {
+                        if ( ! Files.isDirectory( p ) ) {
+                            Files.delete( p );
+                        }
+                    }
+                }
+            }
+        }
+        Files.delete( cacheDir );
+        Files.delete( dir );
+    }
+
+    @Test
+    public void testStoreAndLookup() throws IOException {
+        AttachmentCache cache = new AttachmentCache( cacheDir, 1000 );
+
+        assertNull( cache.lookup( "http://tf/a" ) );
+
+        cache.store( "http://tf/a", file( "a.log", 100 ), "a.log", "\"etag-1\"" );
+
+        AttachmentCache.Entry entry = cache.lookup( "http://tf/a" );
+        assertNotNull( entry );
+        assertEquals( "a.log", entry.getName() );
+        assertEquals( 100, entry.getSize() );
+        assertEquals( "\"etag-1\"", entry.getValidator() );
+        assertEquals( 100, Files.size( entry.getData() ) );
+
+        assertNull( cache.lookup( "http://tf/b" ) );
+    }
+
+    @Test
+    public void testReplace() throws IOException {
+        AttachmentCache cache = new AttachmentCache( cacheDir, 1000 );
+
+        cache.store( "http://tf/a", file( "a.log", 100 ), "a.log", "v1" );
+        cache.store( "http://tf/a", file( "a2.log", 200 ), "a.log", null );
+
+        AttachmentCache.Entry entry = cache.lookup( "http://tf/a" );
+        assertEquals( 200, entry.getSize() );
+        assertNull( entry.getValidator() );
+
+        // only the entry is left, no temporary files
+        assertEquals( 2, count( cacheDir ) );
+    }
+
+    @Test
+    public void testTruncatedDataIsIgnored() throws IOException {
+        AttachmentCache cache = new AttachmentCache( cacheDir, 1000 );
+
+        cache.store( "http://tf/a", file( "a.log", 100 ), "a.log", "v1" );
+        Path data = cache.lookup( "http://tf/a" ).getData();
+        Files.write( data, new byte[50] );
+
+        assertNull( cache.lookup( "http://tf/a" ) );
+    }
+
+    @Test
+    public void testLeastRecentlyUsedEvicted() throws IOException {
+        AttachmentCache cache = new AttachmentCache( cacheDir, 250 );
+
+        cache.store( "http://tf/a", file( "a", 100 ), "a", "v" );
+        cache.store( "http://tf/b", file( "b", 100 ), "b", "v" );
+        age( cache.lookup( "http://tf/a" ), 2000 );
+        age( cache.lookup( "http://tf/b" ), 3000 );
+
+        // a was used after b
+        cache.touch( cache.lookup( "http://tf/a" ) );
+
+        cache.store( "http://tf/c", file( "c", 100 ), "c", "v" );
+
+        assertNotNull( cache.lookup( "http://tf/a" ) );
+        assertNull( cache.lookup( "http://tf/b" ) );
+        assertNotNull( cache.lookup( "http://tf/c" ) );
+    }
+
+    //---- Support methods ---------------------------------------------------------
+
+    private Path file(String name, int size) throws IOException {
+        return Files.write( dir.resolve( name ), new byte[size] );
+    }
+
+    private static void age(AttachmentCache.Entry entry, long seconds) throws IOException {
+        Files.setLastModifiedTime( entry.getData(), FileTime.fromMillis( System.currentTimeMillis() - seconds * 1000 ) );
+    }
+
+    private static int count(Path d) throws IOException {
+        int n = 0;
+        try ( DirectoryStream<Path> entries = Files.newDirectoryStream( d ) ) {
+            for ( Path p : entries ) {
+                n++;
+            }
+        }
+        return n;
+    }
+}
@@ -0,0 +1,47 @@
+/*
+ * Copyright 2013 Andrea Cisternino <a.cisternino@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package tido.config;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ *
+ * @author Andrea Cisternino
+ */
+public class ConfigDataTest {
+
+    @Test
+    public void testFindBandwidthProfile() {
+        ConfigData config = new ConfigData();
+        BandwidthProfile background = config.getBandwidthProfiles().get( 1 );
+
+        assertSame( background, config.findBandwidthProfile( background.getName() ) );
+        assertSame( config.getBandwidthProfiles().get( 0 ), config.findBandwidthProfile( "missing" ) );
+        assertSame( config.getBandwidthProfiles().get( 0 ), config.findBandwidthProfile( null ) );
+    }
+
+    @Test
+    public void testFindBandwidthProfileUnnamed() {
+        ConfigData config = new ConfigData();
+        BandwidthProfile named = new BandwidthProfile( "night", 0, 0 );
+        config.getBandwidthProfiles().add( 0, new BandwidthProfile() );
+        config.getBandwidthProfiles().add( named );
+
+        assertSame( named, config.findBandwidthProfile( "night" ) );
+    }
+}
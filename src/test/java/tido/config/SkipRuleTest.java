@@ -0,0 +1,87 @@
+/*
+ * Copyright 2013 Andrea Cisternino <a.cisternino@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package tido.config;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ *
+ * @author Andrea Cisternino
+ */
+public class SkipRuleTest {
+
+    private static final long MIB = 1024 * 1024;
+
+    @Test
+    public void testExtensions() {
+        SkipRule rule = new SkipRule( "iso, .VMDK,tar.gz", null, 0, null );
+
+        assertTrue( rule.matches( "disk.iso", 10, "Bug" ) );
+        assertTrue( rule.matches( "Disk.vmdk", 10, "Bug" ) );
+        assertTrue( rule.matches( "logs.tar.gz", 10, "Bug" ) );
+        assertFalse( rule.matches( "logs.gz", 10, "Bug" ) );
+        assertFalse( rule.matches( "iso", 10, "Bug" ) );
+    }
+
+    @Test
+    public void testPattern() {
+        SkipRule rule = new SkipRule( null, "core.*", 0, null );
+
+        assertTrue( rule.matches( "core.1234", -1, null ) );
+        assertTrue( rule.matches( "CORE.x", -1, null ) );
+        assertFalse( rule.matches( "score.1234", -1, null ) );
+
+        rule = new SkipRule( null, "trace_?.[log]", 0, null );
+        assertTrue( rule.matches( "trace_1.[log]", -1, null ) );
+        assertFalse( rule.matches( "trace_12.[log]", -1, null ) );
+        assertFalse( rule.matches( "trace_1.l", -1, null ) );
+    }
+
+    @Test
+    public void testSizeAndTracker() {
+        SkipRule rule = new SkipRule( null, null, 50, "Support" );
+
+        assertTrue( rule.matches( "a.bin", 50 * MIB, "support" ) );
+        assertFalse( rule.matches( "a.bin", 50 * MIB - 1, "Support" ) );
+        assertFalse( rule.matches( "a.bin", 80 * MIB, "Defects" ) );
+
+        // an unknown size never matches a size condition
+        assertFalse( rule.matches( "a.bin", -1, "Support" ) );
+    }
+
+    @Test
+    public void testEmptyRuleMatchesNothing() {
+        SkipRule rule = new SkipRule();
+
+        assertTrue( rule.isEmpty() );
+        assertFalse( rule.matches( "anything.txt", 100 * MIB, "Bug" ) );
+    }
+
+    @Test
+    public void testFirstMatchingRule() {
+        ConfigData config = new ConfigData();
+        assertNull( config.findSkipRule( "a.iso", 10, "Bug" ) );
+
+        SkipRule iso = new SkipRule( "iso", null, 0, null );
+        config.getSkipRules().add( new SkipRule( null, null, 100, null ) );
+        config.getSkipRules().add( iso );
+
+        assertSame( iso, config.findSkipRule( "a.iso", 10, "Bug" ) );
+        assertNull( config.findSkipRule( "a.txt", 10, "Bug" ) );
+    }
+}
@@ -0,0 +1,187 @@
+/*
+ * Copyright 2013 Andrea Cisternino <a.cisternino@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package tido.journal;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Collections;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import tido.config.ServerInfo;
+import tido.config.ServerList;
+import tido.model.AttachmentLink;
+import tido.model.AttachmentState;
+import tido.model.Ticket;
+import tido.model.TicketState;
+
+import static org.junit.Assert.*;
+
+/**
+ *
+ * @author Andrea Cisternino
+ */
+public class JournalTest {
+
+    private Path file;
+
+    private ServerList servers;
+
+    private Journal journal;
+
+    //---- Lifecycle ---------------------------------------------------------------
+
+    @Before
+    public void setUp() throws IOException {
+        file = Files.createTempFile( "tido-journal", ".log" );
+        Files.delete( file );
+
+        ServerInfo si = new ServerInfo();
+        si.setId( "EB" );
+        servers = new ServerList();
+        servers.setServers( Collections.singletonList( si ) );
+
+        journal = new Journal( file );
+        journal.open();
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        journal.close();
+        Files.deleteIfExists( file );
+    }
+
+    //---- Tests -------------------------------------------------------------------
+
+    @Test
+    public void testStateIsRestored() throws IOException {
+        Ticket ticket = newTicket( "artf1" );
+        journal.ticketAdded( ticket );
+        journal.batchStarted();
+
+        AttachmentLink link = ticket.getAttachments().get( 0 );
+        link.setState( AttachmentState.DOWNLOADED );
+        link.setSize( 1234 );
+        journal.attachmentState( link );
+
+        JournalState state = journal.read( servers );
+
+        assertTrue( state.isBatchRunning() );
+        assertEquals( 1, state.getTickets().size() );
+
+        Ticket restored = state.getTickets().get( 0 );
+        assertEquals( "artf1", restored.getId() );
+        assertEquals( "line one\n\tline two", restored.getDescription() );
+        assertEquals( TicketState.NOT_PROCESSED, restored.isProcessed() );
+        assertEquals( 2, restored.getAttachments().size() );
+        assertEquals( AttachmentState.DOWNLOADED, restored.getAttachments().get( 0 ).getState() );
+        assertEquals( 1234, restored.getAttachments().get( 0 ).getSize() );
+        assertEquals( AttachmentState.PENDING, restored.getAttachments().get( 1 ).getState() );
+    }
+
+    @Test
+    public void testRemovedAndFinished() throws IOException {
+        Ticket t1 = newTicket( "artf1" );
+        Ticket t2 = newTicket( "artf2" );
+        journal.ticketAdded( t1 );
+        journal.ticketAdded( t2 );
+        journal.batchStarted();
+        journal.ticketRemoved( t1 );
+        journal.batchFinished();
+
+        JournalState state = journal.read( servers );
+
+        assertFalse( state.isBatchRunning() );
+        assertEquals( 1, state.getTickets().size() );
+        assertEquals( "artf2", state.getTickets().get( 0 ).getId() );
+    }
+
+    @Test
+    public void testTruncatedRecordIsIgnored() throws IOException {
+        journal.ticketAdded( newTicket( "artf1" ) );
+        journal.close();
+        Files.write( file, "ASTATE\thttp://tf/artf1".getBytes( StandardCharsets.UTF_8 ), StandardOpenOption.APPEND );
+
+        assertEquals( 1, journal.read( servers ).getTickets().size() );
+    }
+
+    @Test
+    public void testRewriteKeepsState() throws IOException {
+        Ticket ticket = newTicket( "artf1" );
+        ticket.setProcessed( TicketState.PROCESSED_NOK );
+        ticket.getAttachments().get( 1 ).setState( AttachmentState.FAILED );
+
+        journal.rewrite( Collections.singletonList( ticket ) );
+
+        Ticket restored = journal.read( servers ).getTickets().get( 0 );
+        assertEquals( TicketState.PROCESSED_NOK, restored.isProcessed() );
+        assertEquals( AttachmentState.FAILED, restored.getAttachments().get( 1 ).getState() );
+    }
+
+    @Test
+    public void testFailureIsRestored() throws IOException {
+        Ticket ticket = newTicket( "artf1" );
+        journal.ticketAdded( ticket );
+
+        AttachmentLink link = ticket.getAttachments().get( 1 );
+        link.setState( AttachmentState.FAILED );
+        link.setError( "HTTP 503\tService Unavailable" );
+        link.setAttempts( 3 );
+        journal.attachmentState( link );
+
+        AttachmentLink restored = journal.read( servers ).getTickets().get( 0 ).getAttachments().get( 1 );
+        assertEquals( AttachmentState.FAILED, restored.getState() );
+        assertEquals( "HTTP 503\tService Unavailable", restored.getError() );
+        assertEquals( 3, restored.getAttempts() );
+
+        // also after a rewrite
+        journal.rewrite( Collections.singletonList( ticket ) );
+
+        restored = journal.read( servers ).getTickets().get( 0 ).getAttachments().get( 1 );
+        assertEquals( "HTTP 503\tService Unavailable", restored.getError() );
+        assertEquals( 3, restored.getAttempts() );
+    }
+
+    @Test
+    public void testEscape() {
+        String value = "a\\b\tc\nd\re";
+        assertEquals( value, Journal.unescape( Journal.escape( value ) ) );
+        assertNull( Journal.unescape( Journal.escape( null ) ) );
+        assertEquals( "", Journal.unescape( Journal.escape( "" ) ) );
+    }
+
+    //---- Support methods ---------------------------------------------------------
+
+    private Ticket newTicket(String id) {
+        Ticket ticket = new Ticket( servers.getServers().get( 0 ) );
+        ticket.setUrl( "http://tf/" + id );
+        ticket.setId( id );
+        ticket.setTitle( "title of " + id );
+        ticket.setDescription( "line one\n\tline two" );
+        for ( int i = 0; i < 2; i++ ) {
+            AttachmentLink link = new AttachmentLink( ticket );
+            link.setUrl( "http://tf/" + id + "/att" + i );
+            link.setName( "log" + i + ".txt" );
+            ticket.getAttachments().add( link );
+        }
+        return ticket;
+    }
+}
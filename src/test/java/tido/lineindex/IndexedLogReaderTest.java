@@ -0,0 +1,92 @@
+/*
+ * Copyright 2013 Andrea Cisternino <a.cisternino@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package tido.lineindex;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ *
+ * @author Andrea Cisternino
+ */
+public class IndexedLogReaderTest {
+
+    private Path dir;
+
+    private Path log;
+
+    @Before
+    public void setUp() throws IOException {
+        dir = Files.createTempDirectory( "tido-logreader" );
+        log = dir.resolve( "server.log" );
+
+        // the index is built while the log is written
+        LineIndexBuilder builder = new LineIndexBuilder( 10 );
+        try ( OutputStream out = builder.wrap( Files.newOutputStream( log ) ) ) {
+            for ( int i = 0; i < 100; i++ ) {
+                out.write( ( "line " + i + "\n" ).getBytes( StandardCharsets.UTF_8 ) );
+            }
+        }
+        builder.build().write( LineIndex.sidecar( log ) );
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        Files.deleteIfExists( LineIndex.sidecar( log ) );
+        Files.deleteIfExists( log );
+        Files.delete( dir );
+    }
+
+    @Test
+    public void testOpenAtLine() throws IOException {
+        IndexedLogReader reader = new IndexedLogReader( log, StandardCharsets.UTF_8 );
+        assertNotNull( reader.getIndex() );
+
+        try ( BufferedReader in = reader.openAtLine( 57 ) ) {
+            assertEquals( "line 57", in.readLine() );
+        }
+        try ( BufferedReader in = reader.openAtLine( 0 ) ) {
+            assertEquals( "line 0", in.readLine() );
+        }
+        try ( BufferedReader in = reader.openAtLine( 100 ) ) {
+            assertNull( in.readLine() );
+        }
+    }
+
+    @Test
+    public void testStaleIndex() throws IOException {
+        try ( OutputStream out = Files.newOutputStream( log ) ) {
+            out.write( "replaced\nfile\n".getBytes( StandardCharsets.UTF_8 ) );
+        }
+
+        IndexedLogReader reader = new IndexedLogReader( log, StandardCharsets.UTF_8 );
+        assertNull( reader.getIndex() );
+
+        try ( BufferedReader in = reader.openAtLine( 1 ) ) {
+            assertEquals( "file", in.readLine() );
+        }
+    }
+}
@@ -0,0 +1,145 @@
+/*
+ * Copyright 2013 Andrea Cisternino <a.cisternino@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package tido.lineindex;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Calendar;
+import java.util.GregorianCalendar;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ *
+ * @author Andrea Cisternino
+ */
+public class LineIndexTest {
+
+    @Test
+    public void testCheckpoints() {
+        String text = "line0\nline1\r\nline2\nline3\nline4";
+        byte[] data = text.getBytes( StandardCharsets.UTF_8 );
+
+        // fed in small pieces, lines span several calls
+        LineIndexBuilder builder = new LineIndexBuilder( 2 );
+        for ( int i = 0; i < data.length; i += 3 ) {
+            builder.update( data, i, Math.min( 3, data.length - i ) );
+        }
+        LineIndex index = builder.build();
+
+        assertEquals( 5, index.getLines() );
+        assertEquals( data.length, index.getLength() );
+        assertEquals( 3, index.getCheckpoints() );
+        assertEquals( 0, index.getOffset( 0 ) );
+        assertEquals( text.indexOf( "line2" ), index.getOffset( 1 ) );
+        assertEquals( text.indexOf( "line4" ), index.getOffset( 2 ) );
+
+        assertEquals( 1, index.checkpointForLine( 3 ) );
+        assertEquals( 2, index.checkpointForLine( 100 ) );
+        assertEquals( 4, index.getLine( 2 ) );
+    }
+
+    @Test
+    public void testEmpty() {
+        LineIndex index = new LineIndexBuilder().build();
+        assertEquals( 0, index.getLines() );
+        assertEquals( -1, index.checkpointForLine( 0 ) );
+        assertEquals( -1, index.checkpointForTime( 0 ) );
+    }
+
+    @Test
+    public void testTimes() {
+        String text = "2013-11-15 12:00:00,000 INFO start\n"
+                + "    at some.Class\n"
+                + "[2013-11-15T12:05:00.250] WARN later\n"
+                + "no time here\n"
+                + "2013/11/15 12:10:00 ERROR end\n";
+        byte[] data = text.getBytes( StandardCharsets.UTF_8 );
+
+        LineIndexBuilder builder = new LineIndexBuilder( 1 );
+        builder.update( data, 0, data.length );
+        LineIndex index = builder.build();
+
+        long t0 = time( 12, 0, 0, 0 );
+        long t1 = time( 12, 5, 0, 250 );
+        long t2 = time( 12, 10, 0, 0 );
+
+        assertEquals( t0, index.getTime( 0 ) );
+        assertEquals( LineIndex.NO_TIME, index.getTime( 1 ) );
+        assertEquals( t1, index.getTime( 2 ) );
+        assertEquals( LineIndex.NO_TIME, index.getTime( 3 ) );
+        assertEquals( t2, index.getTime( 4 ) );
+
+        // always a checkpoint before the first line at or after the time
+        assertEquals( 0, index.checkpointForTime( t0 - 1 ) );
+        assertEquals( 0, index.checkpointForTime( t0 ) );
+        assertEquals( 1, index.checkpointForTime( t1 ) );
+        assertEquals( 3, index.checkpointForTime( t1 + 1 ) );
+        assertEquals( 3, index.checkpointForTime( t2 ) );
+        assertEquals( 4, index.checkpointForTime( t2 + 1 ) );
+    }
+
+    @Test
+    public void testParseTime() {
+        Calendar cal = new GregorianCalendar();
+        assertEquals( LineIndex.NO_TIME, parse( "2013-13-15 12:00:00", cal ) );
+        assertEquals( LineIndex.NO_TIME, parse( "2013-11-15 12:00", cal ) );
+        assertEquals( LineIndex.NO_TIME, parse( "Nov 15 12:00:00 host", cal ) );
+        assertEquals( time( 23, 59, 59, 0 ), parse( "2013-11-15 23:59:59 x", cal ) );
+    }
+
+    @Test
+    public void testWriteAndRead() throws IOException {
+        byte[] data = "2013-11-15 12:00:00 a\nb\nc\n".getBytes( StandardCharsets.UTF_8 );
+        LineIndexBuilder builder = new LineIndexBuilder( 2 );
+        builder.update( data, 0, data.length );
+        LineIndex index = builder.build();
+
+        Path dir = Files.createTempDirectory( "tido-lidx" );
+        Path file = LineIndex.sidecar( dir.resolve( "server.log" ) );
+        try {
+            assertEquals( "server.log.lidx", file.getFileName().toString() );
+            index.write( file );
+
+            LineIndex read = LineIndex.read( file );
+            assertEquals( 3, read.getLines() );
+            assertEquals( data.length, read.getLength() );
+            assertEquals( 2, read.getCheckpoints() );
+            assertEquals( index.getOffset( 1 ), read.getOffset( 1 ) );
+            assertEquals( index.getTime( 0 ), read.getTime( 0 ) );
+        } finally {
+            Files.deleteIfExists( file );
+            Files.delete( dir );
+        }
+    }
+
+    //---- Support methods ---------------------------------------------------------
+
+    private static long parse(String line, Calendar cal) {
+        byte[] b = line.getBytes( StandardCharsets.UTF_8 );
+        return LineIndex.parseTime( b, b.length, cal );
+    }
+
+    private static long time(int hour, int min, int sec, int millis) {
+        Calendar cal = new GregorianCalendar( 2013, Calendar.NOVEMBER, 15, hour, min, sec );
+        cal.set( Calendar.MILLISECOND, millis );
+        return cal.getTimeInMillis();
+    }
+}
@@ -0,0 +1,293 @@
+/*
+ * Copyright 2013 Andrea Cisternino <a.cisternino@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package tido.model.boundary;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import com.sun.net.httpserver.Headers;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import tido.config.ServerInfo;
+import tido.model.AttachmentLink;
+import tido.model.Ticket;
+import tido.transfer.BandwidthLimiter;
+import tido.transfer.DirectoryCache;
+import tido.transfer.TransferControl;
+import tido.transfer.TransferListener;
+import tido.transfer.TransferStoppedException;
+
+import static org.junit.Assert.*;
+
+/**
+ * Downloads from a local HTTP server.
+ *
+ * @author Andrea Cisternino
+ */
+public class AttachmentFetcherTest {
+
+    private static final int LENGTH = 200 * 1024;
+
+    private HttpServer server;
+    private ExecutorService writers;
+    private Path dir;
+
+    private AttachmentFetcher fetcher;
+    private AttachmentLink link;
+
+    /** What the server sends. */
+    private volatile byte[] content;
+    private volatile String etag = "\"v1\"";
+
+    private final TransferControl control = new TransferControl();
+
+    /** Bytes received before the transfer is paused, negative to receive everything. */
+    private volatile long pauseAfter = -1;
+
+    /** The requests received. */
+    private final List<Headers> requests = new ArrayList<>();
+
+    /** Bytes reported as transferred. */
+    private volatile long transferred;
+
+    private final TransferListener listener = new TransferListener() {
+        @Override
+        public void started(long expectedLength) {
+        }
+        @Override
+        public void transferred(long bytes) {
+            transferred += bytes;
+            if ( pauseAfter >= 0 && transferred >= pauseAfter ) {
+                control.pause();
+            }
+        }
+        @Override
+        public void received(long wireBytes) {
+        }
+    };
+
+    //---- Lifecycle ---------------------------------------------------------------
+
+    @Before
+    public void setUp() throws IOException {
+        content = randomBytes( 1 );
+
+        server = HttpServer.create( new InetSocketAddress( "127.0.0.1", 0 ), 0 );
+        server.createContext( "/att", new HttpHandler() {
+            @Override
+            public void handle(HttpExchange exchange) throws IOException {
+                serve( exchange );
+            }
+        } );
+        server.start();
+
+        writers = Executors.newSingleThreadExecutor();
+        dir = Files.createTempDirectory( "tido-fetcher" );
+
+        fetcher = new AttachmentFetcher( null, new BandwidthLimiter(), control, writers, new DirectoryCache(), null );
+
+        ServerInfo si = new ServerInfo();
+        si.setId( "test" );
+        Ticket ticket = new Ticket( si );
+        ticket.setId( "artf1" );
+
+        link = new AttachmentLink( ticket );
+        link.setUrl( "http://127.0.0.1:" + server.getAddress().getPort() + "/att/1" );
+        link.setName( "trace.bin" );
+        ticket.getAttachments().add( link );
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        server.stop( 0 );
+        writers.shutdown();
+        try ( DirectoryStream<Path> entries = Files.newDirectoryStream( dir ) ) {
+            for ( Path p : entries ) {
+                Files.delete( p );
+            }
+        }
+        Files.delete( dir );
+    }
+
+    //---- Tests -------------------------------------------------------------------
+
+    @Test
+    public void testResumeWithRange() throws IOException {
+        long received = fetchAndPause();
+
+        assertEquals( etag, link.getPartialValidator() );
+
+        assertEquals( 200, fetcher.fetch( link, listener, dir ) );
+
+        Headers resumed = requests.get( 1 );
+        assertEquals( "bytes=" + received + "-", resumed.getFirst( "Range" ) );
+        assertEquals( etag, resumed.getFirst( "If-Range" ) );
+        assertEquals( "identity", resumed.getFirst( "Accept-Encoding" ) );
+
+        assertArrayEquals( content, Files.readAllBytes( link.getPath() ) );
+        assertNull( link.getPartialValidator() );
+    }
+
+    @Test
+    public void testResumeOfChangedAttachment() throws IOException {
+        fetchAndPause();
+
+        // a new version: If-Range does not match, the server sends everything
+        content = randomBytes( 2 );
+        etag = "\"v2\"";
+        assertEquals( 200, fetcher.fetch( link, listener, dir ) );
+
+        assertEquals( "\"v1\"", requests.get( 1 ).getFirst( "If-Range" ) );
+        assertArrayEquals( content, Files.readAllBytes( link.getPath() ) );
+    }
+
+    @Test
+    public void testResumeIgnoresPageEstimate() throws IOException {
+        // the page shows a rounded size, smaller than what was already received
+        link.setSize( LENGTH / 4 );
+        long received = fetchAndPause();
+
+        assertEquals( Long.toString( LENGTH ), new String( Files.readAllBytes( lengthFile() ), StandardCharsets.US_ASCII ) );
+
+        assertEquals( 200, fetcher.fetch( link, listener, dir ) );
+
+        assertEquals( "bytes=" + received + "-", requests.get( 1 ).getFirst( "Range" ) );
+        assertArrayEquals( content, Files.readAllBytes( link.getPath() ) );
+        assertTrue( Files.notExists( lengthFile() ) );
+    }
+
+    @Test
+    public void testCompletePartialIsDiscarded() throws IOException {
+        long received = fetchAndPause();
+
+        // as if the attachment were only this long: there is nothing left to resume
+        Files.write( lengthFile(), Long.toString( received ).getBytes( StandardCharsets.US_ASCII ) );
+
+        assertEquals( 200, fetcher.fetch( link, listener, dir ) );
+
+        assertNull( requests.get( 1 ).getFirst( "Range" ) );
+        assertArrayEquals( content, Files.readAllBytes( link.getPath() ) );
+    }
+
+    @Test
+    public void testNotModifiedIsNotTransferred() throws IOException {
+        assertEquals( 200, fetcher.fetch( link, listener, dir ) );
+        Path saved = link.getPath();
+        assertEquals( LENGTH, transferred );
+
+        transferred = 0;
+        link.setPath( null );
+        assertEquals( 200, fetcher.fetch( link, listener, dir ) );
+
+        assertEquals( etag, requests.get( 1 ).getFirst( "If-None-Match" ) );
+        assertEquals( saved, link.getPath() );
+        assertEquals( 0, transferred );
+    }
+
+    //---- Support methods ---------------------------------------------------------
+
+    private Path lengthFile() throws IOException {
+        try ( DirectoryStream<Path> entries = Files.newDirectoryStream( dir, "*.part.length" ) ) {
+            for ( Path p : entries ) {
+                return p;
+            }
+        }
+        return dir.resolve( "missing.length" );
+    }
+
+    /**
+     * Pauses a transfer halfway, then lets the next one run.
+     *
+     * @return the bytes saved in the partial file.
+     */
+    private long fetchAndPause() throws IOException {
+        pauseAfter = LENGTH / 2;
+        try {
+            fetcher.fetch( link, listener, dir );
+            fail( "transfer not paused" );
+        } catch ( TransferStoppedException ex ) {
+            // expected
+        }
+        pauseAfter = -1;
+        control.resume();
+
+        long received = 0;
+        try ( DirectoryStream<Path> entries = Files.newDirectoryStream( dir, "*.part" ) ) {
+            for ( Path p : entries ) {
+                received = Files.size( p );
+            }
+        }
+        assertTrue( received > 0 && received < LENGTH );
+        return received;
+    }
+
+    /**
+     * Answers like a server supporting ranges, If-Range and If-None-Match.
+     */
+    private void serve(HttpExchange exchange) throws IOException {
+        Headers req = exchange.getRequestHeaders();
+        synchronized ( requests ) {
+            requests.add( req );
+        }
+
+        if ( etag.equals( req.getFirst( "If-None-Match" ) ) ) {
+            exchange.sendResponseHeaders( 304, -1 );
+            exchange.close();
+            return;
+        }
+
+        byte[] data = content;
+        int start = 0;
+        String range = req.getFirst( "Range" );
+        String ifRange = req.getFirst( "If-Range" );
+        if ( range != null && ( ifRange == null || ifRange.equals( etag ) ) ) {
+            start = Integer.parseInt( range.substring( "bytes=".length(), range.length() - 1 ) );
+            exchange.getResponseHeaders().set( "Content-Range", "bytes " + start + "-" + ( data.length - 1 ) + "/" + data.length );
+        }
+
+        exchange.getResponseHeaders().set( "ETag", etag );
+        exchange.getResponseHeaders().set( "Content-Disposition", "attachment; filename=\"trace.bin\"" );
+        exchange.sendResponseHeaders( start > 0 ? 206 : 200, data.length - start );
+
+        try ( OutputStream out = exchange.getResponseBody() ) {
+            out.write( data, start, data.length - start );
+        } catch ( IOException ex ) {
+            // the client stopped reading
+        }
+    }
+
+    private static byte[] randomBytes(long seed) {
+        byte[] data = new byte[LENGTH];
+        new Random( seed ).nextBytes( data );
+        return data;
+    }
+}
@@ -0,0 +1,90 @@
+/*
+ * Copyright 2013 Andrea Cisternino <a.cisternino@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package tido.model.boundary;
+
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import org.junit.Test;
+
+import tido.model.Ticket;
+import tido.model.TicketState;
+
+import static org.junit.Assert.*;
+
+/**
+ *
+ * @author Andrea Cisternino
+ */
+public class TeamForgeFacadeTest {
+
+    @Test
+    public void testResetFailed() {
+        Ticket ok = newTicket( "artf1", TicketState.PROCESSED_OK );
+        Ticket nok = newTicket( "artf2", TicketState.PROCESSED_NOK );
+        Ticket pending = newTicket( "artf3", TicketState.NOT_PROCESSED );
+
+        List<Ticket> failed = TeamForgeFacade.resetFailed( Arrays.asList( ok, nok, pending ) );
+
+        assertEquals( Arrays.asList( nok ), failed );
+        assertEquals( TicketState.NOT_PROCESSED, nok.isProcessed() );
+        assertEquals( 0d, nok.getProgress(), 0d );
+        assertEquals( TicketState.PROCESSED_OK, ok.isProcessed() );
+        assertEquals( 1d, ok.getProgress(), 0d );
+    }
+
+    @Test
+    public void testFailedResyncKeepsTicket() {
+        Ticket old = newTicket( "artf1", TicketState.PROCESSED_NOK );
+        old.setPriority( 3 );
+        List<Ticket> tickets = new ArrayList<>( Arrays.asList( newTicket( "artf0", TicketState.PROCESSED_OK ), old ) );
+
+        assertNull( TeamForgeFacade.replaceTicket( tickets, old, Collections.<Ticket>emptyList() ) );
+
+        assertEquals( 2, tickets.size() );
+        assertSame( old, tickets.get( 1 ) );
+        assertEquals( TicketState.PROCESSED_NOK, old.isProcessed() );
+    }
+
+    @Test
+    public void testResyncReplacesInPlace() {
+        Ticket old = newTicket( "artf1", TicketState.PROCESSED_OK );
+        old.setPriority( 3 );
+        old.setPath( Paths.get( "tickets", "2014", "03", "artf1" ) );
+        Ticket last = newTicket( "artf2", TicketState.NOT_PROCESSED );
+        List<Ticket> tickets = new ArrayList<>( Arrays.asList( old, last ) );
+
+        Ticket fetched = newTicket( "artf1", TicketState.NOT_PROCESSED );
+        assertSame( fetched, TeamForgeFacade.replaceTicket( tickets, old, Arrays.asList( fetched ) ) );
+
+        assertEquals( Arrays.asList( fetched, last ), tickets );
+        assertEquals( 3, fetched.getPriority() );
+        assertEquals( old.getPath(), fetched.getPath() );
+    }
+
+    //---- Support methods ---------------------------------------------------------
+
+    private static Ticket newTicket(String id, TicketState state) {
+        Ticket ticket = new Ticket( null );
+        ticket.setId( id );
+        ticket.setProcessed( state );
+        ticket.setProgress( state == TicketState.NOT_PROCESSED ? 0d : 1d );
+        return ticket;
+    }
+}
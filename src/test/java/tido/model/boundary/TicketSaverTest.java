@@ -0,0 +1,101 @@
+/*
+ * Copyright 2013 Andrea Cisternino <a.cisternino@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package tido.model.boundary;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import tido.model.AttachmentLink;
+import tido.model.AttachmentState;
+import tido.model.Ticket;
+import tido.transfer.ValidatorStore;
+
+import static org.junit.Assert.*;
+
+/**
+ *
+ * @author Andrea Cisternino
+ */
+public class TicketSaverTest {
+
+    private Path dir;
+
+    @Before
+    public void setUp() throws IOException {
+        dir = Files.createTempDirectory( "tido-saver" );
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        Files.deleteIfExists( dir.resolve( TicketSaver.RECORD_FILE ) );
+        Files.deleteIfExists( dir.resolve( ValidatorStore.FILE_NAME ) );
+        Files.delete( dir );
+    }
+
+    @Test
+    public void testWriteIfChanged() throws IOException {
+        Path file = dir.resolve( TicketSaver.RECORD_FILE );
+
+        assertTrue( TicketSaver.writeIfChanged( file, "{}\n" ) );
+        Files.setLastModifiedTime( file, FileTime.fromMillis( 0 ) );
+
+        // same content, the file is not touched
+        assertFalse( TicketSaver.writeIfChanged( file, "{}\n" ) );
+        assertEquals( 0, Files.getLastModifiedTime( file ).toMillis() );
+
+        assertTrue( TicketSaver.writeIfChanged( file, "{ }\n" ) );
+        assertEquals( "{ }\n", new String( Files.readAllBytes( file ), StandardCharsets.UTF_8 ) );
+    }
+
+    @Test
+    public void testJson() throws IOException {
+        Ticket ticket = new Ticket( null );
+        ticket.setId( "artf1234" );
+        ticket.setTitle( "Crash on \"save\"" );
+        ticket.setDescription( "line 1\nline 2\t\\" );
+
+        AttachmentLink link = new AttachmentLink( ticket );
+        link.setUrl( "https://tf/att/1" );
+        link.setName( "server.log" );
+        link.setSize( 100 );
+        link.setState( AttachmentState.DOWNLOADED );
+        link.setPath( dir.resolve( "server.log" ) );
+        ticket.getAttachments().add( link );
+
+        ValidatorStore validators = new ValidatorStore( dir );
+        validators.put( "https://tf/att/1", "server.log", "\"e\"", null, "abcd", 0 );
+
+        String json = TicketSaver.toJson( ticket, validators );
+
+        assertTrue( json.contains( "\"id\": \"artf1234\"" ) );
+        assertTrue( json.contains( "\"server\": null" ) );
+        assertTrue( json.contains( "\"title\": \"Crash on \\\"save\\\"\"" ) );
+        assertTrue( json.contains( "\"description\": \"line 1\\nline 2\\t\\\\\"" ) );
+        assertTrue( json.contains( "\"file\": \"server.log\"" ) );
+        assertTrue( json.contains( "\"sha256\": \"abcd\"" ) );
+        assertFalse( json.contains( "\"error\"" ) );
+
+        // the same ticket gives the same record
+        assertEquals( json, TicketSaver.toJson( ticket, validators ) );
+    }
+}
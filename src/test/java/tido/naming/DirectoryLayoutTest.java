@@ -0,0 +1,116 @@
+/*
+ * Copyright 2013 Andrea Cisternino <a.cisternino@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package tido.naming;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Calendar;
+import java.util.Locale;
+
+import org.junit.Test;
+
+import tido.model.Ticket;
+
+import static org.junit.Assert.*;
+
+/**
+ *
+ * @author Andrea Cisternino
+ */
+public class DirectoryLayoutTest {
+
+    private final Path base = Paths.get( "tickets" );
+
+    @Test
+    public void testIdPrefix() {
+        assertEquals( "artf74xxx", DirectoryLayout.idShard( "artf74149" ) );
+        assertEquals( "artf0xxx", DirectoryLayout.idShard( "artf999" ) );
+        assertEquals( "other", DirectoryLayout.idShard( "unknown" ) );
+        assertEquals( base.resolve( "artf74xxx" ), DirectoryLayout.ID_PREFIX.shardDir( base, "artf74149", null, 0 ) );
+    }
+
+    @Test
+    public void testTracker() {
+        assertEquals( "Internal_Interface Tickets", DirectoryLayout.trackerShard( " Internal/Interface Tickets " ) );
+        assertEquals( "Bugs", DirectoryLayout.trackerShard( "Bugs..." ) );
+        assertEquals( "no-tracker", DirectoryLayout.trackerShard( "" ) );
+        assertEquals( "no-tracker", DirectoryLayout.trackerShard( null ) );
+    }
+
+    @Test
+    public void testYearMonth() {
+        Calendar cal = Calendar.getInstance();
+        cal.set( 2014, Calendar.MARCH, 15 );
+
+        assertEquals( base.resolve( "2014" ).resolve( "03" ),
+                DirectoryLayout.YEAR_MONTH.shardDir( base, "artf1", null, cal.getTimeInMillis() ) );
+    }
+
+    @Test
+    public void testYearMonthKeepsTicketTogether() throws IOException {
+        Path tmp = Files.createTempDirectory( "tido-layout" );
+        try {
+            Calendar cal = Calendar.getInstance();
+            cal.set( 2014, Calendar.MARCH, 15 );
+            Path first = DirectoryLayout.YEAR_MONTH.resolve( tmp, newTicket(), "artf1_title", cal.getTimeInMillis() );
+            assertEquals( tmp.resolve( "2014" ).resolve( "03" ).resolve( "artf1_title" ), first );
+            Files.createDirectories( first );
+
+            // re-synced in a later month: a new Ticket, the same directory
+            cal.set( 2015, Calendar.JANUARY, 2 );
+            assertEquals( first, DirectoryLayout.YEAR_MONTH.resolve( tmp, newTicket(), "artf1_title", cal.getTimeInMillis() ) );
+
+            // another ticket goes to the current month
+            assertEquals( tmp.resolve( "2015" ).resolve( "01" ).resolve( "artf2_title" ),
+                    DirectoryLayout.YEAR_MONTH.resolve( tmp, newTicket(), "artf2_title", cal.getTimeInMillis() ) );
+        } finally {
+            Files.delete( tmp.resolve( "2014/03/artf1_title" ) );
+            Files.delete( tmp.resolve( "2014/03" ) );
+            Files.delete( tmp.resolve( "2014" ) );
+            Files.delete( tmp );
+        }
+    }
+
+    @Test
+    public void testFlatAndParse() {
+        assertEquals( base, DirectoryLayout.FLAT.shardDir( base, "artf74149", "Bugs", 0 ) );
+        assertEquals( DirectoryLayout.YEAR_MONTH, DirectoryLayout.parse( " year_month", null ) );
+        assertEquals( DirectoryLayout.FLAT, DirectoryLayout.parse( "unknown", DirectoryLayout.FLAT ) );
+    }
+
+    @Test
+    public void testParseInTurkish() {
+        Locale locale = Locale.getDefault();
+        Locale.setDefault( new Locale( "tr", "TR" ) );
+        try {
+            assertEquals( DirectoryLayout.ID_PREFIX, DirectoryLayout.parse( "id_prefix", DirectoryLayout.FLAT ) );
+            assertEquals( DirectoryLayout.YEAR_MONTH, DirectoryLayout.parse( "year_month", DirectoryLayout.FLAT ) );
+            assertEquals( "artf74xxx", DirectoryLayout.idShard( "ARTF74149" ) );
+        } finally {
+            Locale.setDefault( locale );
+        }
+    }
+
+    //---- Support methods ---------------------------------------------------------
+
+    private static Ticket newTicket() {
+        Ticket ticket = new Ticket( null );
+        ticket.setId( "artf1" );
+        return ticket;
+    }
+}
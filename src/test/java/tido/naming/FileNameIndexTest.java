@@ -0,0 +1,94 @@
+/*
+ * Copyright 2013 Andrea Cisternino <a.cisternino@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package tido.naming;
+
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.HashSet;
+import java.util.Set;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ *
+ * @author Andrea Cisternino
+ */
+public class FileNameIndexTest {
+
+    private Path dir;
+
+    @Before
+    public void setUp() throws IOException {
+        dir = Files.createTempDirectory( "tido-names" );
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        try ( DirectoryStream<Path> entries = Files.newDirectoryStream( dir ) ) {
+            for ( Path p : entries ) {
+                Files.delete( p );
+            }
+        }
+        Files.delete( dir );
+    }
+
+    @Test
+    public void testExistingFilesAreSkipped() throws IOException {
+        Files.createFile( dir.resolve( "log.txt" ) );
+        Files.createFile( dir.resolve( "log(1).txt" ) );
+
+        FileNameIndex index = new FileNameIndex();
+
+        assertEquals( "log(2).txt", index.reserve( dir, "log.txt" ) );
+        assertEquals( "log(3).txt", index.reserve( dir, "log.txt" ) );
+        assertEquals( "other.txt", index.reserve( dir, "other.txt" ) );
+    }
+
+    @Test
+    public void testManyDuplicatesAreUnique() throws IOException {
+        FileNameIndex index = new FileNameIndex();
+
+        Set<String> names = new HashSet<>();
+        for ( int i = 0; i < 300; i++ ) {
+            assertTrue( names.add( index.reserve( dir, "log.txt" ) ) );
+        }
+        assertTrue( names.contains( "log.txt" ) );
+        assertTrue( names.contains( "log(299).txt" ) );
+    }
+
+    @Test
+    public void testReleasedNameIsReusedIgnoringCase() throws IOException {
+        FileNameIndex index = new FileNameIndex();
+
+        assertEquals( "a.tar.gz", index.reserve( dir, "a.tar.gz" ) );
+        index.release( dir, "a.tar.gz" );
+        assertEquals( "a.tar.gz", index.reserve( dir, "a.tar.gz" ) );
+        assertEquals( "A(1).tar.gz", index.reserve( dir, "A.tar.gz" ) );
+    }
+
+    @Test
+    public void testDeDupName() {
+        assertEquals( "x(1).gz", FileNameIndex.deDupName( "x.gz", 1 ) );
+        assertEquals( "README(2)", FileNameIndex.deDupName( "README", 2 ) );
+        assertEquals( "trace(1).log.bz2", FileNameIndex.deDupName( "trace.log.bz2", 1 ) );
+    }
+}
@@ -0,0 +1,91 @@
+/*
+ * Copyright 2013 Andrea Cisternino <a.cisternino@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package tido.naming;
+
+import java.io.IOException;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ *
+ * @author Andrea Cisternino
+ */
+public class LayoutMigratorTest {
+
+    private Path base;
+
+    @Before
+    public void setUp() throws IOException {
+        base = Files.createTempDirectory( "tido-layout" );
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        Files.walkFileTree( base, new SimpleFileVisitor<Path>() {
+            @Override
+            public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) throws IOException {
+                Files.delete( file );
+                return FileVisitResult.CONTINUE;
+            }
+            @Override
+            public FileVisitResult postVisitDirectory(Path dir, IOException exc) throws IOException {
+                Files.delete( dir );
+                return FileVisitResult.CONTINUE;
+            }
+        } );
+    }
+
+    @Test
+    public void testMoveAndLink() throws Exception {
+        Files.createDirectories( base.resolve( "artf74149_screen_is_black" ) );
+        Files.write( base.resolve( "artf74149_screen_is_black" ).resolve( "log.txt" ), new byte[10] );
+        Files.createDirectories( base.resolve( "artf1234" ) );
+        Files.createDirectories( base.resolve( "notes" ) );
+
+        LayoutMigrator migrator = new LayoutMigrator( base, DirectoryLayout.ID_PREFIX, 2 );
+        assertEquals( 2, migrator.migrate() );
+        assertEquals( 0, migrator.getFailed() );
+
+        Path moved = base.resolve( "artf74xxx" ).resolve( "artf74149_screen_is_black" );
+        assertTrue( Files.isDirectory( moved ) && ! Files.isSymbolicLink( moved ) );
+        assertTrue( Files.isDirectory( base.resolve( "artf1xxx" ).resolve( "artf1234" ) ) );
+
+        // the old path still works
+        Path link = base.resolve( "artf74149_screen_is_black" );
+        assertTrue( Files.isSymbolicLink( link ) );
+        assertTrue( Files.exists( link.resolve( "log.txt" ) ) );
+
+        // other directories are left alone
+        assertTrue( Files.isDirectory( base.resolve( "notes" ) ) );
+
+        // nothing left to move
+        assertEquals( 0, new LayoutMigrator( base, DirectoryLayout.ID_PREFIX, 2 ).migrate() );
+    }
+
+    @Test( expected = IllegalArgumentException.class )
+    public void testTrackerNotSupported() {
+        new LayoutMigrator( base, DirectoryLayout.TRACKER, 1 );
+    }
+}
@@ -0,0 +1,310 @@
+/*
+ * Copyright 2013 Andrea Cisternino <a.cisternino@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package tido.postprocess;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.zip.GZIPOutputStream;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+import org.apache.commons.compress.archivers.tar.TarArchiveEntry;
+import org.apache.commons.compress.archivers.tar.TarArchiveOutputStream;
+import org.apache.commons.compress.compressors.gzip.GzipCompressorOutputStream;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ *
+ * @author Andrea Cisternino
+ */
+public class ArchiveExtractorTest {
+
+    private static final long MAX_SIZE = 1024 * 1024;
+
+    private Path dir;
+
+    private ArchiveExtractor extractor;
+
+    @Before
+    public void setUp() throws IOException {
+        dir = Files.createTempDirectory( "tido-extract" );
+        extractor = new ArchiveExtractor( MAX_SIZE );
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        Files.walkFileTree( dir, new SimpleFileVisitor<Path>() {
+            @Override
+            public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) throws IOException {
+                Files.delete( file );
+                return FileVisitResult.CONTINUE;
+            }
+            @Override
+            public FileVisitResult postVisitDirectory(Path d, IOException exc) throws IOException {
+                Files.delete( d );
+                return FileVisitResult.CONTINUE;
+            }
+        } );
+    }
+
+    @Test
+    public void testAccepts() {
+        assertTrue( extractor.accepts( dir.resolve( "logs.zip" ) ) );
+        assertTrue( extractor.accepts( dir.resolve( "logs.TAR.GZ" ) ) );
+        assertTrue( extractor.accepts( dir.resolve( "logs.tbz2" ) ) );
+        assertTrue( extractor.accepts( dir.resolve( "trace.log.gz" ) ) );
+        assertFalse( extractor.accepts( dir.resolve( "report.docx" ) ) );
+        assertFalse( extractor.accepts( dir.resolve( "trace.log" ) ) );
+    }
+
+    @Test
+    public void testZip() throws Exception {
+        Path zip = dir.resolve( "logs.zip" );
+        try ( ZipOutputStream out = new ZipOutputStream( Files.newOutputStream( zip ) ) ) {
+            entry( out, "a.log", "first" );
+            entry( out, "sub/b.log", "second" );
+        }
+
+        extractor.process( zip );
+
+        assertEquals( "first", read( dir.resolve( "logs/a.log" ) ) );
+        assertEquals( "second", read( dir.resolve( "logs/sub/b.log" ) ) );
+        assertTrue( Files.exists( zip ) );
+        assertNoTemporaryFiles();
+    }
+
+    @Test
+    public void testTarGz() throws Exception {
+        Path tgz = dir.resolve( "logs.tar.gz" );
+        try ( TarArchiveOutputStream out = new TarArchiveOutputStream( new GzipCompressorOutputStream( Files.newOutputStream( tgz ) ) ) ) {
+            byte[] data = "content".getBytes( StandardCharsets.UTF_8 );
+            TarArchiveEntry entry = new TarArchiveEntry( "dir/c.txt" );
+            entry.setSize( data.length );
+            out.putArchiveEntry( entry );
+            out.write( data );
+            out.closeArchiveEntry();
+
+            TarArchiveEntry link = new TarArchiveEntry( "passwd", TarArchiveEntry.LF_SYMLINK );
+            link.setLinkName( "/etc/passwd" );
+            out.putArchiveEntry( link );
+            out.closeArchiveEntry();
+        }
+
+        extractor.process( tgz );
+
+        assertEquals( "content", read( dir.resolve( "logs/dir/c.txt" ) ) );
+        assertFalse( Files.exists( dir.resolve( "logs/passwd" ) ) );
+    }
+
+    @Test
+    public void testGz() throws Exception {
+        Path gz = dir.resolve( "trace.log.gz" );
+        try ( OutputStream out = new GZIPOutputStream( Files.newOutputStream( gz ) ) ) {
+            out.write( "trace".getBytes( StandardCharsets.UTF_8 ) );
+        }
+
+        extractor.process( gz );
+
+        assertEquals( "trace", read( dir.resolve( "trace.log" ) ) );
+    }
+
+    @Test
+    public void testExistingNameIsKept() throws Exception {
+        Files.write( dir.resolve( "logs" ), "mine".getBytes( StandardCharsets.UTF_8 ) );
+        Path zip = dir.resolve( "logs.zip" );
+        try ( ZipOutputStream out = new ZipOutputStream( Files.newOutputStream( zip ) ) ) {
+            entry( out, "a.log", "first" );
+        }
+
+        extractor.process( zip );
+
+        assertEquals( "mine", read( dir.resolve( "logs" ) ) );
+        assertEquals( "first", read( dir.resolve( "logs(1)/a.log" ) ) );
+    }
+
+    @Test
+    public void testTarGzAfterZip() throws Exception {
+        Path zip = createZip( "logs.zip", "first" );
+        extractor.process( zip );
+
+        // same base name, extracted after the zip
+        Path tgz = dir.resolve( "logs.tar.gz" );
+        try ( TarArchiveOutputStream out = new TarArchiveOutputStream( new GzipCompressorOutputStream( Files.newOutputStream( tgz ) ) ) ) {
+            byte[] data = "second".getBytes( StandardCharsets.UTF_8 );
+            TarArchiveEntry entry = new TarArchiveEntry( "a.log" );
+            entry.setSize( data.length );
+            out.putArchiveEntry( entry );
+            out.write( data );
+            out.closeArchiveEntry();
+        }
+        extractor.process( tgz );
+
+        assertEquals( "first", read( dir.resolve( "logs/a.log" ) ) );
+        assertEquals( "second", read( dir.resolve( "logs(1)/a.log" ) ) );
+    }
+
+    @Test
+    public void testGzNextToSameName() throws Exception {
+        Path gz = dir.resolve( "trace.gz" );
+        try ( OutputStream out = new GZIPOutputStream( Files.newOutputStream( gz ) ) ) {
+            out.write( "compressed".getBytes( StandardCharsets.UTF_8 ) );
+        }
+        // another attachment, saved after the archive
+        Files.write( dir.resolve( "trace" ), "plain".getBytes( StandardCharsets.UTF_8 ) );
+
+        extractor.process( gz );
+
+        assertEquals( "plain", read( dir.resolve( "trace" ) ) );
+        assertEquals( "compressed", read( dir.resolve( "trace(1)" ) ) );
+    }
+
+    @Test
+    public void testSameArchiveExtractedOnce() throws Exception {
+        Path zip = createZip( "logs.zip", "first" );
+        extractor.process( zip );
+
+        // downloaded again, same content
+        createZip( "logs.zip", "first" );
+        extractor.process( zip );
+
+        assertFalse( Files.exists( dir.resolve( "logs(1)" ) ) );
+        assertTrue( Files.exists( dir.resolve( ArchiveExtractor.MARKS_FILE ) ) );
+    }
+
+    @Test
+    public void testChangedArchiveExtractedAgain() throws Exception {
+        Path zip = createZip( "logs.zip", "first" );
+        extractor.process( zip );
+
+        createZip( "logs.zip", "second" );
+        extractor.process( zip );
+
+        assertEquals( "first", read( dir.resolve( "logs/a.log" ) ) );
+        assertEquals( "second", read( dir.resolve( "logs(1)/a.log" ) ) );
+
+        // the last extraction is recorded
+        extractor.process( zip );
+        assertFalse( Files.exists( dir.resolve( "logs(2)" ) ) );
+    }
+
+    @Test
+    public void testDeletedExtractionExtractedAgain() throws Exception {
+        Path zip = createZip( "logs.zip", "first" );
+        extractor.process( zip );
+
+        Files.delete( dir.resolve( "logs/a.log" ) );
+        Files.delete( dir.resolve( "logs" ) );
+        extractor.process( zip );
+
+        assertEquals( "first", read( dir.resolve( "logs/a.log" ) ) );
+    }
+
+    @Test
+    public void testZipSlip() throws Exception {
+        Path zip = dir.resolve( "evil.zip" );
+        try ( ZipOutputStream out = new ZipOutputStream( Files.newOutputStream( zip ) ) ) {
+            entry( out, "ok.log", "fine" );
+            entry( out, "../../escaped.log", "bad" );
+        }
+
+        try {
+            extractor.process( zip );
+            fail( "entry outside the archive extracted" );
+        } catch ( IOException ex ) {
+            // expected
+        }
+
+        assertFalse( Files.exists( dir.resolve( "evil" ) ) );
+        assertFalse( Files.exists( dir.getParent().resolve( "escaped.log" ) ) );
+        assertNoTemporaryFiles();
+    }
+
+    @Test
+    public void testSafeResolve() throws IOException {
+        Path root = dir.resolve( "root" );
+        assertEquals( root.resolve( "a/b" ), ArchiveExtractor.safeResolve( root, "a/./b" ) );
+        assertEquals( root.resolve( "b" ), ArchiveExtractor.safeResolve( root, "a/../b" ) );
+        for ( String name : new String[] { "/etc/passwd", "C:\\Windows\\x", "..\\x", "a/../../x", "." } ) {
+            try {
+                ArchiveExtractor.safeResolve( root, name );
+                fail( name );
+            } catch ( IOException ex ) {
+                // expected
+            }
+        }
+    }
+
+    @Test
+    public void testBomb() throws Exception {
+        Path zip = dir.resolve( "bomb.zip" );
+        try ( ZipOutputStream out = new ZipOutputStream( Files.newOutputStream( zip ) ) ) {
+            out.putNextEntry( new ZipEntry( "zeros" ) );
+            out.write( new byte[(int) MAX_SIZE + 1] );
+            out.closeEntry();
+        }
+        assertTrue( Files.size( zip ) < MAX_SIZE / 100 );
+
+        try {
+            extractor.process( zip );
+            fail( "bomb extracted" );
+        } catch ( IOException ex ) {
+            // expected
+        }
+
+        assertFalse( Files.exists( dir.resolve( "bomb" ) ) );
+        assertNoTemporaryFiles();
+    }
+
+    //---- Support methods ---------------------------------------------------------
+
+    private Path createZip(String name, String content) throws IOException {
+        Path zip = dir.resolve( name );
+        try ( ZipOutputStream out = new ZipOutputStream( Files.newOutputStream( zip ) ) ) {
+            entry( out, "a.log", content );
+        }
+        return zip;
+    }
+
+    private static void entry(ZipOutputStream out, String name, String content) throws IOException {
+        ZipEntry entry = new ZipEntry( name );
+        // the same content makes the same archive
+        entry.setTime( 1420070400000L );
+        out.putNextEntry( entry );
+        out.write( content.getBytes( StandardCharsets.UTF_8 ) );
+        out.closeEntry();
+    }
+
+    private static String read(Path file) throws IOException {
+        return new String( Files.readAllBytes( file ), StandardCharsets.UTF_8 );
+    }
+
+    private void assertNoTemporaryFiles() throws IOException {
+        try ( DirectoryStream<Path> entries = Files.newDirectoryStream( dir, ".tido-extract-*" ) ) {
+            assertFalse( entries.iterator().hasNext() );
+        }
+    }
+}
@@ -0,0 +1,238 @@
+/*
+ * Copyright 2013 Andrea Cisternino <a.cisternino@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package tido.scheduling;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Before;
+import org.junit.Test;
+import tido.config.ConfigData;
+import tido.config.SkipRule;
+import tido.model.AttachmentLink;
+import tido.model.AttachmentState;
+import tido.model.Ticket;
+
+import static org.junit.Assert.*;
+
+/**
+ *
+ * @author Andrea Cisternino
+ */
+public class DownloadPlannerTest {
+
+    private ConfigData config;
+
+    /** URLs probed, in order. */
+    private List<String> probed;
+
+    private DownloadPlanner.SizeProbe probe;
+
+    //---- Lifecycle ---------------------------------------------------------------
+
+    @Before
+    public void setUp() {
+        config = new ConfigData();
+        probed = new ArrayList<>();
+        probe = new DownloadPlanner.SizeProbe() {
+            @Override
+            public long probeSize(AttachmentLink link) throws IOException {
+                probed.add( link.getUrl() );
+                if ( link.getUrl().endsWith( "err" ) ) {
+                    throw new IOException( "HEAD failed" );
+                }
+                return 1000;
+            }
+        };
+    }
+
+    //---- Tests -------------------------------------------------------------------
+
+    @Test
+    public void testDuplicatesInTicket() {
+        Ticket t = createTicket( "t", "/a:10", "/b:20", "/a:10" );
+
+        DownloadPlan plan = new DownloadPlanner( probe, config, -1 ).plan( Arrays.asList( t ) );
+
+        assertEquals( 2, plan.getAttachmentNum() );
+        assertEquals( 30, plan.getTotalSize() );
+        assertEquals( Arrays.asList( link( t, 2 ) ), plan.getDuplicates( link( t, 0 ) ) );
+        assertEquals( 3, plan.getAttachmentNum( t ) );
+    }
+
+    @Test
+    public void testDuplicatesAcrossTickets() {
+        Ticket t1 = createTicket( "t1", "/a:10", "/b:20" );
+        Ticket t2 = createTicket( "t2", "/b:20", "/c:30", "/b:20" );
+
+        DownloadPlan plan = new DownloadPlanner( probe, config, -1 ).plan( Arrays.asList( t1, t2 ) );
+
+        assertEquals( 3, plan.getAttachmentNum() );
+        assertEquals( Arrays.asList( link( t2, 1 ) ), plan.getDownloads( t2 ) );
+
+        // the duplicates of the second ticket follow the first download
+        assertEquals( Arrays.asList( link( t2, 0 ), link( t2, 2 ) ), plan.getDuplicates( link( t1, 1 ) ) );
+        assertTrue( plan.getDuplicates( link( t2, 0 ) ).isEmpty() );
+        assertEquals( 2, plan.getAttachmentNum( t1 ) );
+        assertEquals( 3, plan.getAttachmentNum( t2 ) );
+    }
+
+    @Test
+    public void testNoCopiesAcrossTickets() {
+        Ticket t1 = createTicket( "t1", "/a:10", "/b:20" );
+        Ticket t2 = createTicket( "t2", "/b:20", "/c:30", "/b:20" );
+
+        DownloadPlanner planner = new DownloadPlanner( probe, config, -1 );
+        planner.setCopyAcrossTickets( false );
+        DownloadPlan plan = planner.plan( Arrays.asList( t1, t2 ) );
+
+        // each ticket downloads its own copy, duplicates in a ticket still follow
+        assertEquals( 4, plan.getAttachmentNum() );
+        assertEquals( Arrays.asList( link( t2, 0 ), link( t2, 1 ) ), plan.getDownloads( t2 ) );
+        assertTrue( plan.getDuplicates( link( t1, 1 ) ).isEmpty() );
+        assertEquals( Arrays.asList( link( t2, 2 ) ), plan.getDuplicates( link( t2, 0 ) ) );
+    }
+
+    @Test
+    public void testSizesProbedOncePerUrl() {
+        Ticket t1 = createTicket( "t1", "/a:-1", "/x-err:-1" );
+        Ticket t2 = createTicket( "t2", "/a:-1" );
+
+        DownloadPlan plan = new DownloadPlanner( probe, config, -1 ).plan( Arrays.asList( t1, t2 ) );
+
+        assertEquals( Arrays.asList( "/a", "/x-err" ), probed );
+        assertEquals( 1000, link( t2, 0 ).getSize() );
+        assertEquals( -1, link( t1, 1 ).getSize() );
+        assertFalse( plan.isTotalExact() );
+    }
+
+    @Test
+    public void testDownloadedAndSkipped() {
+        config.getSkipRules().add( new SkipRule( "iso", null, 0, null ) );
+        config.getSkipRules().add( new SkipRule( null, null, 1, null ) );
+
+        Ticket t = createTicket( "t", "/a:10", "/b.iso:10", "/c:-1", "/d:2000000" );
+        link( t, 0 ).setState( AttachmentState.DOWNLOADED );
+
+        DownloadPlan plan = new DownloadPlanner( probe, config, -1 ).plan( Arrays.asList( t ) );
+
+        assertEquals( Arrays.asList( link( t, 2 ) ), plan.getDownloads( t ) );
+        assertEquals( AttachmentState.SKIPPED, link( t, 1 ).getState() );
+        assertEquals( AttachmentState.SKIPPED, link( t, 3 ).getState() );
+        assertEquals( 2, plan.getSkipped() );
+
+        // the skipped iso is not probed
+        assertEquals( Arrays.asList( "/c" ), probed );
+    }
+
+    @Test
+    public void testSkippedAfterProbing() {
+        config.getSkipRules().add( new SkipRule( null, null, 1, null ) );
+
+        DownloadPlanner.SizeProbe big = new DownloadPlanner.SizeProbe() {
+            @Override
+            public long probeSize(AttachmentLink link) {
+                return 2 * 1024 * 1024;
+            }
+        };
+        Ticket t = createTicket( "t", "/a:-1", "/b:10", "/a:-1" );
+
+        DownloadPlan plan = new DownloadPlanner( big, config, -1 ).plan( Arrays.asList( t ) );
+
+        assertEquals( Arrays.asList( link( t, 1 ) ), plan.getDownloads( t ) );
+        assertEquals( AttachmentState.SKIPPED, link( t, 0 ).getState() );
+        assertEquals( AttachmentState.SKIPPED, link( t, 2 ).getState() );
+        assertEquals( 1, plan.getSkipped() );
+    }
+
+    @Test
+    public void testProbesInParallelWithTimeout() {
+        DownloadPlanner.SizeProbe slow = new DownloadPlanner.SizeProbe() {
+            @Override
+            public long probeSize(AttachmentLink link) {
+                if ( link.getUrl().startsWith( "/slow" ) ) {
+                    try {
+                        Thread.sleep( 10000 );
+                    } catch ( InterruptedException ex ) {
+                        // cancelled by the timeout
+                    }
+                }
+                return 1000;
+            }
+        };
+        Ticket t = createTicket( "t", "/a:-1", "/slow:-1", "/b:-1" );
+
+        ExecutorService executor = Executors.newFixedThreadPool( 3 );
+        try {
+            DownloadPlanner planner = new DownloadPlanner( slow, config, -1 );
+            planner.setProbing( executor, 500, TimeUnit.MILLISECONDS );
+
+            long start = System.nanoTime();
+            DownloadPlan plan = planner.plan( Arrays.asList( t ) );
+
+            assertTrue( System.nanoTime() - start < TimeUnit.SECONDS.toNanos( 5 ) );
+            assertEquals( 3, plan.getAttachmentNum() );
+            assertEquals( 1000, link( t, 0 ).getSize() );
+            assertEquals( -1, link( t, 1 ).getSize() );
+            assertEquals( 1000, link( t, 2 ).getSize() );
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    public void testTicketsNotFittingArePostponed() {
+        Ticket t1 = createTicket( "t1", "/a:60" );
+        Ticket t2 = createTicket( "t2", "/b:50", "/a:60" );
+        Ticket t3 = createTicket( "t3", "/c:30" );
+
+        DownloadPlan plan = new DownloadPlanner( probe, config, 100 ).plan( Arrays.asList( t1, t2, t3 ) );
+
+        assertEquals( 1, plan.getPostponed() );
+        assertEquals( Arrays.asList( t1, t3 ), new ArrayList<>( plan.getTickets() ) );
+        assertTrue( plan.getDuplicates( link( t1, 0 ) ).isEmpty() );
+        assertEquals( 90, plan.getTotalSize() );
+    }
+
+    //---- Support methods ---------------------------------------------------------
+
+    private static AttachmentLink link(Ticket ticket, int idx) {
+        return ticket.getAttachments().get( idx );
+    }
+
+    /**
+     * @param id the ticket id.
+     * @param links the links as "url:size".
+     */
+    private static Ticket createTicket(String id, String... links) {
+        Ticket ticket = new Ticket( null );
+        ticket.setId( id );
+        for ( String l : links ) {
+            int sep = l.lastIndexOf( ':' );
+            AttachmentLink link = new AttachmentLink( ticket );
+            link.setUrl( l.substring( 0, sep ) );
+            link.setName( l.substring( 1, sep ) );
+            link.setSize( Long.parseLong( l.substring( sep + 1 ) ) );
+            ticket.getAttachments().add( link );
+        }
+        return ticket;
+    }
+}
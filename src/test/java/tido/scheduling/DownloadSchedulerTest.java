@@ -0,0 +1,115 @@
+/*
+ * Copyright 2013 Andrea Cisternino <a.cisternino@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package tido.scheduling;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Before;
+import org.junit.Test;
+import tido.model.AttachmentLink;
+import tido.model.Ticket;
+
+import static org.junit.Assert.*;
+
+/**
+ *
+ * @author Andrea Cisternino
+ */
+public class DownloadSchedulerTest {
+
+    private Ticket big;
+    private Ticket small;
+
+    //---- Lifecycle ---------------------------------------------------------------
+
+    @Before
+    public void setUp() {
+        big = createTicket( "big", 100, 200, 300 );
+        small = createTicket( "small", 10 );
+    }
+
+    //---- Policies -------------------
+
+    @Test
+    public void testFifo() {
+        assertEquals( "big-0 big-1 big-2 small-0", drain( SchedulingPolicy.FIFO ) );
+    }
+
+    @Test
+    public void testSmallestFirst() {
+        big.getAttachments().get( 1 ).setSize( -1 );
+        assertEquals( "small-0 big-0 big-2 big-1", drain( SchedulingPolicy.SMALLEST_FIRST ) );
+    }
+
+    @Test
+    public void testRoundRobin() {
+        assertEquals( "big-0 small-0 big-1 big-2", drain( SchedulingPolicy.ROUND_ROBIN ) );
+    }
+
+    @Test
+    public void testPriority() {
+        small.setPriority( 1 );
+        assertEquals( "small-0 big-0 big-1 big-2", drain( SchedulingPolicy.PRIORITY ) );
+    }
+
+    @Test
+    public void testParse() {
+        assertEquals( SchedulingPolicy.SMALLEST_FIRST, SchedulingPolicy.parse( " smallest_first", null ) );
+        assertEquals( SchedulingPolicy.FIFO, SchedulingPolicy.parse( "unknown", SchedulingPolicy.FIFO ) );
+        assertEquals( SchedulingPolicy.FIFO, SchedulingPolicy.parse( null, SchedulingPolicy.FIFO ) );
+    }
+
+    //---- Support methods ---------------------------------------------------------
+
+    private String drain(SchedulingPolicy policy) {
+
+        DownloadScheduler scheduler = policy.create();
+
+        long seq = 0;
+        for ( Ticket ticket : new Ticket[] { big, small } ) {
+            for ( AttachmentLink link : ticket.getAttachments() ) {
+                scheduler.add( new DownloadJob( link, seq++ ) );
+            }
+        }
+        assertEquals( 4, scheduler.size() );
+
+        List<String> names = new ArrayList<>();
+        DownloadJob job;
+        while ( ( job = scheduler.next() ) != null ) {
+            names.add( job.getLink().getName() );
+        }
+        assertEquals( 0, scheduler.size() );
+
+        StringBuilder sb = new StringBuilder();
+        for ( String name : names ) {
+            sb.append( sb.length() > 0 ? " " : "" ).append( name );
+        }
+        return sb.toString();
+    }
+
+    private static Ticket createTicket(String id, long... sizes) {
+        Ticket ticket = new Ticket( null );
+        ticket.setId( id );
+        for ( int i = 0; i < sizes.length; i++ ) {
+            AttachmentLink link = new AttachmentLink( ticket );
+            link.setName( id + "-" + i );
+            link.setSize( sizes[i] );
+            ticket.getAttachments().add( link );
+        }
+        return ticket;
+    }
+}
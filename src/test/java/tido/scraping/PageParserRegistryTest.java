@@ -0,0 +1,77 @@
+/*
+ * Copyright 2013 Andrea Cisternino <a.cisternino@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package tido.scraping;
+
+import java.util.Arrays;
+
+import org.junit.Test;
+import tido.config.ServerInfo;
+
+import static org.junit.Assert.*;
+
+/**
+ *
+ * @author Andrea Cisternino
+ */
+public class PageParserRegistryTest {
+
+    @Test
+    public void testBuiltinTypes() {
+        assertTrue( PageParserRegistry.getDefault().getTypes().containsAll( Arrays.asList( "EB", "ESO" ) ) );
+    }
+
+    @Test
+    public void testParserTypeAndCache() {
+        ServerInfo si = server( "internal", "eso" );
+        PageParser parser = PageParserRegistry.getDefault().get( si );
+
+        assertTrue( parser instanceof EsoPageParser );
+        assertSame( parser, PageParserRegistry.getDefault().get( si ) );
+
+        // the id is used if the type is missing
+        assertTrue( PageParserRegistry.getDefault().get( server( "EB", null ) ) instanceof EbPageParser );
+    }
+
+    @Test
+    public void testFirstProviderWins() {
+        PageParserRegistry registry = new PageParserRegistry( Arrays.<PageParserProvider>asList(
+                new EbPageParserProvider(), new PageParserProvider() {
+                    @Override
+                    public String getType() {
+                        return "eb";
+                    }
+                    @Override
+                    public PageParser create( ServerInfo server ) {
+                        throw new AssertionError();
+                    }
+                } ) );
+
+        assertTrue( registry.get( server( "x", "EB" ) ) instanceof EbPageParser );
+    }
+
+    @Test( expected = IllegalArgumentException.class )
+    public void testUnknownType() {
+        PageParserRegistry.getDefault().get( server( "x", "jira" ) );
+    }
+
+    private static ServerInfo server( String id, String parser ) {
+        ServerInfo si = new ServerInfo();
+        si.setId( id );
+        si.setName( id );
+        si.setParser( parser );
+        return si;
+    }
+}
@@ -38,7 +38,7 @@ public class PageParserTest {
     public void setUp() {
         ServerInfo si = new ServerInfo();
         si.setId( "EB" );
-        instance = (EbPageParser) BasePageParser.create( si );
+        instance = (EbPageParser) PageParserRegistry.getDefault().get( si );
     }
 
     //---- Artifact ID ----------------
@@ -87,6 +87,16 @@ public class PageParserTest {
         assertEquals( expResult, result );
     }
 
+    //---- Attachment size ------------
+
+    @Test
+    public void testExtractSize() {
+        assertEquals( 12800L, BasePageParser.extractSize( "(12.5 KB)" ) );
+        assertEquals( 3L * 1024 * 1024, BasePageParser.extractSize( "3 MB" ) );
+        assertEquals( 512L, BasePageParser.extractSize( "512 bytes" ) );
+        assertEquals( -1L, BasePageParser.extractSize( "uploaded by John" ) );
+    }
+
     /**
      * Test of parse method, of class PageParser.
     @Test
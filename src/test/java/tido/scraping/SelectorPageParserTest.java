@@ -0,0 +1,126 @@
+/*
+ * Copyright 2013 Andrea Cisternino <a.cisternino@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package tido.scraping;
+
+import org.jsoup.Jsoup;
+import org.jsoup.nodes.Document;
+import org.junit.Test;
+import tido.config.FieldRule;
+import tido.config.ParserDefinition;
+import tido.config.ServerInfo;
+import tido.model.Ticket;
+
+import static org.junit.Assert.*;
+
+/**
+ *
+ * @author Andrea Cisternino
+ */
+public class SelectorPageParserTest {
+
+    private static final String HEAD = "<html><head><title>TeamForge : artf1234: Radio mute [42]</title></head><body><div id=\"main\">";
+    private static final String TAIL = "</div></body></html>";
+
+    private static final String EB_PAGE = HEAD
+            + "<table><tr class=\"artifactTrackerRow\"><td>Tracker</td><td class=\"ItemDetailValue\"> Defects </td></tr>"
+            + "<tr class=\"artifactDescriptionRow\"><td>Description</td><td class=\"ItemDetailValue\">No audio</td></tr></table>"
+            + "<table id=\"fieldsColumn1\">"
+            + "<tr><td>Priority</td><td>:</td><td>High</td></tr>"
+            + "<tr><td>Analysis</td><td>:</td><td>Codec <b>reset</b></td></tr></table>"
+            + "<p><a href=\"/sf/go/downloadAttachment/1\">log.txt</a> (12 KB)</p>"
+            + "<p><a href=\"/sf/go/downloadAttachment/1\"><img src=\"x.png\"></a></p>"
+            + TAIL;
+
+    private static final String ESO_PAGE = HEAD
+            + "<table><tr id=\"artifactTrackerRow\"><td class=\"ItemDetailValue\">Change requests</td></tr>"
+            + "<tr id=\"artifactDescriptionRow\"><td class=\"ItemDetailValue\">Add button</td></tr>"
+            + "<tr><td class=\"ItemDetailValue\"><textarea class=\"inputfield\">comment</textarea></td></tr>"
+            + "<tr><td class=\"ItemDetailValue\"><textarea class=\"inputfield\">Not a bug</textarea></td></tr></table>"
+            + TAIL;
+
+    //---- Built-in parsers -----------
+
+    @Test
+    public void testEb() {
+        Ticket t = new EbPageParser( server() ).parse( Jsoup.parse( EB_PAGE ) );
+
+        assertEquals( "artf1234", t.getId() );
+        assertEquals( "Radio mute", t.getTitle() );
+        assertEquals( 42L, t.getKpm() );
+        assertEquals( "Defects", t.getTracker() );
+        assertEquals( "No audio", t.getDescription() );
+        assertEquals( "Codec reset", t.getAnalysis() );
+
+        assertEquals( 1, t.getAttachments().size() );
+        assertEquals( "http://tf/sf/go/downloadAttachment/1", t.getAttachments().get( 0 ).getUrl() );
+        assertEquals( 12 * 1024L, t.getAttachments().get( 0 ).getSize() );
+    }
+
+    @Test
+    public void testEso() {
+        Ticket t = new EsoPageParser( server() ).parse( Jsoup.parse( ESO_PAGE ) );
+
+        assertEquals( "Change requests", t.getTracker() );
+        assertEquals( "Add button", t.getDescription() );
+        assertEquals( "Not a bug", t.getAnalysis() );
+    }
+
+    //---- Definitions ----------------
+
+    @Test
+    public void testFallbackAndPattern() {
+        FieldRule tracker = new FieldRule( SelectorPageParser.TRACKER, "tr.missing > td", "tr#artifactTrackerRow > td" );
+        FieldRule analysis = new FieldRule( SelectorPageParser.ANALYSIS, "title" );
+        analysis.setPattern( "\\[(\\d+)\\]" );
+        FieldRule description = new FieldRule( SelectorPageParser.DESCRIPTION, "textarea" );
+        description.setValue( "attr:class" );
+
+        PageParser parser = new SelectorPageParserProvider( new ParserDefinition( "custom", tracker, analysis, description ) )
+                .create( server() );
+        Ticket t = parser.parse( Jsoup.parse( ESO_PAGE ) );
+
+        assertEquals( "Change requests", t.getTracker() );
+        assertEquals( "42", t.getAnalysis() );
+        assertEquals( "inputfield", t.getDescription() );
+    }
+
+    @Test
+    public void testMissingFieldIsEmpty() {
+        Document page = Jsoup.parse( HEAD + TAIL );
+        Ticket t = new EbPageParser( server() ).parse( page );
+
+        assertEquals( "", t.getTracker() );
+        assertEquals( "", t.getAnalysis() );
+        assertTrue( t.getAttachments().isEmpty() );
+    }
+
+    @Test( expected = IllegalArgumentException.class )
+    public void testInvalidSelector() {
+        SelectorPageParser.Rules.compile( new ParserDefinition( "bad", new FieldRule( SelectorPageParser.TRACKER, "td:eq(x)" ) ) );
+    }
+
+    @Test( expected = IllegalArgumentException.class )
+    public void testUnknownField() {
+        SelectorPageParser.Rules.compile( new ParserDefinition( "bad", new FieldRule( "owner", "td" ) ) );
+    }
+
+    private static ServerInfo server() {
+        ServerInfo si = new ServerInfo();
+        si.setId( "test" );
+        si.setUrl( "http://tf" );
+        return si;
+    }
+}
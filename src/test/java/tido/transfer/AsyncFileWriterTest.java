@@ -0,0 +1,107 @@
+/*
+ * Copyright 2013 Andrea Cisternino <a.cisternino@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package tido.transfer;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ *
+ * @author Andrea Cisternino
+ */
+public class AsyncFileWriterTest {
+
+    private ExecutorService executor;
+
+    private Path dir;
+
+    @Before
+    public void setUp() throws IOException {
+        executor = Executors.newFixedThreadPool( 2 );
+        dir = Files.createTempDirectory( "tido-writer" );
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        executor.shutdownNow();
+        if ( Files.isDirectory( dir.resolve( "sub" ) ) ) {
+            Files.deleteIfExists( dir.resolve( "sub/file.bin" ) );
+        }
+        Files.deleteIfExists( dir.resolve( "sub" ) );
+        Files.delete( dir );
+    }
+
+    @Test
+    public void testDataIsWrittenInOrder() throws IOException {
+        Path file = dir.resolve( "sub/file.bin" );
+
+        // more data than all the buffers together, written in odd sized pieces
+        byte[] data = new byte[ AsyncFileWriter.BUFFER_SIZE * AsyncFileWriter.MAX_BUFFERS * 3 + 17 ];
+        for ( int i = 0; i < data.length; i++ ) {
+            data[i] = (byte) ( i * 31 );
+        }
+
+        try ( AsyncFileWriter out = new AsyncFileWriter( executor, file, 0, new DirectoryCache() ) ) {
+            for ( int off = 0; off < data.length; off += 1000 ) {
+                out.write( data, off, Math.min( 1000, data.length - off ) );
+            }
+        }
+
+        assertArrayEquals( data, Files.readAllBytes( file ) );
+    }
+
+    @Test
+    public void testWritingStartsAtOffset() throws IOException {
+        Path file = dir.resolve( "sub/file.bin" );
+        Files.createDirectories( file.getParent() );
+        Files.write( file, new byte[] { 1, 2, 3, 4, 5 } );
+
+        try ( AsyncFileWriter out = new AsyncFileWriter( executor, file, 2, new DirectoryCache() ) ) {
+            out.write( 9 );
+        }
+
+        assertTrue( Arrays.equals( new byte[] { 1, 2, 9 }, Files.readAllBytes( file ) ) );
+    }
+
+    @Test
+    public void testEmptyFileIsCreated() throws IOException {
+        Path file = dir.resolve( "sub/file.bin" );
+
+        new AsyncFileWriter( executor, file, 0, new DirectoryCache() ).close();
+
+        assertEquals( 0, Files.size( file ) );
+    }
+
+    @Test(expected = IOException.class)
+    public void testDiskErrorIsReported() throws IOException {
+        // a regular file where the directory should be
+        Files.createFile( dir.resolve( "sub" ) );
+
+        try ( AsyncFileWriter out = new AsyncFileWriter( executor, dir.resolve( "sub/file.bin" ), 0, new DirectoryCache() ) ) {
+            out.write( new byte[ AsyncFileWriter.BUFFER_SIZE * 2 ] );
+        }
+    }
+}
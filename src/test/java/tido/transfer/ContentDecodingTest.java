@@ -0,0 +1,162 @@
+/*
+ * Copyright 2013 Andrea Cisternino <a.cisternino@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package tido.transfer;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.GZIPOutputStream;
+
+import org.junit.Test;
+
+import tido.Utils;
+
+import static org.junit.Assert.*;
+
+/**
+ *
+ * @author Andrea Cisternino
+ */
+public class ContentDecodingTest {
+
+    private static final String TEXT = "2015-03-01 12:00:00 INFO all work and no play makes Jack a dull boy\n";
+
+    @Test
+    public void testIdentity() throws IOException {
+        assertFalse( ContentDecoding.isEncoded( null ) );
+        assertFalse( ContentDecoding.isEncoded( "identity" ) );
+        assertEquals( TEXT, decode( TEXT.getBytes( StandardCharsets.UTF_8 ), null ) );
+    }
+
+    @Test
+    public void testIsEncoded() {
+        assertFalse( ContentDecoding.isEncoded( "" ) );
+        assertFalse( ContentDecoding.isEncoded( "  " ) );
+        assertFalse( ContentDecoding.isEncoded( " Identity " ) );
+        assertTrue( ContentDecoding.isEncoded( "GZIP" ) );
+        assertTrue( ContentDecoding.isEncoded( " deflate " ) );
+    }
+
+    @Test
+    public void testGzip() throws IOException {
+        ByteArrayOutputStream bos = new ByteArrayOutputStream();
+        try ( OutputStream out = new GZIPOutputStream( bos ) ) {
+            out.write( TEXT.getBytes( StandardCharsets.UTF_8 ) );
+        }
+        assertEquals( TEXT, decode( bos.toByteArray(), "gzip" ) );
+    }
+
+    @Test
+    public void testGzipRoundTrip() throws IOException {
+        StringBuilder sb = new StringBuilder();
+        for ( int i = 0; i < 5000; i++ ) {
+            sb.append( i ).append( ' ' ).append( TEXT );
+        }
+        String text = sb.toString();
+
+        ByteArrayOutputStream bos = new ByteArrayOutputStream();
+        try ( OutputStream out = new GZIPOutputStream( bos ) ) {
+            out.write( text.getBytes( StandardCharsets.UTF_8 ) );
+        }
+        assertEquals( text, decode( bos.toByteArray(), " X-GZIP " ) );
+    }
+
+    @Test
+    public void testZlibDeflate() throws IOException {
+        assertEquals( TEXT, decode( deflate( false ), "deflate" ) );
+    }
+
+    @Test
+    public void testRawDeflate() throws IOException {
+        assertEquals( TEXT, decode( deflate( true ), "Deflate" ) );
+    }
+
+    @Test
+    public void testZlibHeaderSplitAcrossReads() throws IOException {
+        InputStream in = new OneByteInputStream( new ByteArrayInputStream( deflate( false ) ) );
+        ByteArrayOutputStream bos = new ByteArrayOutputStream();
+        try ( InputStream dec = ContentDecoding.decode( in, "deflate" ) ) {
+            Utils.copyStream( dec, bos );
+        }
+        assertEquals( TEXT, new String( bos.toByteArray(), StandardCharsets.UTF_8 ) );
+    }
+
+    @Test
+    public void testEmptyDeflateBody() throws IOException {
+        assertEquals( "", decode( new byte[0], "deflate" ) );
+    }
+
+    @Test(expected = IOException.class)
+    public void testOneByteDeflateBody() throws IOException {
+        decode( new byte[] { 0x78 }, "deflate" );
+    }
+
+    @Test
+    public void testBrotliMissing() throws IOException {
+        // the brotli decoder is not a test dependency
+        assertEquals( "gzip, deflate", ContentDecoding.acceptEncoding() );
+        try {
+            decode( new byte[] { 1, 2, 3 }, "br" );
+            fail( "br decoded without a brotli decoder" );
+        } catch ( IOException ex ) {
+            assertTrue( ex.getMessage().contains( "br" ) );
+        }
+    }
+
+    @Test(expected = IOException.class)
+    public void testUnsupported() throws IOException {
+        decode( new byte[0], "compress" );
+    }
+
+    //---- Support methods ---------------------------------------------------------
+
+    private static byte[] deflate(boolean raw) throws IOException {
+        ByteArrayOutputStream bos = new ByteArrayOutputStream();
+        try ( OutputStream out = new DeflaterOutputStream( bos, new Deflater( Deflater.DEFAULT_COMPRESSION, raw ) ) ) {
+            out.write( TEXT.getBytes( StandardCharsets.UTF_8 ) );
+        }
+        return bos.toByteArray();
+    }
+
+    private static String decode(byte[] data, String encoding) throws IOException {
+        ByteArrayOutputStream bos = new ByteArrayOutputStream();
+        try ( InputStream in = ContentDecoding.decode( new ByteArrayInputStream( data ), encoding ) ) {
+            Utils.copyStream( in, bos );
+        }
+        return new String( bos.toByteArray(), StandardCharsets.UTF_8 );
+    }
+
+    /**
+     * Returns at most one byte per read, like a slow connection.
+     */
+    private static class OneByteInputStream extends FilterInputStream {
+
+        OneByteInputStream(InputStream in) {
+            super( in );
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            return super.read( b, off, Math.min( len, 1 ) );
+        }
+    }
+}
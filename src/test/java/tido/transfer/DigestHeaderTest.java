@@ -0,0 +1,62 @@
+/*
+ * Copyright 2013 Andrea Cisternino <a.cisternino@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package tido.transfer;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+
+import javax.xml.bind.DatatypeConverter;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ *
+ * @author Andrea Cisternino
+ */
+public class DigestHeaderTest {
+
+    private static final byte[] DATA = "attachment".getBytes( StandardCharsets.UTF_8 );
+
+    @Test
+    public void testMatching() throws Exception {
+        byte[] md5 = MessageDigest.getInstance( "MD5" ).digest( DATA );
+        byte[] sha256 = MessageDigest.getInstance( "SHA-256" ).digest( DATA );
+
+        DigestHeader.check( null, md5, sha256 );
+        DigestHeader.check( "SHA-256=" + base64( sha256 ), md5, sha256 );
+        DigestHeader.check( "md5=" + base64( md5 ) + ", UNIXsum=30637", md5, sha256 );
+    }
+
+    @Test
+    public void testMismatch() throws Exception {
+        byte[] md5 = MessageDigest.getInstance( "MD5" ).digest( DATA );
+        byte[] sha256 = MessageDigest.getInstance( "SHA-256" ).digest( DATA );
+        byte[] other = MessageDigest.getInstance( "SHA-256" ).digest( new byte[] { 1 } );
+
+        try {
+            DigestHeader.check( "MD5=" + base64( md5 ) + ",SHA-256=" + base64( other ), md5, sha256 );
+            fail( "mismatch not detected" );
+        } catch ( IntegrityException ex ) {
+            assertTrue( ex.getMessage().startsWith( "SHA-256 mismatch" ) );
+        }
+    }
+
+    private static String base64(byte[] hash) {
+        return DatatypeConverter.printBase64Binary( hash );
+    }
+}
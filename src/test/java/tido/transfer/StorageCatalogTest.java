@@ -0,0 +1,64 @@
+/*
+ * Copyright 2013 Andrea Cisternino <a.cisternino@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package tido.transfer;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ *
+ * @author Andrea Cisternino
+ */
+public class StorageCatalogTest {
+
+    private Path dir;
+
+    @Before
+    public void setUp() throws IOException {
+        dir = Files.createTempDirectory( "tido-catalog" );
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        Files.deleteIfExists( dir.resolve( StorageCatalog.FILE_NAME ) );
+        Files.delete( dir );
+    }
+
+    @Test
+    public void testPutAndReload() throws IOException {
+        StorageCatalog catalog = new StorageCatalog( dir );
+        assertNull( catalog.get( "server.log.gz" ) );
+
+        catalog.put( "server.log.gz", "server.log", 1000 );
+        catalog.put( "server(1).log.gz", "server.log", 2000 );
+
+        // a new instance reads what was saved
+        StorageCatalog reloaded = new StorageCatalog( dir );
+        assertEquals( "server.log", reloaded.get( "server.log.gz" ).getName() );
+        assertEquals( 1000, reloaded.get( "server.log.gz" ).getSize() );
+        assertEquals( 2000, reloaded.get( "server(1).log.gz" ).getSize() );
+
+        // the size is not a file
+        assertNull( reloaded.get( "server.log.gz.size" ) );
+    }
+}
@@ -0,0 +1,83 @@
+/*
+ * Copyright 2013 Andrea Cisternino <a.cisternino@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package tido.transfer;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.zip.GZIPInputStream;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ *
+ * @author Andrea Cisternino
+ */
+public class StoredCompressionTest {
+
+    @Test
+    public void testDefaultExtensions() {
+        StoredCompression sc = new StoredCompression( null );
+
+        assertTrue( sc.accepts( "server.log", null ) );
+        assertTrue( sc.accepts( "Dump.XML", "application/octet-stream" ) );
+        assertFalse( sc.accepts( "screenshot.png", "image/png" ) );
+        assertFalse( sc.accepts( "server.log.gz", "text/plain" ) );
+
+        // unknown extensions are compressed when sent as plain text
+        assertTrue( sc.accepts( "messages.1", "text/plain; charset=UTF-8" ) );
+    }
+
+    @Test
+    public void testConfiguredExtensions() {
+        StoredCompression sc = new StoredCompression( " .dmp, TRC ,," );
+
+        assertTrue( sc.accepts( "core.dmp", null ) );
+        assertTrue( sc.accepts( "kernel.trc", null ) );
+        assertFalse( sc.accepts( "server.log", null ) );
+        assertEquals( "core.dmp.gz", sc.storedName( "core.dmp" ) );
+    }
+
+    @Test
+    public void testCompress() throws IOException {
+        StringBuilder sb = new StringBuilder();
+        for ( int i = 0; i < 1000; i++ ) {
+            sb.append( "2013-11-15 12:45:26 INFO request served in 12 ms\n" );
+        }
+        byte[] data = sb.toString().getBytes( StandardCharsets.UTF_8 );
+
+        ByteArrayOutputStream file = new ByteArrayOutputStream();
+        try ( OutputStream out = StoredCompression.compress( file ) ) {
+            out.write( data );
+        }
+        assertTrue( file.size() < data.length / 10 );
+
+        ByteArrayOutputStream back = new ByteArrayOutputStream();
+        try ( InputStream in = new GZIPInputStream( new ByteArrayInputStream( file.toByteArray() ) ) ) {
+            byte[] buf = new byte[4096];
+            int n;
+            while ( ( n = in.read( buf ) ) != -1 ) {
+                back.write( buf, 0, n );
+            }
+        }
+        assertArrayEquals( data, back.toByteArray() );
+    }
+}
@@ -0,0 +1,69 @@
+/*
+ * Copyright 2013 Andrea Cisternino <a.cisternino@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package tido.transfer;
+
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ *
+ * @author Andrea Cisternino
+ */
+public class TokenBucketTest {
+
+    @Test
+    public void testUnlimitedDoesNotWait() throws InterruptedException {
+        TokenBucket bucket = new TokenBucket( 0 );
+
+        long start = System.nanoTime();
+        bucket.consume( 100L * 1024 * 1024 );
+
+        assertTrue( elapsedMillis( start ) < 100 );
+    }
+
+    @Test
+    public void testDebtIsPaidBack() throws InterruptedException {
+        TokenBucket bucket = new TokenBucket( 100 * 1024 );
+
+        long start = System.nanoTime();
+        bucket.consume( 100 * 1024 );       // the initial burst
+        bucket.consume( 50 * 1024 );        // half a second of debt
+
+        long elapsed = elapsedMillis( start );
+        assertTrue( "elapsed: " + elapsed, elapsed >= 400 && elapsed < 1500 );
+    }
+
+    @Test
+    public void testRateChangeIsImmediate() throws InterruptedException {
+        TokenBucket bucket = new TokenBucket( 1024 );
+        bucket.setRate( 0 );
+
+        long start = System.nanoTime();
+        bucket.consume( 10L * 1024 * 1024 );
+
+        assertTrue( elapsedMillis( start ) < 100 );
+        assertEquals( 0, bucket.getRate() );
+    }
+
+    //---- Support methods ---------------------------------------------------------
+
+    private static long elapsedMillis(long start) {
+        return TimeUnit.NANOSECONDS.toMillis( System.nanoTime() - start );
+    }
+}
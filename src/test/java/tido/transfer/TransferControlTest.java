@@ -0,0 +1,114 @@
+/*
+ * Copyright 2013 Andrea Cisternino <a.cisternino@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package tido.transfer;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ *
+ * @author Andrea Cisternino
+ */
+public class TransferControlTest {
+
+    private final TransferControl control = new TransferControl();
+
+    @Test
+    public void testCheckpoint() throws TransferStoppedException {
+        control.checkpoint();
+
+        control.pause();
+        try {
+            control.checkpoint();
+            fail( "not stopped while paused" );
+        } catch ( TransferStoppedException ex ) {
+            assertEquals( "paused", ex.getMessage() );
+        }
+
+        control.resume();
+        control.checkpoint();
+        assertFalse( control.isPaused() );
+    }
+
+    @Test
+    public void testCancelWinsOverPause() {
+        control.pause();
+        control.cancel();
+
+        try {
+            control.checkpoint();
+            fail( "not stopped when cancelled" );
+        } catch ( TransferStoppedException ex ) {
+            assertEquals( "cancelled", ex.getMessage() );
+        }
+        assertTrue( control.isCancelled() );
+    }
+
+    @Test( timeout = 5000 )
+    public void testAwaitRunningWaitsForResume() throws InterruptedException {
+        control.pause();
+
+        final AtomicBoolean running = new AtomicBoolean();
+        final CountDownLatch done = new CountDownLatch( 1 );
+        Thread worker = new Thread( new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    running.set( control.awaitRunning() );
+                } catch ( InterruptedException ex ) {
+                    // fails below
+                }
+                done.countDown();
+            }
+        } );
+        worker.start();
+
+        assertFalse( done.await( 200, TimeUnit.MILLISECONDS ) );
+
+        control.resume();
+        assertTrue( done.await( 2, TimeUnit.SECONDS ) );
+        assertTrue( running.get() );
+    }
+
+    @Test( timeout = 5000 )
+    public void testAwaitRunningReleasedByCancel() throws InterruptedException {
+        control.pause();
+
+        final AtomicBoolean running = new AtomicBoolean( true );
+        final CountDownLatch done = new CountDownLatch( 1 );
+        Thread worker = new Thread( new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    running.set( control.awaitRunning() );
+                } catch ( InterruptedException ex ) {
+                    // fails below
+                }
+                done.countDown();
+            }
+        } );
+        worker.start();
+
+        control.cancel();
+        assertTrue( done.await( 2, TimeUnit.SECONDS ) );
+        assertFalse( running.get() );
+    }
+}
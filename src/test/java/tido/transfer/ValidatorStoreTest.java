@@ -0,0 +1,99 @@
+/*
+ * Copyright 2013 Andrea Cisternino <a.cisternino@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package tido.transfer;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ *
+ * @author Andrea Cisternino
+ */
+public class ValidatorStoreTest {
+
+    private static final String URL = "https://tf.example.com/sf/go/artf1/downloadAttachment/log.txt";
+
+    private Path dir;
+
+    @Before
+    public void setUp() throws IOException {
+        dir = Files.createTempDirectory( "tido-validators" );
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        Files.deleteIfExists( dir.resolve( ValidatorStore.FILE_NAME ) );
+        Files.delete( dir );
+    }
+
+    @Test
+    public void testPutAndReload() throws IOException {
+        ValidatorStore store = new ValidatorStore( dir );
+        assertNull( store.get( URL ) );
+
+        store.put( URL, "log.txt", "\"abc\"", "Tue, 15 Nov 1994 12:45:26 GMT", "e3b0c442", 1000 );
+
+        // a new instance reads what was saved
+        ValidatorStore.Entry entry = new ValidatorStore( dir ).get( URL );
+        assertEquals( "log.txt", entry.getName() );
+        assertEquals( "\"abc\"", entry.getEtag() );
+        assertEquals( "Tue, 15 Nov 1994 12:45:26 GMT", entry.getLastModified() );
+        assertTrue( entry.hasValidators() );
+        assertEquals( "e3b0c442", entry.getSha256() );
+
+        assertNull( store.get( URL + "2" ) );
+    }
+
+    @Test
+    public void testMissingValidators() throws IOException {
+        ValidatorStore store = new ValidatorStore( dir );
+        store.put( URL, "log.txt", "\"abc\"", null, null, 1000 );
+        store.put( URL, "log.txt", null, null, null, 1000 );
+
+        ValidatorStore.Entry entry = store.get( URL );
+        assertNull( entry.getEtag() );
+        assertFalse( entry.hasValidators() );
+    }
+
+    @Test
+    public void testFreshness() throws IOException {
+        ValidatorStore store = new ValidatorStore( dir );
+        store.put( URL, "log.txt", "\"abc\"", null, null, 1000 );
+
+        assertTrue( store.get( URL ).isFresh( 500, 1400 ) );
+        assertFalse( store.get( URL ).isFresh( 500, 1500 ) );
+
+        // no window, always ask the server
+        assertFalse( store.get( URL ).isFresh( 0, 1000 ) );
+
+        store.checked( URL, 5000 );
+        assertTrue( new ValidatorStore( dir ).get( URL ).isFresh( 500, 5100 ) );
+    }
+
+    @Test
+    public void testUnreadableFile() throws IOException {
+        Files.write( dir.resolve( ValidatorStore.FILE_NAME ), new byte[] { '\\', 'u', 'z' } );
+
+        assertNull( new ValidatorStore( dir ).get( URL ) );
+    }
+}